@@ -0,0 +1,147 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskData;
+
+/**
+ * Synthetic inputs for the benchmarks: Sleuth Kit files backed by byte arrays
+ * instead of a case database and an image, and generated file content.
+ * <p>
+ * The files are Mockito stubs, so calls to them cost a little more than calls
+ * to real files. The stub overhead is the same from one run to the next, so
+ * the benchmarks are meant for comparing runs, not for absolute numbers.
+ */
+public final class SyntheticFiles {
+
+    private static final String[] WORDS = {
+        "evidence", "invoice", "password", "meeting", "transfer", "account", //NON-NLS
+        "schedule", "report", "contract", "shipment", "balance", "network" //NON-NLS
+    };
+
+    /**
+     * Makes a regular file backed by a byte array.
+     *
+     * @param name       The file name.
+     * @param parentPath The parent path, starting and ending with a slash.
+     * @param mimeType   The MIME type, may be null.
+     * @param content    The content of the file.
+     *
+     * @return The file.
+     */
+    public static AbstractFile makeFile(String name, String parentPath, String mimeType, byte[] content) {
+        AbstractFile file = mock(AbstractFile.class);
+        int dot = name.lastIndexOf('.');
+        when(file.getName()).thenReturn(name);
+        when(file.getNameExtension()).thenReturn(dot < 0 ? "" : name.substring(dot + 1));
+        when(file.getParentPath()).thenReturn(parentPath);
+        when(file.getMIMEType()).thenReturn(mimeType);
+        when(file.getSize()).thenReturn((long) content.length);
+        when(file.getMetaType()).thenReturn(TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG);
+        when(file.getType()).thenReturn(TskData.TSK_DB_FILES_TYPE_ENUM.FS);
+        when(file.isFile()).thenReturn(true);
+        try {
+            when(file.read(any(byte[].class), anyLong(), anyLong())).thenAnswer(invocation -> {
+                byte[] buffer = invocation.getArgument(0);
+                long offset = invocation.getArgument(1);
+                long length = invocation.getArgument(2);
+                if (offset >= content.length) {
+                    return 0;
+                }
+                int bytesToCopy = (int) Math.min(Math.min(length, buffer.length), content.length - offset);
+                System.arraycopy(content, (int) offset, buffer, 0, bytesToCopy);
+                return bytesToCopy;
+            });
+        } catch (TskCoreException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return file;
+    }
+
+    /**
+     * Makes binary content with embedded runs of text, like the content of a
+     * document or an unallocated space file: random bytes, interleaved with
+     * words encoded as ASCII, as UTF-16LE, and in a given non-Latin script.
+     *
+     * @param size         The size of the content, in bytes.
+     * @param scriptSample A sample of text in a non-Latin script, e.g. Cyrillic
+     *                     or Arabic, may be empty.
+     * @param seed         The seed for the random bytes.
+     *
+     * @return The content.
+     */
+    public static byte[] makeMixedContent(int size, String scriptSample, long seed) {
+        Random random = new Random(seed);
+        byte[] content = new byte[size];
+        int offset = 0;
+        int run = 0;
+        while (offset < size) {
+            byte[] piece;
+            switch (run++ % 4) {
+                case 0:
+                    piece = new byte[32 + random.nextInt(256)];
+                    random.nextBytes(piece);
+                    break;
+                case 1:
+                    piece = makeText(random, 8).getBytes(StandardCharsets.US_ASCII);
+                    break;
+                case 2:
+                    piece = makeText(random, 4).getBytes(StandardCharsets.UTF_16LE);
+                    break;
+                default:
+                    piece = (scriptSample.isEmpty() ? makeText(random, 4) : scriptSample).getBytes(StandardCharsets.UTF_8);
+                    break;
+            }
+            int length = Math.min(piece.length, size - offset);
+            System.arraycopy(piece, 0, content, offset, length);
+            offset += length;
+        }
+        return content;
+    }
+
+    /**
+     * Makes text of random words.
+     *
+     * @param random    The source of randomness.
+     * @param wordCount The number of words.
+     *
+     * @return The text.
+     */
+    public static String makeText(Random random, int wordCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; ++i) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    private SyntheticFiles() {
+    }
+}
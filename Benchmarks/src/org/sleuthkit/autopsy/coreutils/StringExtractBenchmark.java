@@ -0,0 +1,91 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.coreutils;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sleuthkit.autopsy.benchmarks.SyntheticFiles;
+import org.sleuthkit.autopsy.coreutils.StringExtract.StringExtractUnicodeTable.SCRIPT;
+
+/**
+ * Measures string extraction from binary content, as done for files that
+ * cannot be parsed by Tika, for the scripts a user can enable for the keyword
+ * search module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StringExtractBenchmark {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    /**
+     * The enabled script, with text in that script embedded in the content.
+     * LATIN_1 takes the Latin-only fast path.
+     */
+    @Param({"LATIN_1", "LATIN_2", "CYRILLIC", "ARABIC", "HAN"})
+    public String script;
+
+    private StringExtract stringExtract;
+    private byte[] buffer;
+
+    @Setup
+    public void setUp() {
+        SCRIPT enabledScript = SCRIPT.valueOf(script);
+        stringExtract = new StringExtract();
+        stringExtract.setEnableUTF8(true);
+        stringExtract.setEnableUTF16(true);
+        stringExtract.setEnabledScripts(Arrays.asList(enabledScript));
+        buffer = SyntheticFiles.makeMixedContent(BUFFER_SIZE, getScriptSample(enabledScript), 42);
+    }
+
+    @Benchmark
+    public StringExtract.StringExtractResult extract() {
+        return stringExtract.extract(buffer, buffer.length, 0);
+    }
+
+    private static String getScriptSample(SCRIPT script) {
+        switch (script) {
+            case CYRILLIC:
+                return "\u0434\u043e\u043a\u0443\u043c\u0435\u043d\u0442 \u043f\u0430\u0440\u043e\u043b\u044c \u0441\u0447\u0451\u0442"; //NON-NLS
+            case ARABIC:
+                return "\u0648\u062b\u064a\u0642\u0629 \u0643\u0644\u0645\u0629 \u0627\u0644\u0633\u0631 \u062d\u0633\u0627\u0628"; //NON-NLS
+            case HAN:
+                return "\u6587\u4ef6 \u5bc6\u7801 \u8d26\u6237 \u4f1a\u8bae"; //NON-NLS
+            case LATIN_2:
+                return "dokument h\u00e9slo \u00fa\u010det sch\u016fzka"; //NON-NLS
+            default:
+                return "";
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sleuthkit.autopsy.benchmarks.SyntheticFiles;
+
+/**
+ * Measures the credit card number handling of the terms component query: the
+ * Luhn check of the terms matched by the credit card number regex, and the
+ * parsing of track 1 and track 2 magnetic stripe data from hit snippets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CreditCardParsingBenchmark {
+
+    private static final int TERM_COUNT = 1000;
+    private static final int SNIPPET_COUNT = 200;
+    private static final String[] TRACK_GROUPS = {"accountNumber", "expiration", "serviceCode", "discretionary", "LRC"}; //NON-NLS
+
+    private List<String> terms;
+    private List<String> snippets;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        terms = new ArrayList<>();
+        for (int i = 0; i < TERM_COUNT; ++i) {
+            String number = makeCardNumber(random, i % 2 == 0);
+            switch (i % 3) {
+                case 0:
+                    terms.add(number);
+                    break;
+                case 1:
+                    terms.add(number.substring(0, 4) + ' ' + number.substring(4, 8) + ' ' + number.substring(8, 12) + ' ' + number.substring(12));
+                    break;
+                default:
+                    terms.add(number.substring(0, 4) + '-' + number.substring(4, 8) + '-' + number.substring(8, 12) + '-' + number.substring(12));
+                    break;
+            }
+        }
+
+        /*
+         * Snippets of text around a hit, some with track data in them.
+         */
+        snippets = new ArrayList<>();
+        for (int i = 0; i < SNIPPET_COUNT; ++i) {
+            String number = makeCardNumber(random, true);
+            String context = SyntheticFiles.makeText(random, 12);
+            switch (i % 3) {
+                case 0:
+                    snippets.add(context + " %B" + number + "^DOE/JOHN^1912101000000000000000?4 " + context); //NON-NLS
+                    break;
+                case 1:
+                    snippets.add(context + " ;" + number + "=19121010000000000?7 " + context); //NON-NLS
+                    break;
+                default:
+                    snippets.add(context + ' ' + number + ' ' + context);
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    public void luhnCheck(Blackhole blackhole) {
+        for (String term : terms) {
+            blackhole.consume(TermComponentQuery.passesLuhnCheck(term));
+        }
+    }
+
+    @Benchmark
+    public void parseTrackData(Blackhole blackhole) {
+        for (String snippet : snippets) {
+            Matcher matcher = TermComponentQuery.TRACK1_PATTERN.matcher(snippet);
+            if (matcher.find()) {
+                consumeGroups(matcher, blackhole);
+                blackhole.consume(matcher.group("name"));
+            }
+            matcher = TermComponentQuery.TRACK2_PATTERN.matcher(snippet);
+            if (matcher.find()) {
+                consumeGroups(matcher, blackhole);
+            }
+        }
+    }
+
+    private static void consumeGroups(Matcher matcher, Blackhole blackhole) {
+        for (String group : TRACK_GROUPS) {
+            blackhole.consume(matcher.group(group));
+        }
+    }
+
+    /**
+     * Makes a 16 digit card number.
+     *
+     * @param random The source of randomness.
+     * @param valid  Whether the number should pass the Luhn check.
+     *
+     * @return The number.
+     */
+    private static String makeCardNumber(Random random, boolean valid) {
+        int[] digits = new int[16];
+        digits[0] = 4;
+        for (int i = 1; i < 15; ++i) {
+            digits[i] = random.nextInt(10);
+        }
+        int sum = 0;
+        for (int i = 14; i >= 0; --i) {
+            int digit = digits[i];
+            if ((14 - i) % 2 == 0) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+        }
+        digits[15] = (10 - sum % 10) % 10;
+        if (!valid) {
+            digits[15] = (digits[15] + 1) % 10;
+        }
+        StringBuilder number = new StringBuilder();
+        for (int digit : digits) {
+            number.append(digit);
+        }
+        return number.toString();
+    }
+}
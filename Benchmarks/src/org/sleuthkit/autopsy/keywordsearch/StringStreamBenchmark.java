@@ -0,0 +1,83 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sleuthkit.autopsy.benchmarks.SyntheticFiles;
+import org.sleuthkit.autopsy.coreutils.StringExtract.StringExtractUnicodeTable.SCRIPT;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Measures the conversion of a file to a stream of extracted strings, as done
+ * by the strings text extractor for files that cannot be parsed by Tika.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StringStreamBenchmark {
+
+    private static final int FILE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The size of the reads from the stream, 32 KB being the size the strings
+     * text extractor uses.
+     */
+    @Param({"4096", "32768"})
+    public int readSize;
+
+    private AbstractFile file;
+    private byte[] readBuffer;
+
+    @Setup
+    public void setUp() {
+        file = SyntheticFiles.makeFile("unalloc_1_0_4194304", "/$Unalloc/", "application/octet-stream", //NON-NLS
+                SyntheticFiles.makeMixedContent(FILE_SIZE, "\u0434\u043e\u043a\u0443\u043c\u0435\u043d\u0442 \u043f\u0430\u0440\u043e\u043b\u044c \u0441\u0447\u0451\u0442", 42)); //NON-NLS
+        readBuffer = new byte[readSize];
+    }
+
+    @Benchmark
+    public long readAll() throws IOException {
+        long total = 0;
+        try (InputStream stream = new AbstractFileStringIntStream(file, Arrays.asList(SCRIPT.LATIN_2, SCRIPT.CYRILLIC), true, true, StandardCharsets.UTF_8)) {
+            int read;
+            while ((read = stream.read(readBuffer, 0, readBuffer.length)) != -1) {
+                total += read;
+            }
+        }
+        return total;
+    }
+}
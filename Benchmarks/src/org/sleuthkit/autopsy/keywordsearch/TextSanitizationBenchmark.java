@@ -0,0 +1,93 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sleuthkit.autopsy.benchmarks.SyntheticFiles;
+
+/**
+ * Measures the sanitization of a text chunk before it is sent to Solr, i.e.,
+ * replacing the characters Solr does not accept as UTF-8.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class TextSanitizationBenchmark {
+
+    private static final int CHUNK_CHARS = 512 * 1024;
+
+    /**
+     * The number of invalid characters per million characters of text, zero
+     * being the common case of clean text.
+     */
+    @Param({"0", "10", "1000"})
+    public int invalidCharsPerMillion;
+
+    private String chunk;
+    private char[] chunkBuffer;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder(CHUNK_CHARS);
+        while (text.length() < CHUNK_CHARS) {
+            text.append(SyntheticFiles.makeText(random, 16)).append('\n');
+            /*
+             * A line is about 128 characters long.
+             */
+            if (random.nextInt(1000000) < invalidCharsPerMillion * 128) {
+                text.append('\uFFFF');
+            }
+        }
+        text.setLength(CHUNK_CHARS);
+        chunk = text.toString();
+        chunkBuffer = new char[CHUNK_CHARS];
+    }
+
+    @Benchmark
+    public String sanitizeForSolr() {
+        return Ingester.sanitizeForSolr(chunk);
+    }
+
+    /**
+     * Sanitizes the chunk in place in an extractor buffer, as it is indexed
+     * now. The chunk is copied into the buffer first, as the extractor reader
+     * would fill it, since the buffer is modified.
+     */
+    @Benchmark
+    public String sanitizeBufferForSolr() {
+        chunk.getChars(0, CHUNK_CHARS, chunkBuffer, 0);
+        return Ingester.sanitizeForSolr(chunkBuffer, CHUNK_CHARS);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.modules.filetypeid;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sleuthkit.autopsy.benchmarks.SyntheticFiles;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Measures the evaluation of user-defined file type rules, i.e., matching file
+ * type signatures against files, the way the file type detector tries each
+ * user-defined type in turn until one matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FileTypeBenchmark {
+
+    private static final int FILE_COUNT = 256;
+    private static final int FILE_SIZE = 64 * 1024;
+
+    /**
+     * The number of user-defined file types.
+     */
+    @Param({"10", "100"})
+    public int fileTypeCount;
+
+    private List<FileType> fileTypes;
+    private List<AbstractFile> files;
+    private FileType.Signature headerSignature;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        fileTypes = new ArrayList<>();
+        List<byte[]> headers = new ArrayList<>();
+        for (int i = 0; i < fileTypeCount; ++i) {
+            byte[] header = new byte[4 + random.nextInt(8)];
+            random.nextBytes(header);
+            headers.add(header);
+            List<FileType.Signature> signatures = new ArrayList<>();
+            signatures.add(new FileType.Signature(header, 0L));
+            switch (i % 3) {
+                case 1:
+                    /*
+                     * A second signature at an offset, like the "ustar" magic
+                     * of a tar file.
+                     */
+                    signatures.add(new FileType.Signature(String.format("type%04d", i), 257L)); //NON-NLS
+                    break;
+                case 2:
+                    /*
+                     * A trailer, like the end of central directory record of a
+                     * zip file.
+                     */
+                    signatures.add(new FileType.Signature(Arrays.copyOf(header, 4), 3L, false));
+                    break;
+                default:
+                    break;
+            }
+            fileTypes.add(new FileType(String.format("application/x-benchmark-%d", i), signatures)); //NON-NLS
+        }
+        headerSignature = fileTypes.get(0).getSignatures().get(0);
+
+        /*
+         * A quarter of the files are of the user-defined types, the rest
+         * match none of them, which is the worst and most common case.
+         */
+        files = new ArrayList<>();
+        for (int i = 0; i < FILE_COUNT; ++i) {
+            byte[] content = new byte[FILE_SIZE];
+            random.nextBytes(content);
+            if (i % 4 == 0) {
+                int typeIndex = random.nextInt(fileTypeCount);
+                byte[] header = headers.get(typeIndex);
+                System.arraycopy(header, 0, content, 0, header.length);
+                byte[] magic = String.format("type%04d", typeIndex).getBytes(StandardCharsets.US_ASCII); //NON-NLS
+                System.arraycopy(magic, 0, content, 257, magic.length);
+                System.arraycopy(header, 0, content, FILE_SIZE - 1 - 3, 4);
+            }
+            files.add(SyntheticFiles.makeFile(String.format("file%d.bin", i), "/", null, content)); //NON-NLS
+        }
+    }
+
+    @Benchmark
+    public void signatureContainedIn(Blackhole blackhole) {
+        for (AbstractFile file : files) {
+            blackhole.consume(headerSignature.containedIn(file));
+        }
+    }
+
+    @Benchmark
+    public void detectUserDefinedType(Blackhole blackhole) {
+        for (AbstractFile file : files) {
+            FileType detected = null;
+            for (FileType fileType : fileTypes) {
+                if (fileType.matches(file)) {
+                    detected = fileType;
+                    break;
+                }
+            }
+            blackhole.consume(detected);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.modules.interestingitems;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.sleuthkit.autopsy.benchmarks.SyntheticFiles;
+import org.sleuthkit.autopsy.modules.interestingitems.FilesSet.Rule;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Measures the evaluation of interesting files set membership rules, with the
+ * kinds of conditions users write: extensions, full names, name regexes, path
+ * substrings, MIME types and file sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FilesSetRuleBenchmark {
+
+    private static final int FILE_COUNT = 1024;
+    private static final String[] EXTENSIONS = {"doc", "docx", "pdf", "jpg", "png", "exe", "dll", "txt", "zip", "pst"}; //NON-NLS
+    private static final String[] MIME_TYPES = {"application/msword", "application/pdf", "image/jpeg", "image/png", "application/x-msdownload", "text/plain", "application/zip"}; //NON-NLS
+    private static final String[] PARENT_PATHS = {"/Windows/System32/", "/Users/jdoe/Documents/", "/Users/jdoe/AppData/Local/Temp/", "/Program Files/Vendor/", "/Users/jdoe/Pictures/2016/"}; //NON-NLS
+
+    /**
+     * The number of rules in the set.
+     */
+    @Param({"10", "100"})
+    public int ruleCount;
+
+    private FilesSet filesSet;
+    private List<Rule> rules;
+    private List<AbstractFile> files;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Map<String, Rule> rulesByName = new LinkedHashMap<>();
+        for (int i = 0; i < ruleCount; ++i) {
+            String ruleName = String.format("rule%d", i); //NON-NLS
+            Rule.MetaTypeCondition metaTypeCondition = new Rule.MetaTypeCondition(Rule.MetaTypeCondition.Type.FILES);
+            Rule rule;
+            switch (i % 6) {
+                case 0:
+                    rule = new Rule(ruleName, new Rule.ExtensionCondition(String.format("ext%d", i)), metaTypeCondition, null, null, null); //NON-NLS
+                    break;
+                case 1:
+                    rule = new Rule(ruleName, new Rule.FullNameCondition(String.format("name%d.dat", i)), metaTypeCondition, null, null, null); //NON-NLS
+                    break;
+                case 2:
+                    rule = new Rule(ruleName, new Rule.FullNameCondition(Pattern.compile(String.format("^secret[0-9]+_%d\\..*$", i))), metaTypeCondition, null, null, null); //NON-NLS
+                    break;
+                case 3:
+                    rule = new Rule(ruleName, null, metaTypeCondition, new Rule.ParentPathCondition(String.format("/dir%d/", i)), null, null); //NON-NLS
+                    break;
+                case 4:
+                    rule = new Rule(ruleName, new Rule.ExtensionCondition(String.format("ext%d", i)), metaTypeCondition, null, new Rule.MimeTypeCondition("application/x-sqlite3"), null); //NON-NLS
+                    break;
+                default:
+                    rule = new Rule(ruleName, null, metaTypeCondition, new Rule.ParentPathCondition(String.format("/dir%d/", i)), null,
+                            new Rule.FileSizeCondition(Rule.FileSizeCondition.COMPARATOR.GREATER_THAN, Rule.FileSizeCondition.SIZE_UNIT.MEGABYTE, 100));
+                    break;
+            }
+            rulesByName.put(ruleName, rule);
+        }
+        rules = new ArrayList<>(rulesByName.values());
+        filesSet = new FilesSet("benchmark", "", false, rulesByName); //NON-NLS
+
+        /*
+         * Most files in an image are not interesting, so almost all of the
+         * files fail every rule.
+         */
+        files = new ArrayList<>();
+        byte[] content = new byte[16];
+        for (int i = 0; i < FILE_COUNT; ++i) {
+            String name = String.format("file%d.%s", i, EXTENSIONS[random.nextInt(EXTENSIONS.length)]); //NON-NLS
+            String parentPath = PARENT_PATHS[random.nextInt(PARENT_PATHS.length)];
+            if (i % 100 == 0) {
+                name = String.format("name%d.dat", 6 * random.nextInt(Math.max(1, ruleCount / 6)) + 1); //NON-NLS
+            }
+            files.add(SyntheticFiles.makeFile(name, parentPath, MIME_TYPES[random.nextInt(MIME_TYPES.length)], content));
+        }
+    }
+
+    @Benchmark
+    public void isSatisfied(Blackhole blackhole) {
+        for (AbstractFile file : files) {
+            for (Rule rule : rules) {
+                blackhole.consume(rule.isSatisfied(file));
+            }
+        }
+    }
+
+    @Benchmark
+    public void fileIsMemberOf(Blackhole blackhole) {
+        for (AbstractFile file : files) {
+            blackhole.consume(filesSet.fileIsMemberOf(file));
+        }
+    }
+}
@@ -20,11 +20,30 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.openide.util.Lookup;
 import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.IngestServices;
+import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
 import org.sleuthkit.autopsy.keywordsearchservice.KeywordSearchService;
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskDataException;
@@ -37,6 +56,11 @@
  */
 public final class Blackboard implements Closeable {
 
+    private static final int DEFAULT_ARTIFACT_BATCH_SIZE = 256;
+    private static final long MAX_ARTIFACT_BATCH_AGE_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final Logger logger = Logger.getLogger(Blackboard.class.getName());
+    private static final ScheduledExecutorService artifactBatchFlushTimer = createArtifactBatchFlushTimer();
+    private final Set<ArtifactBatch> openArtifactBatches = ConcurrentHashMap.newKeySet();
     private SleuthkitCase caseDb;
     
     /**
@@ -71,6 +95,79 @@ public synchronized void indexArtifact(BlackboardArtifact artifact) throws Black
         }
     }
 
+    /**
+     * Indexes the text associated with a collection of artifacts with one call
+     * to the keyword search service, which may share work across the
+     * artifacts, e.g., data source lookups. The artifacts are still indexed as
+     * separate documents.
+     *
+     * @param artifacts The artifacts to be indexed.
+     *
+     * @throws BlackboardException If there is a problem indexing the
+     *                             artifacts.
+     */
+    public synchronized void indexArtifacts(Collection<BlackboardArtifact> artifacts) throws BlackboardException {
+        if (null == caseDb) {
+            throw new BlackboardException("Blackboard has been closed");
+        }
+        if (artifacts.isEmpty()) {
+            return;
+        }
+        KeywordSearchService searchService = Lookup.getDefault().lookup(KeywordSearchService.class);
+        if (null == searchService) {
+            throw new BlackboardException("Keyword search service not found");
+        }
+        try {
+            searchService.indexArtifacts(artifacts);
+        } catch (TskCoreException ex) {
+            throw new BlackboardException("Error indexing artifacts", ex);
+        }
+    }
+
+    /**
+     * Creates a batch for posting artifacts to the blackboard, with the
+     * default batch size.
+     *
+     * @param moduleName The display name of the module posting the artifacts,
+     *                   used for the module data events.
+     *
+     * @return The batch.
+     */
+    public ArtifactBatch createArtifactBatch(String moduleName) {
+        return createArtifactBatch(moduleName, DEFAULT_ARTIFACT_BATCH_SIZE);
+    }
+
+    /**
+     * Creates a batch for posting artifacts to the blackboard.
+     *
+     * @param moduleName The display name of the module posting the artifacts,
+     *                   used for the module data events.
+     * @param batchSize  The number of artifacts at which the batch is flushed.
+     *
+     * @return The batch.
+     */
+    public ArtifactBatch createArtifactBatch(String moduleName, int batchSize) {
+        ArtifactBatch batch = new ArtifactBatch(moduleName, Math.max(1, batchSize));
+        openArtifactBatches.add(batch);
+        return batch;
+    }
+
+    /**
+     * Flushes all of the artifact batches that have not been closed. Called
+     * by the ingest framework before it records files as done in the journal
+     * of an ingest job, so that the hits on a file recorded as done are not
+     * lost in a crash. Problems posting the artifacts are logged.
+     */
+    public void flushArtifactBatches() {
+        for (ArtifactBatch batch : openArtifactBatches) {
+            try {
+                batch.flush();
+            } catch (BlackboardException ex) {
+                logger.log(Level.SEVERE, String.format("Error posting batched artifacts for %s", batch.moduleName), ex); //NON-NLS
+            }
+        }
+    }
+
     /**
      * Gets an artifact type, creating it if it does not already exist. Use this
      * method to define custom artifact types.
@@ -141,6 +238,211 @@ public synchronized void close() throws IOException {
     }
 
 
+    /**
+     * Creates the timer that flushes artifact batches that have had artifacts
+     * waiting in them for too long.
+     *
+     * @return The timer.
+     */
+    private static ScheduledExecutorService createArtifactBatchFlushTimer() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("BB-artifact-batch-flush-%d").setDaemon(true).build()); //NON-NLS
+        timer.setRemoveOnCancelPolicy(true);
+        return timer;
+    }
+
+    /**
+     * A write-behind batch of artifacts to be posted to the blackboard. Instead
+     * of creating an artifact, adding its attributes, indexing it and firing a
+     * module data event for each artifact as it is found, a module adds the
+     * artifact and its attributes to a batch, and the batch posts them
+     * together when it is flushed: the artifacts are created with all of
+     * their attributes in one call each, passed to the keyword search service
+     * for indexing in one call, see indexArtifacts(), and announced with one
+     * module data event per artifact type.
+     * <p>
+     * A batch is flushed when it is full, when the oldest artifact in it has
+     * been waiting for a couple of seconds, and when it is closed. A batch
+     * flushed because of the age of its artifacts is flushed by a timer
+     * thread, so posted callbacks may run on that thread, and problems
+     * posting the artifacts are logged rather than thrown. Modules should
+     * close their batches when they shut down.
+     * <p>
+     * This class is thread-safe.
+     */
+    public final class ArtifactBatch implements Closeable {
+
+        private final String moduleName;
+        private final int batchSize;
+        private final List<PendingArtifact> pendingArtifacts;
+        private long oldestPendingArtifactTime;
+        private ScheduledFuture<?> scheduledFlush;
+
+        private ArtifactBatch(String moduleName, int batchSize) {
+            this.moduleName = moduleName;
+            this.batchSize = batchSize;
+            this.pendingArtifacts = new ArrayList<>();
+        }
+
+        /**
+         * Adds an artifact to the batch.
+         *
+         * @param content      The content the artifact is about.
+         * @param artifactType The type of the artifact.
+         * @param attributes   The attributes of the artifact.
+         *
+         * @throws BlackboardException If adding the artifact flushed the batch
+         *                             and there was a problem posting it.
+         */
+        public void add(Content content, BlackboardArtifact.Type artifactType, Collection<BlackboardAttribute> attributes) throws BlackboardException {
+            add(content, artifactType, attributes, null);
+        }
+
+        /**
+         * Adds an artifact to the batch, with a callback to be invoked with the
+         * artifact once it has been posted, e.g., to send an inbox message
+         * about it.
+         *
+         * @param content        The content the artifact is about.
+         * @param artifactType   The type of the artifact.
+         * @param attributes     The attributes of the artifact.
+         * @param postedCallback The callback, may be null.
+         *
+         * @throws BlackboardException If adding the artifact flushed the batch
+         *                             and there was a problem posting it.
+         */
+        public synchronized void add(Content content, BlackboardArtifact.Type artifactType, Collection<BlackboardAttribute> attributes, Consumer<BlackboardArtifact> postedCallback) throws BlackboardException {
+            long now = System.nanoTime();
+            if (pendingArtifacts.isEmpty()) {
+                oldestPendingArtifactTime = now;
+                scheduledFlush = artifactBatchFlushTimer.schedule(this::flushStaleArtifacts, MAX_ARTIFACT_BATCH_AGE_NANOS, TimeUnit.NANOSECONDS);
+            }
+            pendingArtifacts.add(new PendingArtifact(content, artifactType, new ArrayList<>(attributes), postedCallback));
+            if (pendingArtifacts.size() >= batchSize || now - oldestPendingArtifactTime >= MAX_ARTIFACT_BATCH_AGE_NANOS) {
+                flush();
+            }
+        }
+
+        /**
+         * Posts the artifacts in the batch to the blackboard. If an artifact
+         * cannot be created, the rest of the batch is still posted before the
+         * exception is thrown.
+         *
+         * @return The artifacts posted, possibly empty.
+         *
+         * @throws BlackboardException If there is a problem posting the
+         *                             artifacts.
+         */
+        public synchronized List<BlackboardArtifact> flush() throws BlackboardException {
+            if (null != scheduledFlush) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            if (pendingArtifacts.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<PendingArtifact> artifactsToPost = new ArrayList<>(pendingArtifacts);
+            pendingArtifacts.clear();
+            if (null == caseDb) {
+                throw new BlackboardException("Blackboard has been closed");
+            }
+
+            List<BlackboardArtifact> postedArtifacts = new ArrayList<>();
+            Map<Integer, List<BlackboardArtifact>> postedArtifactsByType = new LinkedHashMap<>();
+            Map<Integer, BlackboardArtifact.Type> artifactTypes = new LinkedHashMap<>();
+            TskCoreException postError = null;
+            for (PendingArtifact pendingArtifact : artifactsToPost) {
+                try {
+                    BlackboardArtifact artifact = pendingArtifact.content.newArtifact(pendingArtifact.artifactType.getTypeID());
+                    artifact.addAttributes(pendingArtifact.attributes);
+                    pendingArtifact.artifact = artifact;
+                    postedArtifacts.add(artifact);
+                    int typeId = pendingArtifact.artifactType.getTypeID();
+                    artifactTypes.putIfAbsent(typeId, pendingArtifact.artifactType);
+                    postedArtifactsByType.computeIfAbsent(typeId, id -> new ArrayList<>()).add(artifact);
+                } catch (TskCoreException ex) {
+                    if (null == postError) {
+                        postError = ex;
+                    }
+                }
+            }
+
+            BlackboardException indexError = null;
+            try {
+                indexArtifacts(postedArtifacts);
+            } catch (BlackboardException ex) {
+                indexError = ex;
+            }
+
+            for (Map.Entry<Integer, List<BlackboardArtifact>> entry : postedArtifactsByType.entrySet()) {
+                IngestServices.getInstance().fireModuleDataEvent(new ModuleDataEvent(moduleName, artifactTypes.get(entry.getKey()), entry.getValue()));
+            }
+            for (PendingArtifact pendingArtifact : artifactsToPost) {
+                if (null != pendingArtifact.artifact && null != pendingArtifact.postedCallback) {
+                    pendingArtifact.postedCallback.accept(pendingArtifact.artifact);
+                }
+            }
+
+            if (null != postError) {
+                throw new BlackboardException("Failed to post artifact", postError);
+            }
+            if (null != indexError) {
+                throw indexError;
+            }
+            return postedArtifacts;
+        }
+
+        /**
+         * Flushes the batch on the timer thread if the oldest artifact in it
+         * has been waiting for too long, so that the artifacts of a module
+         * that has stopped adding to the batch are not held back until it
+         * shuts down.
+         */
+        private synchronized void flushStaleArtifacts() {
+            if (pendingArtifacts.isEmpty() || System.nanoTime() - oldestPendingArtifactTime < MAX_ARTIFACT_BATCH_AGE_NANOS) {
+                return;
+            }
+            try {
+                flush();
+            } catch (BlackboardException ex) {
+                logger.log(Level.SEVERE, String.format("Error posting batched artifacts for %s", moduleName), ex); //NON-NLS
+            }
+        }
+
+        /**
+         * Flushes the batch.
+         *
+         * @throws IOException If there is a problem posting the artifacts.
+         */
+        @Override
+        public void close() throws IOException {
+            openArtifactBatches.remove(this);
+            try {
+                flush();
+            } catch (BlackboardException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    /**
+     * An artifact waiting in a batch to be posted.
+     */
+    private static final class PendingArtifact {
+
+        private final Content content;
+        private final BlackboardArtifact.Type artifactType;
+        private final Collection<BlackboardAttribute> attributes;
+        private final Consumer<BlackboardArtifact> postedCallback;
+        private BlackboardArtifact artifact;
+
+        private PendingArtifact(Content content, BlackboardArtifact.Type artifactType, Collection<BlackboardAttribute> attributes, Consumer<BlackboardArtifact> postedCallback) {
+            this.content = content;
+            this.artifactType = artifactType;
+            this.attributes = attributes;
+            this.postedCallback = postedCallback;
+        }
+    }
+
     /**
      * A blackboard exception.
      */
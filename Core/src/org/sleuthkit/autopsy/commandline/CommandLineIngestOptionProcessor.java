@@ -0,0 +1,162 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.commandline;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.netbeans.api.sendopts.CommandException;
+import org.netbeans.spi.sendopts.Env;
+import org.netbeans.spi.sendopts.Option;
+import org.netbeans.spi.sendopts.OptionProcessor;
+import org.openide.LifecycleManager;
+import org.openide.util.lookup.ServiceProvider;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Handles the command line options for running ingest without the Autopsy user
+ * interface, e.g.:
+ * <p>
+ * autopsy --nogui -J-Djava.awt.headless=true --case-dir=C:\cases
+ * --case-name=bench --image=C:\images\disk.E01 --ingest-profile=Bench
+ * --summary=C:\bench\summary.json
+ * <p>
+ * A case is created from --case-dir and --case-name, or an existing case is
+ * opened with --case-file. The data source is either an image, given by
+ * --image, a comma-separated list of local files and directories, given by
+ * --local-files, or a synthetic data source generated into the directory given
+ * by --synthetic from the specification given by --synthetic-spec (see
+ * SyntheticDataSourceGenerator). The ingest modules to run are those enabled
+ * for the ingest job settings execution context named by --ingest-profile, by
+ * default the settings of the add data source wizard. A JSON summary of the run is written to the
+ * file given by --summary, by default to the reports directory of the case,
+ * and printed to standard output. Autopsy exits when the run is done.
+ */
+@ServiceProvider(service = OptionProcessor.class)
+public class CommandLineIngestOptionProcessor extends OptionProcessor {
+
+    private static final Logger logger = Logger.getLogger(CommandLineIngestOptionProcessor.class.getName());
+    private static final int EXIT_CODE_BAD_ARGUMENTS = 2;
+    private static final int EXIT_CODE_RUN_FAILED = 3;
+    private final Option caseDirOption = Option.requiredArgument(Option.NO_SHORT_NAME, "case-dir"); //NON-NLS
+    private final Option caseNameOption = Option.requiredArgument(Option.NO_SHORT_NAME, "case-name"); //NON-NLS
+    private final Option caseFileOption = Option.requiredArgument(Option.NO_SHORT_NAME, "case-file"); //NON-NLS
+    private final Option imageOption = Option.requiredArgument(Option.NO_SHORT_NAME, "image"); //NON-NLS
+    private final Option localFilesOption = Option.requiredArgument(Option.NO_SHORT_NAME, "local-files"); //NON-NLS
+    private final Option ingestProfileOption = Option.requiredArgument(Option.NO_SHORT_NAME, "ingest-profile"); //NON-NLS
+    private final Option summaryOption = Option.requiredArgument(Option.NO_SHORT_NAME, "summary"); //NON-NLS
+    private final Option syntheticOption = Option.requiredArgument(Option.NO_SHORT_NAME, "synthetic"); //NON-NLS
+    private final Option syntheticSpecOption = Option.requiredArgument(Option.NO_SHORT_NAME, "synthetic-spec"); //NON-NLS
+
+    @Override
+    protected Set<Option> getOptions() {
+        final Set<Option> options = new HashSet<>();
+        options.add(caseDirOption);
+        options.add(caseNameOption);
+        options.add(caseFileOption);
+        options.add(imageOption);
+        options.add(localFilesOption);
+        options.add(ingestProfileOption);
+        options.add(summaryOption);
+        options.add(syntheticOption);
+        options.add(syntheticSpecOption);
+        return options;
+    }
+
+    @Override
+    protected void process(Env env, Map<Option, String[]> maps) throws CommandException {
+        if (!maps.containsKey(imageOption) && !maps.containsKey(localFilesOption) && !maps.containsKey(syntheticOption)) {
+            return;
+        }
+
+        Path caseDirectory = null;
+        String caseName = null;
+        Path caseMetadataFile = null;
+        if (maps.containsKey(caseFileOption)) {
+            caseMetadataFile = Paths.get(getArgument(maps, caseFileOption));
+        } else if (maps.containsKey(caseDirOption) && maps.containsKey(caseNameOption)) {
+            caseDirectory = Paths.get(getArgument(maps, caseDirOption));
+            caseName = getArgument(maps, caseNameOption);
+        } else {
+            throw new CommandException(EXIT_CODE_BAD_ARGUMENTS, "Either --case-file or both --case-dir and --case-name are required"); //NON-NLS
+        }
+
+        Path imagePath = null;
+        List<String> localFilePaths = new ArrayList<>();
+        Path syntheticManifest = null;
+        if (maps.containsKey(imageOption)) {
+            imagePath = Paths.get(getArgument(maps, imageOption));
+            if (!Files.isRegularFile(imagePath)) {
+                throw new CommandException(EXIT_CODE_BAD_ARGUMENTS, String.format("Image %s does not exist", imagePath)); //NON-NLS
+            }
+        } else if (maps.containsKey(syntheticOption)) {
+            Path syntheticDirectory = Paths.get(getArgument(maps, syntheticOption));
+            try {
+                SyntheticDataSourceGenerator generator = new SyntheticDataSourceGenerator(maps.containsKey(syntheticSpecOption) ? getArgument(maps, syntheticSpecOption) : SyntheticDataSourceGenerator.DEFAULT_SPEC);
+                syntheticManifest = generator.generate(syntheticDirectory);
+            } catch (IllegalArgumentException ex) {
+                throw new CommandException(EXIT_CODE_BAD_ARGUMENTS, ex.getMessage());
+            } catch (IOException ex) {
+                logger.log(Level.SEVERE, "Failed to generate synthetic data source", ex); //NON-NLS
+                throw new CommandException(EXIT_CODE_RUN_FAILED, ex.getMessage());
+            }
+            localFilePaths.add(syntheticDirectory.toAbsolutePath().toString());
+        } else {
+            for (String localFilePath : getArgument(maps, localFilesOption).split(",")) {
+                if (!localFilePath.trim().isEmpty()) {
+                    localFilePaths.add(localFilePath.trim());
+                }
+            }
+            if (localFilePaths.isEmpty()) {
+                throw new CommandException(EXIT_CODE_BAD_ARGUMENTS, "No local files given"); //NON-NLS
+            }
+        }
+
+        String ingestProfile = maps.containsKey(ingestProfileOption) ? getArgument(maps, ingestProfileOption) : CommandLineIngestRunner.DEFAULT_INGEST_PROFILE;
+        Path summaryFile = maps.containsKey(summaryOption) ? Paths.get(getArgument(maps, summaryOption)) : null;
+
+        CommandLineIngestRunner runner = new CommandLineIngestRunner(caseDirectory, caseName, caseMetadataFile, imagePath, localFilePaths, ingestProfile, summaryFile, syntheticManifest);
+        try {
+            Path summaryPath = runner.run();
+            PrintStream out = env.getOutputStream();
+            out.println(new String(Files.readAllBytes(summaryPath), StandardCharsets.UTF_8));
+            out.flush();
+        } catch (CommandLineIngestRunner.CommandLineIngestException | IOException ex) {
+            logger.log(Level.SEVERE, "Command line ingest failed", ex); //NON-NLS
+            throw new CommandException(EXIT_CODE_RUN_FAILED, ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CommandException(EXIT_CODE_RUN_FAILED, "Command line ingest interrupted"); //NON-NLS
+        }
+        LifecycleManager.getDefault().exit();
+    }
+
+    private static String getArgument(Map<Option, String[]> maps, Option option) {
+        return maps.get(option)[0];
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.commandline;
+
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.casemodule.CaseActionException;
+import org.sleuthkit.autopsy.casemodule.ImageDSProcessor;
+import org.sleuthkit.autopsy.casemodule.LocalFilesDSProcessor;
+import org.sleuthkit.autopsy.core.RuntimeProperties;
+import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessorCallback;
+import org.sleuthkit.autopsy.corecomponentinterfaces.DataSourceProcessorProgressMonitor;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.ingest.FileIngestMetrics;
+import org.sleuthkit.autopsy.ingest.IngestJob;
+import org.sleuthkit.autopsy.ingest.IngestJobSettings;
+import org.sleuthkit.autopsy.ingest.IngestJobStartResult;
+import org.sleuthkit.autopsy.ingest.IngestManager;
+import org.sleuthkit.autopsy.ingest.IngestModuleError;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Runs ingest on a data source without the Autopsy user interface: creates or
+ * opens a case, adds an image or a set of local files to it, runs an ingest
+ * job with the module settings of a named ingest profile (an ingest job
+ * settings execution context), writes a JSON summary of the run, and closes
+ * the case. Intended for build servers, e.g., to track ingest throughput from
+ * one build to the next.
+ */
+final class CommandLineIngestRunner {
+
+    /**
+     * The execution context of the ingest job settings used by the add data
+     * source wizard, used if no ingest profile is specified, so that a
+     * headless run uses the same modules as an interactive one.
+     */
+    static final String DEFAULT_INGEST_PROFILE = "org.sleuthkit.autopsy.casemodule.AddImageWizardIngestConfigPanel"; //NON-NLS
+    private static final Logger logger = Logger.getLogger(CommandLineIngestRunner.class.getName());
+    private final Path caseDirectory;
+    private final String caseName;
+    private final Path caseMetadataFile;
+    private final Path imagePath;
+    private final List<String> localFilePaths;
+    private final String ingestProfile;
+    private final Path summaryFile;
+    private final Path dataSourceManifest;
+
+    /**
+     * Constructs an object that runs ingest on a data source without the
+     * Autopsy user interface. Either a case directory and name or a case
+     * metadata file must be given, and either an image path or local file
+     * paths.
+     *
+     * @param caseDirectory    The directory of the case to create, may be null.
+     * @param caseName         The name of the case to create, may be null.
+     * @param caseMetadataFile The metadata (.aut) file of the case to open,
+     *                         may be null.
+     * @param imagePath        The path of the image to add, may be null.
+     * @param localFilePaths   The paths of the local files and directories to
+     *                         add, may be empty.
+     * @param ingestProfile    The execution context of the ingest job settings
+     *                         to use.
+     * @param summaryFile        The file to write the summary to, may be null
+     *                           to write it to the reports directory of the
+     *                           case.
+     * @param dataSourceManifest The manifest of a synthetic data source, to be
+     *                           included in the summary, may be null.
+     */
+    CommandLineIngestRunner(Path caseDirectory, String caseName, Path caseMetadataFile, Path imagePath, List<String> localFilePaths, String ingestProfile, Path summaryFile, Path dataSourceManifest) {
+        this.caseDirectory = caseDirectory;
+        this.caseName = caseName;
+        this.caseMetadataFile = caseMetadataFile;
+        this.imagePath = imagePath;
+        this.localFilePaths = new ArrayList<>(localFilePaths);
+        this.ingestProfile = ingestProfile;
+        this.summaryFile = summaryFile;
+        this.dataSourceManifest = dataSourceManifest;
+    }
+
+    /**
+     * Does the run.
+     *
+     * @return The path of the summary file.
+     *
+     * @throws CommandLineIngestException if the run fails.
+     * @throws InterruptedException       if the calling thread is interrupted
+     *                                    while waiting for the data source to
+     *                                    be added or for ingest to finish.
+     */
+    Path run() throws CommandLineIngestException, InterruptedException {
+        RuntimeProperties.setCoreComponentsActive(false);
+        long runStartTime = System.currentTimeMillis();
+        openCase();
+        try {
+            long addDataSourceStartTime = System.currentTimeMillis();
+            List<Content> dataSources = addDataSource();
+            long addDataSourceTime = System.currentTimeMillis() - addDataSourceStartTime;
+
+            long ingestStartTime = System.currentTimeMillis();
+            IngestRun ingestRun = runIngestJob(dataSources);
+            long ingestTime = System.currentTimeMillis() - ingestStartTime;
+
+            Path summaryPath = (null != summaryFile) ? summaryFile : Paths.get(Case.getCurrentCase().getReportDirectory(), "ingest-summary.json"); //NON-NLS
+            writeSummary(summaryPath, dataSources, ingestRun, addDataSourceTime, ingestTime, System.currentTimeMillis() - runStartTime);
+            return summaryPath;
+        } finally {
+            closeCase();
+        }
+    }
+
+    /**
+     * Creates or opens the case.
+     *
+     * @throws CommandLineIngestException if the case cannot be created or
+     *                                    opened.
+     */
+    private void openCase() throws CommandLineIngestException {
+        try {
+            if (null != caseMetadataFile) {
+                Case.open(caseMetadataFile.toString());
+            } else {
+                Case.create(caseDirectory.toString(), caseName, "", "", Case.CaseType.SINGLE_USER_CASE);
+            }
+        } catch (CaseActionException ex) {
+            throw new CommandLineIngestException("Failed to create or open case", ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Closes the current case, if any.
+     */
+    private void closeCase() {
+        try {
+            Case.getCurrentCase().closeCase();
+        } catch (IllegalStateException | CaseActionException ex) {
+            logger.log(Level.WARNING, "Failed to close case", ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Adds the image or local files to the case, waiting for the data source
+     * processor to finish.
+     *
+     * @return The data sources added.
+     *
+     * @throws CommandLineIngestException if the data source cannot be added.
+     * @throws InterruptedException       if the calling thread is interrupted
+     *                                    while waiting.
+     */
+    private List<Content> addDataSource() throws CommandLineIngestException, InterruptedException {
+        AddDataSourceCallback callback = new AddDataSourceCallback();
+        ProgressMonitor progressMonitor = new ProgressMonitor();
+        if (null != imagePath) {
+            new ImageDSProcessor().run(UUID.randomUUID().toString(), imagePath.toString(), Calendar.getInstance().getTimeZone().getID(), false, progressMonitor, callback);
+        } else {
+            new LocalFilesDSProcessor().run(UUID.randomUUID().toString(), "", localFilePaths, progressMonitor, callback);
+        }
+        callback.done.await();
+        for (String error : callback.errors) {
+            logger.log(Level.WARNING, "Error adding data source: {0}", error); //NON-NLS
+        }
+        if (DataSourceProcessorCallback.DataSourceProcessorResult.CRITICAL_ERRORS == callback.result || callback.dataSources.isEmpty()) {
+            throw new CommandLineIngestException(String.format("Failed to add data source: %s", String.join("; ", callback.errors))); //NON-NLS
+        }
+        return callback.dataSources;
+    }
+
+    /**
+     * Runs an ingest job on the data sources, waiting for it to finish.
+     *
+     * @param dataSources The data sources.
+     *
+     * @return The outcome of the job.
+     *
+     * @throws CommandLineIngestException if the job cannot be started.
+     * @throws InterruptedException       if the calling thread is interrupted
+     *                                    while waiting.
+     */
+    private IngestRun runIngestJob(List<Content> dataSources) throws CommandLineIngestException, InterruptedException {
+        IngestJobSettings settings = new IngestJobSettings(ingestProfile);
+        for (String warning : settings.getWarnings()) {
+            logger.log(Level.WARNING, "Ingest profile {0}: {1}", new Object[]{ingestProfile, warning}); //NON-NLS
+        }
+
+        /*
+         * Listen for the end of the job before starting it, since a job with
+         * nothing to do can finish before the start call returns.
+         */
+        JobEndListener jobEndListener = new JobEndListener();
+        IngestManager.getInstance().addIngestJobEventListener(jobEndListener);
+        try {
+            IngestJobStartResult startResult = IngestManager.getInstance().beginIngestJob(dataSources, settings);
+            IngestJob job = startResult.getJob();
+            if (null == job) {
+                for (IngestModuleError error : startResult.getModuleErrors()) {
+                    logger.log(Level.SEVERE, String.format("Error starting %s ingest module", error.getModuleDisplayName()), error.getThrowable()); //NON-NLS
+                }
+                throw new CommandLineIngestException("Failed to start ingest job", startResult.getStartupException()); //NON-NLS
+            }
+
+            /*
+             * The file ingest measurements are live objects, so they can be
+             * grabbed now and read when the job is done.
+             */
+            List<FileIngestMetrics> metrics = new ArrayList<>();
+            for (IngestJob.ProgressSnapshot.DataSourceProcessingSnapshot snapshot : job.getSnapshot(false).getDataSourceSnapshots()) {
+                metrics.add(snapshot.getFileIngestMetrics());
+            }
+            jobEndListener.awaitEnd(job.getId());
+            return new IngestRun(job.getId(), jobEndListener.wasCancelled(job.getId()), metrics);
+        } finally {
+            IngestManager.getInstance().removeIngestJobEventListener(jobEndListener);
+        }
+    }
+
+    /**
+     * Writes the summary of the run as JSON.
+     *
+     * @param path              The summary file.
+     * @param dataSources       The data sources added.
+     * @param ingestRun         The outcome of the ingest job.
+     * @param addDataSourceTime The time taken to add the data sources, in
+     *                          milliseconds.
+     * @param ingestTime        The time taken by the ingest job, in
+     *                          milliseconds.
+     * @param totalTime         The time taken by the whole run, in
+     *                          milliseconds.
+     *
+     * @throws CommandLineIngestException if the summary cannot be written.
+     */
+    private void writeSummary(Path path, List<Content> dataSources, IngestRun ingestRun, long addDataSourceTime, long ingestTime, long totalTime) throws CommandLineIngestException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n"); //NON-NLS
+        json.append("  \"case\": ").append(quoteJson(Case.getCurrentCase().getCaseDirectory())).append(",\n"); //NON-NLS
+        json.append("  \"ingestProfile\": ").append(quoteJson(ingestProfile)).append(",\n"); //NON-NLS
+        json.append("  \"dataSources\": ["); //NON-NLS
+        for (int i = 0; i < dataSources.size(); ++i) {
+            json.append(i > 0 ? ", " : "").append(quoteJson(dataSources.get(i).getName()));
+        }
+        json.append("],\n"); //NON-NLS
+        json.append("  \"jobId\": ").append(ingestRun.jobId).append(",\n"); //NON-NLS
+        json.append("  \"cancelled\": ").append(ingestRun.cancelled).append(",\n"); //NON-NLS
+        json.append("  \"timingsMs\": {\"addDataSource\": ").append(addDataSourceTime); //NON-NLS
+        json.append(", \"ingest\": ").append(ingestTime); //NON-NLS
+        json.append(", \"total\": ").append(totalTime).append("},\n"); //NON-NLS
+
+        long filesProcessed = 0;
+        for (FileIngestMetrics metrics : ingestRun.fileIngestMetrics) {
+            filesProcessed += metrics.getFileTaskTimes().getCount();
+        }
+        json.append("  \"filesProcessed\": ").append(filesProcessed).append(",\n"); //NON-NLS
+        json.append("  \"filesPerSecond\": ").append(ingestTime > 0 ? String.format(Locale.ROOT, "%.2f", filesProcessed * 1000.0 / ingestTime) : "0").append(",\n"); //NON-NLS
+
+        json.append("  \"artifactCounts\": {"); //NON-NLS
+        try {
+            SleuthkitCase caseDb = Case.getCurrentCase().getSleuthkitCase();
+            List<BlackboardArtifact.Type> artifactTypes = caseDb.getArtifactTypesInUse();
+            Collections.sort(artifactTypes, (t1, t2) -> t1.getTypeName().compareTo(t2.getTypeName()));
+            for (int i = 0; i < artifactTypes.size(); ++i) {
+                BlackboardArtifact.Type artifactType = artifactTypes.get(i);
+                json.append(i > 0 ? ", " : "").append(quoteJson(artifactType.getTypeName())).append(": ");
+                json.append(caseDb.getBlackboardArtifactsTypeCount(artifactType.getTypeID()));
+            }
+        } catch (TskCoreException ex) {
+            logger.log(Level.SEVERE, "Failed to count artifacts", ex); //NON-NLS
+        }
+        json.append("},\n"); //NON-NLS
+
+        /*
+         * Throughput of each module, over the time the module itself spent on
+         * files, so that the modules can be compared with each other.
+         */
+        Map<String, long[]> moduleTotals = new TreeMap<>();
+        for (FileIngestMetrics metrics : ingestRun.fileIngestMetrics) {
+            for (FileIngestMetrics.ModuleMetrics moduleMetrics : metrics.getModuleMetrics()) {
+                long[] totals = moduleTotals.computeIfAbsent(moduleMetrics.getModuleName(), name -> new long[3]);
+                totals[0] += moduleMetrics.getLatency().getCount();
+                totals[1] += moduleMetrics.getBytes();
+                totals[2] += moduleMetrics.getLatency().getTotalNanos();
+            }
+        }
+        json.append("  \"modules\": {"); //NON-NLS
+        int moduleIndex = 0;
+        for (Map.Entry<String, long[]> entry : moduleTotals.entrySet()) {
+            long[] totals = entry.getValue();
+            double seconds = totals[2] / 1e9;
+            json.append(moduleIndex++ > 0 ? "," : "").append("\n    ").append(quoteJson(entry.getKey()));
+            json.append(": {\"files\": ").append(totals[0]); //NON-NLS
+            json.append(", \"bytes\": ").append(totals[1]); //NON-NLS
+            json.append(", \"timeMs\": ").append(totals[2] / 1000000); //NON-NLS
+            json.append(", \"filesPerSecond\": ").append(String.format(Locale.ROOT, "%.2f", seconds > 0 ? totals[0] / seconds : 0.0)); //NON-NLS
+            json.append(", \"bytesPerSecond\": ").append(String.format(Locale.ROOT, "%.0f", seconds > 0 ? totals[1] / seconds : 0.0)).append('}'); //NON-NLS
+        }
+        json.append("\n  },\n"); //NON-NLS
+
+        if (null != dataSourceManifest) {
+            try {
+                json.append("  \"syntheticDataSource\": ").append(new String(Files.readAllBytes(dataSourceManifest), StandardCharsets.UTF_8).trim()).append(",\n"); //NON-NLS
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, String.format("Failed to read synthetic data source manifest %s", dataSourceManifest), ex); //NON-NLS
+            }
+        }
+
+        json.append("  \"fileIngest\": ["); //NON-NLS
+        for (int i = 0; i < ingestRun.fileIngestMetrics.size(); ++i) {
+            json.append(i > 0 ? ",\n" : "\n").append(ingestRun.fileIngestMetrics.get(i).toJson().trim());
+        }
+        json.append("\n  ]\n}\n"); //NON-NLS
+
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (null != parent) {
+                Files.createDirectories(parent);
+            }
+            try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                writer.write(json.toString());
+            }
+        } catch (IOException ex) {
+            throw new CommandLineIngestException(String.format("Failed to write summary to %s", path), ex); //NON-NLS
+        }
+    }
+
+    private static String quoteJson(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c)); //NON-NLS
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * The outcome of an ingest job.
+     */
+    private static final class IngestRun {
+
+        private final long jobId;
+        private final boolean cancelled;
+        private final List<FileIngestMetrics> fileIngestMetrics;
+
+        private IngestRun(long jobId, boolean cancelled, List<FileIngestMetrics> fileIngestMetrics) {
+            this.jobId = jobId;
+            this.cancelled = cancelled;
+            this.fileIngestMetrics = fileIngestMetrics;
+        }
+    }
+
+    /**
+     * Listens for the end of ingest jobs.
+     */
+    private static final class JobEndListener implements PropertyChangeListener {
+
+        private final List<Long> completedJobIds = new ArrayList<>();
+        private final List<Long> cancelledJobIds = new ArrayList<>();
+
+        @Override
+        public synchronized void propertyChange(PropertyChangeEvent event) {
+            if (!(event.getOldValue() instanceof Long)) {
+                return;
+            }
+            if (IngestManager.IngestJobEvent.COMPLETED.toString().equals(event.getPropertyName())) {
+                completedJobIds.add((Long) event.getOldValue());
+                notifyAll();
+            } else if (IngestManager.IngestJobEvent.CANCELLED.toString().equals(event.getPropertyName())) {
+                cancelledJobIds.add((Long) event.getOldValue());
+                notifyAll();
+            }
+        }
+
+        private synchronized void awaitEnd(long jobId) throws InterruptedException {
+            while (!completedJobIds.contains(jobId) && !cancelledJobIds.contains(jobId)) {
+                wait();
+            }
+        }
+
+        private synchronized boolean wasCancelled(long jobId) {
+            return cancelledJobIds.contains(jobId);
+        }
+    }
+
+    /**
+     * Receives the results of a data source processor on its own thread
+     * instead of the EDT, which may not be running without a display.
+     */
+    private static final class AddDataSourceCallback extends DataSourceProcessorCallback {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private DataSourceProcessorResult result;
+        private final List<String> errors = new ArrayList<>();
+        private final List<Content> dataSources = new ArrayList<>();
+
+        @Override
+        public void done(DataSourceProcessorResult result, List<String> errList, List<Content> newDataSources) {
+            this.result = result;
+            this.errors.addAll(errList);
+            this.dataSources.addAll(newDataSources);
+            done.countDown();
+        }
+
+        /**
+         * Not called, since done() is overridden to receive the results on the
+         * thread of the data source processor, but delegates to done() so that
+         * the results are not lost if it is.
+         */
+        @Override
+        public void doneEDT(DataSourceProcessorResult result, List<String> errList, List<Content> newDataSources) {
+            done(result, errList, newDataSources);
+        }
+    }
+
+    /**
+     * Logs the progress messages of a data source processor.
+     */
+    private static final class ProgressMonitor implements DataSourceProcessorProgressMonitor {
+
+        @Override
+        public void setIndeterminate(boolean indeterminate) {
+        }
+
+        @Override
+        public void setProgress(int progress) {
+        }
+
+        @Override
+        public void setProgressText(String text) {
+            logger.log(Level.INFO, "Adding data source: {0}", text); //NON-NLS
+        }
+    }
+
+    /**
+     * Exception thrown when a command line ingest run fails.
+     */
+    static final class CommandLineIngestException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        CommandLineIngestException(String message) {
+            super(message);
+        }
+
+        CommandLineIngestException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+}
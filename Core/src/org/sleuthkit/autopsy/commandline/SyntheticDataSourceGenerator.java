@@ -0,0 +1,586 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.commandline;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates a synthetic logical data source, a directory tree of files of the
+ * kinds found on a user's computer, for reproducible ingest load tests: text,
+ * HTML, RTF, Word and PDF documents, JPEG and PNG images, zip archives nested
+ * to a given depth, mbox email stores with attachments, Chrome and Firefox
+ * history databases, and large binary files. The content of the files depends
+ * only on the seed and the counts, so two data sources generated from the same
+ * specification are ingested the same way.
+ * <p>
+ * The directory can be added to a case as local files, e.g., with the
+ * --local-files or --synthetic command line options, or used as the img_path
+ * of the regression test. The generator writes a manifest, with the
+ * specification and the number of files and bytes of each kind, next to the
+ * directory, for computing files and bytes per second.
+ * <p>
+ * The specification is a comma-separated list of name=value pairs, e.g.,
+ * "documents=500,images=200,archives=20,nesting=2,seed=7"; see
+ * {@link #DEFAULT_SPEC} for the names and defaults.
+ */
+public final class SyntheticDataSourceGenerator {
+
+    /**
+     * The default specification.
+     */
+    public static final String DEFAULT_SPEC = "seed=1,documents=200,images=100,archives=20,nesting=2,mailboxes=5,messages=50,browserdbs=2,binaries=2,binarymb=64"; //NON-NLS
+    private static final String[] WORDS = {
+        "evidence", "invoice", "password", "meeting", "transfer", "account", "schedule", "report", //NON-NLS
+        "contract", "shipment", "balance", "network", "payment", "server", "customer", "delivery", //NON-NLS
+        "quarterly", "confidential", "project", "budget", "agreement", "vendor", "warehouse", "travel" //NON-NLS
+    };
+    private static final String[] NAMES = {"alice", "bob", "carol", "dave", "erin", "frank", "grace", "heidi"}; //NON-NLS
+    private static final String[] DOMAINS = {"example.com", "example.org", "example.net"}; //NON-NLS
+    private static final long FIXED_TIME_MILLIS = 1451606400000L; // 2016-01-01T00:00:00Z, for reproducible archive entries
+    private final Map<String, Long> spec;
+    private final Map<String, long[]> generated;
+
+    /**
+     * Runs the generator from the command line, e.g., from the build of the
+     * regression test.
+     *
+     * @param args The output directory, and optionally a specification.
+     *
+     * @throws IOException if the data source cannot be generated.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SyntheticDataSourceGenerator <output directory> [spec]"); //NON-NLS
+            System.err.println("Default spec: " + DEFAULT_SPEC); //NON-NLS
+            System.exit(1);
+        }
+        SyntheticDataSourceGenerator generator = new SyntheticDataSourceGenerator(args.length > 1 ? args[1] : DEFAULT_SPEC);
+        Path manifest = generator.generate(Paths.get(args[0]));
+        System.out.println(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Constructs a generator of a synthetic logical data source.
+     *
+     * @param specification The specification, a comma-separated list of
+     *                      name=value pairs. Names left out get their default
+     *                      values.
+     *
+     * @throws IllegalArgumentException if the specification cannot be parsed.
+     */
+    public SyntheticDataSourceGenerator(String specification) {
+        this.spec = parseSpec(DEFAULT_SPEC);
+        for (Map.Entry<String, Long> entry : parseSpec(specification).entrySet()) {
+            if (!spec.containsKey(entry.getKey())) {
+                throw new IllegalArgumentException(String.format("Unknown synthetic data source setting %s", entry.getKey())); //NON-NLS
+            }
+            spec.put(entry.getKey(), entry.getValue());
+        }
+        this.generated = new LinkedHashMap<>();
+    }
+
+    /**
+     * Gets the specification, with defaults filled in, in a canonical form.
+     *
+     * @return The specification.
+     */
+    public String getSpecification() {
+        StringBuilder canonical = new StringBuilder();
+        for (Map.Entry<String, Long> entry : spec.entrySet()) {
+            if (canonical.length() > 0) {
+                canonical.append(',');
+            }
+            canonical.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * Gets the path of the manifest of a data source directory.
+     *
+     * @param directory The data source directory.
+     *
+     * @return The manifest path, a sibling of the directory.
+     */
+    public static Path getManifestPath(Path directory) {
+        Path absolute = directory.toAbsolutePath().normalize();
+        return absolute.resolveSibling(absolute.getFileName() + "-manifest.json"); //NON-NLS
+    }
+
+    /**
+     * Generates the data source. If the directory was already generated from
+     * the same specification, it is reused.
+     *
+     * @param directory The directory, which must not exist or be empty unless
+     *                  it was generated from the same specification.
+     *
+     * @return The path of the manifest.
+     *
+     * @throws IOException if the directory is not empty and was not generated
+     *                     from the same specification, or if there is a
+     *                     problem writing the files.
+     */
+    public Path generate(Path directory) throws IOException {
+        Path manifest = getManifestPath(directory);
+        if (Files.isDirectory(directory)) {
+            boolean empty;
+            try (Stream<Path> entries = Files.list(directory)) {
+                empty = !entries.findAny().isPresent();
+            }
+            if (!empty) {
+                if (Files.isRegularFile(manifest) && new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8).contains(quoteJson(getSpecification()))) {
+                    return manifest;
+                }
+                throw new IOException(String.format("%s is not empty and was not generated from spec %s", directory, getSpecification())); //NON-NLS
+            }
+        }
+        Files.createDirectories(directory);
+        generated.clear();
+        Random random = new Random(spec.get("seed")); //NON-NLS
+
+        Path documentsDir = Files.createDirectories(directory.resolve("Users/alice/Documents")); //NON-NLS
+        for (int i = 0; i < spec.get("documents"); ++i) { //NON-NLS
+            String name = String.format("document%05d", i); //NON-NLS
+            switch (i % 5) {
+                case 0:
+                    write(documentsDir.resolve(name + ".txt"), "documents", makeText(random, 400).getBytes(StandardCharsets.UTF_8)); //NON-NLS
+                    break;
+                case 1:
+                    write(documentsDir.resolve(name + ".html"), "documents", makeHtml(random)); //NON-NLS
+                    break;
+                case 2:
+                    write(documentsDir.resolve(name + ".rtf"), "documents", makeRtf(random)); //NON-NLS
+                    break;
+                case 3:
+                    write(documentsDir.resolve(name + ".docx"), "documents", makeDocx(random)); //NON-NLS
+                    break;
+                default:
+                    write(documentsDir.resolve(name + ".pdf"), "documents", makePdf(random)); //NON-NLS
+                    break;
+            }
+        }
+
+        Path picturesDir = Files.createDirectories(directory.resolve("Users/alice/Pictures")); //NON-NLS
+        for (int i = 0; i < spec.get("images"); ++i) { //NON-NLS
+            boolean jpeg = (i % 2 == 0);
+            write(picturesDir.resolve(String.format("IMG_%05d.%s", i, jpeg ? "jpg" : "png")), "images", makeImage(random, jpeg ? "jpg" : "png")); //NON-NLS
+        }
+
+        Path downloadsDir = Files.createDirectories(directory.resolve("Users/bob/Downloads")); //NON-NLS
+        for (int i = 0; i < spec.get("archives"); ++i) { //NON-NLS
+            write(downloadsDir.resolve(String.format("archive%04d.zip", i)), "archives", makeArchive(random, spec.get("nesting").intValue())); //NON-NLS
+        }
+
+        Path mailDir = Files.createDirectories(directory.resolve("Users/carol/AppData/Roaming/Thunderbird/Profiles/synthetic.default/Mail/Local Folders")); //NON-NLS
+        for (int i = 0; i < spec.get("mailboxes"); ++i) { //NON-NLS
+            write(mailDir.resolve(String.format("Inbox%02d", i)), "mailboxes", makeMbox(random, spec.get("messages").intValue())); //NON-NLS
+        }
+
+        for (int i = 0; i < spec.get("browserdbs"); ++i) { //NON-NLS
+            String user = NAMES[i % NAMES.length];
+            if (i % 2 == 0) {
+                Path chromeDir = Files.createDirectories(directory.resolve(String.format("Users/%s/AppData/Local/Google/Chrome/User Data/Profile %d", user, i))); //NON-NLS
+                writeChromeHistory(random, chromeDir.resolve("History")); //NON-NLS
+            } else {
+                Path firefoxDir = Files.createDirectories(directory.resolve(String.format("Users/%s/AppData/Roaming/Mozilla/Firefox/Profiles/synthetic%d.default", user, i))); //NON-NLS
+                writeFirefoxHistory(random, firefoxDir.resolve("places.sqlite")); //NON-NLS
+            }
+        }
+
+        Path binariesDir = Files.createDirectories(directory.resolve("ProgramData/Backups")); //NON-NLS
+        for (int i = 0; i < spec.get("binaries"); ++i) { //NON-NLS
+            writeLargeBinary(random, binariesDir.resolve(String.format("backup%02d.bin", i)), spec.get("binarymb") * 1024 * 1024); //NON-NLS
+        }
+
+        writeManifest(manifest, directory);
+        return manifest;
+    }
+
+    private void write(Path path, String kind, byte[] content) throws IOException {
+        Files.write(path, content);
+        record(kind, content.length);
+    }
+
+    private void record(String kind, long bytes) {
+        long[] counts = generated.get(kind);
+        if (null == counts) {
+            counts = new long[2];
+            generated.put(kind, counts);
+        }
+        counts[0]++;
+        counts[1] += bytes;
+    }
+
+    private void writeManifest(Path manifest, Path directory) throws IOException {
+        long totalFiles = 0;
+        long totalBytes = 0;
+        StringBuilder json = new StringBuilder();
+        json.append("{\n"); //NON-NLS
+        json.append("  \"spec\": ").append(quoteJson(getSpecification())).append(",\n"); //NON-NLS
+        json.append("  \"directory\": ").append(quoteJson(directory.toAbsolutePath().toString())).append(",\n"); //NON-NLS
+        json.append("  \"kinds\": {"); //NON-NLS
+        int i = 0;
+        for (Map.Entry<String, long[]> entry : generated.entrySet()) {
+            json.append(i++ > 0 ? ", " : "").append(quoteJson(entry.getKey()));
+            json.append(": {\"files\": ").append(entry.getValue()[0]).append(", \"bytes\": ").append(entry.getValue()[1]).append('}'); //NON-NLS
+            totalFiles += entry.getValue()[0];
+            totalBytes += entry.getValue()[1];
+        }
+        json.append("},\n"); //NON-NLS
+        json.append("  \"files\": ").append(totalFiles).append(",\n"); //NON-NLS
+        json.append("  \"bytes\": ").append(totalBytes).append("\n}\n"); //NON-NLS
+        try (Writer writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    private static String makeText(Random random, int wordCount) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; ++i) {
+            if (i > 0) {
+                text.append(i % 15 == 0 ? ".\n" : " ");
+            }
+            switch (random.nextInt(50)) {
+                case 0:
+                    text.append(makeEmailAddress(random));
+                    break;
+                case 1:
+                    text.append(String.format("555-%03d-%04d", random.nextInt(1000), random.nextInt(10000))); //NON-NLS
+                    break;
+                case 2:
+                    text.append(String.format("192.168.%d.%d", random.nextInt(256), random.nextInt(256))); //NON-NLS
+                    break;
+                default:
+                    text.append(WORDS[random.nextInt(WORDS.length)]);
+                    break;
+            }
+        }
+        return text.append(".\n").toString();
+    }
+
+    private static String makeEmailAddress(Random random) {
+        return NAMES[random.nextInt(NAMES.length)] + '@' + DOMAINS[random.nextInt(DOMAINS.length)];
+    }
+
+    private static byte[] makeHtml(Random random) {
+        StringBuilder html = new StringBuilder("<html><head><title>"); //NON-NLS
+        html.append(makeText(random, 5).trim()).append("</title></head><body>\n"); //NON-NLS
+        for (int i = 0; i < 8; ++i) {
+            html.append("<p>").append(makeText(random, 60)).append("</p>\n"); //NON-NLS
+        }
+        return html.append("</body></html>\n").toString().getBytes(StandardCharsets.UTF_8); //NON-NLS
+    }
+
+    private static byte[] makeRtf(Random random) {
+        StringBuilder rtf = new StringBuilder("{\\rtf1\\ansi\\deff0 {\\fonttbl {\\f0 Times New Roman;}}\n"); //NON-NLS
+        for (int i = 0; i < 8; ++i) {
+            rtf.append("\\pard ").append(makeText(random, 60).replace("\n", " ")).append("\\par\n"); //NON-NLS
+        }
+        return rtf.append("}\n").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] makeDocx(Random random) throws IOException {
+        StringBuilder document = new StringBuilder();
+        document.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"); //NON-NLS
+        document.append("<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>"); //NON-NLS
+        for (int i = 0; i < 8; ++i) {
+            document.append("<w:p><w:r><w:t>").append(makeText(random, 60).replace("\n", " ")).append("</w:t></w:r></w:p>"); //NON-NLS
+        }
+        document.append("</w:body></w:document>"); //NON-NLS
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("[Content_Types].xml", ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" //NON-NLS
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" //NON-NLS
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" //NON-NLS
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>" //NON-NLS
+                + "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>" //NON-NLS
+                + "</Types>").getBytes(StandardCharsets.UTF_8)); //NON-NLS
+        entries.put("_rels/.rels", ("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" //NON-NLS
+                + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">" //NON-NLS
+                + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>" //NON-NLS
+                + "</Relationships>").getBytes(StandardCharsets.UTF_8)); //NON-NLS
+        entries.put("word/document.xml", document.toString().getBytes(StandardCharsets.UTF_8)); //NON-NLS
+        return makeZip(entries);
+    }
+
+    private static byte[] makePdf(Random random) {
+        StringBuilder page = new StringBuilder("BT /F1 10 Tf 40 760 Td 12 TL\n"); //NON-NLS
+        for (String line : makeText(random, 300).split("\n")) {
+            page.append('(').append(line.replace("\\", "\\\\").replace("(", "\\(").replace(")", "\\)")).append(") '\n"); //NON-NLS
+        }
+        page.append("ET\n"); //NON-NLS
+        String[] objects = {
+            "<< /Type /Catalog /Pages 2 0 R >>", //NON-NLS
+            "<< /Type /Pages /Kids [3 0 R] /Count 1 >>", //NON-NLS
+            "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 612 792] /Contents 4 0 R /Resources << /Font << /F1 5 0 R >> >> >>", //NON-NLS
+            "<< /Length " + page.length() + " >>\nstream\n" + page + "endstream", //NON-NLS
+            "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>" //NON-NLS
+        };
+        StringBuilder pdf = new StringBuilder("%PDF-1.4\n"); //NON-NLS
+        int[] offsets = new int[objects.length];
+        for (int i = 0; i < objects.length; ++i) {
+            offsets[i] = pdf.length();
+            pdf.append(i + 1).append(" 0 obj\n").append(objects[i]).append("\nendobj\n"); //NON-NLS
+        }
+        int xrefOffset = pdf.length();
+        pdf.append("xref\n0 ").append(objects.length + 1).append("\n0000000000 65535 f \n"); //NON-NLS
+        for (int offset : offsets) {
+            pdf.append(String.format("%010d 00000 n \n", offset)); //NON-NLS
+        }
+        pdf.append("trailer\n<< /Size ").append(objects.length + 1).append(" /Root 1 0 R >>\nstartxref\n").append(xrefOffset).append("\n%%EOF\n"); //NON-NLS
+        return pdf.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] makeImage(Random random, String format) throws IOException {
+        int width = 320 + 32 * random.nextInt(10);
+        int height = 240 + 24 * random.nextInt(10);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(new Color(random.nextInt(0x1000000)));
+            graphics.fillRect(0, 0, width, height);
+            for (int i = 0; i < 40; ++i) {
+                graphics.setColor(new Color(random.nextInt(0x1000000)));
+                graphics.fillOval(random.nextInt(width), random.nextInt(height), 10 + random.nextInt(width / 2), 10 + random.nextInt(height / 2));
+            }
+        } finally {
+            graphics.dispose();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, format, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] makeArchive(Random random, int nesting) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 4; ++i) {
+            entries.put(String.format("notes%d.txt", i), makeText(random, 200).getBytes(StandardCharsets.UTF_8)); //NON-NLS
+        }
+        entries.put("report.pdf", makePdf(random)); //NON-NLS
+        entries.put("photo.jpg", makeImage(random, "jpg")); //NON-NLS
+        if (nesting > 0) {
+            entries.put(String.format("nested%d.zip", nesting), makeArchive(random, nesting - 1)); //NON-NLS
+        }
+        return makeZip(entries);
+    }
+
+    private static byte[] makeZip(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                zipEntry.setTime(FIXED_TIME_MILLIS);
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] makeMbox(Random random, int messageCount) throws IOException {
+        StringBuilder mbox = new StringBuilder();
+        for (int i = 0; i < messageCount; ++i) {
+            String from = makeEmailAddress(random);
+            String to = makeEmailAddress(random);
+            String date = String.format("Mon, %d Feb 2016 %02d:%02d:00 +0000", 1 + random.nextInt(28), random.nextInt(24), random.nextInt(60)); //NON-NLS
+            mbox.append("From ").append(from).append(" Mon Feb  1 00:00:00 2016\n"); //NON-NLS
+            mbox.append("From: ").append(from).append('\n'); //NON-NLS
+            mbox.append("To: ").append(to).append('\n'); //NON-NLS
+            mbox.append("Subject: ").append(makeText(random, 4).trim()).append('\n'); //NON-NLS
+            mbox.append("Date: ").append(date).append('\n'); //NON-NLS
+            mbox.append(String.format("Message-ID: <synthetic.%d.%d@example.com>\n", i, random.nextInt(1000000))); //NON-NLS
+            mbox.append("MIME-Version: 1.0\n"); //NON-NLS
+            String body = makeText(random, 80).replace("\nFrom ", "\n>From "); //NON-NLS
+            if (i % 5 == 0) {
+                String boundary = String.format("synthetic-boundary-%d", i); //NON-NLS
+                mbox.append("Content-Type: multipart/mixed; boundary=\"").append(boundary).append("\"\n\n"); //NON-NLS
+                mbox.append("--").append(boundary).append("\nContent-Type: text/plain; charset=UTF-8\n\n").append(body).append('\n'); //NON-NLS
+                mbox.append("--").append(boundary).append("\nContent-Type: application/pdf; name=\"attachment.pdf\"\n"); //NON-NLS
+                mbox.append("Content-Disposition: attachment; filename=\"attachment.pdf\"\nContent-Transfer-Encoding: base64\n\n"); //NON-NLS
+                mbox.append(Base64.getMimeEncoder().encodeToString(makePdf(random))).append('\n');
+                mbox.append("--").append(boundary).append("--\n\n"); //NON-NLS
+            } else {
+                mbox.append("Content-Type: text/plain; charset=UTF-8\n\n").append(body).append("\n\n"); //NON-NLS
+            }
+        }
+        return mbox.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeChromeHistory(Random random, Path path) throws IOException {
+        try (Connection connection = openSqlite(path); Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.execute("CREATE TABLE urls (id INTEGER PRIMARY KEY, url LONGVARCHAR, title LONGVARCHAR, visit_count INTEGER DEFAULT 0 NOT NULL, typed_count INTEGER DEFAULT 0 NOT NULL, last_visit_time INTEGER NOT NULL, hidden INTEGER DEFAULT 0 NOT NULL)"); //NON-NLS
+            statement.execute("CREATE TABLE visits (id INTEGER PRIMARY KEY, url INTEGER NOT NULL, visit_time INTEGER NOT NULL, from_visit INTEGER, transition INTEGER DEFAULT 0 NOT NULL)"); //NON-NLS
+            statement.execute("CREATE TABLE downloads (id INTEGER PRIMARY KEY, full_path LONGVARCHAR NOT NULL, url LONGVARCHAR NOT NULL, start_time INTEGER NOT NULL, received_bytes INTEGER NOT NULL)"); //NON-NLS
+            try (PreparedStatement insertUrl = connection.prepareStatement("INSERT INTO urls (id, url, title, visit_count, typed_count, last_visit_time, hidden) VALUES (?, ?, ?, 1, 0, ?, 0)"); //NON-NLS
+                    PreparedStatement insertVisit = connection.prepareStatement("INSERT INTO visits (url, visit_time, from_visit, transition) VALUES (?, ?, 0, 805306368)")) { //NON-NLS
+                for (int i = 1; i <= 500; ++i) {
+                    // Chrome times are microseconds since 1601-01-01
+                    long visitTime = (FIXED_TIME_MILLIS + random.nextInt(86400) * 1000L + 11644473600000L) * 1000L;
+                    insertUrl.setInt(1, i);
+                    insertUrl.setString(2, makeUrl(random));
+                    insertUrl.setString(3, makeText(random, 4).trim());
+                    insertUrl.setLong(4, visitTime);
+                    insertUrl.executeUpdate();
+                    insertVisit.setInt(1, i);
+                    insertVisit.setLong(2, visitTime);
+                    insertVisit.executeUpdate();
+                }
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            throw new IOException(String.format("Failed to write %s", path), ex); //NON-NLS
+        }
+        record("browserdbs", Files.size(path)); //NON-NLS
+    }
+
+    private void writeFirefoxHistory(Random random, Path path) throws IOException {
+        try (Connection connection = openSqlite(path); Statement statement = connection.createStatement()) {
+            connection.setAutoCommit(false);
+            statement.execute("CREATE TABLE moz_places (id INTEGER PRIMARY KEY, url LONGVARCHAR, title LONGVARCHAR, rev_host LONGVARCHAR, visit_count INTEGER DEFAULT 0, hidden INTEGER DEFAULT 0 NOT NULL, typed INTEGER DEFAULT 0 NOT NULL, frecency INTEGER DEFAULT -1 NOT NULL, last_visit_date INTEGER)"); //NON-NLS
+            statement.execute("CREATE TABLE moz_historyvisits (id INTEGER PRIMARY KEY, from_visit INTEGER, place_id INTEGER, visit_date INTEGER, visit_type INTEGER, session INTEGER)"); //NON-NLS
+            statement.execute("CREATE TABLE moz_bookmarks (id INTEGER PRIMARY KEY, type INTEGER, fk INTEGER DEFAULT NULL, parent INTEGER, position INTEGER, title LONGVARCHAR, dateAdded INTEGER, lastModified INTEGER)"); //NON-NLS
+            try (PreparedStatement insertPlace = connection.prepareStatement("INSERT INTO moz_places (id, url, title, visit_count, hidden, last_visit_date) VALUES (?, ?, ?, 1, 0, ?)"); //NON-NLS
+                    PreparedStatement insertVisit = connection.prepareStatement("INSERT INTO moz_historyvisits (from_visit, place_id, visit_date, visit_type, session) VALUES (0, ?, ?, 1, 0)"); //NON-NLS
+                    PreparedStatement insertBookmark = connection.prepareStatement("INSERT INTO moz_bookmarks (type, fk, parent, position, title, dateAdded, lastModified) VALUES (1, ?, 2, ?, ?, ?, ?)")) { //NON-NLS
+                for (int i = 1; i <= 500; ++i) {
+                    // Firefox times are microseconds since 1970-01-01
+                    long visitTime = (FIXED_TIME_MILLIS + random.nextInt(86400) * 1000L) * 1000L;
+                    String title = makeText(random, 4).trim();
+                    insertPlace.setInt(1, i);
+                    insertPlace.setString(2, makeUrl(random));
+                    insertPlace.setString(3, title);
+                    insertPlace.setLong(4, visitTime);
+                    insertPlace.executeUpdate();
+                    insertVisit.setInt(1, i);
+                    insertVisit.setLong(2, visitTime);
+                    insertVisit.executeUpdate();
+                    if (i % 25 == 0) {
+                        insertBookmark.setInt(1, i);
+                        insertBookmark.setInt(2, i / 25);
+                        insertBookmark.setString(3, title);
+                        insertBookmark.setLong(4, visitTime);
+                        insertBookmark.setLong(5, visitTime);
+                        insertBookmark.executeUpdate();
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            throw new IOException(String.format("Failed to write %s", path), ex); //NON-NLS
+        }
+        record("browserdbs", Files.size(path)); //NON-NLS
+    }
+
+    private static Connection openSqlite(Path path) throws SQLException {
+        try {
+            Class.forName("org.sqlite.JDBC"); //NON-NLS //load JDBC driver
+        } catch (ClassNotFoundException ex) {
+            throw new SQLException("SQLite JDBC driver not found", ex); //NON-NLS
+        }
+        return DriverManager.getConnection("jdbc:sqlite:" + path.toAbsolutePath()); //NON-NLS
+    }
+
+    private static String makeUrl(Random random) {
+        return String.format("https://www.%s/%s/%s?id=%d", DOMAINS[random.nextInt(DOMAINS.length)], //NON-NLS
+                WORDS[random.nextInt(WORDS.length)], WORDS[random.nextInt(WORDS.length)], random.nextInt(100000));
+    }
+
+    private void writeLargeBinary(Random random, Path path, long size) throws IOException {
+        /*
+         * Random bytes with a run of text every megabyte, so that string
+         * extraction finds something, written a megabyte at a time.
+         */
+        Random contentRandom = new Random(random.nextLong());
+        byte[] block = new byte[1024 * 1024];
+        long written = 0;
+        try (OutputStream out = Files.newOutputStream(path)) {
+            while (written < size) {
+                contentRandom.nextBytes(block);
+                byte[] text = makeText(contentRandom, 50).getBytes(StandardCharsets.US_ASCII);
+                System.arraycopy(text, 0, block, contentRandom.nextInt(block.length - text.length), text.length);
+                int length = (int) Math.min(block.length, size - written);
+                out.write(block, 0, length);
+                written += length;
+            }
+        }
+        record("binaries", written); //NON-NLS
+    }
+
+    private static Map<String, Long> parseSpec(String specification) {
+        Map<String, Long> parsed = new LinkedHashMap<>();
+        for (String setting : specification.split(",")) {
+            if (setting.trim().isEmpty()) {
+                continue;
+            }
+            String[] nameAndValue = setting.split("=", 2);
+            if (nameAndValue.length != 2) {
+                throw new IllegalArgumentException(String.format("Malformed synthetic data source setting %s", setting)); //NON-NLS
+            }
+            try {
+                long value = Long.parseLong(nameAndValue[1].trim());
+                if (value < 0) {
+                    throw new IllegalArgumentException(String.format("Negative synthetic data source setting %s", setting)); //NON-NLS
+                }
+                parsed.put(nameAndValue[0].trim(), value);
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException(String.format("Malformed synthetic data source setting %s", setting), ex); //NON-NLS
+            }
+        }
+        return parsed;
+    }
+
+    private static String quoteJson(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c)); //NON-NLS
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
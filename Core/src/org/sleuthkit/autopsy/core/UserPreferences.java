@@ -47,6 +47,20 @@ public final class UserPreferences {
     public static final String HIDE_KNOWN_FILES_IN_VIEWS_TREE = "HideKnownFilesInViewsTree"; //NON-NLS 
     public static final String DISPLAY_TIMES_IN_LOCAL_TIME = "DisplayTimesInLocalTime"; //NON-NLS
     public static final String NUMBER_OF_FILE_INGEST_THREADS = "NumberOfFileIngestThreads"; //NON-NLS
+    public static final String NUMBER_OF_DATA_SOURCE_INGEST_THREADS = "NumberOfDataSourceIngestThreads"; //NON-NLS
+    public static final String USE_WORK_STEALING_FILE_INGEST_SCHEDULER = "UseWorkStealingFileIngestScheduler"; //NON-NLS
+    public static final String FILE_INGEST_TASK_PREFETCH_MARGIN = "FileIngestTaskPrefetchMargin"; //NON-NLS
+    public static final String AUTO_TUNE_FILE_INGEST_THREADS = "AutoTuneFileIngestThreads"; //NON-NLS
+    public static final String USE_COST_AWARE_FILE_INGEST_SCHEDULER = "UseCostAwareFileIngestScheduler"; //NON-NLS
+    public static final String LARGE_FILE_INGEST_THRESHOLD_MB = "LargeFileIngestThresholdMB"; //NON-NLS
+    public static final String USE_FAIR_SHARE_FILE_INGEST_SCHEDULER = "UseFairShareFileIngestScheduler"; //NON-NLS
+    public static final String FILE_INGEST_MODULE_TIME_BUDGET_SECONDS = "FileIngestModuleTimeBudgetSeconds"; //NON-NLS
+    public static final String FILE_INGEST_MODULE_TIME_BUDGET_SECONDS_PER_MB = "FileIngestModuleTimeBudgetSecondsPerMB"; //NON-NLS
+    public static final String FILE_INGEST_CONTENT_CACHE_THRESHOLD_MB = "FileIngestContentCacheThresholdMB"; //NON-NLS
+    public static final String USE_STAGED_FILE_INGEST = "UseStagedFileIngest"; //NON-NLS
+    public static final String USE_INGEST_JOB_JOURNAL = "UseIngestJobJournal"; //NON-NLS
+    public static final String RESUME_INTERRUPTED_INGEST_JOBS = "ResumeInterruptedIngestJobs"; //NON-NLS
+    public static final String INGEST_EVENT_COALESCING_WINDOW_MS = "IngestEventCoalescingWindowMs"; //NON-NLS
     public static final String IS_MULTI_USER_MODE_ENABLED = "IsMultiUserModeEnabled"; //NON-NLS
     public static final String EXTERNAL_DATABASE_HOSTNAME_OR_IP = "ExternalDatabaseHostnameOrIp"; //NON-NLS
     public static final String EXTERNAL_DATABASE_PORTNUMBER = "ExternalDatabasePortNumber"; //NON-NLS
@@ -63,6 +77,7 @@ public final class UserPreferences {
     public static final String PROCESS_TIME_OUT_ENABLED = "ProcessTimeOutEnabled"; //NON-NLS     
     public static final String PROCESS_TIME_OUT_HOURS = "ProcessTimeOutHours"; //NON-NLS  
     private static final int DEFAULT_PROCESS_TIMEOUT_HR = 60;
+    private static final int MAX_FILE_INGEST_CONTENT_CACHE_THRESHOLD_MB = 512;
     private static final String DEFAULT_PORT_STRING = "61616";
     private static final int DEFAULT_PORT_INT = 61616;
     private static final String APP_NAME = "AppName";
@@ -140,6 +155,364 @@ public static void setNumberOfFileIngestThreads(int value) {
         preferences.putInt(NUMBER_OF_FILE_INGEST_THREADS, value);
     }
 
+    /**
+     * Reads persisted number of data source ingest threads. With more than
+     * one, the data source ingest modules of different ingest jobs run at the
+     * same time, as do consecutive data source ingest modules of a job that
+     * are safe to run concurrently. Takes effect on restart.
+     *
+     * @return The number of data source ingest threads.
+     */
+    public static int numberOfDataSourceIngestThreads() {
+        return preferences.getInt(NUMBER_OF_DATA_SOURCE_INGEST_THREADS, 1);
+    }
+
+    /**
+     * Stores persisted number of data source ingest threads. Takes effect on
+     * restart.
+     *
+     * @param value The number of data source ingest threads.
+     */
+    public static void setNumberOfDataSourceIngestThreads(int value) {
+        preferences.putInt(NUMBER_OF_DATA_SOURCE_INGEST_THREADS, value);
+    }
+
+    /**
+     * Reads persisted setting of whether file ingest tasks are dispensed to
+     * the file ingest threads from per-thread work stealing deques instead of
+     * a single shared queue. Takes effect on restart.
+     *
+     * @return True if work stealing scheduling is enabled, false otherwise.
+     */
+    public static boolean useWorkStealingFileIngestScheduler() {
+        return preferences.getBoolean(USE_WORK_STEALING_FILE_INGEST_SCHEDULER, false);
+    }
+
+    /**
+     * Stores persisted setting of whether file ingest tasks are dispensed to
+     * the file ingest threads from per-thread work stealing deques instead of
+     * a single shared queue. Takes effect on restart.
+     *
+     * @param enabled True if work stealing scheduling is enabled, false
+     *                otherwise.
+     */
+    public static void setUseWorkStealingFileIngestScheduler(boolean enabled) {
+        preferences.putBoolean(USE_WORK_STEALING_FILE_INGEST_SCHEDULER, enabled);
+    }
+
+    /**
+     * Reads persisted number of file ingest tasks that a background directory
+     * walker should try to keep queued ahead of the file ingest threads. Zero
+     * means that directories are expanded by the file ingest threads
+     * themselves, as needed. Takes effect on restart.
+     *
+     * @return The prefetch margin, in file ingest tasks.
+     */
+    public static int fileIngestTaskPrefetchMargin() {
+        int margin = preferences.getInt(FILE_INGEST_TASK_PREFETCH_MARGIN, 0);
+        if (margin < 0) {
+            margin = 0;
+        }
+        return margin;
+    }
+
+    /**
+     * Stores persisted number of file ingest tasks that a background directory
+     * walker should try to keep queued ahead of the file ingest threads. Zero
+     * means that directories are expanded by the file ingest threads
+     * themselves, as needed. Takes effect on restart.
+     *
+     * @param value The prefetch margin, in file ingest tasks.
+     */
+    public static void setFileIngestTaskPrefetchMargin(int value) {
+        if (value < 0) {
+            value = 0;
+        }
+        preferences.putInt(FILE_INGEST_TASK_PREFETCH_MARGIN, value);
+    }
+
+    /**
+     * Reads persisted setting of whether the number of file ingest threads is
+     * adjusted automatically during ingest, based on measured CPU use, file
+     * ingest throughput and file ingest queue depth. The persisted number of
+     * file ingest threads is used as the starting point.
+     *
+     * @return True if auto-tuning is enabled, false otherwise.
+     */
+    public static boolean autoTuneFileIngestThreads() {
+        return preferences.getBoolean(AUTO_TUNE_FILE_INGEST_THREADS, false);
+    }
+
+    /**
+     * Stores persisted setting of whether the number of file ingest threads is
+     * adjusted automatically during ingest, based on measured CPU use, file
+     * ingest throughput and file ingest queue depth.
+     *
+     * @param enabled True if auto-tuning is enabled, false otherwise.
+     */
+    public static void setAutoTuneFileIngestThreads(boolean enabled) {
+        preferences.putBoolean(AUTO_TUNE_FILE_INGEST_THREADS, enabled);
+    }
+
+    /**
+     * Reads persisted setting of whether file ingest tasks are dispensed to
+     * the file ingest threads in order of expected cost, cheapest first, with
+     * very large files in a separate lane that only a share of the threads
+     * may work on at a time. Ignored if work stealing scheduling is enabled.
+     * Takes effect on restart.
+     *
+     * @return True if cost-aware scheduling is enabled, false otherwise.
+     */
+    public static boolean useCostAwareFileIngestScheduler() {
+        return preferences.getBoolean(USE_COST_AWARE_FILE_INGEST_SCHEDULER, false);
+    }
+
+    /**
+     * Stores persisted setting of whether file ingest tasks are dispensed to
+     * the file ingest threads in order of expected cost, cheapest first, with
+     * very large files in a separate lane that only a share of the threads
+     * may work on at a time. Ignored if work stealing scheduling is enabled.
+     * Takes effect on restart.
+     *
+     * @param enabled True if cost-aware scheduling is enabled, false
+     *                otherwise.
+     */
+    public static void setUseCostAwareFileIngestScheduler(boolean enabled) {
+        preferences.putBoolean(USE_COST_AWARE_FILE_INGEST_SCHEDULER, enabled);
+    }
+
+    /**
+     * Reads persisted size, in megabytes, at or above which a file is put in
+     * the large file lane by cost-aware file ingest scheduling. Takes effect
+     * on restart.
+     *
+     * @return The threshold, in megabytes.
+     */
+    public static int largeFileIngestThresholdMB() {
+        int threshold = preferences.getInt(LARGE_FILE_INGEST_THRESHOLD_MB, 1024);
+        if (threshold < 1) {
+            threshold = 1;
+        }
+        return threshold;
+    }
+
+    /**
+     * Stores persisted size, in megabytes, at or above which a file is put in
+     * the large file lane by cost-aware file ingest scheduling. Takes effect
+     * on restart.
+     *
+     * @param value The threshold, in megabytes.
+     */
+    public static void setLargeFileIngestThresholdMB(int value) {
+        if (value < 1) {
+            value = 1;
+        }
+        preferences.putInt(LARGE_FILE_INGEST_THRESHOLD_MB, value);
+    }
+
+    /**
+     * Reads persisted setting of whether file ingest tasks are dispensed to
+     * the file ingest threads from one queue per ingest job, with the jobs
+     * sharing the threads by priority and weight, instead of from a single
+     * queue shared by all jobs. Ignored if work stealing or cost-aware
+     * scheduling is enabled. Takes effect on restart.
+     *
+     * @return True if fair-share scheduling is enabled, false otherwise.
+     */
+    public static boolean useFairShareFileIngestScheduler() {
+        return preferences.getBoolean(USE_FAIR_SHARE_FILE_INGEST_SCHEDULER, false);
+    }
+
+    /**
+     * Stores persisted setting of whether file ingest tasks are dispensed to
+     * the file ingest threads from one queue per ingest job, with the jobs
+     * sharing the threads by priority and weight, instead of from a single
+     * queue shared by all jobs. Ignored if work stealing or cost-aware
+     * scheduling is enabled. Takes effect on restart.
+     *
+     * @param enabled True if fair-share scheduling is enabled, false
+     *                otherwise.
+     */
+    public static void setUseFairShareFileIngestScheduler(boolean enabled) {
+        preferences.putBoolean(USE_FAIR_SHARE_FILE_INGEST_SCHEDULER, enabled);
+    }
+
+    /**
+     * Reads persisted base time budget, in seconds, for a call of a file
+     * ingest module on a file, to which the per megabyte budget is added for
+     * the size of the file. A file on which a module runs past its budget is
+     * quarantined. Zero means that module calls are not timed. Takes effect
+     * with the next ingest job.
+     *
+     * @return The base time budget, in seconds.
+     */
+    public static int fileIngestModuleTimeBudgetSeconds() {
+        int budget = preferences.getInt(FILE_INGEST_MODULE_TIME_BUDGET_SECONDS, 0);
+        if (budget < 0) {
+            budget = 0;
+        }
+        return budget;
+    }
+
+    /**
+     * Stores persisted base time budget, in seconds, for a call of a file
+     * ingest module on a file, to which the per megabyte budget is added for
+     * the size of the file. A file on which a module runs past its budget is
+     * quarantined. Zero means that module calls are not timed. Takes effect
+     * with the next ingest job.
+     *
+     * @param value The base time budget, in seconds.
+     */
+    public static void setFileIngestModuleTimeBudgetSeconds(int value) {
+        if (value < 0) {
+            value = 0;
+        }
+        preferences.putInt(FILE_INGEST_MODULE_TIME_BUDGET_SECONDS, value);
+    }
+
+    /**
+     * Reads persisted time budget, in seconds per megabyte of file size, that
+     * is added to the base time budget for a call of a file ingest module on
+     * a file. Takes effect with the next ingest job.
+     *
+     * @return The time budget, in seconds per megabyte.
+     */
+    public static int fileIngestModuleTimeBudgetSecondsPerMB() {
+        int budget = preferences.getInt(FILE_INGEST_MODULE_TIME_BUDGET_SECONDS_PER_MB, 2);
+        if (budget < 0) {
+            budget = 0;
+        }
+        return budget;
+    }
+
+    /**
+     * Stores persisted time budget, in seconds per megabyte of file size, that
+     * is added to the base time budget for a call of a file ingest module on
+     * a file. Takes effect with the next ingest job.
+     *
+     * @param value The time budget, in seconds per megabyte.
+     */
+    public static void setFileIngestModuleTimeBudgetSecondsPerMB(int value) {
+        if (value < 0) {
+            value = 0;
+        }
+        preferences.putInt(FILE_INGEST_MODULE_TIME_BUDGET_SECONDS_PER_MB, value);
+    }
+
+    /**
+     * Reads persisted size, in megabytes, up to which the whole content of a
+     * file is cached in memory while the file is in a file ingest pipeline, so
+     * that the file ingest modules do not each read it from the data source.
+     * Only the header of a larger file is cached. Zero means only headers are
+     * cached.
+     *
+     * @return The threshold, in megabytes.
+     */
+    public static int fileIngestContentCacheThresholdMB() {
+        return Math.max(0, Math.min(preferences.getInt(FILE_INGEST_CONTENT_CACHE_THRESHOLD_MB, 4), MAX_FILE_INGEST_CONTENT_CACHE_THRESHOLD_MB));
+    }
+
+    /**
+     * Stores persisted size, in megabytes, up to which the whole content of a
+     * file is cached in memory while the file is in a file ingest pipeline.
+     * Zero means only headers are cached.
+     *
+     * @param value The threshold, in megabytes.
+     */
+    public static void setFileIngestContentCacheThresholdMB(int value) {
+        preferences.putInt(FILE_INGEST_CONTENT_CACHE_THRESHOLD_MB, Math.max(0, Math.min(value, MAX_FILE_INGEST_CONTENT_CACHE_THRESHOLD_MB)));
+    }
+
+    /**
+     * Reads persisted setting of whether file ingest modules are run in
+     * stages, with separate threads for modules bound by reading, computation,
+     * indexing and database writes, so that different files can overlap
+     * across stages. Takes effect on restart.
+     *
+     * @return True if staged file ingest is enabled, false otherwise.
+     */
+    public static boolean useStagedFileIngest() {
+        return preferences.getBoolean(USE_STAGED_FILE_INGEST, false);
+    }
+
+    /**
+     * Stores persisted setting of whether file ingest modules are run in
+     * stages, with separate threads for modules bound by reading, computation,
+     * indexing and database writes. Takes effect on restart.
+     *
+     * @param enabled True if staged file ingest is enabled, false otherwise.
+     */
+    public static void setUseStagedFileIngest(boolean enabled) {
+        preferences.putBoolean(USE_STAGED_FILE_INGEST, enabled);
+    }
+
+    /**
+     * Reads persisted setting of whether ingest jobs record their progress in
+     * a journal in the case directory, so that a job interrupted by a crash
+     * can be resumed.
+     *
+     * @return True if ingest job journaling is enabled, false otherwise.
+     */
+    public static boolean useIngestJobJournal() {
+        return preferences.getBoolean(USE_INGEST_JOB_JOURNAL, false);
+    }
+
+    /**
+     * Stores persisted setting of whether ingest jobs record their progress in
+     * a journal in the case directory.
+     *
+     * @param enabled True if ingest job journaling is enabled, false
+     *                otherwise.
+     */
+    public static void setUseIngestJobJournal(boolean enabled) {
+        preferences.putBoolean(USE_INGEST_JOB_JOURNAL, enabled);
+    }
+
+    /**
+     * Reads persisted setting of whether interrupted ingest jobs with journals
+     * are resumed automatically when their case is opened.
+     *
+     * @return True if interrupted ingest jobs are resumed automatically, false
+     *         otherwise.
+     */
+    public static boolean resumeInterruptedIngestJobs() {
+        return preferences.getBoolean(RESUME_INTERRUPTED_INGEST_JOBS, false);
+    }
+
+    /**
+     * Stores persisted setting of whether interrupted ingest jobs with journals
+     * are resumed automatically when their case is opened.
+     *
+     * @param enabled True if interrupted ingest jobs are resumed
+     *                automatically, false otherwise.
+     */
+    public static void setResumeInterruptedIngestJobs(boolean enabled) {
+        preferences.putBoolean(RESUME_INTERRUPTED_INGEST_JOBS, enabled);
+    }
+
+    /**
+     * Reads persisted time window within which the blackboard post and
+     * content changed events fired by ingest modules are merged before they
+     * are published. Zero turns the merging off.
+     *
+     * @return The time window, in milliseconds.
+     */
+    public static long ingestEventCoalescingWindowMillis() {
+        return preferences.getLong(INGEST_EVENT_COALESCING_WINDOW_MS, 1000);
+    }
+
+    /**
+     * Stores persisted time window within which the blackboard post and
+     * content changed events fired by ingest modules are merged before they
+     * are published.
+     *
+     * @param windowMillis The time window, in milliseconds, zero to turn the
+     *                     merging off.
+     */
+    public static void setIngestEventCoalescingWindowMillis(long windowMillis) {
+        preferences.putLong(INGEST_EVENT_COALESCING_WINDOW_MS, windowMillis);
+    }
+
     /**
      * Reads persisted case database connection info.
      * @return An object encapsulating the database connection info.
@@ -0,0 +1,31 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+/**
+ * Marker interface that may be implemented by data source ingest modules that
+ * do not depend on the results of the data source ingest modules ahead of them
+ * in a data source ingest pipeline, and that are safe to run at the same time
+ * as other such modules. If more than one data source ingest thread is
+ * configured, consecutive modules of a pipeline that implement this interface
+ * are run on a data source concurrently instead of one after another.
+ */
+public interface ConcurrentDataSourceIngestModule extends DataSourceIngestModule {
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pending file ingest tasks queue that dispenses tasks in order of expected
+ * cost, cheapest first, and that keeps tasks for very large files in a
+ * separate FIFO lane. Only a capped share of the file ingest threads may be
+ * working on large files at any one time while there are other tasks waiting,
+ * so that a handful of huge files (page files, virtual machine disks, etc.)
+ * cannot hold up the processing of everything else. If only large file tasks
+ * are left, all of the threads may take them.
+ * <p>
+ * To keep expensive tasks from being starved by a steady stream of cheap ones,
+ * the ordering key of each task is its estimated cost plus an aging term that
+ * grows with the order in which the tasks were added.
+ * <p>
+ * This class is thread-safe.
+ */
+final class CostAwareFileTaskQueue {
+
+    private static final double LARGE_FILE_THREAD_SHARE = 0.25;
+    private static final long AGING_COST_PER_TASK = 64 * 1024;
+    private final long largeFileThreshold;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final PriorityQueue<QueuedTask> smallFileTasks = new PriorityQueue<>();
+    private final ArrayDeque<FileIngestTask> largeFileTasks = new ArrayDeque<>();
+    private long sequenceNumber;
+    private int largeFileTasksInProgress;
+    private boolean largeFileTasksHeldBack;
+
+    /**
+     * Constructs a pending file ingest tasks queue that dispenses tasks in
+     * order of expected cost.
+     *
+     * @param largeFileThreshold The size, in bytes, at or above which a file
+     *                           goes into the large file lane.
+     */
+    CostAwareFileTaskQueue(long largeFileThreshold) {
+        this.largeFileThreshold = largeFileThreshold;
+    }
+
+    /**
+     * Adds a task to the queue.
+     *
+     * @param task The task.
+     */
+    void put(FileIngestTask task) {
+        boolean isLargeFile = isLargeFileTask(task);
+        long cost = isLargeFile ? 0 : FileIngestCostModel.estimateCost(task.getFile());
+        lock.lock();
+        try {
+            if (isLargeFile) {
+                largeFileTasks.addLast(task);
+            } else {
+                long key = cost + (sequenceNumber++ * AGING_COST_PER_TASK);
+                smallFileTasks.add(new QueuedTask(task, key));
+            }
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next task, blocking until one is available. A large file task
+     * is taken if fewer than the capped share of the file ingest threads are
+     * working on large files, or if there are no other tasks.
+     *
+     * @param numberOfThreads The current number of file ingest threads.
+     *
+     * @return The task.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked waiting for a task.
+     */
+    FileIngestTask take(int numberOfThreads) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (!largeFileTasks.isEmpty() && canTakeLargeFileTask(numberOfThreads)) {
+                    ++largeFileTasksInProgress;
+                    return largeFileTasks.pollFirst();
+                }
+                if (!smallFileTasks.isEmpty()) {
+                    return smallFileTasks.poll().task;
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Determines whether or not a large file task may be taken. Must be called
+     * while holding the lock.
+     *
+     * @param numberOfThreads The current number of file ingest threads.
+     *
+     * @return True or false.
+     */
+    private boolean canTakeLargeFileTask(int numberOfThreads) {
+        if (largeFileTasksHeldBack) {
+            /*
+             * Only let a large file through if there is nothing else to do and
+             * no other large file is in progress, so that ingest slows down
+             * instead of stalling if the pressure does not let up.
+             */
+            return smallFileTasks.isEmpty() && 0 == largeFileTasksInProgress;
+        }
+        return smallFileTasks.isEmpty() || largeFileTasksInProgress < getLargeFileThreadLimit(numberOfThreads);
+    }
+
+    /**
+     * Holds back or releases the large file lane. While the lane is held back,
+     * e.g., because the heap is nearly full, large file tasks are only
+     * dispensed one at a time and only if there are no other tasks.
+     *
+     * @param heldBack True to hold back the lane, false to release it.
+     */
+    void setLargeFileTasksHeldBack(boolean heldBack) {
+        lock.lock();
+        try {
+            largeFileTasksHeldBack = heldBack;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the queue know that a task it dispensed has been completed, so that
+     * the large file lane can be reopened if the task was for a large file.
+     *
+     * @param task The completed task.
+     */
+    void notifyTaskCompleted(FileIngestTask task) {
+        if (isLargeFileTask(task)) {
+            lock.lock();
+            try {
+                if (largeFileTasksInProgress > 0) {
+                    --largeFileTasksInProgress;
+                }
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of tasks in the queue.
+     *
+     * @return The task count.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return smallFileTasks.size() + largeFileTasks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the tasks for a given ingest job.
+     *
+     * @param jobId The id of the job for which the tasks are to be counted.
+     *
+     * @return The count.
+     */
+    int countTasksForJob(long jobId) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (QueuedTask queuedTask : smallFileTasks) {
+                if (queuedTask.task.getIngestJob().getId() == jobId) {
+                    ++count;
+                }
+            }
+            for (FileIngestTask task : largeFileTasks) {
+                if (task.getIngestJob().getId() == jobId) {
+                    ++count;
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Determines whether or not a task belongs in the large file lane.
+     *
+     * @param task The task.
+     *
+     * @return True or false.
+     */
+    private boolean isLargeFileTask(FileIngestTask task) {
+        return task.getFile().getSize() >= largeFileThreshold;
+    }
+
+    /**
+     * Gets the maximum number of file ingest threads that may work on large
+     * files while there are other tasks waiting.
+     *
+     * @param numberOfThreads The current number of file ingest threads.
+     *
+     * @return The thread count, at least one.
+     */
+    private static int getLargeFileThreadLimit(int numberOfThreads) {
+        return Math.max(1, (int) (numberOfThreads * LARGE_FILE_THREAD_SHARE));
+    }
+
+    /**
+     * A task with its ordering key.
+     */
+    private static final class QueuedTask implements Comparable<QueuedTask> {
+
+        private final FileIngestTask task;
+        private final long key;
+
+        QueuedTask(FileIngestTask task, long key) {
+            this.task = task;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(QueuedTask other) {
+            return Long.compare(this.key, other.key);
+        }
+    }
+
+}
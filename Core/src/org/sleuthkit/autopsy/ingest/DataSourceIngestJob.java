@@ -18,13 +18,21 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -33,16 +41,20 @@
 import org.openide.util.Cancellable;
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.core.UserPreferences;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.NetworkUtils;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.FileSystem;
+import org.sleuthkit.datamodel.FsContent;
 import org.sleuthkit.datamodel.IngestJobInfo;
 import org.sleuthkit.datamodel.IngestJobInfo.IngestJobStatusType;
 import org.sleuthkit.datamodel.IngestModuleInfo;
 import org.sleuthkit.datamodel.IngestModuleInfo.IngestModuleType;
 import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskData;
 
 /**
  * Encapsulates a data source and the ingest module pipelines used to process
@@ -106,11 +118,19 @@ private static enum Stages {
      * A data source ingest job has a collection of identical file level ingest
      * module pipelines, one for each file level ingest thread in the ingest
      * manager. A blocking queue is used to dole out the pipelines to the
-     * threads and an ordinary list is used when the ingest job needs to access
-     * the pipelines to query their status.
+     * threads and a thread-safe list is used when the ingest job needs to
+     * access the pipelines to query their status. If the number of file ingest
+     * threads is increased while the job is running, additional pipelines are
+     * started on demand. The same goes for staged file ingest, where a
+     * pipeline stays checked out until its file has made it through all of the
+     * stages.
      */
     private final LinkedBlockingQueue<FileIngestPipeline> fileIngestPipelinesQueue = new LinkedBlockingQueue<>();
-    private final List<FileIngestPipeline> fileIngestPipelines = new ArrayList<>();
+    private final List<FileIngestPipeline> fileIngestPipelines = new CopyOnWriteArrayList<>();
+    private final Object fileIngestPipelinesCreationLock = new Object();
+    private List<IngestModuleTemplate> fileIngestModuleTemplates;
+    private boolean additionalFileIngestPipelinesFailed;
+    private int retiredFileIngestPipelines; // Guarded by fileIngestPipelinesCreationLock
 
     /**
      * A data source ingest job supports cancellation of either the currently
@@ -154,6 +174,14 @@ private static enum Stages {
      */
     private final Object fileIngestProgressLock = new Object();
     private final List<String> filesInProgress = new ArrayList<>();
+
+    /**
+     * A data source ingest job estimates the number of files to process with
+     * a single count query, run on a thread shared by all jobs so that file
+     * ingest does not wait for it. Until the count arrives, the estimate is
+     * zero and the file ingest progress bar is indeterminate.
+     */
+    private static final ExecutorService fileCountEstimationExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("IM-file-count-estimation-%d").setDaemon(true).build()); //NON-NLS
     private long estimatedFilesToProcess;
     private long processedFiles;
     private ProgressHandle fileIngestProgress;
@@ -162,11 +190,48 @@ private static enum Stages {
     private List<IngestModuleInfo> ingestModules = new ArrayList<>();
     private IngestJobInfo ingestJob;
 
+    /**
+     * A data source ingest job uses this field to record per module timing
+     * measurements for file ingest, which are exported when the job finishes.
+     */
+    private final FileIngestMetrics fileIngestMetrics;
+
+    /**
+     * A data source ingest job uses this field to record the files on which a
+     * file ingest module ran past its time budget, which are exported as a
+     * report as soon as they are quarantined and again when the job finishes.
+     */
+    private final FileIngestQuarantine fileIngestQuarantine = new FileIngestQuarantine();
+    private final Object fileIngestQuarantineReportLock = new Object();
+    private Path fileIngestQuarantineReportPath; // Guarded by fileIngestQuarantineReportLock
+
     /**
      * A data source ingest job uses this field to report its creation time.
      */
     private final long createTime;
 
+    /**
+     * A data source ingest job may record its progress in a journal, so that
+     * it can be resumed if it is interrupted by a crash. A job that resumes an
+     * interrupted job skips the work recorded in the journal of that job.
+     */
+    private final IngestJobJournal.ResumeState resumeState;
+    private volatile IngestJobJournal journal;
+
+    /**
+     * The types of the file systems of the data source, keyed by file system
+     * object id, used to filter the file ingest tasks of the job.
+     */
+    private final ConcurrentHashMap<Long, TskData.TSK_FS_TYPE_ENUM> fileSystemTypes = new ConcurrentHashMap<>();
+
+    /**
+     * A data source ingest job has a priority and a weight that decide its
+     * share of the file ingest threads when file ingest tasks are dispensed
+     * by fair-share scheduling. Both may be changed while the job is running.
+     */
+    private volatile int fileIngestPriority = IngestJob.DEFAULT_PRIORITY;
+    private volatile int fileIngestWeight = IngestJob.DEFAULT_WEIGHT;
+
     /**
      * Constructs an object that encapsulates a data source and the ingest
      * module pipelines used to process it.
@@ -179,12 +244,32 @@ private static enum Stages {
      *                         progress handles.
      */
     DataSourceIngestJob(IngestJob parentJob, Content dataSource, IngestJobSettings settings, boolean runInteractively) {
+        this(parentJob, dataSource, settings, runInteractively, null);
+    }
+
+    /**
+     * Constructs an object that encapsulates a data source and the ingest
+     * module pipelines used to process it, possibly resuming an interrupted
+     * job.
+     *
+     * @param parentJob        The ingest job of which this data source ingest
+     *                         job is a part.
+     * @param dataSource       The data source to be ingested.
+     * @param settings         The settings for the ingest job.
+     * @param runInteractively Whether or not this job should use NetBeans
+     *                         progress handles.
+     * @param resumeState      The state of the interrupted job to resume, or
+     *                         null if this is a new job.
+     */
+    DataSourceIngestJob(IngestJob parentJob, Content dataSource, IngestJobSettings settings, boolean runInteractively, IngestJobJournal.ResumeState resumeState) {
         this.parentJob = parentJob;
         this.id = DataSourceIngestJob.nextJobId.getAndIncrement();
         this.dataSource = dataSource;
         this.settings = settings;
         this.doUI = runInteractively;
         this.createTime = new Date().getTime();
+        this.fileIngestMetrics = new FileIngestMetrics(this.id, dataSource.getName());
+        this.resumeState = resumeState;
         this.createIngestPipelines();
     }
 
@@ -215,6 +300,7 @@ private void createIngestPipelines() {
         IngestPipelinesConfiguration pipelineConfigs = IngestPipelinesConfiguration.getInstance();
         List<IngestModuleTemplate> firstStageDataSourceModuleTemplates = DataSourceIngestJob.getConfiguredIngestModuleTemplates(dataSourceModuleTemplates, pipelineConfigs.getStageOneDataSourceIngestPipelineConfig());
         List<IngestModuleTemplate> fileIngestModuleTemplates = DataSourceIngestJob.getConfiguredIngestModuleTemplates(fileModuleTemplates, pipelineConfigs.getFileIngestPipelineConfig());
+        this.fileIngestModuleTemplates = fileIngestModuleTemplates;
         List<IngestModuleTemplate> secondStageDataSourceModuleTemplates = DataSourceIngestJob.getConfiguredIngestModuleTemplates(dataSourceModuleTemplates, pipelineConfigs.getStageTwoDataSourceIngestPipelineConfig());
 
         /**
@@ -236,11 +322,12 @@ private void createIngestPipelines() {
         this.secondStageDataSourceIngestPipeline = new DataSourceIngestPipeline(this, secondStageDataSourceModuleTemplates);
 
         /**
-         * Construct the file ingest pipelines, one per file ingest thread.
+         * Construct the file ingest pipelines, one per thread that will run
+         * them. More are started on demand if the number of threads goes up.
          */
         try {
-            int numberOfFileIngestThreads = IngestManager.getInstance().getNumberOfFileIngestThreads();
-            for (int i = 0; i < numberOfFileIngestThreads; ++i) {
+            int numberOfPipelines = this.getMaxNumberOfFileIngestPipelines();
+            for (int i = 0; i < numberOfPipelines; ++i) {
                 FileIngestPipeline pipeline = new FileIngestPipeline(this, fileIngestModuleTemplates);
                 this.fileIngestPipelinesQueue.put(pipeline);
                 this.fileIngestPipelines.add(pipeline);
@@ -331,6 +418,29 @@ boolean shouldProcessUnallocatedSpace() {
         return this.settings.getProcessUnallocatedSpace();
     }
 
+    /**
+     * Gets the type of the file system that owns a file of the data source for
+     * this job. The type is looked up in the case database only for the first
+     * file of each file system.
+     *
+     * @param file The file.
+     *
+     * @return The file system type, TSK_FS_TYPE_UNSUPP if the file does not
+     *         belong to a file system.
+     *
+     * @throws TskCoreException if there is a problem querying the case
+     *                          database.
+     */
+    TskData.TSK_FS_TYPE_ENUM getFileSystemType(FsContent file) throws TskCoreException {
+        TskData.TSK_FS_TYPE_ENUM fsType = fileSystemTypes.get(file.getFileSystemId());
+        if (null == fsType) {
+            FileSystem fs = file.getFileSystem();
+            fsType = (null != fs) ? fs.getFsType() : TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_UNSUPP;
+            fileSystemTypes.putIfAbsent(file.getFileSystemId(), fsType);
+        }
+        return fsType;
+    }
+
     /**
      * Checks to see if this job has at least one ingest pipeline.
      *
@@ -382,6 +492,7 @@ private boolean hasFileIngestPipeline() {
     List<IngestModuleError> start() {
         List<IngestModuleError> errors = startUpIngestPipelines();
         if (errors.isEmpty()) {
+            this.openJournal();
             if (this.hasFirstStageDataSourceIngestPipeline() || this.hasFileIngestPipeline()) {
                 logger.log(Level.INFO, "Starting first stage analysis for {0} (jobId={1})", new Object[]{dataSource.getName(), this.id}); //NON-NLS
                 this.startFirstStage();
@@ -394,10 +505,69 @@ List<IngestModuleError> start() {
             } catch (TskCoreException ex) {
                 logger.log(Level.SEVERE, "Failed to add ingest job to database.", ex);
             }
+        } else if (null != this.resumeState) {
+            IngestJobJournal.release(this.resumeState);
         }
         return errors;
     }
 
+    /**
+     * Opens the journal of this job if journaling is enabled, reopening the
+     * journal of the interrupted job if this job resumes one.
+     */
+    private void openJournal() {
+        try {
+            if (null != this.resumeState) {
+                logger.log(Level.INFO, "Resuming analysis for {0} (jobId={1}), {2} files already done", new Object[]{dataSource.getName(), this.id, this.resumeState.getNumberOfCompletedFiles()}); //NON-NLS
+                this.journal = IngestJobJournal.reopen(this.resumeState);
+            } else if (UserPreferences.useIngestJobJournal()) {
+                this.journal = IngestJobJournal.create(this.dataSource.getId(), this.settings);
+            }
+        } catch (IOException | IllegalStateException ex) {
+            logger.log(Level.SEVERE, String.format("Failed to open ingest job journal for %s (jobId=%d), the job will not be resumable", dataSource.getName(), this.id), ex); //NON-NLS
+            if (null != this.resumeState) {
+                IngestJobJournal.release(this.resumeState);
+            }
+        }
+    }
+
+    /**
+     * Determines whether a file made it through the file ingest pipeline in
+     * the interrupted job resumed by this job.
+     *
+     * @param file The file.
+     *
+     * @return True or false.
+     */
+    private boolean isFileCompletedBeforeResume(AbstractFile file) {
+        return null != this.resumeState && this.resumeState.isFileCompleted(file.getId());
+    }
+
+    /**
+     * Determines whether a data source ingest module finished in the
+     * interrupted job resumed by this job.
+     *
+     * @param moduleDisplayName The display name of the module.
+     *
+     * @return True or false.
+     */
+    boolean isDataSourceIngestModuleCompletedBeforeResume(String moduleDisplayName) {
+        return null != this.resumeState && this.resumeState.isDataSourceModuleCompleted(moduleDisplayName);
+    }
+
+    /**
+     * Records the completion of a data source ingest module in the journal of
+     * this job, if there is one.
+     *
+     * @param moduleDisplayName The display name of the module.
+     */
+    void dataSourceIngestModuleCompleted(String moduleDisplayName) {
+        IngestJobJournal currentJournal = this.journal;
+        if (null != currentJournal) {
+            currentJournal.recordDataSourceModuleCompleted(moduleDisplayName);
+        }
+    }
+
     /**
      * Starts up each of the ingest pipelines for this job to collect any file
      * and data source level ingest modules errors that might occur.
@@ -456,9 +626,7 @@ private void startFirstStage() {
         this.stage = DataSourceIngestJob.Stages.FIRST;
 
         if (this.hasFileIngestPipeline()) {
-            synchronized (this.fileIngestProgressLock) {
-                this.estimatedFilesToProcess = this.dataSource.accept(new GetFilesCountVisitor());
-            }
+            fileCountEstimationExecutor.submit(this::estimateFilesToProcess);
         }
 
         if (this.doUI) {
@@ -487,6 +655,15 @@ private void startFirstStage() {
         if (this.hasFirstStageDataSourceIngestPipeline() && this.hasFileIngestPipeline()) {
             logger.log(Level.INFO, "Scheduling first stage data source and file level analysis tasks for {0} (jobId={1})", new Object[]{dataSource.getName(), this.id}); //NON-NLS
             DataSourceIngestJob.taskScheduler.scheduleIngestTasks(this);
+
+            /**
+             * The tasks scheduler does not serialize task completion with task
+             * scheduling, so the data source ingest task and all of the file
+             * ingest tasks may have been completed by the ingest threads
+             * before the scheduler released its hold on the job. Do the
+             * completion check that was skipped by those threads now.
+             */
+            this.checkForStageCompleted();
         } else if (this.hasFirstStageDataSourceIngestPipeline()) {
             logger.log(Level.INFO, "Scheduling first stage data source level analysis tasks for {0} (jobId={1}), no file level analysis configured", new Object[]{dataSource.getName(), this.id}); //NON-NLS
             DataSourceIngestJob.taskScheduler.scheduleDataSourceIngestTask(this);
@@ -578,16 +755,47 @@ public boolean cancel() {
                     }
                 });
                 this.fileIngestProgress.start();
-                this.fileIngestProgress.switchToDeterminate((int) this.estimatedFilesToProcess);
+                if (this.estimatedFilesToProcess > 0) {
+                    this.fileIngestProgress.switchToDeterminate((int) this.estimatedFilesToProcess);
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the number of files to process with a count of the files and
+     * directories of the data source, and switches the file ingest progress
+     * bar to determinate if it has been started.
+     */
+    private void estimateFilesToProcess() {
+        String whereClause = "data_source_obj_id = " + this.dataSource.getId() //NON-NLS
+                + " AND (meta_type = " + TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG.getValue() //NON-NLS
+                + " OR meta_type = " + TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR.getValue() //NON-NLS
+                + " OR (meta_type = " + TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_VIRT.getValue() //NON-NLS
+                + " AND name != '.' AND name != '..'))"; //NON-NLS
+        long estimate;
+        try {
+            estimate = Case.getCurrentCase().getSleuthkitCase().countFilesWhere(whereClause);
+        } catch (TskCoreException | IllegalStateException ex) {
+            logger.log(Level.WARNING, String.format("Failed to count the files of %s (jobId=%d)", this.dataSource.getName(), this.id), ex); //NON-NLS
+            return;
+        }
+        synchronized (this.fileIngestProgressLock) {
+            this.estimatedFilesToProcess = estimate;
+            if (this.doUI && null != this.fileIngestProgress && estimate > 0) {
+                this.fileIngestProgress.switchToDeterminate((int) estimate);
+                this.fileIngestProgress.progress((int) Math.min(this.processedFiles, estimate));
             }
         }
     }
 
     /**
      * Checks to see if the ingest tasks for the current stage of this job are
-     * completed and does a stage transition if they are.
+     * completed and does a stage transition if they are. Called by the tasks
+     * scheduler when it releases the last task for the job on a thread other
+     * than an ingest thread.
      */
-    private void checkForStageCompleted() {
+    void checkForStageCompleted() {
         synchronized (this.stageCompletionCheckLock) {
             if (DataSourceIngestJob.taskScheduler.tasksForJobAreCompleted(this)) {
                 switch (this.stage) {
@@ -659,6 +867,7 @@ private void finishFirstStage() {
     private void finish() {
         logger.log(Level.INFO, "Finished analysis for {0} (jobId={1})", new Object[]{dataSource.getName(), this.id}); //NON-NLS
         this.stage = DataSourceIngestJob.Stages.FINALIZATION;
+        DataSourceIngestJob.taskScheduler.notifyIngestJobFinished(this);
 
         if (this.doUI) {
             // Finish the second stage data source ingest progress bar, if it hasn't 
@@ -688,10 +897,107 @@ private void finish() {
         } catch (TskCoreException ex) {
             logger.log(Level.SEVERE, "Failed to set end date for ingest job in database.", ex);
         }
+        this.exportFileIngestMetrics();
+        this.exportFileIngestQuarantine();
+        IngestJobJournal currentJournal = this.journal;
+        if (null != currentJournal) {
+            /*
+             * Keep the journal if the job was stopped by something other than
+             * the user, e.g., the case was closed, so that it can be resumed.
+             */
+            currentJournal.close(!this.cancelled || IngestJob.CancellationReason.USER_CANCELLED == this.cancellationReason);
+            this.journal = null;
+        }
         this.parentJob.dataSourceJobFinished(this);
 
     }
 
+    /**
+     * Writes the file ingest timing measurements for this job to JSON and CSV
+     * files in the log directory of the current case, if any files were
+     * processed.
+     */
+    private void exportFileIngestMetrics() {
+        if (0 == this.fileIngestMetrics.getQueueWaitTimes().getCount()) {
+            return;
+        }
+        try {
+            String baseName = String.format("ingest_metrics_job%d_%s", this.id, new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date())); //NON-NLS
+            this.fileIngestMetrics.export(Paths.get(Case.getCurrentCase().getLogDirectoryPath()), baseName);
+        } catch (IOException | IllegalStateException ex) {
+            logger.log(Level.WARNING, String.format("Failed to export file ingest metrics for %s (jobId=%d)", dataSource.getName(), this.id), ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Writes the files quarantined by the file ingest module watchdog for
+     * this job, if any, to a CSV file in the reports directory of the current
+     * case. The first time, the file is added to the case as a report; after
+     * that, it is rewritten, so that it is up to date while the job runs.
+     */
+    void exportFileIngestQuarantine() {
+        if (this.fileIngestQuarantine.isEmpty()) {
+            return;
+        }
+        synchronized (this.fileIngestQuarantineReportLock) {
+            try {
+                if (null != this.fileIngestQuarantineReportPath) {
+                    this.fileIngestQuarantine.export(this.fileIngestQuarantineReportPath);
+                    return;
+                }
+                Case currentCase = Case.getCurrentCase();
+                Path reportPath = Paths.get(currentCase.getReportDirectory(), String.format("quarantined_files_job%d_%s.csv", this.id, new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()))); //NON-NLS
+                this.fileIngestQuarantine.export(reportPath);
+                this.fileIngestQuarantineReportPath = reportPath;
+                currentCase.addReport(reportPath.toString(),
+                        NbBundle.getMessage(this.getClass(), "IngestJob.quarantineReport.srcModuleName"),
+                        NbBundle.getMessage(this.getClass(), "IngestJob.quarantineReport.name", dataSource.getName()));
+                logger.log(Level.WARNING, "Files were quarantined during analysis of {0} (jobId={1}), see {2}", new Object[]{dataSource.getName(), this.id, reportPath}); //NON-NLS
+            } catch (IOException | TskCoreException | IllegalStateException ex) {
+                logger.log(Level.WARNING, String.format("Failed to export quarantined files for %s (jobId=%d)", dataSource.getName(), this.id), ex); //NON-NLS
+            }
+        }
+    }
+
+    /**
+     * Completes the file ingest task of a module call that the file ingest
+     * module watchdog has abandoned, so that the job is not held up by a
+     * module that never returns. The pipeline of the call has already been
+     * retired, so the thread stuck in the call neither returns it for reuse
+     * nor completes the task if the module ever returns, and another pipeline
+     * may be started in its place.
+     *
+     * @param pipeline The retired pipeline.
+     * @param task     The file ingest task of the abandoned call.
+     */
+    void fileIngestModuleCallAbandoned(FileIngestPipeline pipeline, FileIngestTask task) {
+        synchronized (this.fileIngestPipelinesCreationLock) {
+            ++this.retiredFileIngestPipelines;
+        }
+        logger.log(Level.WARNING, "Retired a file ingest pipeline of {0} (jobId={1}) stuck on {2} (objId={3})", new Object[]{dataSource.getName(), this.id, task.getFile().getName(), task.getFile().getId()}); //NON-NLS
+        DataSourceIngestJob.taskScheduler.notifyTaskCompleted(task);
+        this.checkForStageCompleted();
+    }
+
+    /**
+     * Gets the files quarantined by the file ingest module watchdog for this
+     * job.
+     *
+     * @return The quarantine, updated as the job runs.
+     */
+    FileIngestQuarantine getFileIngestQuarantine() {
+        return this.fileIngestQuarantine;
+    }
+
+    /**
+     * Gets the file ingest timing measurements for this job.
+     *
+     * @return The measurements, updated as the job runs.
+     */
+    FileIngestMetrics getFileIngestMetrics() {
+        return this.fileIngestMetrics;
+    }
+
     /**
      * Passes the data source for this job through the currently active data
      * source level ingest pipeline.
@@ -731,7 +1037,9 @@ void process(DataSourceIngestTask task) {
 
     /**
      * Passes a file from the data source for this job through the file level
-     * ingest pipeline.
+     * ingest pipeline. If staged file ingest is enabled, the file is handed off
+     * to the stage threads instead, and the task is completed when the stage
+     * threads are done with it.
      *
      * @param task A file ingest task.
      *
@@ -741,25 +1049,33 @@ void process(DataSourceIngestTask task) {
      *                              collection.
      */
     void process(FileIngestTask task) throws InterruptedException {
+        boolean handedOff = false;
+        boolean abandoned = false;
+        task.setExecutionStartTime(System.nanoTime());
+        this.fileIngestMetrics.recordQueueWaitTime(task.getExecutionStartTime() - task.getCreationTime());
         try {
-            if (!this.isCancelled()) {
-                FileIngestPipeline pipeline = this.fileIngestPipelinesQueue.take();
+            /*
+             * The tasks for files that were done before an interrupted job
+             * was resumed are still dispensed, so that directories are
+             * traversed and the stage completion checks are driven by task
+             * completion as usual, but they skip the pipeline.
+             */
+            if (!this.isCancelled() && !this.isFileCompletedBeforeResume(task.getFile())) {
+                FileIngestPipeline pipeline = this.fileIngestPipelinesQueue.poll();
+                if (null == pipeline) {
+                    pipeline = this.startAdditionalFileIngestPipeline();
+                }
+                if (null == pipeline) {
+                    pipeline = this.fileIngestPipelinesQueue.take();
+                }
                 if (!pipeline.isEmpty()) {
                     AbstractFile file = task.getFile();
-
-                    synchronized (this.fileIngestProgressLock) {
-                        ++this.processedFiles;
-                        if (this.doUI) {
-                            /**
-                             * Update the file ingest progress bar.
-                             */
-                            if (this.processedFiles <= this.estimatedFilesToProcess) {
-                                this.fileIngestProgress.progress(file.getName(), (int) this.processedFiles);
-                            } else {
-                                this.fileIngestProgress.progress(file.getName(), (int) this.estimatedFilesToProcess);
-                            }
-                            this.filesInProgress.add(file.getName());
-                        }
+                    this.fileIngestStarted(file);
+                    StagedFileIngestExecutor stagedExecutor = IngestManager.getInstance().getStagedFileIngestExecutor();
+                    if (null != stagedExecutor) {
+                        handedOff = true;
+                        stagedExecutor.submit(this, task, pipeline);
+                        return;
                     }
 
                     /**
@@ -770,30 +1086,170 @@ void process(FileIngestTask task) throws InterruptedException {
                     if (!errors.isEmpty()) {
                         logIngestModuleErrors(errors);
                     }
-
-                    if (this.doUI && !this.cancelled) {
-                        synchronized (this.fileIngestProgressLock) {
-                            /**
-                             * Update the file ingest progress bar again, in
-                             * case the file was being displayed.
-                             */
-                            this.filesInProgress.remove(file.getName());
-                            if (this.filesInProgress.size() > 0) {
-                                this.fileIngestProgress.progress(this.filesInProgress.get(0));
-                            } else {
-                                this.fileIngestProgress.progress("");
-                            }
-                        }
+                    if (pipeline.isRetired()) {
+                        /*
+                         * The call was abandoned and the task completed by
+                         * the watchdog while this thread was stuck in it.
+                         */
+                        abandoned = true;
+                        return;
                     }
+                    this.fileIngestFinished(task);
                 }
                 this.fileIngestPipelinesQueue.put(pipeline);
             }
+        } finally {
+            if (!handedOff && !abandoned) {
+                DataSourceIngestJob.taskScheduler.notifyTaskCompleted(task);
+                this.checkForStageCompleted();
+            }
+        }
+    }
+
+    /**
+     * Completes a file ingest task that was handed off to the stage threads,
+     * once the file has been run through all of the stages of the pipeline.
+     *
+     * @param task     The file ingest task.
+     * @param pipeline The pipeline the file was run through.
+     * @param errors   The processing errors, possibly empty.
+     */
+    void finishStagedFileIngestTask(FileIngestTask task, FileIngestPipeline pipeline, List<IngestModuleError> errors) {
+        if (pipeline.isRetired()) {
+            /*
+             * A module call on the file was abandoned and the task completed
+             * by the watchdog.
+             */
+            if (!errors.isEmpty()) {
+                logIngestModuleErrors(errors);
+            }
+            return;
+        }
+        try {
+            if (!errors.isEmpty()) {
+                logIngestModuleErrors(errors);
+            }
+            this.fileIngestFinished(task);
+            this.fileIngestPipelinesQueue.put(pipeline);
+        } catch (InterruptedException ex) {
+            /**
+             * The pipelines queue is unbounded, so this should never happen,
+             * but reset the interrupted flag rather than just swallowing the
+             * exception.
+             */
+            Thread.currentThread().interrupt();
         } finally {
             DataSourceIngestJob.taskScheduler.notifyTaskCompleted(task);
             this.checkForStageCompleted();
         }
     }
 
+    /**
+     * Updates the file ingest progress bar for a file that is about to be run
+     * through a file ingest pipeline.
+     *
+     * @param file The file.
+     */
+    private void fileIngestStarted(AbstractFile file) {
+        synchronized (this.fileIngestProgressLock) {
+            ++this.processedFiles;
+            if (this.doUI) {
+                /**
+                 * Update the file ingest progress bar.
+                 */
+                if (this.estimatedFilesToProcess <= 0) {
+                    this.fileIngestProgress.progress(file.getName());
+                } else if (this.processedFiles <= this.estimatedFilesToProcess) {
+                    this.fileIngestProgress.progress(file.getName(), (int) this.processedFiles);
+                } else {
+                    this.fileIngestProgress.progress(file.getName(), (int) this.estimatedFilesToProcess);
+                }
+                this.filesInProgress.add(file.getName());
+            }
+        }
+    }
+
+    /**
+     * Updates the file ingest progress bar, the file ingest timing
+     * measurements and the journal for a file that has been run through a file
+     * ingest pipeline.
+     *
+     * @param task The file ingest task for the file.
+     */
+    private void fileIngestFinished(FileIngestTask task) {
+        this.fileIngestMetrics.recordFileTaskTime(System.nanoTime() - task.getExecutionStartTime());
+        AbstractFile file = task.getFile();
+        IngestJobJournal currentJournal = this.journal;
+        if (null != currentJournal && !this.cancelled) {
+            currentJournal.recordFileCompleted(file.getId());
+        }
+        if (this.doUI && !this.cancelled) {
+            synchronized (this.fileIngestProgressLock) {
+                /**
+                 * Update the file ingest progress bar again, in case the file
+                 * was being displayed.
+                 */
+                this.filesInProgress.remove(file.getName());
+                if (this.filesInProgress.size() > 0) {
+                    this.fileIngestProgress.progress(this.filesInProgress.get(0));
+                } else {
+                    this.fileIngestProgress.progress("");
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts up an additional file ingest pipeline for this job if there are
+     * now more threads to run pipelines than pipelines, i.e., if the number of
+     * file ingest threads was increased while the job was running.
+     *
+     * @return The started pipeline, or null if no pipeline was started.
+     */
+    private FileIngestPipeline startAdditionalFileIngestPipeline() {
+        synchronized (this.fileIngestPipelinesCreationLock) {
+            if (DataSourceIngestJob.Stages.FIRST != this.stage
+                    || this.cancelled
+                    || this.additionalFileIngestPipelinesFailed
+                    || this.fileIngestPipelines.size() - this.retiredFileIngestPipelines >= this.getMaxNumberOfFileIngestPipelines()) {
+                return null;
+            }
+            FileIngestPipeline pipeline = new FileIngestPipeline(this, this.fileIngestModuleTemplates);
+            List<IngestModuleError> errors = pipeline.startUp();
+            if (!errors.isEmpty()) {
+                /*
+                 * The pipelines started at job start up are still good, so
+                 * log the errors and carry on with those.
+                 */
+                logIngestModuleErrors(errors);
+                logIngestModuleErrors(pipeline.shutDown());
+                this.additionalFileIngestPipelinesFailed = true;
+                return null;
+            }
+            this.fileIngestPipelines.add(pipeline);
+            logger.log(Level.INFO, "Started additional file ingest pipeline for {0} (jobId={1}), {2} pipelines now", new Object[]{dataSource.getName(), this.id, this.fileIngestPipelines.size()}); //NON-NLS
+            return pipeline;
+        }
+    }
+
+    /**
+     * Gets the number of file ingest pipelines this job can use, one per
+     * thread that runs the modules of the pipelines: the file ingest threads,
+     * or the stage threads if staged file ingest is enabled. In the staged
+     * case the file ingest threads only check out pipelines and hand the files
+     * off, so a pipeline for each of them would only add module instances
+     * that wait on the stage threads.
+     *
+     * @return The number of pipelines.
+     */
+    private int getMaxNumberOfFileIngestPipelines() {
+        StagedFileIngestExecutor stagedExecutor = IngestManager.getInstance().getStagedFileIngestExecutor();
+        if (null != stagedExecutor) {
+            return stagedExecutor.getNumberOfStageThreads();
+        }
+        return IngestManager.getInstance().getNumberOfFileIngestThreads();
+    }
+
     /**
      * Adds more files from the data source for this job to the job, i.e., adds
      * extracted or carved files. Not currently supported for the second stage
@@ -951,6 +1407,60 @@ void currentDataSourceIngestModuleCancellationCompleted(String moduleDisplayName
         }
     }
 
+    /**
+     * Starts a progress bar of its own for a data source level ingest module
+     * of this job that is running at the same time as other data source level
+     * ingest modules. Cancelling the progress bar cancels only that module.
+     * The caller must finish the progress bar when the module is done.
+     *
+     * @param module The module.
+     *
+     * @return The progress bar, or null if this job does not have a user
+     *         interface.
+     */
+    ProgressHandle startDataSourceIngestModuleProgressBar(DataSourceIngestPipeline.PipelineModule module) {
+        if (!this.doUI) {
+            return null;
+        }
+        String displayName = NbBundle.getMessage(this.getClass(),
+                "IngestJob.progress.dataSourceIngest.displayName",
+                module.getDisplayName(), this.dataSource.getName());
+        ProgressHandle progressBar = ProgressHandle.createHandle(displayName, () -> {
+            DataSourceIngestJob.this.cancelDataSourceIngestModule(module);
+            return true;
+        });
+        progressBar.start();
+        progressBar.switchToIndeterminate();
+        return progressBar;
+    }
+
+    /**
+     * Gets the currently running data source level ingest modules for this
+     * job.
+     *
+     * @return The currently running modules, possibly empty.
+     */
+    List<DataSourceIngestPipeline.PipelineModule> getCurrentDataSourceIngestModules() {
+        DataSourceIngestPipeline pipeline = this.currentDataSourceIngestPipeline;
+        if (null != pipeline) {
+            return pipeline.getCurrentlyRunningModules();
+        } else {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Requests cancellation of one of the currently running data source level
+     * ingest modules of this job, leaving any other running modules alone.
+     *
+     * @param module The module.
+     */
+    void cancelDataSourceIngestModule(DataSourceIngestPipeline.PipelineModule module) {
+        if (this.getCurrentDataSourceIngestModules().contains(module)) {
+            module.cancel();
+        }
+    }
+
     /**
      * Gets the currently running data source level ingest module for this job.
      *
@@ -1072,6 +1582,42 @@ IngestJob.CancellationReason getCancellationReason() {
         return this.cancellationReason;
     }
 
+    /**
+     * Gets the priority of this job for fair-share file ingest scheduling.
+     *
+     * @return The priority, higher is served first.
+     */
+    int getFileIngestPriority() {
+        return this.fileIngestPriority;
+    }
+
+    /**
+     * Sets the priority of this job for fair-share file ingest scheduling.
+     *
+     * @param priority The priority, higher is served first.
+     */
+    void setFileIngestPriority(int priority) {
+        this.fileIngestPriority = priority;
+    }
+
+    /**
+     * Gets the weight of this job for fair-share file ingest scheduling.
+     *
+     * @return The weight, at least one.
+     */
+    int getFileIngestWeight() {
+        return this.fileIngestWeight;
+    }
+
+    /**
+     * Sets the weight of this job for fair-share file ingest scheduling.
+     *
+     * @param weight The weight, at least one.
+     */
+    void setFileIngestWeight(int weight) {
+        this.fileIngestWeight = Math.max(1, weight);
+    }
+
     /**
      * Write ingest module errors to the log.
      *
@@ -1110,6 +1656,7 @@ final class Snapshot {
         private final boolean jobCancelled;
         private final IngestJob.CancellationReason jobCancellationReason;
         private final List<String> cancelledDataSourceModules;
+        private final FileIngestMetrics fileIngestMetrics;
 
         /**
          * Constructs an object to store basic diagnostic statistics for a data
@@ -1139,6 +1686,7 @@ final class Snapshot {
             this.jobCancelled = cancelled;
             this.jobCancellationReason = cancellationReason;
             this.cancelledDataSourceModules = new ArrayList<>(DataSourceIngestJob.this.cancelledDataSourceIngestModules);
+            this.fileIngestMetrics = DataSourceIngestJob.this.fileIngestMetrics;
 
             if (getIngestTasksSnapshot) {
                 synchronized (DataSourceIngestJob.this.fileIngestProgressLock) {
@@ -1296,6 +1844,16 @@ List<String> getCancelledDataSourceIngestModules() {
             return Collections.unmodifiableList(this.cancelledDataSourceModules);
         }
 
+        /**
+         * Gets the file ingest timing measurements for the job. Unlike the
+         * rest of the snapshot, the measurements are live.
+         *
+         * @return The measurements.
+         */
+        FileIngestMetrics getFileIngestMetrics() {
+            return this.fileIngestMetrics;
+        }
+
     }
 
 }
@@ -18,15 +18,32 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import org.netbeans.api.progress.ProgressHandle;
+
 /**
  * Used by data source ingest modules to report progress.
  */
 public class DataSourceIngestModuleProgress {
 
     private final DataSourceIngestJob job;
+    private final ProgressHandle progressBar;
 
     DataSourceIngestModuleProgress(DataSourceIngestJob job) {
+        this(job, null);
+    }
+
+    /**
+     * Constructs a progress reporter for a module that is running at the same
+     * time as other data source ingest modules of its job, and so has a
+     * progress bar of its own.
+     *
+     * @param job         The ingest job.
+     * @param progressBar The progress bar of the module, or null to use the
+     *                    data source ingest progress bar of the job.
+     */
+    DataSourceIngestModuleProgress(DataSourceIngestJob job, ProgressHandle progressBar) {
         this.job = job;
+        this.progressBar = progressBar;
     }
 
     /**
@@ -38,7 +55,13 @@ public class DataSourceIngestModuleProgress {
      *                  data source.
      */
     public void switchToDeterminate(int workUnits) {
-        this.job.switchDataSourceIngestProgressBarToDeterminate(workUnits);
+        if (null != this.progressBar) {
+            synchronized (this.progressBar) {
+                this.progressBar.switchToDeterminate(workUnits);
+            }
+        } else {
+            this.job.switchDataSourceIngestProgressBarToDeterminate(workUnits);
+        }
     }
 
     /**
@@ -46,7 +69,13 @@ public void switchToDeterminate(int workUnits) {
      * the total work units to process the data source is unknown.
      */
     public void switchToIndeterminate() {
-        this.job.switchDataSourceIngestProgressBarToIndeterminate();
+        if (null != this.progressBar) {
+            synchronized (this.progressBar) {
+                this.progressBar.switchToIndeterminate();
+            }
+        } else {
+            this.job.switchDataSourceIngestProgressBarToIndeterminate();
+        }
     }
 
     /**
@@ -56,7 +85,7 @@ public void switchToIndeterminate() {
      * @param workUnits Number of work units performed so far by the module.
      */
     public void progress(int workUnits) {
-        this.job.advanceDataSourceIngestProgressBar("", workUnits);
+        this.progress("", workUnits);
     }
 
     /**
@@ -65,7 +94,13 @@ public void progress(int workUnits) {
      * @param message Message to display
      */
     public void progress(String message) {
-        this.job.advanceDataSourceIngestProgressBar(message);
+        if (null != this.progressBar) {
+            synchronized (this.progressBar) {
+                this.progressBar.progress(message);
+            }
+        } else {
+            this.job.advanceDataSourceIngestProgressBar(message);
+        }
     }
 
     /**
@@ -76,7 +111,13 @@ public void progress(String message) {
      * @param workUnits   Number of work units performed so far by the module.
      */
     public void progress(String currentTask, int workUnits) {
-        this.job.advanceDataSourceIngestProgressBar(currentTask, workUnits);
+        if (null != this.progressBar) {
+            synchronized (this.progressBar) {
+                this.progressBar.progress(currentTask, workUnits);
+            }
+        } else {
+            this.job.advanceDataSourceIngestProgressBar(currentTask, workUnits);
+        }
     }
 
 }
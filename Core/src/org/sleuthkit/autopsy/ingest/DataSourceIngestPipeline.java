@@ -18,9 +18,17 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.netbeans.api.progress.ProgressHandle;
 import java.util.logging.Level;
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.coreutils.Logger;
@@ -30,7 +38,9 @@
 /**
  * This class manages a sequence of data source level ingest modules for a data
  * source ingest job. It starts the modules, runs data sources through them, and
- * shuts them down when data source level ingest is complete.
+ * shuts them down when data source level ingest is complete. Consecutive
+ * modules that implement ConcurrentDataSourceIngestModule may be run at the
+ * same time.
  * <p>
  * This class is thread-safe.
  */
@@ -38,9 +48,18 @@ final class DataSourceIngestPipeline {
 
     private static final IngestManager ingestManager = IngestManager.getInstance();
     private static final Logger logger = Logger.getLogger(DataSourceIngestPipeline.class.getName());
+
+    /*
+     * The helper threads that run concurrent data source ingest modules
+     * alongside the data source ingest threads are shared by all pipelines,
+     * one fewer than the number of data source ingest threads.
+     */
+    private static final ExecutorService helperThreadPool = Executors.newFixedThreadPool(
+            Math.max(1, ingestManager.getNumberOfDataSourceIngestThreads() - 1),
+            new ThreadFactoryBuilder().setNameFormat("IM-data-source-module-%d").setDaemon(true).build()); //NON-NLS
     private final DataSourceIngestJob job;
     private final List<PipelineModule> modules = new ArrayList<>();
-    private volatile PipelineModule currentModule;
+    private final List<PipelineModule> runningModules = new CopyOnWriteArrayList<>();
 
     /**
      * Constructs an object that manages a sequence of data source level ingest
@@ -80,7 +99,7 @@ synchronized List<IngestModuleError> startUp() {
         List<IngestModuleError> errors = new ArrayList<>();
         for (PipelineModule module : modules) {
             try {
-                module.startUp(new IngestJobContext(this.job));
+                module.startUp(new IngestJobContext(this.job, module));
             } catch (Throwable ex) { // Catch-all exception firewall
                 errors.add(new IngestModuleError(module.getDisplayName(), ex));
             }
@@ -89,7 +108,10 @@ synchronized List<IngestModuleError> startUp() {
     }
 
     /**
-     * Runs a data source through the ingest modules in sequential order.
+     * Runs a data source through the ingest modules in pipeline order. If more
+     * than one data source ingest thread is configured, runs of consecutive
+     * modules that are safe to run concurrently are run at the same time, and
+     * the pipeline moves on when all of the modules of the run are done.
      *
      * @param task A data source level ingest task containing a data source to
      *             be processed.
@@ -100,46 +122,184 @@ synchronized List<IngestModuleError> process(DataSourceIngestTask task) {
         List<IngestModuleError> errors = new ArrayList<>();
         if (!this.job.isCancelled()) {
             Content dataSource = task.getDataSource();
-            for (PipelineModule module : modules) {
-                try {
-                    this.currentModule = module;
-                    String displayName = NbBundle.getMessage(this.getClass(),
-                            "IngestJob.progress.dataSourceIngest.displayName",
-                            module.getDisplayName(), dataSource.getName());
-                    this.job.updateDataSourceIngestProgressBarDisplayName(displayName);
-                    this.job.switchDataSourceIngestProgressBarToIndeterminate();
-                    DataSourceIngestPipeline.ingestManager.setIngestTaskProgress(task, module.getDisplayName());
-                    logger.log(Level.INFO, "{0} analysis of {1} (jobId={2}) starting", new Object[]{module.getDisplayName(), this.job.getDataSource().getName(), this.job.getDataSource().getId()}); //NON-NLS
-                    module.process(dataSource, new DataSourceIngestModuleProgress(this.job));
-                    logger.log(Level.INFO, "{0} analysis of {1} (jobId={2}) finished", new Object[]{module.getDisplayName(), this.job.getDataSource().getName(), this.job.getDataSource().getId()}); //NON-NLS
-                } catch (Throwable ex) { // Catch-all exception firewall
-                    errors.add(new IngestModuleError(module.getDisplayName(), ex));
-                    String msg = ex.getMessage();
-                    // Jython run-time errors don't seem to have a message, but have details in toString.
-                    if (msg == null) {
-                        msg = ex.toString();
+            int maxConcurrentModules = ingestManager.getNumberOfDataSourceIngestThreads();
+            int startIndex = 0;
+            while (startIndex < modules.size()) {
+                if (this.job.isDataSourceIngestModuleCompletedBeforeResume(modules.get(startIndex).getDisplayName())) {
+                    logger.log(Level.INFO, "{0} analysis of {1} (jobId={2}) skipped, finished before the job was interrupted", new Object[]{modules.get(startIndex).getDisplayName(), this.job.getDataSource().getName(), this.job.getDataSource().getId()}); //NON-NLS
+                    ++startIndex;
+                    continue;
+                }
+                int endIndex = startIndex + 1;
+                if (maxConcurrentModules > 1 && modules.get(startIndex).isConcurrent()) {
+                    while (endIndex < modules.size() && modules.get(endIndex).isConcurrent()
+                            && !this.job.isDataSourceIngestModuleCompletedBeforeResume(modules.get(endIndex).getDisplayName())) {
+                        ++endIndex;
+                    }
+                }
+                List<PipelineModule> modulesToRun = modules.subList(startIndex, endIndex);
+                if (modulesToRun.size() > 1) {
+                    errors.addAll(this.processConcurrently(task, modulesToRun));
+                } else {
+                    PipelineModule module = modulesToRun.get(0);
+                    this.startProgress(task, module.getDisplayName());
+                    IngestModuleError error = this.processModule(dataSource, module, new DataSourceIngestModuleProgress(this.job));
+                    if (null != error) {
+                        errors.add(error);
                     }
-                    MessageNotifyUtil.Notify.error(NbBundle.getMessage(this.getClass(), "DataSourceIngestPipeline.moduleError.title.text", module.getDisplayName()), msg);
                 }
                 if (this.job.isCancelled()) {
                     break;
-                } else if (this.job.currentDataSourceIngestModuleIsCancelled()) {
-                    this.job.currentDataSourceIngestModuleCancellationCompleted(currentModule.getDisplayName());
                 }
+                boolean allModulesCancelled = this.job.currentDataSourceIngestModuleIsCancelled();
+                for (PipelineModule module : modulesToRun) {
+                    if (allModulesCancelled || module.isCancelled()) {
+                        module.clearCancellation();
+                        this.job.currentDataSourceIngestModuleCancellationCompleted(module.getDisplayName());
+                    } else if (IngestModule.ProcessResult.OK == module.getProcessResult()) {
+                        /*
+                         * Only a module that ran to completion without errors
+                         * is skipped if the job is interrupted and resumed.
+                         */
+                        this.job.dataSourceIngestModuleCompleted(module.getDisplayName());
+                    }
+                }
+                startIndex = endIndex;
             }
         }
-        this.currentModule = null;
         ingestManager.setIngestTaskProgressCompleted(task);
         return errors;
     }
 
     /**
-     * Gets the currently running module.
+     * Runs a data source through a run of modules at the same time. The
+     * calling thread runs the first module and the shared helper threads run
+     * the rest, so no more modules run at once than there are data source
+     * ingest threads. Each module reports its progress on a progress bar of
+     * its own.
+     *
+     * @param task         The data source level ingest task.
+     * @param modulesToRun The modules, all safe to run concurrently.
+     *
+     * @return A list of processing errors, possible empty.
+     */
+    private List<IngestModuleError> processConcurrently(DataSourceIngestTask task, List<PipelineModule> modulesToRun) {
+        Content dataSource = task.getDataSource();
+        List<String> displayNames = new ArrayList<>();
+        for (PipelineModule module : modulesToRun) {
+            displayNames.add(module.getDisplayName());
+        }
+        this.startProgress(task, String.join(", ", displayNames));
+        List<IngestModuleError> errors = new ArrayList<>();
+        List<ProgressHandle> progressBars = new ArrayList<>();
+        try {
+            List<DataSourceIngestModuleProgress> moduleProgress = new ArrayList<>();
+            for (PipelineModule module : modulesToRun) {
+                ProgressHandle progressBar = this.job.startDataSourceIngestModuleProgressBar(module);
+                if (null != progressBar) {
+                    progressBars.add(progressBar);
+                }
+                moduleProgress.add(new DataSourceIngestModuleProgress(this.job, progressBar));
+            }
+
+            List<Future<IngestModuleError>> results = new ArrayList<>();
+            for (int i = 1; i < modulesToRun.size(); ++i) {
+                PipelineModule module = modulesToRun.get(i);
+                DataSourceIngestModuleProgress progress = moduleProgress.get(i);
+                results.add(helperThreadPool.submit(() -> this.processModule(dataSource, module, progress)));
+            }
+            IngestModuleError error = this.processModule(dataSource, modulesToRun.get(0), moduleProgress.get(0));
+            if (null != error) {
+                errors.add(error);
+            }
+            for (Future<IngestModuleError> result : results) {
+                try {
+                    /*
+                     * Wait for the helper threads even if this thread is
+                     * interrupted, so that no module of this pipeline is
+                     * still running when the pipeline moves on.
+                     */
+                    error = Uninterruptibles.getUninterruptibly(result);
+                    if (null != error) {
+                        errors.add(error);
+                    }
+                } catch (ExecutionException ex) {
+                    logger.log(Level.SEVERE, String.format("Unexpected error running data source ingest modules concurrently (jobId=%d)", this.job.getId()), ex); //NON-NLS
+                }
+            }
+        } finally {
+            for (ProgressHandle progressBar : progressBars) {
+                progressBar.finish();
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Updates the progress bar and the ingest thread activity snapshot for the
+     * start of one or more modules.
+     *
+     * @param task        The data source level ingest task.
+     * @param displayName The display name of the module or modules.
+     */
+    private void startProgress(DataSourceIngestTask task, String displayName) {
+        String progressDisplayName = NbBundle.getMessage(this.getClass(),
+                "IngestJob.progress.dataSourceIngest.displayName",
+                displayName, task.getDataSource().getName());
+        this.job.updateDataSourceIngestProgressBarDisplayName(progressDisplayName);
+        this.job.switchDataSourceIngestProgressBarToIndeterminate();
+        DataSourceIngestPipeline.ingestManager.setIngestTaskProgress(task, displayName);
+    }
+
+    /**
+     * Runs a data source through a single module.
+     *
+     * @param dataSource The data source.
+     * @param module     The module.
+     * @param progress   The progress reporter for the module.
+     *
+     * @return The processing error, or null if there was none.
+     */
+    private IngestModuleError processModule(Content dataSource, PipelineModule module, DataSourceIngestModuleProgress progress) {
+        this.runningModules.add(module);
+        try {
+            logger.log(Level.INFO, "{0} analysis of {1} (jobId={2}) starting", new Object[]{module.getDisplayName(), this.job.getDataSource().getName(), this.job.getDataSource().getId()}); //NON-NLS
+            module.process(dataSource, progress);
+            logger.log(Level.INFO, "{0} analysis of {1} (jobId={2}) finished", new Object[]{module.getDisplayName(), this.job.getDataSource().getName(), this.job.getDataSource().getId()}); //NON-NLS
+            return null;
+        } catch (Throwable ex) { // Catch-all exception firewall
+            String msg = ex.getMessage();
+            // Jython run-time errors don't seem to have a message, but have details in toString.
+            if (msg == null) {
+                msg = ex.toString();
+            }
+            MessageNotifyUtil.Notify.error(NbBundle.getMessage(this.getClass(), "DataSourceIngestPipeline.moduleError.title.text", module.getDisplayName()), msg);
+            return new IngestModuleError(module.getDisplayName(), ex);
+        } finally {
+            this.runningModules.remove(module);
+        }
+    }
+
+    /**
+     * Gets the currently running module, the first one if more than one is
+     * running.
      *
      * @return The module, possibly null if no module is currently running.
      */
     PipelineModule getCurrentlyRunningModule() {
-        return this.currentModule;
+        for (PipelineModule module : this.runningModules) {
+            return module;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the currently running modules.
+     *
+     * @return The modules, possibly empty.
+     */
+    List<PipelineModule> getCurrentlyRunningModules() {
+        return new ArrayList<>(this.runningModules);
     }
 
     /**
@@ -151,6 +311,8 @@ static class PipelineModule implements DataSourceIngestModule {
         private final DataSourceIngestModule module;
         private final String displayName;
         private volatile Date processingStartTime;
+        private volatile boolean cancelled;
+        private volatile IngestModule.ProcessResult processResult;
 
         /**
          * Constructs an object that decorates a data source level ingest module
@@ -184,6 +346,16 @@ String getDisplayName() {
             return this.displayName;
         }
 
+        /**
+         * Indicates whether or not the decorated ingest module is safe to run
+         * concurrently with other such modules.
+         *
+         * @return True or false.
+         */
+        boolean isConcurrent() {
+            return this.module instanceof ConcurrentDataSourceIngestModule;
+        }
+
         /**
          * Gets the time the decorated ingest module started processing the data
          * source.
@@ -195,6 +367,43 @@ Date getProcessingStartTime() {
             return this.processingStartTime;
         }
 
+        /**
+         * Gets the result of the last processing of the data source by the
+         * decorated ingest module.
+         *
+         * @return The result, or null if the module has not returned from
+         *         processing the data source or threw an exception.
+         */
+        IngestModule.ProcessResult getProcessResult() {
+            return this.processResult;
+        }
+
+        /**
+         * Requests cancellation of the processing of the data source by the
+         * decorated ingest module, without cancelling any other module.
+         */
+        void cancel() {
+            this.cancelled = true;
+        }
+
+        /**
+         * Queries whether or not cancellation of the processing of the data
+         * source by the decorated ingest module has been requested.
+         *
+         * @return True or false.
+         */
+        boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        /**
+         * Clears a cancellation request once the decorated ingest module has
+         * stopped.
+         */
+        void clearCancellation() {
+            this.cancelled = false;
+        }
+
         @Override
         public void startUp(IngestJobContext context) throws IngestModuleException {
             this.module.startUp(context);
@@ -203,7 +412,9 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
         @Override
         public IngestModule.ProcessResult process(Content dataSource, DataSourceIngestModuleProgress statusHelper) {
             this.processingStartTime = new Date();
-            return this.module.process(dataSource, statusHelper);
+            this.processResult = null;
+            this.processResult = this.module.process(dataSource, statusHelper);
+            return this.processResult;
         }
 
     }
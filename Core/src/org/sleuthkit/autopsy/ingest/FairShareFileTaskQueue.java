@@ -0,0 +1,302 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pending file ingest tasks queue that shares the file ingest threads among
+ * concurrent ingest jobs. Each job has its own LIFO lane, so that files
+ * extracted from archives are still processed before the next archive is
+ * expanded, and the lanes are served by stride scheduling: each time a task is
+ * taken from a lane, the lane is charged the expected cost of the task divided
+ * by the weight of its job, and the next task is taken from the lane that has
+ * been charged the least. Jobs with a higher priority are served before jobs
+ * with a lower priority, with weights deciding the shares within a priority.
+ * The priorities and weights are read from the jobs each time a task is taken,
+ * so they can be changed while the jobs are running.
+ * <p>
+ * A lane is kept for a job while the scheduler may still have tasks for it in
+ * its upstream queues, so that the scheduler can tell when a job is about to
+ * run dry and refill its lane first.
+ * <p>
+ * This class is thread-safe.
+ */
+final class FairShareFileTaskQueue {
+
+    private static final long STRIDE_SCALE = 1024;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<Long, Lane> lanes = new LinkedHashMap<>();
+    private long virtualTime;
+    private int size;
+
+    /**
+     * Adds a lane for an ingest job that has tasks in the upstream queues of
+     * the scheduler, if the job does not already have one.
+     *
+     * @param job The job.
+     */
+    void addJob(DataSourceIngestJob job) {
+        lock.lock();
+        try {
+            getLane(job).hasUpstreamTasks = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets the queue know that the scheduler has no more tasks for an ingest
+     * job in its upstream queues, so that the lane of the job can be removed
+     * once it is empty.
+     *
+     * @param jobId The id of the job.
+     */
+    void setUpstreamTasksExhausted(long jobId) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(jobId);
+            if (null != lane) {
+                lane.hasUpstreamTasks = false;
+                if (lane.tasks.isEmpty()) {
+                    lanes.remove(jobId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a task to the front of the lane of its job.
+     *
+     * @param task The task.
+     */
+    void put(FileIngestTask task) {
+        long cost = FileIngestCostModel.estimateCost(task.getFile());
+        lock.lock();
+        try {
+            Lane lane = getLane(task.getIngestJob());
+            if (lane.tasks.isEmpty()) {
+                /*
+                 * A lane that has been idle does not get to make up for the
+                 * time it was idle by crowding out the other lanes.
+                 */
+                lane.pass = Math.max(lane.pass, virtualTime);
+            }
+            lane.tasks.addFirst(new QueuedTask(task, cost));
+            ++size;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next task, blocking until one is available.
+     *
+     * @return The task.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked waiting for a task.
+     */
+    FileIngestTask take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (0 == size) {
+                notEmpty.await();
+            }
+            Lane next = null;
+            for (Lane lane : lanes.values()) {
+                if (lane.tasks.isEmpty()) {
+                    continue;
+                }
+                if (null == next || lane.job.getFileIngestPriority() > next.job.getFileIngestPriority()
+                        || (lane.job.getFileIngestPriority() == next.job.getFileIngestPriority() && lane.pass < next.pass)) {
+                    next = lane;
+                }
+            }
+            QueuedTask queuedTask = next.tasks.pollFirst();
+            --size;
+            virtualTime = Math.max(virtualTime, next.pass);
+            next.pass += Math.max(1, queuedTask.cost * STRIDE_SCALE / next.job.getFileIngestWeight());
+            if (next.tasks.isEmpty() && !next.hasUpstreamTasks) {
+                lanes.remove(next.job.getId());
+            }
+            return queuedTask.task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the ids of the ingest jobs that may still have tasks in the
+     * upstream queues of the scheduler, in the order in which their lanes
+     * should be refilled: empty lanes first, so that a job with a high
+     * priority does not keep getting refilled while another job has nothing
+     * queued, then higher priority first, then fewest queued tasks for the
+     * weight of the job.
+     *
+     * @return The job ids.
+     */
+    List<Long> getJobsToRefill() {
+        lock.lock();
+        try {
+            /*
+             * The priorities and weights are read once, before sorting, since
+             * they may be changed by other threads at any time.
+             */
+            List<Lane> refillable = new ArrayList<>();
+            for (Lane lane : lanes.values()) {
+                if (lane.hasUpstreamTasks) {
+                    lane.refillPriority = lane.job.getFileIngestPriority();
+                    lane.refillLoad = (double) lane.tasks.size() / lane.job.getFileIngestWeight();
+                    refillable.add(lane);
+                }
+            }
+            Collections.sort(refillable, (lane1, lane2) -> {
+                if (lane1.tasks.isEmpty() != lane2.tasks.isEmpty()) {
+                    return lane1.tasks.isEmpty() ? -1 : 1;
+                }
+                if (lane1.refillPriority != lane2.refillPriority) {
+                    return Integer.compare(lane2.refillPriority, lane1.refillPriority);
+                }
+                return Double.compare(lane1.refillLoad, lane2.refillLoad);
+            });
+            List<Long> jobIds = new ArrayList<>();
+            for (Lane lane : refillable) {
+                jobIds.add(lane.job.getId());
+            }
+            return jobIds;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queries whether any ingest job that may still have tasks in the upstream
+     * queues of the scheduler has run out of queued tasks.
+     *
+     * @return True or false.
+     */
+    boolean hasStarvedJob() {
+        lock.lock();
+        try {
+            for (Lane lane : lanes.values()) {
+                if (lane.hasUpstreamTasks && lane.tasks.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tasks in the queue.
+     *
+     * @return The task count.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the tasks for a given ingest job.
+     *
+     * @param jobId The id of the job for which the tasks are to be counted.
+     *
+     * @return The count.
+     */
+    int countTasksForJob(long jobId) {
+        lock.lock();
+        try {
+            Lane lane = lanes.get(jobId);
+            return (null != lane) ? lane.tasks.size() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the lane of an ingest job, adding it if the job does not have one.
+     * Must be called while holding the lock.
+     *
+     * @param job The job.
+     *
+     * @return The lane.
+     */
+    private Lane getLane(DataSourceIngestJob job) {
+        Lane lane = lanes.get(job.getId());
+        if (null == lane) {
+            lane = new Lane(job);
+            lane.pass = virtualTime;
+            lanes.put(job.getId(), lane);
+        }
+        return lane;
+    }
+
+    /**
+     * The queued tasks of an ingest job and the charge for the tasks taken so
+     * far.
+     */
+    private static final class Lane {
+
+        private final DataSourceIngestJob job;
+        private final ArrayDeque<QueuedTask> tasks;
+        private long pass;
+        private boolean hasUpstreamTasks;
+        private int refillPriority;
+        private double refillLoad;
+
+        Lane(DataSourceIngestJob job) {
+            this.job = job;
+            this.tasks = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * A task with its expected cost.
+     */
+    private static final class QueuedTask {
+
+        private final FileIngestTask task;
+        private final long cost;
+
+        QueuedTask(FileIngestTask task, long cost) {
+            this.task = task;
+            this.cost = cost;
+        }
+    }
+
+}
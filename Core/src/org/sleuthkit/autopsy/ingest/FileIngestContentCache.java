@@ -0,0 +1,357 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.core.UserPreferences;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.ReadContentInputStream;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Caches the content of the file that a file ingest thread is running through
+ * a file ingest pipeline, so that the modules in the pipeline can share one
+ * read of the content from the data source instead of each reading it on its
+ * own. The header of the file is always cached, and the whole content is
+ * cached if the file is no larger than a configurable threshold.
+ * <p>
+ * The content is read lazily, on the first request for it by a module, into a
+ * buffer taken from a pool that is shared by the file ingest threads. The
+ * buffer goes back to the pool when the pipeline is done with the file, and
+ * the pool is emptied when ingest is no longer running.
+ * <p>
+ * Each file ingest thread has its own cache entry, so this class is
+ * thread-safe, but the streams and data it hands out must not be used after
+ * the pipeline is done with the file. With staged file ingest, the entry is
+ * detached from one thread and attached to the next as the file moves from
+ * stage to stage.
+ */
+final class FileIngestContentCache {
+
+    static final int HEADER_SIZE = 64 * 1024;
+    private static final Logger logger = Logger.getLogger(FileIngestContentCache.class.getName());
+    private static final ThreadLocal<CachedFile> currentFile = new ThreadLocal<>();
+    private static final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledBuffersCount = new AtomicInteger(0);
+
+    /**
+     * Makes a file the file whose content is cached for the calling file
+     * ingest thread. Nothing is read until a module asks for the content.
+     *
+     * @param file The file.
+     */
+    static void begin(AbstractFile file) {
+        end();
+        currentFile.set(new CachedFile(file, UserPreferences.fileIngestContentCacheThresholdMB() * 1024L * 1024L));
+    }
+
+    /**
+     * Releases the cached content, if any, of the file whose content is cached
+     * for the calling file ingest thread.
+     */
+    static void end() {
+        CachedFile cachedFile = currentFile.get();
+        if (null != cachedFile) {
+            currentFile.remove();
+            if (null != cachedFile.buffer && pooledBuffersCount.get() < IngestManager.MAX_NUMBER_OF_FILE_INGEST_THREADS) {
+                pooledBuffersCount.incrementAndGet();
+                bufferPool.offer(cachedFile.buffer);
+            }
+        }
+    }
+
+    /**
+     * Drops the buffers in the pool, so that their memory can be reclaimed
+     * while ingest is not running.
+     */
+    static void releasePooledBuffers() {
+        while (null != bufferPool.poll()) {
+            pooledBuffersCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Detaches the cache entry for the file whose content is cached for the
+     * calling file ingest thread from the thread, so that processing of the
+     * file can be continued on another thread.
+     *
+     * @return The cache entry, or null if there is none.
+     */
+    static CachedFile detach() {
+        CachedFile cachedFile = currentFile.get();
+        currentFile.remove();
+        return cachedFile;
+    }
+
+    /**
+     * Attaches a detached cache entry to the calling thread.
+     *
+     * @param cachedFile The cache entry, may be null.
+     */
+    static void attach(CachedFile cachedFile) {
+        end();
+        if (null != cachedFile) {
+            currentFile.set(cachedFile);
+        }
+    }
+
+    /**
+     * Reads content from a file, from the cache if the file is the file being
+     * processed by the calling thread and the requested range is cached, and
+     * from the data source otherwise.
+     *
+     * @param file   The file.
+     * @param buffer The buffer to read into.
+     * @param offset The offset into the file to read from.
+     * @param length The number of bytes to read.
+     *
+     * @return The number of bytes read.
+     *
+     * @throws TskCoreException if there is an error reading from the data
+     *                          source.
+     */
+    static int read(AbstractFile file, byte[] buffer, long offset, int length) throws TskCoreException {
+        CachedFile cachedFile = getCachedFile(file);
+        int bytesRead;
+        if (null != cachedFile && offset >= 0 && offset < cachedFile.length
+                && (offset + length <= cachedFile.length || cachedFile.isWholeFile)) {
+            bytesRead = (int) Math.min(length, cachedFile.length - offset);
+            System.arraycopy(cachedFile.buffer, (int) offset, buffer, 0, bytesRead);
+        } else {
+            bytesRead = file.read(buffer, offset, length);
+        }
+        countBytesRead(file, bytesRead);
+        return bytesRead;
+    }
+
+    /**
+     * Gets the number of bytes of the content of the file whose content is
+     * cached for the calling thread that have been read through this cache,
+     * whether served from the cache or from the data source.
+     *
+     * @return The number of bytes, zero if no file is cached for the thread.
+     */
+    static long getBytesRead() {
+        CachedFile cachedFile = currentFile.get();
+        return (null != cachedFile) ? cachedFile.bytesRead.get() : 0L;
+    }
+
+    /**
+     * Adds to the count of bytes read through this cache for a file, if it is
+     * the file whose content is cached for the calling thread.
+     *
+     * @param file      The file.
+     * @param bytesRead The number of bytes read.
+     */
+    private static void countBytesRead(AbstractFile file, int bytesRead) {
+        CachedFile cachedFile = currentFile.get();
+        if (null != cachedFile && bytesRead > 0 && cachedFile.file.getId() == file.getId()) {
+            cachedFile.bytesRead.addAndGet(bytesRead);
+        }
+    }
+
+    /**
+     * Wraps a stream of the content of a file so that the bytes read from it
+     * are counted for the file, if it is the file whose content is cached for
+     * the calling thread.
+     *
+     * @param file   The file.
+     * @param stream The stream.
+     *
+     * @return The wrapped stream, or the stream itself if the file is not the
+     *         cached file.
+     */
+    private static InputStream countBytesRead(AbstractFile file, InputStream stream) {
+        CachedFile cachedFile = currentFile.get();
+        if (null == cachedFile || cachedFile.file.getId() != file.getId()) {
+            return stream;
+        }
+        return new CountingInputStream(stream, cachedFile.bytesRead);
+    }
+
+    /**
+     * Gets a stream of the content of a file, from the cache if the file is the
+     * file being processed by the calling thread and the whole content is
+     * cached, and from the data source otherwise.
+     *
+     * @param file The file.
+     *
+     * @return The stream.
+     */
+    static InputStream getInputStream(AbstractFile file) {
+        CachedFile cachedFile = getCachedFile(file);
+        if (null != cachedFile && cachedFile.isWholeFile) {
+            return countBytesRead(file, new ByteArrayInputStream(cachedFile.buffer, 0, cachedFile.length));
+        }
+        return countBytesRead(file, new ReadContentInputStream(file));
+    }
+
+    /**
+     * Gets a stream of the content of a file that does not depend on the
+     * cache, so that it can still be used after the pipeline is done with the
+     * file. If the whole content of the file is cached, the stream reads from
+     * a copy of the cached content, otherwise it reads from the data source.
+     *
+     * @param file The file.
+     *
+     * @return The stream.
+     */
+    static InputStream getDetachedInputStream(AbstractFile file) {
+        CachedFile cachedFile = getCachedFile(file);
+        if (null != cachedFile && cachedFile.isWholeFile) {
+            return countBytesRead(file, new ByteArrayInputStream(Arrays.copyOf(cachedFile.buffer, cachedFile.length)));
+        }
+        return countBytesRead(file, new ReadContentInputStream(file));
+    }
+
+    /**
+     * Gets the cache entry for a file, reading the content into the cache if
+     * this is the first request for it.
+     *
+     * @param file The file.
+     *
+     * @return The cache entry, or null if the file is not the file being
+     *         processed by the calling thread or its content could not be
+     *         read.
+     */
+    private static CachedFile getCachedFile(AbstractFile file) {
+        CachedFile cachedFile = currentFile.get();
+        if (null == cachedFile || cachedFile.file.getId() != file.getId()) {
+            return null;
+        }
+        if (!cachedFile.isLoaded) {
+            cachedFile.isLoaded = true;
+            try {
+                cachedFile.load();
+            } catch (TskCoreException ex) {
+                /*
+                 * Leave the reading, and the error handling, to the module.
+                 */
+                logger.log(Level.WARNING, String.format("Error reading content of %s (id=%d) into the file ingest content cache", file.getName(), file.getId()), ex); //NON-NLS
+                cachedFile.length = 0;
+                cachedFile.isWholeFile = false;
+            }
+        }
+        return (cachedFile.length > 0) ? cachedFile : null;
+    }
+
+    /**
+     * Gets a buffer of at least a given size, from the pool if there is a big
+     * enough buffer there.
+     *
+     * @param size The minimum size of the buffer.
+     *
+     * @return The buffer.
+     */
+    private static byte[] getBuffer(int size) {
+        byte[] buffer = bufferPool.poll();
+        if (null != buffer) {
+            pooledBuffersCount.decrementAndGet();
+            if (buffer.length >= size) {
+                return buffer;
+            }
+        }
+        return new byte[Math.max(size, HEADER_SIZE)];
+    }
+
+    /**
+     * The cache entry for the file being processed by a file ingest thread.
+     */
+    static final class CachedFile {
+
+        private final AbstractFile file;
+        private final long wholeFileThreshold;
+        private final AtomicLong bytesRead = new AtomicLong();
+        private byte[] buffer;
+        private int length;
+        private boolean isLoaded;
+        private boolean isWholeFile;
+
+        CachedFile(AbstractFile file, long wholeFileThreshold) {
+            this.file = file;
+            this.wholeFileThreshold = wholeFileThreshold;
+        }
+
+        /**
+         * Reads the whole content of the file, or its header if the file is
+         * larger than the threshold, into a buffer.
+         *
+         * @throws TskCoreException if there is an error reading from the data
+         *                          source.
+         */
+        void load() throws TskCoreException {
+            long size = file.getSize();
+            if (size <= 0) {
+                return;
+            }
+            boolean readWholeFile = size <= Math.max(wholeFileThreshold, HEADER_SIZE);
+            int bytesToRead = readWholeFile ? (int) size : HEADER_SIZE;
+            buffer = getBuffer(bytesToRead);
+            length = Math.max(0, file.read(buffer, 0, bytesToRead));
+            isWholeFile = readWholeFile && length == size;
+        }
+    }
+
+    /**
+     * A stream that counts the bytes read from the stream it wraps.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private final AtomicLong bytesRead;
+
+        CountingInputStream(InputStream stream, AtomicLong bytesRead) {
+            super(stream);
+            this.bytesRead = bytesRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytesRead.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                bytesRead.addAndGet(count);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private FileIngestContentCache() {
+    }
+
+}
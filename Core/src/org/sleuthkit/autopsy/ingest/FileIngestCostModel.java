@@ -0,0 +1,160 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Estimates the relative amount of work the file ingest modules will do for a
+ * file, from its size and its type. The estimate is in "byte equivalents": the
+ * size of the file weighted by how expensive files of its type tend to be for
+ * the standard modules (e.g., archives are extracted and documents go through
+ * text extraction and indexing, while media files are mostly just hashed),
+ * plus a fixed per-file overhead for the case database and module work that
+ * every file incurs.
+ * <p>
+ * The MIME type of a file is used if it has already been detected, e.g., when
+ * a data source is re-ingested. Otherwise the file name extension is used.
+ */
+final class FileIngestCostModel {
+
+    private static final long PER_FILE_OVERHEAD = 64 * 1024;
+    private static final double ARCHIVE_WEIGHT = 4.0;
+    private static final double DOCUMENT_WEIGHT = 3.0;
+    private static final double TEXT_WEIGHT = 2.0;
+    private static final double IMAGE_WEIGHT = 1.5;
+    private static final double MEDIA_WEIGHT = 0.5;
+    private static final double DEFAULT_WEIGHT = 1.0;
+    private static final Set<String> ARCHIVE_MIME_TYPES = new HashSet<>(Arrays.asList(
+            "application/zip", //NON-NLS
+            "application/x-7z-compressed", //NON-NLS
+            "application/x-rar-compressed", //NON-NLS
+            "application/gzip", //NON-NLS
+            "application/x-gzip", //NON-NLS
+            "application/x-bzip2", //NON-NLS
+            "application/x-tar", //NON-NLS
+            "application/x-gtar", //NON-NLS
+            "application/vnd.ms-cab-compressed", //NON-NLS
+            "application/x-iso9660-image", //NON-NLS
+            "application/x-lzma", //NON-NLS
+            "application/x-xz")); //NON-NLS
+    private static final Set<String> ARCHIVE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "7z", "rar", "gz", "tgz", "bz2", "tar", "cab", "iso", "lzma", "xz", "arj", "jar")); //NON-NLS
+    private static final Set<String> DOCUMENT_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "pdf", "doc", "docx", "xls", "xlsx", "ppt", "pptx", "odt", "ods", "odp", "rtf", //NON-NLS
+            "htm", "html", "xml", "eml", "msg", "mbox", "pst", "ost")); //NON-NLS
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "txt", "log", "csv", "json", "ini", "cfg", "conf", "js", "css")); //NON-NLS
+    private static final Set<String> IMAGE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "bmp", "tif", "tiff", "heic")); //NON-NLS
+    private static final Set<String> MEDIA_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "mp3", "wav", "wma", "aac", "flac", "ogg", "m4a", //NON-NLS
+            "mp4", "avi", "mov", "wmv", "mkv", "flv", "mpg", "mpeg", "m4v", "3gp")); //NON-NLS
+
+    /**
+     * Estimates the cost of running a file through the file ingest pipeline.
+     *
+     * @param file The file.
+     *
+     * @return The estimated cost, in byte equivalents.
+     */
+    static long estimateCost(AbstractFile file) {
+        if (file.isDir()) {
+            return PER_FILE_OVERHEAD;
+        }
+        return PER_FILE_OVERHEAD + (long) (Math.max(0, file.getSize()) * getWeight(file));
+    }
+
+    /**
+     * Gets the per byte weight for a file, by MIME type if it is known and by
+     * extension otherwise.
+     *
+     * @param file The file.
+     *
+     * @return The weight.
+     */
+    private static double getWeight(AbstractFile file) {
+        String mimeType = file.getMIMEType();
+        if (null != mimeType && !mimeType.isEmpty()) {
+            return getWeightForMimeType(mimeType.toLowerCase(Locale.ROOT));
+        }
+        String extension = file.getNameExtension();
+        if (null != extension && !extension.isEmpty()) {
+            return getWeightForExtension(extension.toLowerCase(Locale.ROOT));
+        }
+        return DEFAULT_WEIGHT;
+    }
+
+    private static double getWeightForMimeType(String mimeType) {
+        if (ARCHIVE_MIME_TYPES.contains(mimeType)) {
+            return ARCHIVE_WEIGHT;
+        }
+        if (mimeType.equals("application/pdf") //NON-NLS
+                || mimeType.equals("application/msword") //NON-NLS
+                || mimeType.equals("application/rtf") //NON-NLS
+                || mimeType.equals("message/rfc822") //NON-NLS
+                || mimeType.startsWith("application/vnd.ms-") //NON-NLS
+                || mimeType.startsWith("application/vnd.openxmlformats") //NON-NLS
+                || mimeType.startsWith("application/vnd.oasis.opendocument") //NON-NLS
+                || mimeType.equals("text/html") //NON-NLS
+                || mimeType.endsWith("xml")) { //NON-NLS
+            return DOCUMENT_WEIGHT;
+        }
+        if (mimeType.startsWith("text/")) { //NON-NLS
+            return TEXT_WEIGHT;
+        }
+        if (mimeType.startsWith("image/")) { //NON-NLS
+            return IMAGE_WEIGHT;
+        }
+        if (mimeType.startsWith("video/") || mimeType.startsWith("audio/")) { //NON-NLS
+            return MEDIA_WEIGHT;
+        }
+        return DEFAULT_WEIGHT;
+    }
+
+    private static double getWeightForExtension(String extension) {
+        if (ARCHIVE_EXTENSIONS.contains(extension)) {
+            return ARCHIVE_WEIGHT;
+        }
+        if (DOCUMENT_EXTENSIONS.contains(extension)) {
+            return DOCUMENT_WEIGHT;
+        }
+        if (TEXT_EXTENSIONS.contains(extension)) {
+            return TEXT_WEIGHT;
+        }
+        if (IMAGE_EXTENSIONS.contains(extension)) {
+            return IMAGE_WEIGHT;
+        }
+        if (MEDIA_EXTENSIONS.contains(extension)) {
+            return MEDIA_WEIGHT;
+        }
+        return DEFAULT_WEIGHT;
+    }
+
+    /**
+     * Prevents instantiation of this utility class.
+     */
+    private FileIngestCostModel() {
+    }
+
+}
@@ -0,0 +1,347 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Timing measurements for the file ingest part of an ingest job on a data
+ * source: latency histograms and byte counts per file ingest module and MIME
+ * type, and histograms of the time file ingest tasks spend waiting in the
+ * ingest task queues and of the time they take to run through the whole
+ * pipeline. The measurements are live, i.e., they can be queried while the job
+ * is running, and are exported as JSON and CSV when the job finishes.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class FileIngestMetrics {
+
+    private static final String UNKNOWN_MIME_TYPE = "unknown"; //NON-NLS
+    private static final double[] EXPORTED_PERCENTILES = {50.0, 90.0, 99.0};
+    private final long jobId;
+    private final String dataSourceName;
+    private final ConcurrentHashMap<String, ModuleMetrics> moduleMetrics;
+    private final LatencyHistogram queueWaitTimes;
+    private final LatencyHistogram fileTaskTimes;
+
+    /**
+     * Constructs an object for the timing measurements of the file ingest part
+     * of an ingest job on a data source.
+     *
+     * @param jobId          The id of the data source ingest job.
+     * @param dataSourceName The name of the data source.
+     */
+    FileIngestMetrics(long jobId, String dataSourceName) {
+        this.jobId = jobId;
+        this.dataSourceName = dataSourceName;
+        this.moduleMetrics = new ConcurrentHashMap<>();
+        this.queueWaitTimes = new LatencyHistogram();
+        this.fileTaskTimes = new LatencyHistogram();
+    }
+
+    /**
+     * Records the time a file ingest module took to process a file. Called
+     * once the file has been run through the whole pipeline, so that files are
+     * attributed to the MIME type found by file type detection even for the
+     * modules that ran before it.
+     *
+     * @param moduleName The display name of the module.
+     * @param file       The file.
+     * @param bytesRead  The number of bytes of the content of the file that the
+     *                   module read through its ingest job context.
+     * @param nanos      The time, in nanoseconds.
+     */
+    void recordModuleTime(String moduleName, AbstractFile file, long bytesRead, long nanos) {
+        String mimeType = file.getMIMEType();
+        if (null == mimeType || mimeType.isEmpty()) {
+            mimeType = UNKNOWN_MIME_TYPE;
+        }
+        String key = moduleName + '\u0000' + mimeType;
+        ModuleMetrics metrics = moduleMetrics.get(key);
+        if (null == metrics) {
+            ModuleMetrics newMetrics = new ModuleMetrics(moduleName, mimeType);
+            metrics = moduleMetrics.putIfAbsent(key, newMetrics);
+            if (null == metrics) {
+                metrics = newMetrics;
+            }
+        }
+        metrics.latency.record(nanos);
+        metrics.bytes.addAndGet(Math.max(0, bytesRead));
+    }
+
+    /**
+     * Records the time a file ingest task spent in the ingest task queues
+     * before an ingest thread started on it.
+     *
+     * @param nanos The time, in nanoseconds.
+     */
+    void recordQueueWaitTime(long nanos) {
+        queueWaitTimes.record(nanos);
+    }
+
+    /**
+     * Records the time a file ingest task took to run through the whole file
+     * ingest pipeline.
+     *
+     * @param nanos The time, in nanoseconds.
+     */
+    void recordFileTaskTime(long nanos) {
+        fileTaskTimes.record(nanos);
+    }
+
+    /**
+     * Gets the id of the data source ingest job measured.
+     *
+     * @return The job id.
+     */
+    public long getJobId() {
+        return jobId;
+    }
+
+    /**
+     * Gets the name of the data source of the ingest job measured.
+     *
+     * @return The data source name.
+     */
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    /**
+     * Gets the measurements for each combination of file ingest module and
+     * MIME type seen so far.
+     *
+     * @return The measurements, sorted by total time, longest first.
+     */
+    public List<ModuleMetrics> getModuleMetrics() {
+        List<ModuleMetrics> metrics = new ArrayList<>(moduleMetrics.values());
+        Collections.sort(metrics, (m1, m2) -> Long.compare(m2.getLatency().getTotalNanos(), m1.getLatency().getTotalNanos()));
+        return metrics;
+    }
+
+    /**
+     * Gets the histogram of the time file ingest tasks spent waiting in the
+     * ingest task queues.
+     *
+     * @return The histogram.
+     */
+    public LatencyHistogram getQueueWaitTimes() {
+        return queueWaitTimes;
+    }
+
+    /**
+     * Gets the histogram of the time file ingest tasks took to run through the
+     * whole file ingest pipeline.
+     *
+     * @return The histogram.
+     */
+    public LatencyHistogram getFileTaskTimes() {
+        return fileTaskTimes;
+    }
+
+    /**
+     * Formats the measurements as JSON.
+     *
+     * @return The JSON text.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n"); //NON-NLS
+        json.append("  \"jobId\": ").append(jobId).append(",\n"); //NON-NLS
+        json.append("  \"dataSource\": ").append(quoteJson(dataSourceName)).append(",\n"); //NON-NLS
+        json.append("  \"queueWait\": "); //NON-NLS
+        appendHistogramJson(json, queueWaitTimes);
+        json.append(",\n  \"fileTask\": "); //NON-NLS
+        appendHistogramJson(json, fileTaskTimes);
+        json.append(",\n  \"modules\": [\n"); //NON-NLS
+        List<ModuleMetrics> metrics = getModuleMetrics();
+        for (int i = 0; i < metrics.size(); ++i) {
+            ModuleMetrics moduleMetric = metrics.get(i);
+            json.append("    {\"module\": ").append(quoteJson(moduleMetric.getModuleName())); //NON-NLS
+            json.append(", \"mimeType\": ").append(quoteJson(moduleMetric.getMimeType())); //NON-NLS
+            json.append(", \"bytes\": ").append(moduleMetric.getBytes()); //NON-NLS
+            json.append(", \"latency\": "); //NON-NLS
+            appendHistogramJson(json, moduleMetric.getLatency());
+            json.append("}");
+            if (i < metrics.size() - 1) {
+                json.append(",");
+            }
+            json.append("\n");
+        }
+        json.append("  ]\n}\n"); //NON-NLS
+        return json.toString();
+    }
+
+    /**
+     * Formats the per module and MIME type measurements as CSV, one row per
+     * combination, with times in microseconds.
+     *
+     * @return The CSV text.
+     */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder();
+        csv.append("module,mime_type,files,bytes,total_us,mean_us,p50_us,p90_us,p99_us,max_us\n"); //NON-NLS
+        for (ModuleMetrics moduleMetric : getModuleMetrics()) {
+            LatencyHistogram latency = moduleMetric.getLatency();
+            csv.append(quoteCsv(moduleMetric.getModuleName())).append(',');
+            csv.append(quoteCsv(moduleMetric.getMimeType())).append(',');
+            csv.append(latency.getCount()).append(',');
+            csv.append(moduleMetric.getBytes()).append(',');
+            csv.append(latency.getTotalNanos() / 1000).append(',');
+            csv.append(latency.getMeanNanos() / 1000);
+            for (double percentile : EXPORTED_PERCENTILES) {
+                csv.append(',').append(latency.getPercentileNanos(percentile) / 1000);
+            }
+            csv.append(',').append(latency.getMaxNanos() / 1000).append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Writes the measurements to a JSON file and a CSV file in a directory.
+     *
+     * @param directory The directory.
+     * @param baseName  The file name to use, without extension.
+     *
+     * @throws IOException if there is a problem writing the files.
+     */
+    void export(Path directory, String baseName) throws IOException {
+        Files.createDirectories(directory);
+        try (Writer writer = Files.newBufferedWriter(directory.resolve(baseName + ".json"), StandardCharsets.UTF_8)) { //NON-NLS
+            writer.write(toJson());
+        }
+        try (Writer writer = Files.newBufferedWriter(directory.resolve(baseName + ".csv"), StandardCharsets.UTF_8)) { //NON-NLS
+            writer.write(toCsv());
+        }
+    }
+
+    private static void appendHistogramJson(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\": ").append(histogram.getCount()); //NON-NLS
+        json.append(", \"totalUs\": ").append(histogram.getTotalNanos() / 1000); //NON-NLS
+        json.append(", \"meanUs\": ").append(histogram.getMeanNanos() / 1000); //NON-NLS
+        for (double percentile : EXPORTED_PERCENTILES) {
+            json.append(", \"p").append((int) percentile).append("Us\": ").append(histogram.getPercentileNanos(percentile) / 1000); //NON-NLS
+        }
+        json.append(", \"maxUs\": ").append(histogram.getMaxNanos() / 1000); //NON-NLS
+        json.append(", \"buckets\": ["); //NON-NLS
+        long[] counts = histogram.getBucketCounts();
+        for (int i = 0; i < counts.length; ++i) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append(counts[i]);
+        }
+        json.append("]}");
+    }
+
+    private static String quoteJson(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    quoted.append("\\\"");
+                    break;
+                case '\\':
+                    quoted.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c)); //NON-NLS
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String quoteCsv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * The measurements for a file ingest module and MIME type combination.
+     */
+    public static final class ModuleMetrics {
+
+        private final String moduleName;
+        private final String mimeType;
+        private final LatencyHistogram latency;
+        private final AtomicLong bytes;
+
+        private ModuleMetrics(String moduleName, String mimeType) {
+            this.moduleName = moduleName;
+            this.mimeType = mimeType;
+            this.latency = new LatencyHistogram();
+            this.bytes = new AtomicLong();
+        }
+
+        /**
+         * Gets the display name of the module.
+         *
+         * @return The module name.
+         */
+        public String getModuleName() {
+            return moduleName;
+        }
+
+        /**
+         * Gets the MIME type of the files, or "unknown" if the type of the
+         * files had not been detected when the module processed them.
+         *
+         * @return The MIME type.
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * Gets the histogram of the time the module took per file.
+         *
+         * @return The histogram.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Gets the total number of bytes of file content the module read
+         * through its ingest job context.
+         *
+         * @return The number of bytes.
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+    }
+
+}
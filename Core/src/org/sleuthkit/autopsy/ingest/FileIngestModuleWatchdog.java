@@ -0,0 +1,230 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.core.UserPreferences;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Puts a time budget, scaled by file size, on each call of a file ingest
+ * module. If a module runs past its budget on a file, the file is quarantined
+ * and the thread running the module is interrupted. If the module does not
+ * respond to the interrupt within another budget, its call is abandoned: the
+ * file ingest task is completed without it, the pipeline the call is stuck in
+ * is retired, a file ingest thread stuck in it is replaced, so that ingest
+ * goes on at full strength and the job can finish, and the stuck thread exits
+ * if the module ever returns. The quarantine report of the job is written as
+ * soon as a file is quarantined or a call is abandoned, so that it is
+ * available while the job is still running.
+ * <p>
+ * The file ingest pipelines arm a watch around each module call, which only
+ * costs an uncontended lock, and a single watchdog thread checks the armed
+ * watches once a second.
+ * <p>
+ * Note: This should be a singleton and currently is used as such, with the
+ * only instance residing in the FileIngestPipeline class.
+ */
+final class FileIngestModuleWatchdog {
+
+    private static final Logger logger = Logger.getLogger(FileIngestModuleWatchdog.class.getName());
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+    private static final long BYTES_PER_MB = 1024L * 1024;
+    private final Set<Watch> watches;
+    private final ScheduledThreadPoolExecutor checker;
+
+    /**
+     * Constructs a watchdog for the calls of file ingest modules.
+     */
+    FileIngestModuleWatchdog() {
+        this.watches = ConcurrentHashMap.newKeySet();
+        this.checker = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("IM-module-watchdog-%d").setDaemon(true).build()); //NON-NLS
+        this.checker.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a watch for the module calls of a file ingest pipeline, if the
+     * watchdog is enabled. The time budget settings are read when the watch is
+     * created, so a change takes effect with the next ingest job.
+     *
+     * @param job      The data source ingest job that owns the pipeline.
+     * @param pipeline The pipeline.
+     *
+     * @return The watch, or null if the watchdog is disabled.
+     */
+    Watch createWatch(DataSourceIngestJob job, FileIngestPipeline pipeline) {
+        int budgetSeconds = UserPreferences.fileIngestModuleTimeBudgetSeconds();
+        if (0 == budgetSeconds) {
+            return null;
+        }
+        return new Watch(job, pipeline, budgetSeconds * NANOS_PER_SECOND, UserPreferences.fileIngestModuleTimeBudgetSecondsPerMB() * NANOS_PER_SECOND);
+    }
+
+    /**
+     * Starts checking a watch.
+     *
+     * @param watch The watch.
+     */
+    void register(Watch watch) {
+        watches.add(watch);
+    }
+
+    /**
+     * Stops checking a watch.
+     *
+     * @param watch The watch.
+     */
+    void unregister(Watch watch) {
+        watches.remove(watch);
+    }
+
+    /**
+     * Checks the armed watches for module calls that have run past their
+     * budgets.
+     */
+    private void check() {
+        try {
+            long now = System.nanoTime();
+            for (Watch watch : watches) {
+                watch.check(now);
+            }
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Unexpected error checking file ingest module time budgets", ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Times the module calls of one file ingest pipeline, which makes one call
+     * at a time.
+     */
+    static final class Watch {
+
+        private final DataSourceIngestJob job;
+        private final FileIngestPipeline pipeline;
+        private final long baseBudgetNanos;
+        private final long budgetNanosPerMB;
+        private Thread thread;
+        private String moduleName;
+        private FileIngestTask task;
+        private AbstractFile file;
+        private long startTime;
+        private long budgetNanos;
+        private State state = State.IDLE;
+
+        /**
+         * The states of a watch.
+         */
+        private enum State {
+
+            IDLE, ARMED, INTERRUPTED, ABANDONED
+        };
+
+        private Watch(DataSourceIngestJob job, FileIngestPipeline pipeline, long baseBudgetNanos, long budgetNanosPerMB) {
+            this.job = job;
+            this.pipeline = pipeline;
+            this.baseBudgetNanos = baseBudgetNanos;
+            this.budgetNanosPerMB = budgetNanosPerMB;
+        }
+
+        /**
+         * Arms the watch for a module call on the calling thread.
+         *
+         * @param moduleName The display name of the module.
+         * @param task       The file ingest task of the file.
+         */
+        synchronized void arm(String moduleName, FileIngestTask task) {
+            AbstractFile file = task.getFile();
+            this.thread = Thread.currentThread();
+            this.moduleName = moduleName;
+            this.task = task;
+            this.file = file;
+            this.startTime = System.nanoTime();
+            this.budgetNanos = baseBudgetNanos + (file.getSize() / BYTES_PER_MB) * budgetNanosPerMB;
+            this.state = State.ARMED;
+        }
+
+        /**
+         * Disarms the watch when the module call returns. If the call ran
+         * past its budget, the interrupt meant for the module is cleared, so
+         * that it does not stop the file ingest thread, and the actual time
+         * the call took is recorded in the quarantine.
+         *
+         * @return True if the call ran past its budget, false otherwise.
+         */
+        synchronized boolean disarm() {
+            boolean expired = (State.INTERRUPTED == state || State.ABANDONED == state);
+            if (expired) {
+                Thread.interrupted();
+                job.getFileIngestQuarantine().setElapsedTime(file, System.nanoTime() - startTime);
+            }
+            this.thread = null;
+            this.task = null;
+            this.file = null;
+            this.state = State.IDLE;
+            return expired;
+        }
+
+        /**
+         * Checks whether the current module call, if any, has run past its
+         * budget. An abandoned call is handed to the job outside of the lock
+         * of the watch, after the pipeline has been retired under the lock,
+         * so that the stuck thread sees that the pipeline is retired if the
+         * module returns.
+         *
+         * @param now The current value of System.nanoTime().
+         */
+        private void check(long now) {
+            FileIngestTask abandonedTask = null;
+            boolean quarantineChanged = false;
+            synchronized (this) {
+                long elapsedNanos = now - startTime;
+                if (State.ARMED == state && elapsedNanos > budgetNanos) {
+                    logger.log(Level.WARNING, "{0} ran past its time budget of {1} s on {2} (objId={3}), quarantining the file", new Object[]{moduleName, budgetNanos / NANOS_PER_SECOND, file.getName(), file.getId()}); //NON-NLS
+                    job.getFileIngestQuarantine().add(file, moduleName, budgetNanos);
+                    quarantineChanged = true;
+                    state = State.INTERRUPTED;
+                    thread.interrupt();
+                } else if (State.INTERRUPTED == state && elapsedNanos > 2 * budgetNanos) {
+                    logger.log(Level.SEVERE, "{0} did not respond to an interrupt on {1} (objId={2}), abandoning the call", new Object[]{moduleName, file.getName(), file.getId()}); //NON-NLS
+                    job.getFileIngestQuarantine().setAbandoned(file);
+                    quarantineChanged = true;
+                    state = State.ABANDONED;
+                    pipeline.retire();
+                    abandonedTask = task;
+                    IngestManager.getInstance().replaceFileIngestThread(thread);
+                }
+            }
+            if (quarantineChanged) {
+                job.exportFileIngestQuarantine();
+            }
+            if (null != abandonedTask) {
+                job.fileIngestModuleCallAbandoned(pipeline, abandonedTask);
+            }
+        }
+
+    }
+
+}
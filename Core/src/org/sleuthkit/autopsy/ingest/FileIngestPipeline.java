@@ -36,10 +36,16 @@
 final class FileIngestPipeline {
 
     private static final IngestManager ingestManager = IngestManager.getInstance();
+    private static final FileIngestModuleWatchdog watchdog = new FileIngestModuleWatchdog();
     private final DataSourceIngestJob job;
+    private final FileIngestModuleWatchdog.Watch watch;
     private final List<PipelineModule> modules = new ArrayList<>();
+    private final List<Segment> segments = new ArrayList<>();
+    private FileIngestContentCache.CachedFile stagedFileContent;
+    private final List<ModuleTime> moduleTimes = new ArrayList<>();
     private Date startTime;
     private volatile boolean running;
+    private volatile boolean retired;
 
     /**
      * Constructs an object that manages a sequence of file level ingest
@@ -52,12 +58,25 @@ final class FileIngestPipeline {
      */
     FileIngestPipeline(DataSourceIngestJob job, List<IngestModuleTemplate> moduleTemplates) {
         this.job = job;
+        this.watch = FileIngestPipeline.watchdog.createWatch(job, this);
         for (IngestModuleTemplate template : moduleTemplates) {
             if (template.isFileIngestModuleTemplate()) {
                 PipelineModule module = new PipelineModule(template.createFileIngestModule(), template.getModuleName());
                 modules.add(module);
             }
         }
+
+        /*
+         * Group the modules into segments of consecutive modules with the same
+         * stage, for staged file ingest.
+         */
+        for (int i = 0; i < modules.size(); ++i) {
+            StagedFileIngestModule.Stage stage = modules.get(i).getStage();
+            if (segments.isEmpty() || segments.get(segments.size() - 1).stage != stage) {
+                segments.add(new Segment(stage, i));
+            }
+            segments.get(segments.size() - 1).endIndex = i + 1;
+        }
     }
 
     /**
@@ -78,6 +97,28 @@ boolean isRunning() {
         return this.running;
     }
 
+    /**
+     * Retires this pipeline because a module call is stuck in it and has been
+     * abandoned by the file ingest module watchdog. A retired pipeline is not
+     * returned to the job for reuse and is not shut down, since the stuck
+     * call holds its lock. Does not take the lock of the pipeline.
+     */
+    void retire() {
+        this.retired = true;
+        if (null != this.watch) {
+            FileIngestPipeline.watchdog.unregister(this.watch);
+        }
+    }
+
+    /**
+     * Queries whether or not this pipeline has been retired.
+     *
+     * @return True or false.
+     */
+    boolean isRetired() {
+        return this.retired;
+    }
+
     /**
      * Returns the start up time of this pipeline.
      *
@@ -96,6 +137,9 @@ Date getStartTime() {
     synchronized List<IngestModuleError> startUp() {
         this.startTime = new Date();
         this.running = true;
+        if (null != this.watch) {
+            FileIngestPipeline.watchdog.register(this.watch);
+        }
         List<IngestModuleError> errors = new ArrayList<>();
         for (PipelineModule module : this.modules) {
             try {
@@ -118,31 +162,160 @@ synchronized List<IngestModuleError> process(FileIngestTask task) {
         List<IngestModuleError> errors = new ArrayList<>();
         if (!this.job.isCancelled()) {
             AbstractFile file = task.getFile();
-            for (PipelineModule module : this.modules) {
+            FileIngestContentCache.begin(file);
+            try {
+                this.processModules(task, 0, this.modules.size(), errors);
+            } finally {
+                FileIngestContentCache.end();
+            }
+            this.recordModuleTimes(file);
+            this.finishFile(file);
+        }
+        FileIngestPipeline.ingestManager.setIngestTaskProgressCompleted(task);
+        return errors;
+    }
+
+    /**
+     * Gets the number of segments of consecutive modules with the same stage
+     * in this pipeline.
+     *
+     * @return The number of segments.
+     */
+    int getNumberOfSegments() {
+        return this.segments.size();
+    }
+
+    /**
+     * Gets the stage of a segment of this pipeline.
+     *
+     * @param segment The index of the segment.
+     *
+     * @return The stage.
+     */
+    StagedFileIngestModule.Stage getSegmentStage(int segment) {
+        return this.segments.get(segment).stage;
+    }
+
+    /**
+     * Runs a file through the ingest modules of one segment of this pipeline,
+     * for staged file ingest. The segments must be run in order, possibly on
+     * different threads, followed by a call to finishStagedFile(), before the
+     * pipeline is used for another file.
+     *
+     * @param task    A file level ingest task containing a file to be
+     *                processed.
+     * @param segment The index of the segment.
+     *
+     * @return A list of processing errors, possible empty.
+     */
+    synchronized List<IngestModuleError> processSegment(FileIngestTask task, int segment) {
+        List<IngestModuleError> errors = new ArrayList<>();
+        if (!this.job.isCancelled()) {
+            if (0 == segment) {
+                FileIngestContentCache.begin(task.getFile());
+            } else {
+                FileIngestContentCache.attach(this.stagedFileContent);
+            }
+            try {
+                Segment modulesSegment = this.segments.get(segment);
+                this.processModules(task, modulesSegment.startIndex, modulesSegment.endIndex, errors);
+            } finally {
+                this.stagedFileContent = FileIngestContentCache.detach();
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Finishes up a file that has been run through the segments of this
+     * pipeline, for staged file ingest.
+     *
+     * @param task A file level ingest task containing the file.
+     */
+    synchronized void finishStagedFile(FileIngestTask task) {
+        FileIngestContentCache.attach(this.stagedFileContent);
+        FileIngestContentCache.end();
+        this.stagedFileContent = null;
+        this.recordModuleTimes(task.getFile());
+        this.finishFile(task.getFile());
+        FileIngestPipeline.ingestManager.setIngestTaskProgressCompleted(task);
+    }
+
+    /**
+     * Runs a file through a range of the ingest modules in sequential order.
+     * The remaining modules are skipped if the file is quarantined because a
+     * module ran past its time budget on it.
+     *
+     * @param task       A file level ingest task containing a file to be
+     *                   processed.
+     * @param startIndex The index of the first module to run.
+     * @param endIndex   The index after the last module to run.
+     * @param errors     A list to which to add processing errors.
+     */
+    private void processModules(FileIngestTask task, int startIndex, int endIndex, List<IngestModuleError> errors) {
+        AbstractFile file = task.getFile();
+        if (null != this.watch && this.job.getFileIngestQuarantine().contains(file.getId())) {
+            return;
+        }
+        boolean quarantined = false;
+        for (PipelineModule module : this.modules.subList(startIndex, endIndex)) {
+            try {
+                FileIngestPipeline.ingestManager.setIngestTaskProgress(task, module.getDisplayName());
+                this.job.setCurrentFileIngestModule(module.getDisplayName(), task.getFile().getName());
+                long moduleStartTime = System.nanoTime();
+                long moduleStartBytesRead = FileIngestContentCache.getBytesRead();
+                if (null != this.watch) {
+                    this.watch.arm(module.getDisplayName(), task);
+                }
                 try {
-                    FileIngestPipeline.ingestManager.setIngestTaskProgress(task, module.getDisplayName());
-                    this.job.setCurrentFileIngestModule(module.getDisplayName(), task.getFile().getName());
                     module.process(file);
-                } catch (Throwable ex) { // Catch-all exception firewall
-                    errors.add(new IngestModuleError(module.getDisplayName(), ex));
-                    String msg = ex.getMessage();
-                    // Jython run-time errors don't seem to have a message, but have details in toString.
-                    if (msg == null) {
-                        msg = ex.toString();
+                } finally {
+                    if (null != this.watch) {
+                        quarantined = this.watch.disarm();
                     }
-                    MessageNotifyUtil.Notify.error(NbBundle.getMessage(this.getClass(), "FileIngestPipeline.moduleError.title.text", module.getDisplayName()), msg);
+                    this.moduleTimes.add(new ModuleTime(module.getDisplayName(), FileIngestContentCache.getBytesRead() - moduleStartBytesRead, System.nanoTime() - moduleStartTime));
                 }
-                if (this.job.isCancelled()) {
-                    break;
+            } catch (Throwable ex) { // Catch-all exception firewall
+                errors.add(new IngestModuleError(module.getDisplayName(), ex));
+                String msg = ex.getMessage();
+                // Jython run-time errors don't seem to have a message, but have details in toString.
+                if (msg == null) {
+                    msg = ex.toString();
                 }
+                MessageNotifyUtil.Notify.error(NbBundle.getMessage(this.getClass(), "FileIngestPipeline.moduleError.title.text", module.getDisplayName()), msg);
             }
-            file.close();
-            if (!this.job.isCancelled()) {
-                IngestManager.getInstance().fireFileIngestDone(file);
+            if (quarantined || this.job.isCancelled()) {
+                break;
             }
         }
-        FileIngestPipeline.ingestManager.setIngestTaskProgressCompleted(task);
-        return errors;
+    }
+
+    /**
+     * Records the times the ingest modules took to process a file that has
+     * been run through the pipeline, now that its MIME type is known.
+     *
+     * @param file The file.
+     */
+    private void recordModuleTimes(AbstractFile file) {
+        FileIngestMetrics metrics = this.job.getFileIngestMetrics();
+        for (ModuleTime moduleTime : this.moduleTimes) {
+            metrics.recordModuleTime(moduleTime.moduleName, file, moduleTime.bytesRead, moduleTime.nanos);
+        }
+        this.moduleTimes.clear();
+    }
+
+    /**
+     * Releases a file that has been run through the ingest modules and lets
+     * the rest of the application know that the file is done.
+     *
+     * @param file The file.
+     */
+    private void finishFile(AbstractFile file) {
+        file.close();
+        FileIngestPipeline.ingestManager.recordFileIngestThroughput(file);
+        if (!this.job.isCancelled()) {
+            IngestManager.getInstance().fireFileIngestDone(file);
+        }
     }
 
     /**
@@ -167,10 +340,46 @@ synchronized List<IngestModuleError> shutDown() {
                 }
             }
         }
+        if (null != this.watch) {
+            FileIngestPipeline.watchdog.unregister(this.watch);
+        }
         this.running = false;
         return errors;
     }
 
+    /**
+     * The time an ingest module took to process the file being run through
+     * this pipeline, and the bytes of its content the module read.
+     */
+    private static final class ModuleTime {
+
+        private final String moduleName;
+        private final long bytesRead;
+        private final long nanos;
+
+        ModuleTime(String moduleName, long bytesRead, long nanos) {
+            this.moduleName = moduleName;
+            this.bytesRead = bytesRead;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * A run of consecutive modules in this pipeline that have the same stage.
+     */
+    private static final class Segment {
+
+        private final StagedFileIngestModule.Stage stage;
+        private final int startIndex;
+        private int endIndex;
+
+        Segment(StagedFileIngestModule.Stage stage, int startIndex) {
+            this.stage = stage;
+            this.startIndex = startIndex;
+            this.endIndex = startIndex;
+        }
+    }
+
     /**
      * This class decorates a file level ingest module with a display name.
      */
@@ -209,6 +418,22 @@ String getDisplayName() {
             return displayName;
         }
 
+        /**
+         * Gets the stage of the decorated ingest module, for staged file
+         * ingest.
+         *
+         * @return The stage.
+         */
+        StagedFileIngestModule.Stage getStage() {
+            if (module instanceof StagedFileIngestModule) {
+                StagedFileIngestModule.Stage stage = ((StagedFileIngestModule) module).getStage();
+                if (null != stage) {
+                    return stage;
+                }
+            }
+            return StagedFileIngestModule.Stage.CPU;
+        }
+
         /**
          * @inheritDoc
          */
@@ -0,0 +1,157 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * The files of an ingest job on a data source that were quarantined by the
+ * file ingest module watchdog because an ingest module ran past its time
+ * budget on them. The rest of the file ingest pipeline is skipped for a
+ * quarantined file, and the quarantined files are exported as a CSV report
+ * as they are quarantined and when the job finishes, so that they can be
+ * re-run in isolation.
+ * <p>
+ * This class is thread-safe.
+ */
+final class FileIngestQuarantine {
+
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Quarantines a file.
+     *
+     * @param file        The file.
+     * @param moduleName  The display name of the module that ran past its
+     *                    time budget on the file.
+     * @param budgetNanos The time budget, in nanoseconds.
+     */
+    void add(AbstractFile file, String moduleName, long budgetNanos) {
+        entries.putIfAbsent(file.getId(), new Entry(file, moduleName, budgetNanos));
+    }
+
+    /**
+     * Marks the ingest module call on a quarantined file as abandoned, i.e.,
+     * its file ingest thread was replaced because the module did not respond
+     * to an interrupt.
+     *
+     * @param file The file.
+     */
+    void setAbandoned(AbstractFile file) {
+        Entry entry = entries.get(file.getId());
+        if (null != entry) {
+            entry.abandoned = true;
+        }
+    }
+
+    /**
+     * Records how long the ingest module call on a quarantined file actually
+     * took, once it returns.
+     *
+     * @param file  The file.
+     * @param nanos The time, in nanoseconds.
+     */
+    void setElapsedTime(AbstractFile file, long nanos) {
+        Entry entry = entries.get(file.getId());
+        if (null != entry) {
+            entry.elapsedNanos = nanos;
+        }
+    }
+
+    /**
+     * Queries whether or not a file has been quarantined.
+     *
+     * @param fileId The object id of the file.
+     *
+     * @return True or false.
+     */
+    boolean contains(long fileId) {
+        return entries.containsKey(fileId);
+    }
+
+    /**
+     * Queries whether or not any files have been quarantined.
+     *
+     * @return True or false.
+     */
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Writes the quarantined files to a CSV file.
+     *
+     * @param file The CSV file.
+     *
+     * @throws IOException if there is an error writing the file.
+     */
+    void export(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        List<Entry> sortedEntries = new ArrayList<>(entries.values());
+        sortedEntries.sort((entry1, entry2) -> Long.compare(entry1.fileId, entry2.fileId));
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("objectId,path,size,module,budgetMs,elapsedMs,abandoned\n"); //NON-NLS
+            for (Entry entry : sortedEntries) {
+                writer.write(String.format("%d,%s,%d,%s,%d,%s,%b%n", //NON-NLS
+                        entry.fileId,
+                        quoteCsv(entry.path),
+                        entry.size,
+                        quoteCsv(entry.moduleName),
+                        entry.budgetNanos / 1000000,
+                        entry.elapsedNanos < 0 ? "" : Long.toString(entry.elapsedNanos / 1000000),
+                        entry.abandoned));
+            }
+        }
+    }
+
+    private static String quoteCsv(String value) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * A quarantined file.
+     */
+    private static final class Entry {
+
+        private final long fileId;
+        private final String path;
+        private final long size;
+        private final String moduleName;
+        private final long budgetNanos;
+        private volatile long elapsedNanos = -1;
+        private volatile boolean abandoned;
+
+        Entry(AbstractFile file, String moduleName, long budgetNanos) {
+            this.fileId = file.getId();
+            this.path = file.getParentPath() + file.getName();
+            this.size = file.getSize();
+            this.moduleName = moduleName;
+            this.budgetNanos = budgetNanos;
+        }
+    }
+
+}
@@ -28,16 +28,49 @@
 final class FileIngestTask extends IngestTask {
 
     private final AbstractFile file;
+    private final long creationTime;
+    private volatile long executionStartTime;
 
     FileIngestTask(DataSourceIngestJob job, AbstractFile file) {
         super(job);
         this.file = file;
+        this.creationTime = System.nanoTime();
     }
 
     AbstractFile getFile() {
         return file;
     }
 
+    /**
+     * Gets the value of System.nanoTime() when this task was created, for
+     * measuring how long the task waited to be executed.
+     *
+     * @return The creation time, in nanoseconds.
+     */
+    long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * Sets the value of System.nanoTime() when an ingest thread started
+     * executing this task.
+     *
+     * @param executionStartTime The execution start time, in nanoseconds.
+     */
+    void setExecutionStartTime(long executionStartTime) {
+        this.executionStartTime = executionStartTime;
+    }
+
+    /**
+     * Gets the value of System.nanoTime() when an ingest thread started
+     * executing this task.
+     *
+     * @return The execution start time, in nanoseconds.
+     */
+    long getExecutionStartTime() {
+        return executionStartTime;
+    }
+
     @Override
     void execute(long threadId) throws InterruptedException {
         super.setThreadId(threadId);
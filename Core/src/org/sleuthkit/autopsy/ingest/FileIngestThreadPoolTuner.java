@@ -0,0 +1,206 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.core.UserPreferences;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Adjusts the number of file ingest threads while ingest is running, based on
+ * measured CPU use, file ingest throughput and file ingest queue depth.
+ * <p>
+ * The controller does a simple hill climb: it adds a thread while the CPU is
+ * not saturated and adding the previous thread paid off in throughput, and it
+ * takes the last thread away again if it did not. A thread is removed if the
+ * CPU is saturated, and nothing is changed while the file ingest threads are
+ * starved for tasks, since the thread count is not the bottleneck then.
+ * <p>
+ * Note: This should be a singleton and currently is used as such, with the
+ * only instance residing in the IngestManager class.
+ */
+final class FileIngestThreadPoolTuner {
+
+    private static final Logger logger = Logger.getLogger(FileIngestThreadPoolTuner.class.getName());
+    private static final long SAMPLE_INTERVAL_SECONDS = 15;
+    private static final double HIGH_CPU_LOAD = 0.90;
+    private static final double LOW_CPU_LOAD = 0.75;
+    private static final double MIN_THROUGHPUT_GAIN = 0.05;
+    private final IngestManager ingestManager;
+    private final ScheduledThreadPoolExecutor sampler;
+    private ScheduledFuture<?> samplingTask;
+
+    /**
+     * The direction of the last adjustment made by the controller.
+     */
+    private enum Adjustment {
+
+        NONE, ADDED_THREAD, REMOVED_THREAD
+    };
+
+    /*
+     * The state of the hill climb, only accessed by the sampling thread.
+     */
+    private Adjustment lastAdjustment = Adjustment.NONE;
+    private long lastSampleTime;
+    private long lastBytesProcessed;
+    private long lastFilesProcessed;
+    private double lastThroughput;
+
+    /**
+     * Constructs a controller that adjusts the number of file ingest threads
+     * while ingest is running.
+     *
+     * @param ingestManager The ingest manager that owns the file ingest
+     *                      threads.
+     */
+    FileIngestThreadPoolTuner(IngestManager ingestManager) {
+        this.ingestManager = ingestManager;
+        this.sampler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("IM-file-ingest-tuner-%d").setDaemon(true).build()); //NON-NLS
+    }
+
+    /**
+     * Starts periodic sampling and adjustment.
+     */
+    synchronized void start() {
+        if (null == samplingTask) {
+            samplingTask = sampler.scheduleWithFixedDelay(this::sample, SAMPLE_INTERVAL_SECONDS, SAMPLE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops periodic sampling and adjustment.
+     */
+    synchronized void stop() {
+        if (null != samplingTask) {
+            samplingTask.cancel(false);
+            samplingTask = null;
+        }
+    }
+
+    /**
+     * Checks whether or not periodic sampling and adjustment is running.
+     *
+     * @return True or false.
+     */
+    synchronized boolean isRunning() {
+        return null != samplingTask;
+    }
+
+    /**
+     * Takes a sample of CPU use, throughput and queue depth and adjusts the
+     * number of file ingest threads, if warranted.
+     */
+    private void sample() {
+        try {
+            if (!UserPreferences.autoTuneFileIngestThreads()) {
+                stop();
+                return;
+            }
+
+            long now = System.nanoTime();
+            long bytesProcessed = ingestManager.getFileIngestBytesProcessed();
+            long filesProcessed = ingestManager.getFileIngestFilesProcessed();
+            boolean firstSample = (0 == lastSampleTime);
+            double elapsedSeconds = (now - lastSampleTime) / 1.0e9;
+            double throughput = firstSample ? 0.0 : (bytesProcessed - lastBytesProcessed) / elapsedSeconds;
+            boolean filesWereProcessed = filesProcessed > lastFilesProcessed;
+            lastSampleTime = now;
+            lastBytesProcessed = bytesProcessed;
+            lastFilesProcessed = filesProcessed;
+            if (firstSample || !ingestManager.isIngestRunning() || !filesWereProcessed || ingestManager.isUnderResourcePressure()) {
+                /*
+                 * Start the hill climb over when ingest resumes or when the
+                 * ingest monitor has stopped holding back file ingest.
+                 */
+                lastAdjustment = Adjustment.NONE;
+                lastThroughput = 0.0;
+                return;
+            }
+
+            int threadCount = ingestManager.getNumberOfFileIngestThreads();
+            int queueDepth = IngestTasksScheduler.getInstance().getPendingFileTasksCount();
+            int idleThreads = ingestManager.getNumberOfIdleFileIngestThreads();
+            double cpuLoad = getSystemCpuLoad();
+            int newThreadCount = threadCount;
+            if (0 == queueDepth && idleThreads > 0) {
+                /*
+                 * Threads are waiting for tasks, so more threads would not
+                 * help and fewer threads would not relieve anything. The
+                 * queue depth alone is not a sign of starvation, since the
+                 * pending file tasks queue is only refilled when it runs low.
+                 */
+                lastAdjustment = Adjustment.NONE;
+            } else if (cpuLoad >= HIGH_CPU_LOAD) {
+                newThreadCount = threadCount - 1;
+            } else if (Adjustment.ADDED_THREAD == lastAdjustment && throughput < lastThroughput * (1.0 + MIN_THROUGHPUT_GAIN)) {
+                /*
+                 * The last thread added did not pay off, most likely because
+                 * reading the data source is the bottleneck.
+                 */
+                newThreadCount = threadCount - 1;
+            } else if (Adjustment.REMOVED_THREAD == lastAdjustment && throughput < lastThroughput * (1.0 - MIN_THROUGHPUT_GAIN)) {
+                newThreadCount = threadCount + 1;
+            } else if (cpuLoad >= 0 && cpuLoad < LOW_CPU_LOAD && Adjustment.REMOVED_THREAD != lastAdjustment) {
+                newThreadCount = threadCount + 1;
+            }
+            newThreadCount = Math.max(IngestManager.MIN_NUMBER_OF_FILE_INGEST_THREADS, Math.min(newThreadCount, IngestManager.MAX_NUMBER_OF_FILE_INGEST_THREADS));
+
+            if (newThreadCount > threadCount) {
+                lastAdjustment = Adjustment.ADDED_THREAD;
+            } else if (newThreadCount < threadCount) {
+                lastAdjustment = Adjustment.REMOVED_THREAD;
+            } else {
+                lastAdjustment = Adjustment.NONE;
+            }
+            lastThroughput = throughput;
+            if (newThreadCount != threadCount) {
+                logger.log(Level.INFO, "Auto-tuning file ingest threads from {0} to {1} (CPU load {2}, {3} bytes/sec, queue depth {4}, idle threads {5})", new Object[]{threadCount, newThreadCount, cpuLoad, (long) throughput, queueDepth, idleThreads}); //NON-NLS
+                ingestManager.tuneNumberOfFileIngestThreads(newThreadCount);
+            }
+        } catch (Exception ex) {
+            logger.log(Level.SEVERE, "Error auto-tuning file ingest threads", ex); //NON-NLS
+        }
+    }
+
+    /**
+     * Gets the recent CPU load of the whole system.
+     *
+     * @return The load, between 0.0 and 1.0, or a negative value if it is not
+     *         available.
+     */
+    private static double getSystemCpuLoad() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getSystemCpuLoad();
+        }
+        double loadAverage = osBean.getSystemLoadAverage();
+        if (loadAverage < 0) {
+            return loadAverage;
+        }
+        return loadAverage / osBean.getAvailableProcessors();
+    }
+
+}
@@ -0,0 +1,210 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.sleuthkit.autopsy.events.AutopsyEvent;
+import org.sleuthkit.autopsy.ingest.events.BlackboardPostEvent;
+import org.sleuthkit.autopsy.ingest.events.ContentChangedEvent;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.Content;
+
+/**
+ * Coalesces the blackboard post and content changed events fired by ingest
+ * modules, so that subscribers such as the nodes of the directory tree, which
+ * query the case database on every event, are not flooded with events during
+ * heavy ingest.
+ * <p>
+ * The events fired within a time window are held back. At the end of the
+ * window, the module data events for each combination of module and artifact
+ * type are merged into one event carrying all of the artifacts, and the
+ * content events for the same content are merged into one event. If one of
+ * the merged module data events does not carry its artifacts, the merged
+ * event does not either, which tells subscribers to query for the artifact
+ * type instead. Content changed events carry a single content object, so they
+ * are merged per content object.
+ * <p>
+ * A window of zero turns coalescing off, i.e., events are published as they
+ * are fired.
+ * <p>
+ * Events are handed to the publisher while holding the lock of the coalescer,
+ * so the publisher must not block, and events are published in the order in
+ * which they were flushed even if flushes race.
+ * <p>
+ * This class is thread-safe.
+ */
+final class IngestEventCoalescer {
+
+    private final Consumer<AutopsyEvent> publisher;
+    private final ScheduledExecutorService flushTimer;
+    private final Map<String, PendingModuleDataEvent> pendingModuleDataEvents;
+    private final Map<Long, ModuleContentEvent> pendingModuleContentEvents;
+    private volatile long windowMillis;
+    private boolean flushScheduled;
+
+    /**
+     * Constructs an object that coalesces the blackboard post and content
+     * changed events fired by ingest modules.
+     *
+     * @param windowMillis The time window, in milliseconds, zero for no
+     *                     coalescing.
+     * @param publisher    The consumer that publishes the coalesced events.
+     */
+    IngestEventCoalescer(long windowMillis, Consumer<AutopsyEvent> publisher) {
+        this.windowMillis = Math.max(0, windowMillis);
+        this.publisher = publisher;
+        this.flushTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("IM-ingest-event-coalescer-%d").setDaemon(true).build()); //NON-NLS
+        this.pendingModuleDataEvents = new LinkedHashMap<>();
+        this.pendingModuleContentEvents = new LinkedHashMap<>();
+    }
+
+    /**
+     * Changes the time window. Events already held back are published at the
+     * end of the window they were held back for.
+     *
+     * @param windowMillis The time window, in milliseconds, zero for no
+     *                     coalescing.
+     */
+    void setWindowMillis(long windowMillis) {
+        this.windowMillis = Math.max(0, windowMillis);
+        if (0 == this.windowMillis) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds a module data event, fired when an ingest module has posted
+     * artifacts to the blackboard.
+     *
+     * @param moduleDataEvent The event.
+     */
+    void addModuleDataEvent(ModuleDataEvent moduleDataEvent) {
+        synchronized (this) {
+            if (0 == windowMillis) {
+                publisher.accept(new BlackboardPostEvent(moduleDataEvent));
+                return;
+            }
+            String key = moduleDataEvent.getModuleName() + '\u0000' + moduleDataEvent.getBlackboardArtifactType().getTypeID();
+            PendingModuleDataEvent pendingEvent = pendingModuleDataEvents.get(key);
+            if (null == pendingEvent) {
+                pendingModuleDataEvents.put(key, new PendingModuleDataEvent(moduleDataEvent));
+            } else {
+                pendingEvent.merge(moduleDataEvent);
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Adds a module content event, fired when an ingest module has added
+     * content to the case or changed it.
+     *
+     * @param moduleContentEvent The event.
+     */
+    void addModuleContentEvent(ModuleContentEvent moduleContentEvent) {
+        synchronized (this) {
+            if (0 == windowMillis) {
+                publisher.accept(new ContentChangedEvent(moduleContentEvent));
+                return;
+            }
+            pendingModuleContentEvents.put(((Content) moduleContentEvent.getSource()).getId(), moduleContentEvent);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Publishes the events held back, if any. Called at the end of each time
+     * window, and before ingest job events are published so that subscribers
+     * see the results of a job before they hear that it is done.
+     */
+    synchronized void flush() {
+        /*
+         * Content events go first, since the artifacts in the data events may
+         * be about the new content.
+         */
+        for (ModuleContentEvent moduleContentEvent : pendingModuleContentEvents.values()) {
+            publisher.accept(new ContentChangedEvent(moduleContentEvent));
+        }
+        for (PendingModuleDataEvent pendingEvent : pendingModuleDataEvents.values()) {
+            publisher.accept(new BlackboardPostEvent(pendingEvent.toModuleDataEvent()));
+        }
+        pendingModuleContentEvents.clear();
+        pendingModuleDataEvents.clear();
+    }
+
+    /**
+     * Schedules a flush at the end of the current time window, if one is not
+     * already scheduled. Must be called while holding the lock of this object.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            flushTimer.schedule(() -> {
+                synchronized (this) {
+                    flushScheduled = false;
+                    flush();
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The module data events held back for a combination of module and
+     * artifact type.
+     */
+    private static final class PendingModuleDataEvent {
+
+        private final String moduleName;
+        private final BlackboardArtifact.Type artifactType;
+        private List<BlackboardArtifact> artifacts;
+
+        private PendingModuleDataEvent(ModuleDataEvent moduleDataEvent) {
+            this.moduleName = moduleDataEvent.getModuleName();
+            this.artifactType = moduleDataEvent.getBlackboardArtifactType();
+            Collection<BlackboardArtifact> eventArtifacts = moduleDataEvent.getArtifacts();
+            this.artifacts = (null == eventArtifacts) ? null : new ArrayList<>(eventArtifacts);
+        }
+
+        private void merge(ModuleDataEvent moduleDataEvent) {
+            Collection<BlackboardArtifact> eventArtifacts = moduleDataEvent.getArtifacts();
+            if (null == eventArtifacts) {
+                artifacts = null;
+            } else if (null != artifacts) {
+                artifacts.addAll(eventArtifacts);
+            }
+        }
+
+        private ModuleDataEvent toModuleDataEvent() {
+            if (null == artifacts) {
+                return new ModuleDataEvent(moduleName, artifactType);
+            }
+            return new ModuleDataEvent(moduleName, artifactType, artifacts);
+        }
+    }
+
+}
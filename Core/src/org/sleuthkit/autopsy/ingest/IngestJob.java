@@ -62,6 +62,18 @@ public String getDisplayName() {
         }
     }
 
+    /**
+     * The priority of an ingest job for fair-share file ingest scheduling,
+     * unless changed with setPriority().
+     */
+    public static final int DEFAULT_PRIORITY = 0;
+
+    /**
+     * The weight of an ingest job for fair-share file ingest scheduling,
+     * unless changed with setWeight().
+     */
+    public static final int DEFAULT_WEIGHT = 10;
+
     private final static AtomicLong nextId = new AtomicLong(0L);
     private final long id;
     private final Map<Long, DataSourceIngestJob> dataSourceJobs;
@@ -88,6 +100,26 @@ public String getDisplayName() {
         cancellationReason = CancellationReason.NOT_CANCELLED;
     }
 
+    /**
+     * Constructs an ingest job that resumes an interrupted ingest job of a
+     * data source.
+     *
+     * @param dataSource  The data source to be ingested.
+     * @param settings    The ingest job settings of the interrupted job.
+     * @param doUI        Whether or not this job should use progress bars,
+     *                    message boxes for errors, etc.
+     * @param resumeState The state of the interrupted job, read from its
+     *                    journal.
+     */
+    IngestJob(Content dataSource, IngestJobSettings settings, boolean doUI, IngestJobJournal.ResumeState resumeState) {
+        this.id = IngestJob.nextId.getAndIncrement();
+        this.dataSourceJobs = new ConcurrentHashMap<>();
+        DataSourceIngestJob dataSourceIngestJob = new DataSourceIngestJob(this, dataSource, settings, doUI, resumeState);
+        this.dataSourceJobs.put(dataSourceIngestJob.getId(), dataSourceIngestJob);
+        incompleteJobsCount = new AtomicInteger(dataSourceJobs.size());
+        cancellationReason = CancellationReason.NOT_CANCELLED;
+    }
+
     /**
      * Gets the unique identifier assigned to this ingest job.
      *
@@ -216,6 +248,36 @@ public void cancel(CancellationReason reason) {
         });
     }
 
+    /**
+     * Sets the priority of this ingest job for fair-share file ingest
+     * scheduling. While there are file ingest tasks for jobs with a higher
+     * priority, the tasks of jobs with a lower priority wait. May be called
+     * while the job is running. Has no effect unless fair-share scheduling is
+     * enabled.
+     *
+     * @param priority The priority, higher is served first.
+     */
+    public void setPriority(int priority) {
+        this.dataSourceJobs.values().stream().forEach((job) -> {
+            job.setFileIngestPriority(priority);
+        });
+    }
+
+    /**
+     * Sets the weight of this ingest job for fair-share file ingest
+     * scheduling. Jobs with the same priority share the file ingest threads
+     * in proportion to their weights, by the expected cost of their files. May
+     * be called while the job is running. Has no effect unless fair-share
+     * scheduling is enabled.
+     *
+     * @param weight The weight, at least one.
+     */
+    public void setWeight(int weight) {
+        this.dataSourceJobs.values().stream().forEach((job) -> {
+            job.setFileIngestWeight(weight);
+        });
+    }
+
     /**
      * Gets the reason this job was cancelled.
      *
@@ -317,6 +379,18 @@ public List<String> getCancelledDataSourceIngestModules() {
                 return snapshot.getCancelledDataSourceIngestModules();
             }
 
+            /**
+             * Gets the file ingest timing measurements for the data source:
+             * per module and MIME type latency histograms, and queue wait
+             * times. Unlike the rest of the snapshot, the measurements keep
+             * being updated while the data source is being processed.
+             *
+             * @return The measurements.
+             */
+            public FileIngestMetrics getFileIngestMetrics() {
+                return snapshot.getFileIngestMetrics();
+            }
+
         }
 
         /**
@@ -480,9 +554,7 @@ public void cancel() {
              * modules participating in this workaround will need to consult the
              * cancelled flag in the adapters.
              */
-            if (this.job.getCurrentDataSourceIngestModule() == this.module) {
-                this.job.cancelCurrentDataSourceIngestModule();
-            }
+            this.job.cancelDataSourceIngestModule(this.module);
         }
 
     }
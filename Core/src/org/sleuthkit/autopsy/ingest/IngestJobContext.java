@@ -18,9 +18,11 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import java.io.InputStream;
 import java.util.List;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
 
 /**
  * Provides an ingest module with services specific to the ingest job of which
@@ -29,9 +31,22 @@
 public final class IngestJobContext {
 
     private final DataSourceIngestJob ingestJob;
+    private final DataSourceIngestPipeline.PipelineModule dataSourceIngestModule;
 
     IngestJobContext(DataSourceIngestJob ingestJob) {
+        this(ingestJob, null);
+    }
+
+    /**
+     * Constructs the context of a data source ingest module, so that the
+     * module can be cancelled on its own while other modules are running.
+     *
+     * @param ingestJob              The ingest job.
+     * @param dataSourceIngestModule The module, may be null.
+     */
+    IngestJobContext(DataSourceIngestJob ingestJob, DataSourceIngestPipeline.PipelineModule dataSourceIngestModule) {
         this.ingestJob = ingestJob;
+        this.dataSourceIngestModule = dataSourceIngestModule;
     }
 
     /**
@@ -83,7 +98,9 @@ public boolean isJobCancelled() {
      * @return True or false.
      */
     public boolean dataSourceIngestIsCancelled() {
-        return this.ingestJob.currentDataSourceIngestModuleIsCancelled() || this.ingestJob.isCancelled();
+        return this.ingestJob.currentDataSourceIngestModuleIsCancelled()
+                || (null != this.dataSourceIngestModule && this.dataSourceIngestModule.isCancelled())
+                || this.ingestJob.isCancelled();
     }
 
     /**
@@ -130,4 +147,56 @@ public void addFilesToJob(List<AbstractFile> files) {
         this.ingestJob.addFiles(files);
     }
 
+    /**
+     * Allows a file ingest module to read the content of the file it is
+     * processing without going back to the data source, if the content has
+     * already been read by a module earlier in the pipeline. The header of
+     * every file is shared this way, as is the whole content of files up to a
+     * configurable size. Reads of other files, or of ranges that are not
+     * cached, go to the data source.
+     *
+     * @param file   The file.
+     * @param buffer The buffer to read into.
+     * @param offset The offset into the file to read from.
+     * @param length The number of bytes to read.
+     *
+     * @return The number of bytes read.
+     *
+     * @throws TskCoreException if there is an error reading from the data
+     *                          source.
+     */
+    public int readFileContent(AbstractFile file, byte[] buffer, long offset, int length) throws TskCoreException {
+        return FileIngestContentCache.read(file, buffer, offset, length);
+    }
+
+    /**
+     * Allows a file ingest module to get a stream of the content of the file
+     * it is processing that does not go back to the data source, if the whole
+     * content of the file is cached (see readFileContent()). Otherwise, the
+     * stream reads from the data source. The stream must not be used after
+     * the module has returned from processing the file.
+     *
+     * @param file The file.
+     *
+     * @return The stream.
+     */
+    public InputStream getFileContentStream(AbstractFile file) {
+        return FileIngestContentCache.getInputStream(file);
+    }
+
+    /**
+     * Allows a file ingest module to get a stream of the content of the file
+     * it is processing that remains valid after the module has returned from
+     * processing the file, e.g., for a parse that is handed off to another
+     * thread and may outlive the module's processing of the file. If the whole
+     * content of the file is cached, the stream reads from a copy of it.
+     *
+     * @param file The file.
+     *
+     * @return The stream.
+     */
+    public InputStream getDetachedFileContentStream(AbstractFile file) {
+        return FileIngestContentCache.getDetachedInputStream(file);
+    }
+
 }
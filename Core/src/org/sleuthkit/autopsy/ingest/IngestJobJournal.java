@@ -0,0 +1,463 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.autopsy.coreutils.NetworkUtils;
+
+/**
+ * An append-only journal of the progress of a data source ingest job, kept in
+ * the case directory so that a job interrupted by a crash can be resumed with
+ * only the remaining work. The journal records the ingest job settings, the ids
+ * of the files that have made it through the file ingest pipeline, and the
+ * data source ingest modules that have finished. It is deleted when the job
+ * completes or is cancelled by the user.
+ * <p>
+ * Records are buffered and flushed to the file in batches, so recording the
+ * completion of a file costs a few bytes of buffer copying on the file ingest
+ * threads. A crash loses at most the last unflushed batch, and the files in it
+ * are simply processed again on resume. A record torn by a crash is ignored
+ * when the journal is read.
+ * <p>
+ * The artifact batches of the blackboard, see Blackboard.ArtifactBatch, are
+ * write-behind too, so they are flushed before the records are, so that the
+ * hits of a file recorded as done are in the case database. The buffer holds
+ * more than the maximum number of unflushed records, so records do not reach
+ * the file other than by such a flush.
+ * <p>
+ * This class is thread-safe.
+ */
+final class IngestJobJournal {
+
+    private static final Logger logger = Logger.getLogger(IngestJobJournal.class.getName());
+    private static final String JOURNALS_FOLDER = "IngestJournals"; //NON-NLS
+    private static final String JOURNAL_FILE_EXT = ".journal"; //NON-NLS
+    private static final int MAGIC = 0x41494A4A;
+    private static final short VERSION = 1;
+    private static final byte FILE_COMPLETED_RECORD = 1;
+    private static final byte DATA_SOURCE_MODULE_COMPLETED_RECORD = 2;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_UNFLUSHED_RECORDS = 4096;
+    private static final long MAX_UNFLUSHED_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final Set<Path> journalsInUse = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Path path;
+    private DataOutputStream out;
+    private int unflushedRecords;
+    private long lastFlushTime;
+
+    /**
+     * Creates a journal for a new data source ingest job in the case
+     * directory of the current case.
+     *
+     * @param dataSourceObjId The object id of the data source of the job.
+     * @param settings        The ingest job settings.
+     *
+     * @return The journal.
+     *
+     * @throws IOException if there is a problem creating the journal file.
+     */
+    static IngestJobJournal create(long dataSourceObjId, IngestJobSettings settings) throws IOException {
+        Path directory = getJournalsDirectory();
+        Files.createDirectories(directory);
+        Path path = directory.resolve(String.format("%s_%d_%d%s", getJournalFileNamePrefix(), dataSourceObjId, System.currentTimeMillis(), JOURNAL_FILE_EXT)); //NON-NLS
+        IngestJobJournal journal = new IngestJobJournal(path, false);
+        synchronized (journal) {
+            journal.out.writeInt(MAGIC);
+            journal.out.writeShort(VERSION);
+            journal.out.writeLong(dataSourceObjId);
+            journal.out.writeUTF(settings.getExecutionContext());
+            journal.out.writeUTF(settings.getIngestType().name());
+            journal.out.flush();
+        }
+        return journal;
+    }
+
+    /**
+     * Reopens the journal of an interrupted data source ingest job for
+     * appending, to record the progress of the resumed job.
+     *
+     * @param state The state of the interrupted job, read from the journal.
+     *
+     * @return The journal.
+     *
+     * @throws IOException if there is a problem opening the journal file.
+     */
+    static IngestJobJournal reopen(ResumeState state) throws IOException {
+        return new IngestJobJournal(state.getJournalPath(), true);
+    }
+
+    /**
+     * Reads the journals of the interrupted data source ingest jobs of the
+     * current case that were run on this host. Journals of jobs that are
+     * running or that have already been read to resume are skipped. The
+     * journals read are claimed, so that a job is not resumed twice; the
+     * claim is released when the resumed job closes the journal, or by
+     * release() if the job is not resumed after all.
+     *
+     * @return The states of the interrupted jobs, possibly empty.
+     */
+    static List<ResumeState> readInterruptedJobs() {
+        List<ResumeState> states = new ArrayList<>();
+        Path directory;
+        try {
+            directory = getJournalsDirectory();
+        } catch (IllegalStateException ex) {
+            return states;
+        }
+        if (!Files.isDirectory(directory)) {
+            return states;
+        }
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(directory, getJournalFileNamePrefix() + "_*" + JOURNAL_FILE_EXT)) { //NON-NLS
+            for (Path journal : journals) {
+                if (!journalsInUse.add(journal)) {
+                    continue;
+                }
+                try {
+                    states.add(read(journal));
+                } catch (IOException ex) {
+                    journalsInUse.remove(journal);
+                    logger.log(Level.WARNING, String.format("Ignoring unreadable ingest job journal %s", journal), ex); //NON-NLS
+                }
+            }
+        } catch (IOException ex) {
+            logger.log(Level.SEVERE, String.format("Failed to list ingest job journals in %s", directory), ex); //NON-NLS
+        }
+        return states;
+    }
+
+    /**
+     * Releases the claim on the journal of an interrupted data source ingest
+     * job that was read to be resumed but is not going to be resumed after
+     * all, so that it can be resumed later.
+     *
+     * @param state The state of the interrupted job.
+     */
+    static void release(ResumeState state) {
+        journalsInUse.remove(state.getJournalPath());
+    }
+
+    /**
+     * Reads a journal file.
+     *
+     * @param journal The path of the journal file.
+     *
+     * @return The state of the job recorded in the journal.
+     *
+     * @throws IOException if the file cannot be read or is not a journal.
+     */
+    private static ResumeState read(Path journal) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal.toFile()), BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not an ingest job journal"); //NON-NLS
+            }
+            long dataSourceObjId = in.readLong();
+            String executionContext = in.readUTF();
+            IngestJobSettings.IngestType ingestType;
+            try {
+                ingestType = IngestJobSettings.IngestType.valueOf(in.readUTF());
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Unknown ingest type in ingest job journal", ex); //NON-NLS
+            }
+            long[] completedFileIds = new long[1024];
+            int numberOfCompletedFiles = 0;
+            Set<String> completedModules = new HashSet<>();
+            try {
+                while (true) {
+                    byte recordType = in.readByte();
+                    if (FILE_COMPLETED_RECORD == recordType) {
+                        long fileId = in.readLong();
+                        if (numberOfCompletedFiles == completedFileIds.length) {
+                            completedFileIds = Arrays.copyOf(completedFileIds, completedFileIds.length * 2);
+                        }
+                        completedFileIds[numberOfCompletedFiles++] = fileId;
+                    } else if (DATA_SOURCE_MODULE_COMPLETED_RECORD == recordType) {
+                        completedModules.add(in.readUTF());
+                    } else {
+                        logger.log(Level.WARNING, "Ignoring the rest of ingest job journal {0} after unknown record type {1}", new Object[]{journal, recordType}); //NON-NLS
+                        break;
+                    }
+                }
+            } catch (EOFException ex) {
+                /*
+                 * The end of the journal, possibly in the middle of a record
+                 * torn by a crash.
+                 */
+            }
+            completedFileIds = Arrays.copyOf(completedFileIds, numberOfCompletedFiles);
+            Arrays.sort(completedFileIds);
+            return new ResumeState(journal, dataSourceObjId, executionContext, ingestType, completedFileIds, completedModules);
+        }
+    }
+
+    /**
+     * Gets the prefix of the names of the journal files written on this host,
+     * so that the journals of the jobs of other nodes of a multi-user case are
+     * left alone.
+     *
+     * @return The prefix.
+     */
+    private static String getJournalFileNamePrefix() {
+        return NetworkUtils.getLocalHostName().replaceAll("[^A-Za-z0-9-]", "-"); //NON-NLS
+    }
+
+    /**
+     * Gets the directory of the journals of the current case.
+     *
+     * @return The directory path.
+     *
+     * @throws IllegalStateException if there is no current case.
+     */
+    private static Path getJournalsDirectory() {
+        return Paths.get(Case.getCurrentCase().getCaseDirectory(), JOURNALS_FOLDER);
+    }
+
+    /**
+     * Constructs a journal that appends to a journal file.
+     *
+     * @param path   The path of the journal file.
+     * @param append Whether to append to an existing file rather than create a
+     *               new one.
+     *
+     * @throws IOException if there is a problem opening the file.
+     */
+    private IngestJobJournal(Path path, boolean append) throws IOException {
+        this.path = path;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile(), append), BUFFER_SIZE));
+        this.lastFlushTime = System.nanoTime();
+        journalsInUse.add(path);
+    }
+
+    /**
+     * Records that a file has made it through the file ingest pipeline.
+     *
+     * @param fileId The object id of the file.
+     */
+    synchronized void recordFileCompleted(long fileId) {
+        if (null == out) {
+            return;
+        }
+        try {
+            out.writeByte(FILE_COMPLETED_RECORD);
+            out.writeLong(fileId);
+            ++unflushedRecords;
+            long now = System.nanoTime();
+            if (unflushedRecords >= MAX_UNFLUSHED_RECORDS || now - lastFlushTime >= MAX_UNFLUSHED_NANOS) {
+                flushArtifactBatches();
+                out.flush();
+                unflushedRecords = 0;
+                lastFlushTime = now;
+            }
+        } catch (IOException ex) {
+            handleWriteError(ex);
+        }
+    }
+
+    /**
+     * Records that a data source ingest module has finished. This is rare, so
+     * the record is flushed right away.
+     *
+     * @param moduleDisplayName The display name of the module.
+     */
+    synchronized void recordDataSourceModuleCompleted(String moduleDisplayName) {
+        if (null == out) {
+            return;
+        }
+        try {
+            out.writeByte(DATA_SOURCE_MODULE_COMPLETED_RECORD);
+            out.writeUTF(moduleDisplayName);
+            flushArtifactBatches();
+            out.flush();
+            unflushedRecords = 0;
+            lastFlushTime = System.nanoTime();
+        } catch (IOException ex) {
+            handleWriteError(ex);
+        }
+    }
+
+    /**
+     * Closes the journal.
+     *
+     * @param delete Whether to delete the journal file, i.e., whether the job
+     *               is not to be resumed.
+     */
+    synchronized void close(boolean delete) {
+        if (null != out) {
+            if (!delete) {
+                flushArtifactBatches();
+            }
+            try {
+                out.close();
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, String.format("Failed to close ingest job journal %s", path), ex); //NON-NLS
+            }
+            out = null;
+        }
+        journalsInUse.remove(path);
+        if (delete) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ex) {
+                logger.log(Level.WARNING, String.format("Failed to delete ingest job journal %s", path), ex); //NON-NLS
+            }
+        }
+    }
+
+    /**
+     * Flushes the artifact batches of the blackboard of the current case, if
+     * any, before records are flushed.
+     */
+    private static void flushArtifactBatches() {
+        try {
+            Case.getCurrentCase().getServices().getBlackboard().flushArtifactBatches();
+        } catch (IllegalStateException ex) {
+            // No current case, so no batches
+        }
+    }
+
+    /**
+     * Stops journaling after a write error. The job carries on, but can only
+     * be resumed up to the point of the error.
+     *
+     * @param ex The error.
+     */
+    private void handleWriteError(IOException ex) {
+        logger.log(Level.SEVERE, String.format("Failed to write ingest job journal %s, journaling stopped", path), ex); //NON-NLS
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+        out = null;
+    }
+
+    /**
+     * The state of an interrupted data source ingest job, as read from its
+     * journal.
+     */
+    static final class ResumeState {
+
+        private final Path journalPath;
+        private final long dataSourceObjId;
+        private final String executionContext;
+        private final IngestJobSettings.IngestType ingestType;
+        private final long[] completedFileIds;
+        private final Set<String> completedDataSourceModules;
+
+        private ResumeState(Path journalPath, long dataSourceObjId, String executionContext, IngestJobSettings.IngestType ingestType, long[] completedFileIds, Set<String> completedDataSourceModules) {
+            this.journalPath = journalPath;
+            this.dataSourceObjId = dataSourceObjId;
+            this.executionContext = executionContext;
+            this.ingestType = ingestType;
+            this.completedFileIds = completedFileIds;
+            this.completedDataSourceModules = Collections.unmodifiableSet(completedDataSourceModules);
+        }
+
+        /**
+         * Gets the path of the journal file.
+         *
+         * @return The path.
+         */
+        Path getJournalPath() {
+            return journalPath;
+        }
+
+        /**
+         * Gets the object id of the data source of the job.
+         *
+         * @return The object id.
+         */
+        long getDataSourceObjId() {
+            return dataSourceObjId;
+        }
+
+        /**
+         * Re-creates the ingest job settings of the job from the execution
+         * context recorded in the journal.
+         *
+         * @return The ingest job settings.
+         */
+        IngestJobSettings createIngestJobSettings() {
+            if (IngestJobSettings.IngestType.ALL_MODULES == ingestType) {
+                return new IngestJobSettings(executionContext);
+            }
+            String context = executionContext;
+            String suffix = "." + ingestType.name();
+            if (context.endsWith(suffix)) {
+                context = context.substring(0, context.length() - suffix.length());
+            }
+            return new IngestJobSettings(context, ingestType);
+        }
+
+        /**
+         * Gets the number of files that made it through the file ingest
+         * pipeline before the job was interrupted.
+         *
+         * @return The file count.
+         */
+        int getNumberOfCompletedFiles() {
+            return completedFileIds.length;
+        }
+
+        /**
+         * Determines whether a file made it through the file ingest pipeline
+         * before the job was interrupted.
+         *
+         * @param fileId The object id of the file.
+         *
+         * @return True or false.
+         */
+        boolean isFileCompleted(long fileId) {
+            return Arrays.binarySearch(completedFileIds, fileId) >= 0;
+        }
+
+        /**
+         * Determines whether a data source ingest module finished before the
+         * job was interrupted.
+         *
+         * @param moduleDisplayName The display name of the module.
+         *
+         * @return True or false.
+         */
+        boolean isDataSourceModuleCompleted(String moduleDisplayName) {
+            return completedDataSourceModules.contains(moduleDisplayName);
+        }
+    }
+
+}
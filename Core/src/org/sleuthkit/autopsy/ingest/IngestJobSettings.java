@@ -143,6 +143,15 @@ String getExecutionContext() {
         return this.executionContext;
     }
 
+    /**
+     * Gets the type of ingest modules these settings are for.
+     *
+     * @return The ingest type.
+     */
+    IngestType getIngestType() {
+        return this.ingestType;
+    }
+
     /**
      * Gets and clears any accumulated warnings associated with these ingest job
      * settings.
@@ -28,6 +28,7 @@
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,6 +39,7 @@
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
+import java.util.prefs.PreferenceChangeEvent;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.JOptionPane;
@@ -53,13 +55,12 @@
 import org.sleuthkit.autopsy.events.AutopsyEvent;
 import org.sleuthkit.autopsy.events.AutopsyEventException;
 import org.sleuthkit.autopsy.events.AutopsyEventPublisher;
-import org.sleuthkit.autopsy.ingest.events.BlackboardPostEvent;
-import org.sleuthkit.autopsy.ingest.events.ContentChangedEvent;
 import org.sleuthkit.autopsy.ingest.events.DataSourceAnalysisCompletedEvent;
 import org.sleuthkit.autopsy.ingest.events.DataSourceAnalysisStartedEvent;
 import org.sleuthkit.autopsy.ingest.events.FileAnalyzedEvent;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
+import org.sleuthkit.datamodel.TskCoreException;
 
 /**
  * Manages the creation and execution of ingest jobs, i.e., the processing of
@@ -95,15 +96,40 @@ public class IngestManager {
      * Ingest jobs use an ingest task scheduler to break themselves down into
      * data source level and file level tasks. The ingest scheduler puts these
      * ingest tasks into queues for execution on ingest manager pool threads by
-     * ingest task executers. There is a single data source level ingest thread
-     * and a user configurable number of file level ingest threads.
+     * ingest task executers. There is a user configurable number of data source
+     * level ingest threads, one by default, which lets the data source level
+     * ingest tasks of different jobs run at the same time, and a user
+     * configurable number of file level ingest threads. The number
+     * of file level ingest threads can be changed while ingest is running,
+     * either by the user or by an auto-tuning controller. Surplus file ingest
+     * task executers are retired when they finish their current tasks.
      */
     private final ExecutorService dataSourceIngestThreadPool;
-    private static final int MIN_NUMBER_OF_FILE_INGEST_THREADS = 1;
-    private static final int MAX_NUMBER_OF_FILE_INGEST_THREADS = 16;
+    static final int MIN_NUMBER_OF_DATA_SOURCE_INGEST_THREADS = 1;
+    static final int MAX_NUMBER_OF_DATA_SOURCE_INGEST_THREADS = 8;
+    private final int numberOfDataSourceIngestThreads;
+    static final int MIN_NUMBER_OF_FILE_INGEST_THREADS = 1;
+    static final int MAX_NUMBER_OF_FILE_INGEST_THREADS = Math.max(16, 2 * Runtime.getRuntime().availableProcessors());
     private static final int DEFAULT_NUMBER_OF_FILE_INGEST_THREADS = 2;
-    private int numberOfFileIngestThreads;
+    private volatile int numberOfFileIngestThreads;
     private final ExecutorService fileIngestThreadPool;
+    private final Map<Long, ExecuteIngestJobsTask> fileIngestTaskExecuters;
+    private final FileIngestThreadPoolTuner fileIngestThreadPoolTuner;
+
+    /*
+     * If staged file ingest is enabled, the file ingest threads hand files off
+     * to the stage threads of a staged file ingest executor, which run the
+     * modules of the file ingest pipelines grouped by the kind of resource
+     * they are bound by.
+     */
+    private final StagedFileIngestExecutor stagedFileIngestExecutor;
+
+    /*
+     * The ingest manager keeps running totals of the files and bytes processed
+     * by the file ingest threads for throughput measurement.
+     */
+    private final AtomicLong fileIngestFilesProcessed;
+    private final AtomicLong fileIngestBytesProcessed;
 
     private static final String JOB_EVENT_CHANNEL_NAME = "%s-Ingest-Job-Events"; //NON-NLS
     private static final String MODULE_EVENT_CHANNEL_NAME = "%s-Ingest-Module-Events"; //NON-NLS
@@ -117,6 +143,14 @@ public class IngestManager {
     private AutopsyEventPublisher moduleEventPublisher;
     private final ExecutorService eventPublishingExecutor;
 
+    /*
+     * The blackboard post and content changed events fired by ingest modules
+     * go through an event coalescer, which merges the events fired within a
+     * configurable time window before handing them to the event publishing
+     * executor.
+     */
+    private final IngestEventCoalescer moduleEventCoalescer;
+
     /*
      * The ingest manager uses an ingest monitor to determine when system
      * resources are under pressure. If the monitor detects such a situation, it
@@ -124,6 +158,14 @@ public class IngestManager {
      */
     private final IngestMonitor ingestMonitor;
 
+    /*
+     * While the ingest monitor reports heap or disk pressure, the ingest
+     * manager runs with half of its file ingest threads and holds back the
+     * tasks for large files, restoring both when the pressure is relieved.
+     */
+    private boolean underResourcePressure;
+    private int numberOfFileIngestThreadsBeforeResourcePressure;
+
     /*
      * The ingest manager provides access to a top component that is used by
      * ingest module to post messages for the user. A count of the posts is used
@@ -260,26 +302,44 @@ private IngestManager() {
         this.eventPublishingExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("IM-ingest-events-%d").build()); //NON-NLS
         this.jobEventPublisher = new AutopsyEventPublisher();
         this.moduleEventPublisher = new AutopsyEventPublisher();
-        this.dataSourceIngestThreadPool = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("IM-data-source-ingest-%d").build()); //NON-NLS
+        this.moduleEventCoalescer = new IngestEventCoalescer(UserPreferences.ingestEventCoalescingWindowMillis(),
+                event -> eventPublishingExecutor.submit(new PublishEventTask(event, moduleEventPublisher)));
+        int dataSourceThreadCount = UserPreferences.numberOfDataSourceIngestThreads();
+        if ((dataSourceThreadCount < MIN_NUMBER_OF_DATA_SOURCE_INGEST_THREADS) || (dataSourceThreadCount > MAX_NUMBER_OF_DATA_SOURCE_INGEST_THREADS)) {
+            dataSourceThreadCount = MIN_NUMBER_OF_DATA_SOURCE_INGEST_THREADS;
+            UserPreferences.setNumberOfDataSourceIngestThreads(dataSourceThreadCount);
+        }
+        this.numberOfDataSourceIngestThreads = dataSourceThreadCount;
+        this.dataSourceIngestThreadPool = Executors.newFixedThreadPool(dataSourceThreadCount, new ThreadFactoryBuilder().setNameFormat("IM-data-source-ingest-%d").build()); //NON-NLS
         this.startIngestJobsThreadPool = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("IM-start-ingest-jobs-%d").build()); //NON-NLS
         this.nextThreadId = new AtomicLong(0L);
         this.jobsById = new HashMap<>();
         this.startIngestJobTasks = new ConcurrentHashMap<>();
+        this.fileIngestFilesProcessed = new AtomicLong(0L);
+        this.fileIngestBytesProcessed = new AtomicLong(0L);
 
         this.servicesMonitor = ServicesMonitor.getInstance();
         subscribeToServiceMonitorEvents();
 
-        this.startDataSourceIngestThread();
+        for (int i = 0; i < this.numberOfDataSourceIngestThreads; ++i) {
+            this.startDataSourceIngestThread();
+        }
 
-        numberOfFileIngestThreads = UserPreferences.numberOfFileIngestThreads();
-        if ((numberOfFileIngestThreads < MIN_NUMBER_OF_FILE_INGEST_THREADS) || (numberOfFileIngestThreads > MAX_NUMBER_OF_FILE_INGEST_THREADS)) {
-            numberOfFileIngestThreads = DEFAULT_NUMBER_OF_FILE_INGEST_THREADS;
-            UserPreferences.setNumberOfFileIngestThreads(numberOfFileIngestThreads);
+        int threadCount = UserPreferences.numberOfFileIngestThreads();
+        if ((threadCount < MIN_NUMBER_OF_FILE_INGEST_THREADS) || (threadCount > MAX_NUMBER_OF_FILE_INGEST_THREADS)) {
+            threadCount = DEFAULT_NUMBER_OF_FILE_INGEST_THREADS;
+            UserPreferences.setNumberOfFileIngestThreads(threadCount);
         }
-        fileIngestThreadPool = Executors.newFixedThreadPool(numberOfFileIngestThreads, new ThreadFactoryBuilder().setNameFormat("IM-file-ingest-%d").build()); //NON-NLS
-        for (int i = 0; i < numberOfFileIngestThreads; ++i) {
-            startFileIngestThread();
+        this.fileIngestThreadPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("IM-file-ingest-%d").build()); //NON-NLS
+        this.fileIngestTaskExecuters = new ConcurrentHashMap<>();
+        this.resizeFileIngestThreadPool(threadCount);
+        this.fileIngestThreadPoolTuner = new FileIngestThreadPoolTuner(this);
+        if (UserPreferences.useStagedFileIngest()) {
+            this.stagedFileIngestExecutor = new StagedFileIngestExecutor(threadCount);
+        } else {
+            this.stagedFileIngestExecutor = null;
         }
+        subscribeToUserPreferenceChanges();
     }
 
     /**
@@ -298,8 +358,95 @@ private void startDataSourceIngestThread() {
      */
     private void startFileIngestThread() {
         long threadId = nextThreadId.incrementAndGet();
-        fileIngestThreadPool.submit(new ExecuteIngestJobsTask(threadId, IngestTasksScheduler.getInstance().getFileIngestTaskQueue()));
+        ExecuteIngestJobsTask executer = new ExecuteIngestJobsTask(threadId, IngestTasksScheduler.getInstance().getFileIngestTaskQueue());
+        fileIngestTaskExecuters.put(threadId, executer);
         ingestThreadActivitySnapshots.put(threadId, new IngestThreadActivitySnapshot(threadId));
+        fileIngestThreadPool.submit(executer);
+    }
+
+    /**
+     * Retires one of the file level ingest task executers, preferring one that
+     * is waiting for a task. A busy executer finishes its current task before
+     * its thread exits.
+     */
+    private void stopFileIngestThread() {
+        ExecuteIngestJobsTask executerToRetire = null;
+        for (ExecuteIngestJobsTask executer : fileIngestTaskExecuters.values()) {
+            if (null == executerToRetire || executer.isWaitingForTask()) {
+                executerToRetire = executer;
+                if (executer.isWaitingForTask()) {
+                    break;
+                }
+            }
+        }
+        if (null != executerToRetire) {
+            fileIngestTaskExecuters.values().remove(executerToRetire);
+            executerToRetire.retire();
+        }
+    }
+
+    /**
+     * Replaces the file level ingest task executer running on a given thread,
+     * if any, with a new one. Used by the file ingest module watchdog when the
+     * thread is stuck in an ingest module that did not respond to an
+     * interrupt. The old executer is retired, so its thread exits if the
+     * module ever returns.
+     *
+     * @param thread The thread.
+     */
+    synchronized void replaceFileIngestThread(Thread thread) {
+        Iterator<ExecuteIngestJobsTask> iterator = fileIngestTaskExecuters.values().iterator();
+        while (iterator.hasNext()) {
+            ExecuteIngestJobsTask executer = iterator.next();
+            if (executer.isRunningOn(thread)) {
+                iterator.remove();
+                executer.retire();
+                startFileIngestThread();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts or retires file level ingest task executers to match a new
+     * number of file ingest threads.
+     *
+     * @param threadCount The new number of file ingest threads.
+     */
+    private synchronized void resizeFileIngestThreadPool(int threadCount) {
+        numberOfFileIngestThreads = threadCount;
+        while (fileIngestTaskExecuters.size() < threadCount) {
+            startFileIngestThread();
+        }
+        while (fileIngestTaskExecuters.size() > threadCount) {
+            stopFileIngestThread();
+        }
+    }
+
+    /**
+     * Subscribes this ingest manager to changes to the user's preferred number
+     * of file ingest threads, so that a change made in the options panel takes
+     * effect without an application restart.
+     */
+    private void subscribeToUserPreferenceChanges() {
+        UserPreferences.addChangeListener((PreferenceChangeEvent evt) -> {
+            if (evt.getKey().equals(UserPreferences.NUMBER_OF_FILE_INGEST_THREADS)) {
+                /*
+                 * The preference may be out of range, e.g., if it was set on
+                 * a machine with more cores, so clamp it.
+                 */
+                int preferredThreadCount = UserPreferences.numberOfFileIngestThreads();
+                int threadCount = Math.max(MIN_NUMBER_OF_FILE_INGEST_THREADS, Math.min(preferredThreadCount, MAX_NUMBER_OF_FILE_INGEST_THREADS));
+                if (threadCount != preferredThreadCount) {
+                    logger.log(Level.WARNING, "Preferred number of file ingest threads {0} is out of range, using {1}", new Object[]{preferredThreadCount, threadCount}); //NON-NLS
+                }
+                if (threadCount != numberOfFileIngestThreads) {
+                    setNumberOfFileIngestThreads(threadCount);
+                }
+            } else if (evt.getKey().equals(UserPreferences.INGEST_EVENT_COALESCING_WINDOW_MS)) {
+                moduleEventCoalescer.setWindowMillis(UserPreferences.ingestEventCoalescingWindowMillis());
+            }
+        });
     }
 
     /**
@@ -389,9 +536,17 @@ synchronized void handleCaseOpened() {
             MessageNotifyUtil.Notify.error(NbBundle.getMessage(IngestManager.class, "IngestManager.OpenEventChannel.Fail.Title"),
                     NbBundle.getMessage(IngestManager.class, "IngestManager.OpenEventChannel.Fail.ErrMsg"));
         }
+        if (UserPreferences.resumeInterruptedIngestJobs()) {
+            /*
+             * Reading the journals can take a while for big jobs, so do it on
+             * the thread that starts ingest jobs.
+             */
+            startIngestJobsThreadPool.submit(this::resumeInterruptedIngestJobs);
+        }
     }
 
     synchronized void handleCaseClosed() {
+        moduleEventCoalescer.flush();
         jobEventPublisher.closeRemoteEventChannel();
         moduleEventPublisher.closeRemoteEventChannel();
         this.jobCreationIsEnabled = false;
@@ -456,6 +611,17 @@ private void clearIngestMessageBox() {
         }
     }
 
+    /**
+     * Gets the number of data source ingest threads the ingest manager uses to
+     * do ingest jobs. This is also the maximum number of data source ingest
+     * modules of a job that are run at the same time.
+     *
+     * @return The number of data source ingest threads.
+     */
+    int getNumberOfDataSourceIngestThreads() {
+        return numberOfDataSourceIngestThreads;
+    }
+
     /**
      * Gets the number of file ingest threads the ingest manager will use to do
      * ingest jobs.
@@ -466,6 +632,140 @@ public int getNumberOfFileIngestThreads() {
         return numberOfFileIngestThreads;
     }
 
+    /**
+     * Gets the number of file ingest threads that are waiting for a task.
+     *
+     * @return The number of idle file ingest threads.
+     */
+    int getNumberOfIdleFileIngestThreads() {
+        int idleThreads = 0;
+        for (ExecuteIngestJobsTask executer : fileIngestTaskExecuters.values()) {
+            if (executer.isWaitingForTask()) {
+                ++idleThreads;
+            }
+        }
+        return idleThreads;
+    }
+
+    /**
+     * Changes the number of file ingest threads the ingest manager uses to do
+     * ingest jobs. Takes effect immediately, even if ingest is running: new
+     * threads start taking file ingest tasks right away and surplus threads
+     * stop when they finish their current tasks. If auto-tuning of the number
+     * of file ingest threads is enabled, this becomes its new starting point.
+     *
+     * @param threadCount The number of file ingest threads, between 1 and
+     *                    getMaxNumberOfFileIngestThreads().
+     *
+     * @throws IllegalArgumentException if the thread count is out of range.
+     */
+    public void setNumberOfFileIngestThreads(int threadCount) {
+        if ((threadCount < MIN_NUMBER_OF_FILE_INGEST_THREADS) || (threadCount > MAX_NUMBER_OF_FILE_INGEST_THREADS)) {
+            throw new IllegalArgumentException(String.format("Number of file ingest threads must be between %d and %d", MIN_NUMBER_OF_FILE_INGEST_THREADS, MAX_NUMBER_OF_FILE_INGEST_THREADS)); //NON-NLS
+        }
+        logger.log(Level.INFO, "Changing number of file ingest threads from {0} to {1}", new Object[]{numberOfFileIngestThreads, threadCount}); //NON-NLS
+        resizeFileIngestThreadPool(threadCount);
+    }
+
+    /**
+     * Gets the maximum number of file ingest threads the ingest manager can
+     * use to do ingest jobs.
+     *
+     * @return The maximum number of file ingest threads.
+     */
+    public int getMaxNumberOfFileIngestThreads() {
+        return MAX_NUMBER_OF_FILE_INGEST_THREADS;
+    }
+
+    /**
+     * Changes the number of file ingest threads on behalf of the auto-tuning
+     * controller, without logging every adjustment.
+     *
+     * @param threadCount The number of file ingest threads.
+     */
+    void tuneNumberOfFileIngestThreads(int threadCount) {
+        resizeFileIngestThreadPool(Math.max(MIN_NUMBER_OF_FILE_INGEST_THREADS, Math.min(threadCount, MAX_NUMBER_OF_FILE_INGEST_THREADS)));
+    }
+
+    /**
+     * Called by the ingest monitor when heap or disk pressure starts or ends.
+     * Under pressure, the number of file ingest threads is halved, with the
+     * surplus threads stopping when they finish their current tasks, and large
+     * file tasks are held back. When the pressure ends, the number of threads
+     * is restored, unless it has been changed in the meantime.
+     *
+     * @param underPressure True if resources are under pressure, false
+     *                      otherwise.
+     */
+    synchronized void setUnderResourcePressure(boolean underPressure) {
+        if (underPressure == underResourcePressure) {
+            return;
+        }
+        underResourcePressure = underPressure;
+        IngestTasksScheduler.getInstance().setLargeFileTasksHeldBack(underPressure);
+        if (underPressure) {
+            numberOfFileIngestThreadsBeforeResourcePressure = numberOfFileIngestThreads;
+            int threadCount = Math.max(MIN_NUMBER_OF_FILE_INGEST_THREADS, numberOfFileIngestThreads / 2);
+            logger.log(Level.WARNING, "Holding back file ingest under resource pressure, reducing file ingest threads from {0} to {1}", new Object[]{numberOfFileIngestThreads, threadCount}); //NON-NLS
+            resizeFileIngestThreadPool(threadCount);
+        } else {
+            logger.log(Level.INFO, "Resource pressure relieved, releasing file ingest"); //NON-NLS
+            if (numberOfFileIngestThreads == Math.max(MIN_NUMBER_OF_FILE_INGEST_THREADS, numberOfFileIngestThreadsBeforeResourcePressure / 2)) {
+                resizeFileIngestThreadPool(numberOfFileIngestThreadsBeforeResourcePressure);
+            }
+        }
+    }
+
+    /**
+     * Queries whether or not file ingest is being held back because of heap or
+     * disk pressure.
+     *
+     * @return True or false.
+     */
+    synchronized boolean isUnderResourcePressure() {
+        return underResourcePressure;
+    }
+
+    /**
+     * Adds a file to the running totals of files and bytes processed by the
+     * file ingest threads.
+     *
+     * @param file The processed file.
+     */
+    void recordFileIngestThroughput(AbstractFile file) {
+        fileIngestFilesProcessed.incrementAndGet();
+        fileIngestBytesProcessed.addAndGet(Math.max(0L, file.getSize()));
+    }
+
+    /**
+     * Gets the running total of files processed by the file ingest threads.
+     *
+     * @return The number of files.
+     */
+    long getFileIngestFilesProcessed() {
+        return fileIngestFilesProcessed.get();
+    }
+
+    /**
+     * Gets the running total of bytes of file content processed by the file
+     * ingest threads.
+     *
+     * @return The number of bytes.
+     */
+    long getFileIngestBytesProcessed() {
+        return fileIngestBytesProcessed.get();
+    }
+
+    /**
+     * Gets the executor that runs file ingest pipelines in stages, if staged
+     * file ingest is enabled.
+     *
+     * @return The executor, or null if staged file ingest is not enabled.
+     */
+    StagedFileIngestExecutor getStagedFileIngestExecutor() {
+        return stagedFileIngestExecutor;
+    }
+
     /**
      * Queues an ingest job that will process a collection of data sources. The
      * job will be started on a worker thread.
@@ -475,13 +775,57 @@ public int getNumberOfFileIngestThreads() {
      */
     public void queueIngestJob(Collection<Content> dataSources, IngestJobSettings settings) {
         if (jobCreationIsEnabled) {
-            IngestJob job = new IngestJob(dataSources, settings, RuntimeProperties.coreComponentsAreActive());
-            if (job.hasIngestPipeline()) {
-                long taskId = nextThreadId.incrementAndGet();
-                Future<Void> task = startIngestJobsThreadPool.submit(new StartIngestJobTask(taskId, job));
-                startIngestJobTasks.put(taskId, task);
+            queueIngestJob(new IngestJob(dataSources, settings, RuntimeProperties.coreComponentsAreActive()));
+        }
+    }
+
+    /**
+     * Queues an ingest job to be started on a worker thread, if it has at
+     * least one ingest module pipeline.
+     *
+     * @param job The ingest job.
+     */
+    private void queueIngestJob(IngestJob job) {
+        if (job.hasIngestPipeline()) {
+            long taskId = nextThreadId.incrementAndGet();
+            Future<Void> task = startIngestJobsThreadPool.submit(new StartIngestJobTask(taskId, job));
+            startIngestJobTasks.put(taskId, task);
+        }
+    }
+
+    /**
+     * Queues ingest jobs that resume the data source ingest jobs of the
+     * current case that were interrupted, e.g., by a crash, and left journals
+     * of their progress behind. Each resumed job runs with the ingest job
+     * settings of the interrupted job and skips the files and data source
+     * ingest modules that were done before the interruption. The jobs will be
+     * started on a worker thread.
+     *
+     * @return The number of jobs queued.
+     */
+    public int resumeInterruptedIngestJobs() {
+        int jobsQueued = 0;
+        if (!jobCreationIsEnabled) {
+            return jobsQueued;
+        }
+        for (IngestJobJournal.ResumeState state : IngestJobJournal.readInterruptedJobs()) {
+            Content dataSource;
+            try {
+                dataSource = Case.getCurrentCase().getSleuthkitCase().getContentById(state.getDataSourceObjId());
+            } catch (TskCoreException | IllegalStateException ex) {
+                logger.log(Level.SEVERE, String.format("Failed to get data source for ingest job journal %s", state.getJournalPath()), ex); //NON-NLS
+                IngestJobJournal.release(state);
+                continue;
+            }
+            if (null == dataSource) {
+                logger.log(Level.WARNING, "No data source with object id {0} for ingest job journal {1}", new Object[]{state.getDataSourceObjId(), state.getJournalPath()}); //NON-NLS
+                IngestJobJournal.release(state);
+                continue;
             }
+            queueIngestJob(new IngestJob(dataSource, state.createIngestJobSettings(), RuntimeProperties.coreComponentsAreActive(), state));
+            ++jobsQueued;
         }
+        return jobsQueued;
     }
 
     /**
@@ -566,6 +910,9 @@ public void run() {
             if (!ingestMonitor.isRunning()) {
                 ingestMonitor.start();
             }
+            if (UserPreferences.autoTuneFileIngestThreads() && !fileIngestThreadPoolTuner.isRunning()) {
+                fileIngestThreadPoolTuner.start();
+            }
 
             synchronized (jobsById) {
                 jobsById.put(job.getId(), job);
@@ -608,6 +955,9 @@ synchronized void finishIngestJob(IngestJob job) {
         long jobId = job.getId();
         synchronized (jobsById) {
             jobsById.remove(jobId);
+            if (jobsById.isEmpty()) {
+                FileIngestContentCache.releasePooledBuffers();
+            }
         }
         if (!job.isCancelled()) {
             IngestManager.logger.log(Level.INFO, "Ingest job {0} completed", jobId); //NON-NLS
@@ -744,6 +1094,7 @@ void fireIngestJobStarted(long ingestJobId) {
      */
     void fireIngestJobCompleted(long ingestJobId) {
         AutopsyEvent event = new AutopsyEvent(IngestJobEvent.COMPLETED.toString(), ingestJobId, null);
+        moduleEventCoalescer.flush();
         eventPublishingExecutor.submit(new PublishEventTask(event, jobEventPublisher));
     }
 
@@ -754,6 +1105,7 @@ void fireIngestJobCompleted(long ingestJobId) {
      */
     void fireIngestJobCancelled(long ingestJobId) {
         AutopsyEvent event = new AutopsyEvent(IngestJobEvent.CANCELLED.toString(), ingestJobId, null);
+        moduleEventCoalescer.flush();
         eventPublishingExecutor.submit(new PublishEventTask(event, jobEventPublisher));
     }
 
@@ -778,6 +1130,7 @@ void fireDataSourceAnalysisStarted(long ingestJobId, long dataSourceIngestJobId,
      */
     void fireDataSourceAnalysisCompleted(long ingestJobId, long dataSourceIngestJobId, Content dataSource) {
         AutopsyEvent event = new DataSourceAnalysisCompletedEvent(ingestJobId, dataSourceIngestJobId, dataSource, DataSourceAnalysisCompletedEvent.Reason.ANALYSIS_COMPLETED);
+        moduleEventCoalescer.flush();
         eventPublishingExecutor.submit(new PublishEventTask(event, jobEventPublisher));
     }
 
@@ -790,6 +1143,7 @@ void fireDataSourceAnalysisCompleted(long ingestJobId, long dataSourceIngestJobI
      */
     void fireDataSourceAnalysisCancelled(long ingestJobId, long dataSourceIngestJobId, Content dataSource) {
         AutopsyEvent event = new DataSourceAnalysisCompletedEvent(ingestJobId, dataSourceIngestJobId, dataSource, DataSourceAnalysisCompletedEvent.Reason.ANALYSIS_CANCELLED);
+        moduleEventCoalescer.flush();
         eventPublishingExecutor.submit(new PublishEventTask(event, jobEventPublisher));
     }
 
@@ -809,8 +1163,7 @@ void fireFileIngestDone(AbstractFile file) {
      * @param moduleDataEvent A ModuleDataEvent with the details of the posting.
      */
     void fireIngestModuleDataEvent(ModuleDataEvent moduleDataEvent) {
-        AutopsyEvent event = new BlackboardPostEvent(moduleDataEvent);
-        eventPublishingExecutor.submit(new PublishEventTask(event, moduleEventPublisher));
+        moduleEventCoalescer.addModuleDataEvent(moduleDataEvent);
     }
 
     /**
@@ -821,8 +1174,7 @@ void fireIngestModuleDataEvent(ModuleDataEvent moduleDataEvent) {
      *                        content.
      */
     void fireIngestModuleContentEvent(ModuleContentEvent moduleContentEvent) {
-        AutopsyEvent event = new ContentChangedEvent(moduleContentEvent);
-        eventPublishingExecutor.submit(new PublishEventTask(event, moduleEventPublisher));
+        moduleEventCoalescer.addModuleContentEvent(moduleContentEvent);
     }
 
     /**
@@ -1002,23 +1354,96 @@ private final class ExecuteIngestJobsTask implements Runnable {
 
         private final long threadId;
         private final IngestTaskQueue tasks;
+        private Thread thread;
+        private boolean waitingForTask;
+        private volatile boolean retired;
 
         ExecuteIngestJobsTask(long threadId, IngestTaskQueue tasks) {
             this.threadId = threadId;
             this.tasks = tasks;
         }
 
+        /**
+         * Asks this executer to stop taking tasks. If the executer is waiting
+         * for a task, its thread is interrupted, otherwise it stops after it
+         * finishes its current task or queue refill. The thread is never
+         * interrupted while it is refilling the queue, since that may be
+         * doing case database queries.
+         */
+        synchronized void retire() {
+            retired = true;
+            if (null != thread && waitingForTask) {
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Queries whether or not this executer is blocked waiting for a task.
+         *
+         * @return True or false.
+         */
+        synchronized boolean isWaitingForTask() {
+            return waitingForTask;
+        }
+
+        /**
+         * Queries whether or not this executer is running on a given thread.
+         *
+         * @param thread The thread.
+         *
+         * @return True or false.
+         */
+        synchronized boolean isRunningOn(Thread thread) {
+            return this.thread == thread;
+        }
+
         @Override
         public void run() {
-            while (true) {
-                try {
-                    IngestTask task = tasks.getNextTask(); // Blocks.
-                    task.execute(threadId);
-                } catch (InterruptedException ex) {
-                    break;
+            synchronized (this) {
+                thread = Thread.currentThread();
+            }
+            try {
+                tasks.refill();
+                while (!retired) {
+                    synchronized (this) {
+                        if (retired) {
+                            break;
+                        }
+                        waitingForTask = true;
+                    }
+                    IngestTask task;
+                    try {
+                        task = tasks.getNextTask(); // Blocks.
+                    } catch (InterruptedException ex) {
+                        break;
+                    } finally {
+                        synchronized (this) {
+                            waitingForTask = false;
+                            if (retired) {
+                                /*
+                                 * If a task was taken just as this executer
+                                 * was retired, clear the interrupt meant to
+                                 * wake it up and do the task anyway, since it
+                                 * can't be put back.
+                                 */
+                                Thread.interrupted();
+                            }
+                        }
+                    }
+                    tasks.refill();
+                    try {
+                        task.execute(threadId);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
                 }
-                if (Thread.currentThread().isInterrupted()) {
-                    break;
+            } finally {
+                tasks.releaseCurrentThread();
+                if (retired) {
+                    ingestThreadActivitySnapshots.remove(threadId);
                 }
             }
         }
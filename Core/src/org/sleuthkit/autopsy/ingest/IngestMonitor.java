@@ -18,11 +18,20 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.SimpleFormatter;
@@ -36,6 +45,12 @@
 /**
  * Monitors disk space and memory and cancels ingest if disk space runs low.
  * <p>
+ * The monitor also samples heap usage, garbage collection overhead and free
+ * disk space several times a second while ingest is running. When they cross
+ * their high water marks, it has the ingest manager hold back file ingest, by
+ * running fewer file ingest threads and holding back the tasks for large
+ * files, until they are back below their low water marks.
+ * <p>
  * Note: This should be a singleton and currrently is used as such, with the
  * only instance residing in the IngestManager class.
  */
@@ -44,10 +59,13 @@ public final class IngestMonitor {
     public static final int DISK_FREE_SPACE_UNKNOWN = -1;
     private static final int INITIAL_INTERVAL_MS = 60000; //1 min.
     private static final int MAX_LOG_FILES = 3;
+    private static final long RESOURCE_SAMPLE_INTERVAL_MS = 500;
     private static final java.util.logging.Logger MONITOR_LOGGER = java.util.logging.Logger.getLogger("monitor"); //NON-NLS
     private final Logger logger = Logger.getLogger(IngestMonitor.class.getName());
     private Timer timer;
-    private MonitorTimerAction timerAction;
+    private volatile MonitorTimerAction timerAction;
+    private final ScheduledThreadPoolExecutor resourceSampler;
+    private ScheduledFuture<?> resourceSamplingTask;
 
     /**
      * Constructs an object that monitors disk space and memory and cancels
@@ -66,6 +84,7 @@ public final class IngestMonitor {
         } catch (IOException | SecurityException ex) {
             logger.log(Level.SEVERE, "Failed to create memory usage logger", ex); //NON-NLS
         }
+        resourceSampler = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setNameFormat("IM-resource-monitor-%d").setDaemon(true).build()); //NON-NLS
     }
 
     /**
@@ -75,6 +94,11 @@ void start() {
         timerAction = new MonitorTimerAction();
         timer = new Timer(INITIAL_INTERVAL_MS, timerAction);
         timer.start();
+        synchronized (resourceSampler) {
+            if (null == resourceSamplingTask) {
+                resourceSamplingTask = resourceSampler.scheduleWithFixedDelay(new ResourcePressureSampler(), RESOURCE_SAMPLE_INTERVAL_MS, RESOURCE_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            }
+        }
     }
 
     /**
@@ -84,6 +108,13 @@ void stop() {
         if (null != timer) {
             timer.stop();
         }
+        synchronized (resourceSampler) {
+            if (null != resourceSamplingTask) {
+                resourceSamplingTask.cancel(false);
+                resourceSamplingTask = null;
+            }
+        }
+        IngestManager.getInstance().setUnderResourcePressure(false);
     }
 
     /**
@@ -257,4 +288,134 @@ private long getFreeSpace() throws SecurityException {
         }
     }
 
+    /**
+     * A task that samples heap usage, garbage collection overhead and free
+     * disk space, and tells the ingest manager when file ingest should be held
+     * back and when it may resume. The high and low water marks are apart so
+     * that file ingest does not flap between the two states.
+     */
+    private final class ResourcePressureSampler implements Runnable {
+
+        private static final double HIGH_HEAP_USAGE = 0.85;
+        private static final double LOW_HEAP_USAGE = 0.70;
+        private static final double HIGH_GC_TIME_SHARE = 0.25;
+        private static final double LOW_GC_TIME_SHARE = 0.10;
+        private static final long LOW_FREE_DISK_SPACE = 1024L * 1024 * 1024; // 1GB
+        private static final int SAMPLES_PER_DISK_SPACE_CHECK = 20;
+        private long lastSampleTime;
+        private long lastGcTimeMillis;
+        private int samplesSinceDiskSpaceCheck = SAMPLES_PER_DISK_SPACE_CHECK;
+        private boolean diskSpaceIsLow;
+        private boolean underPressure;
+
+        @Override
+        public void run() {
+            try {
+                IngestManager manager = IngestManager.getInstance();
+                if (!manager.isIngestRunning()) {
+                    lastSampleTime = 0;
+                    setUnderPressure(manager, false, 0.0, 0.0);
+                    return;
+                }
+
+                long now = System.nanoTime();
+                long gcTimeMillis = getTotalGcTimeMillis();
+                double gcTimeShare = 0.0;
+                if (0 != lastSampleTime) {
+                    double elapsedMillis = (now - lastSampleTime) / 1.0e6;
+                    gcTimeShare = (gcTimeMillis - lastGcTimeMillis) / elapsedMillis;
+                }
+                lastSampleTime = now;
+                lastGcTimeMillis = gcTimeMillis;
+
+                double heapUsage = getHeapUsage();
+
+                if (++samplesSinceDiskSpaceCheck >= SAMPLES_PER_DISK_SPACE_CHECK && null != timerAction) {
+                    samplesSinceDiskSpaceCheck = 0;
+                    long freeSpace = timerAction.getFreeSpace();
+                    diskSpaceIsLow = (DISK_FREE_SPACE_UNKNOWN != freeSpace && freeSpace < LOW_FREE_DISK_SPACE);
+                }
+
+                boolean pressure;
+                if (underPressure) {
+                    pressure = heapUsage > LOW_HEAP_USAGE || gcTimeShare > LOW_GC_TIME_SHARE || diskSpaceIsLow;
+                } else {
+                    pressure = heapUsage >= HIGH_HEAP_USAGE || gcTimeShare >= HIGH_GC_TIME_SHARE || diskSpaceIsLow;
+                }
+                setUnderPressure(manager, pressure, heapUsage, gcTimeShare);
+            } catch (Exception ex) {
+                logger.log(Level.SEVERE, "Error sampling resource usage", ex); //NON-NLS
+            }
+        }
+
+        /**
+         * Tells the ingest manager about a change of state, if any.
+         *
+         * @param manager     The ingest manager.
+         * @param pressure    Whether or not resources are under pressure.
+         * @param heapUsage   The sampled heap usage.
+         * @param gcTimeShare The sampled garbage collection overhead.
+         */
+        private void setUnderPressure(IngestManager manager, boolean pressure, double heapUsage, double gcTimeShare) {
+            if (pressure == underPressure) {
+                return;
+            }
+            underPressure = pressure;
+            String message = String.format("Resource pressure %s (heap usage %.2f, GC time share %.2f, low disk space %b)", //NON-NLS
+                    pressure ? "detected" : "relieved", heapUsage, gcTimeShare, diskSpaceIsLow); //NON-NLS
+            MONITOR_LOGGER.log(Level.INFO, message);
+            MONITOR_LOGGER.log(Level.INFO, PlatformUtil.getAllMemUsageInfo());
+            manager.setUnderResourcePressure(pressure);
+        }
+
+        /**
+         * Gets the heap usage as a fraction of the maximum heap size. Where
+         * available, the usage of the tenured (old generation) heap memory
+         * pool right after its last garbage collection is used, since that
+         * measures live data rather than garbage that has not been collected
+         * yet. The young generation pools are skipped: a survivor space is
+         * routinely nearly full after a collection, which says nothing about
+         * memory pressure. The tenured pools are the heap pools that support
+         * both usage thresholds and collection usage thresholds.
+         *
+         * @return The usage, between 0.0 and 1.0.
+         */
+        private double getHeapUsage() {
+            double usage = -1.0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (MemoryType.HEAP != pool.getType() || !pool.isValid()
+                        || !pool.isUsageThresholdSupported() || !pool.isCollectionUsageThresholdSupported()) {
+                    continue;
+                }
+                MemoryUsage collectionUsage = pool.getCollectionUsage();
+                if (null != collectionUsage && collectionUsage.getMax() > 0) {
+                    usage = Math.max(usage, (double) collectionUsage.getUsed() / collectionUsage.getMax());
+                }
+            }
+            if (usage < 0) {
+                MemoryUsage heapUsage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+                long max = (heapUsage.getMax() > 0) ? heapUsage.getMax() : heapUsage.getCommitted();
+                usage = (max > 0) ? (double) heapUsage.getUsed() / max : 0.0;
+            }
+            return usage;
+        }
+
+        /**
+         * Gets the total time spent in garbage collection since the virtual
+         * machine started.
+         *
+         * @return The time, in milliseconds.
+         */
+        private long getTotalGcTimeMillis() {
+            long total = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                long time = collector.getCollectionTime();
+                if (time > 0) {
+                    total += time;
+                }
+            }
+            return total;
+        }
+    }
+
 }
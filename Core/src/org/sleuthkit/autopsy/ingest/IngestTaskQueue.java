@@ -20,5 +20,29 @@
 
 interface IngestTaskQueue {
 
+    /**
+     * Gets the next task, blocking until one is available. Only the wait for
+     * a task is done here, so that an ingest thread that is interrupted while
+     * in this method is never interrupted in the middle of queue maintenance.
+     *
+     * @return The task.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
     IngestTask getNextTask() throws InterruptedException;
+
+    /**
+     * Refills the queue from any upstream queues, if required. Called by an
+     * ingest thread before it first waits for a task and after each task it
+     * takes, at times when the thread is not interrupted to stop it.
+     */
+    default void refill() {
+    }
+
+    /**
+     * Releases the resources the queue holds for the calling ingest thread.
+     * Called by an ingest thread when it stops taking tasks from the queue.
+     */
+    default void releaseCurrentThread() {
+    }
 }
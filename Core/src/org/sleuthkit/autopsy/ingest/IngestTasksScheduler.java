@@ -18,24 +18,40 @@
  */
 package org.sleuthkit.autopsy.ingest;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.core.UserPreferences;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.Content;
-import org.sleuthkit.datamodel.FileSystem;
+import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
 
@@ -47,6 +63,7 @@ final class IngestTasksScheduler {
 
     private static final Logger logger = Logger.getLogger(IngestTasksScheduler.class.getName());
     private static final int FAT_NTFS_FLAGS = TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT12.getValue() | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT16.getValue() | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_FAT32.getValue() | TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_NTFS.getValue();
+    private static final int MIN_COST_AWARE_PENDING_FILE_TASKS = 512;
     private static IngestTasksScheduler instance;
 
     /**
@@ -80,24 +97,62 @@ final class IngestTasksScheduler {
      * Tasks in the pending file tasks queue are ready to be consumed by the
      * ingest threads, so the queue is wrapped in a "dispenser" that implements
      * the IngestTaskQueue interface and is exposed via a getter method.
+     *
+     * If work stealing scheduling is enabled, the pending file tasks queue is
+     * replaced by a set of per-thread deques that the ingest threads can take
+     * from and steal from without contending for the monitor of this
+     * scheduler. Only one ingest thread at a time refills the deques from the
+     * upstream queues, and only when they are running low.
+     *
+     * If cost-aware scheduling is enabled instead, the pending file tasks
+     * queue is replaced by a queue that dispenses tasks cheapest first, by
+     * estimated cost, with very large files in a separate lane that only a
+     * share of the ingest threads may work on at a time. The queue is kept
+     * topped up with enough tasks for the ordering to matter, instead of only
+     * being refilled when it is empty.
+     *
+     * If fair-share scheduling is enabled instead, the pending file tasks
+     * queue is replaced by a queue with a LIFO lane per ingest job, and the
+     * ingest threads are shared among the jobs by priority and weight. The
+     * directories to expand are then chosen job by job as well, so that a job
+     * that has run out of ready tasks is refilled first instead of waiting
+     * for the directory tree of another job to be walked.
+     *
+     * If a prefetch margin is configured, directories are not expanded by the
+     * ingest threads at all. Instead, a background directory walker takes over
+     * the directory tasks and expands them in batches, querying the case
+     * database for the children of many directories at once, and keeps the
+     * pending file tasks queue filled to the margin without taking the monitor
+     * of this scheduler.
      */
     private final TreeSet<FileIngestTask> rootDirectoryTasks;
     private final List<FileIngestTask> directoryTasks;
     private final BlockingDeque<FileIngestTask> pendingFileTasks;
-    private final FileIngestTaskQueue fileTasksDispenser;
+    private final boolean useWorkStealing;
+    private final WorkStealingFileTaskQueue workStealingFileTasks;
+    private final AtomicBoolean workStealingRefillInProgress;
+    private final boolean useCostAwareOrdering;
+    private final CostAwareFileTaskQueue costAwareFileTasks;
+    private final boolean useFairShare;
+    private final FairShareFileTaskQueue fairShareFileTasks;
+    private final IngestTaskQueue fileTasksDispenser;
+    private final DirectoryWalker directoryWalker;
 
     /**
      * The ingest tasks scheduler allows ingest jobs to query it to see if there
      * are any tasks in progress for the job. To make this possible, the ingest
      * tasks scheduler needs to keep track not only of the tasks in its queues,
      * but also of the tasks that have been handed out for processing by the
-     * ingest threads. Therefore all ingest tasks are added to this list when
-     * they are created and are not removed when an ingest thread takes an
-     * ingest task. Instead, the ingest thread calls back into the scheduler
-     * when the task is completed, at which time the task will be removed from
-     * this list.
+     * ingest threads. Therefore a per job count of tasks in progress is
+     * incremented when a task is created and is not decremented when an ingest
+     * thread takes an ingest task. Instead, the ingest thread calls back into
+     * the scheduler when the task is completed, at which time the count is
+     * decremented. The counts are atomic so that task completion
+     * notifications and completion queries do not need to take the monitor of
+     * this scheduler. The count for a job is removed from the map when the
+     * job finishes, at which point no tasks for the job remain to be counted.
      */
-    private final Set<IngestTask> tasksInProgress;
+    private final ConcurrentHashMap<Long, AtomicLong> tasksInProgress;
 
     /**
      * Gets the ingest tasks scheduler singleton.
@@ -118,8 +173,36 @@ private IngestTasksScheduler() {
         this.rootDirectoryTasks = new TreeSet<>(new RootDirectoryTaskComparator());
         this.directoryTasks = new ArrayList<>();
         this.pendingFileTasks = new LinkedBlockingDeque<>();
-        this.fileTasksDispenser = new FileIngestTaskQueue();
-        this.tasksInProgress = new HashSet<>();
+        this.useWorkStealing = UserPreferences.useWorkStealingFileIngestScheduler();
+        this.workStealingFileTasks = new WorkStealingFileTaskQueue();
+        this.workStealingRefillInProgress = new AtomicBoolean(false);
+        this.useCostAwareOrdering = !this.useWorkStealing && UserPreferences.useCostAwareFileIngestScheduler();
+        if (this.useWorkStealing && UserPreferences.useCostAwareFileIngestScheduler()) {
+            logger.log(Level.WARNING, "Cost-aware file ingest scheduling is ignored because work stealing scheduling is enabled"); //NON-NLS
+        }
+        this.costAwareFileTasks = new CostAwareFileTaskQueue(UserPreferences.largeFileIngestThresholdMB() * 1024L * 1024L);
+        this.useFairShare = !this.useWorkStealing && !this.useCostAwareOrdering && UserPreferences.useFairShareFileIngestScheduler();
+        if (!this.useFairShare && UserPreferences.useFairShareFileIngestScheduler()) {
+            logger.log(Level.WARNING, "Fair-share file ingest scheduling is ignored because work stealing or cost-aware scheduling is enabled"); //NON-NLS
+        }
+        this.fairShareFileTasks = new FairShareFileTaskQueue();
+        if (this.useWorkStealing) {
+            this.fileTasksDispenser = new WorkStealingFileIngestTaskQueue();
+        } else if (this.useCostAwareOrdering) {
+            this.fileTasksDispenser = new CostAwareFileIngestTaskQueue();
+        } else if (this.useFairShare) {
+            this.fileTasksDispenser = new FairShareFileIngestTaskQueue();
+        } else {
+            this.fileTasksDispenser = new FileIngestTaskQueue();
+        }
+        this.tasksInProgress = new ConcurrentHashMap<>();
+        int prefetchMargin = UserPreferences.fileIngestTaskPrefetchMargin();
+        if (prefetchMargin > 0) {
+            this.directoryWalker = new DirectoryWalker(prefetchMargin);
+            this.directoryWalker.start();
+        } else {
+            this.directoryWalker = null;
+        }
     }
 
     /**
@@ -157,9 +240,17 @@ synchronized void scheduleIngestTasks(DataSourceIngestJob job) {
             // for a job must be an atomic operation. Otherwise, the data source 
             // task might be completed before the file tasks are scheduled, 
             // resulting in a potential false positive when another thread checks 
-            // whether or not all the tasks for the job are completed.
-            this.scheduleDataSourceIngestTask(job);
-            this.scheduleFileIngestTasks(job);
+            // whether or not all the tasks for the job are completed. Since
+            // task completion does not take the monitor of this scheduler, a
+            // placeholder count is held for the job while scheduling. The 
+            // caller is responsible for checking for job completion afterwards.
+            this.incrementTasksInProgress(job);
+            try {
+                this.scheduleDataSourceIngestTask(job);
+                this.scheduleFileIngestTasks(job);
+            } finally {
+                this.decrementTasksInProgress(job);
+            }
         }
     }
 
@@ -171,7 +262,7 @@ synchronized void scheduleIngestTasks(DataSourceIngestJob job) {
     synchronized void scheduleDataSourceIngestTask(DataSourceIngestJob job) {
         if (!job.isCancelled()) {
             DataSourceIngestTask task = new DataSourceIngestTask(job);
-            this.tasksInProgress.add(task);
+            this.incrementTasksInProgress(job);
             try {
                 this.pendingDataSourceTasks.put(task);
             } catch (InterruptedException ex) {
@@ -179,7 +270,7 @@ synchronized void scheduleDataSourceIngestTask(DataSourceIngestJob job) {
                  * The current thread was interrupted while blocked on a full
                  * queue. Discard the task and reset the interrupted flag.
                  */
-                this.tasksInProgress.remove(task);
+                this.decrementTasksInProgress(job);
                 Thread.currentThread().interrupt();
             }
         }
@@ -198,11 +289,14 @@ synchronized void scheduleFileIngestTasks(DataSourceIngestJob job) {
             for (AbstractFile firstLevelFile : topLevelFiles) {
                 FileIngestTask task = new FileIngestTask(job, firstLevelFile);
                 if (IngestTasksScheduler.shouldEnqueueFileTask(task)) {
-                    this.tasksInProgress.add(task);
+                    this.incrementTasksInProgress(job);
                     this.rootDirectoryTasks.add(task);
                 }
             }
-            shuffleFileTaskQueues();
+            if (this.useFairShare) {
+                this.fairShareFileTasks.addJob(job);
+            }
+            refillPendingFileTasks();
         }
     }
 
@@ -212,12 +306,30 @@ synchronized void scheduleFileIngestTasks(DataSourceIngestJob job) {
      * @param job  The job for which the tasks are to be scheduled.
      * @param file The file to be associated with the task.
      */
-    synchronized void scheduleFileIngestTask(DataSourceIngestJob job, AbstractFile file) {
-        if (!job.isCancelled()) {
-            FileIngestTask task = new FileIngestTask(job, file);
-            if (IngestTasksScheduler.shouldEnqueueFileTask(task)) {
-                this.tasksInProgress.add(task);
-                addToPendingFileTasksQueue(task);
+    void scheduleFileIngestTask(DataSourceIngestJob job, AbstractFile file) {
+        if (this.useWorkStealing) {
+            /*
+             * The work stealing deques do not need the monitor of this
+             * scheduler, so tasks for files added to the job by an ingest
+             * module go straight onto the deque of the ingest thread running
+             * the module.
+             */
+            if (!job.isCancelled()) {
+                FileIngestTask task = new FileIngestTask(job, file);
+                if (IngestTasksScheduler.shouldEnqueueFileTask(task)) {
+                    this.incrementTasksInProgress(job);
+                    this.workStealingFileTasks.push(task);
+                }
+            }
+        } else {
+            synchronized (this) {
+                if (!job.isCancelled()) {
+                    FileIngestTask task = new FileIngestTask(job, file);
+                    if (IngestTasksScheduler.shouldEnqueueFileTask(task)) {
+                        this.incrementTasksInProgress(job);
+                        addToPendingFileTasksQueue(task);
+                    }
+                }
             }
         }
     }
@@ -228,8 +340,11 @@ synchronized void scheduleFileIngestTask(DataSourceIngestJob job, AbstractFile f
      *
      * @param task The completed task.
      */
-    synchronized void notifyTaskCompleted(IngestTask task) {
-        tasksInProgress.remove(task);
+    void notifyTaskCompleted(IngestTask task) {
+        if (this.useCostAwareOrdering && task instanceof FileIngestTask) {
+            this.costAwareFileTasks.notifyTaskCompleted((FileIngestTask) task);
+        }
+        this.decrementTasksInProgress(task.getIngestJob());
     }
 
     /**
@@ -240,13 +355,71 @@ synchronized void notifyTaskCompleted(IngestTask task) {
      *
      * @return True or false.
      */
-    synchronized boolean tasksForJobAreCompleted(DataSourceIngestJob job) {
-        for (IngestTask task : tasksInProgress) {
-            if (task.getIngestJob().getId() == job.getId()) {
-                return false;
+    boolean tasksForJobAreCompleted(DataSourceIngestJob job) {
+        return this.getTasksInProgressCount(job.getId()) == 0;
+    }
+
+    /**
+     * Releases the task accounting for an ingest job that has finished. Must
+     * only be called once all of the tasks for the job have been completed.
+     *
+     * @param job The job.
+     */
+    synchronized void notifyIngestJobFinished(DataSourceIngestJob job) {
+        long jobId = job.getId();
+        if (this.useFairShare) {
+            this.fairShareFileTasks.setUpstreamTasksExhausted(jobId);
+        }
+        AtomicLong count = this.tasksInProgress.remove(jobId);
+        if (null != count && 0L != count.get()) {
+            logger.log(Level.WARNING, "Ingest job {0} finished with {1} tasks in progress", new Object[]{jobId, count.get()}); //NON-NLS
+        }
+    }
+
+    /**
+     * Increments the count of tasks in progress for an ingest job.
+     *
+     * @param job The job.
+     */
+    private void incrementTasksInProgress(DataSourceIngestJob job) {
+        AtomicLong count = this.tasksInProgress.get(job.getId());
+        if (null == count) {
+            AtomicLong newCount = new AtomicLong(0L);
+            count = this.tasksInProgress.putIfAbsent(job.getId(), newCount);
+            if (null == count) {
+                count = newCount;
             }
         }
-        return true;
+        count.incrementAndGet();
+    }
+
+    /**
+     * Decrements the count of tasks in progress for an ingest job.
+     *
+     * @param job The job.
+     *
+     * @return The count after the decrement.
+     */
+    private long decrementTasksInProgress(DataSourceIngestJob job) {
+        AtomicLong count = this.tasksInProgress.get(job.getId());
+        if (null != count) {
+            return count.decrementAndGet();
+        } else {
+            logger.log(Level.SEVERE, "Task completed for ingest job {0} with no tasks in progress", job.getId()); //NON-NLS
+            return 0L;
+        }
+    }
+
+    /**
+     * Gets the count of tasks in progress for an ingest job.
+     *
+     * @param jobId The id of the job.
+     *
+     * @return The count.
+     */
+    private long getTasksInProgressCount(long jobId) {
+        AtomicLong count = this.tasksInProgress.get(jobId);
+        return (null != count) ? count.get() : 0L;
     }
 
     /**
@@ -271,7 +444,13 @@ synchronized void cancelPendingTasksForIngestJob(DataSourceIngestJob job) {
         long jobId = job.getId();
         this.removeTasksForJob(this.rootDirectoryTasks, jobId);
         this.removeTasksForJob(this.directoryTasks, jobId);
-        this.shuffleFileTaskQueues();
+        if (null != this.directoryWalker) {
+            this.directoryWalker.removeTasksForJob(jobId);
+        }
+        if (this.useFairShare) {
+            this.fairShareFileTasks.setUpstreamTasksExhausted(jobId);
+        }
+        this.refillPendingFileTasks();
     }
 
     /**
@@ -315,6 +494,19 @@ private static List<AbstractFile> getTopLevelFiles(Content dataSource) {
         return topLevelFiles;
     }
 
+    /**
+     * Makes sure that the pending file tasks queue is being refilled from the
+     * upstream queues, either by waking up the directory walker, if there is
+     * one, or by "shuffling" the file task queues on the calling thread.
+     */
+    private void refillPendingFileTasks() {
+        if (null != this.directoryWalker) {
+            this.directoryWalker.wakeUp();
+        } else {
+            this.shuffleFileTaskQueues();
+        }
+    }
+
     /**
      * "Shuffles" the file task queues to ensure that there is at least one task
      * in the pending file ingest tasks queue, as long as there are still file
@@ -326,32 +518,48 @@ synchronized private void shuffleFileTaskQueues() {
         // file tasks "dispenser".
         while (true) {
             // Loop until either the pending file tasks queue is NOT empty
-            // or the upstream queues that feed into it ARE empty.
-            if (!this.pendingFileTasks.isEmpty()) {
+            // (NOT running low, for work stealing) or the upstream queues that
+            // feed into it ARE empty.
+            if (!this.pendingFileTasksAreLow()) {
                 // There are file tasks ready to be consumed, exit.
                 return;
             }
-            if (this.directoryTasks.isEmpty()) {
-                if (this.rootDirectoryTasks.isEmpty()) {
-                    // There are no root directory tasks to move into the
-                    // directory queue, exit.
+            FileIngestTask directoryTask;
+            if (this.useFairShare) {
+                // Take the most recently added directory of the job most in
+                // need of tasks.
+                directoryTask = this.pollFairShareDirectoryTask();
+                if (null == directoryTask) {
                     return;
-                } else {
-                    // Move the next root directory task into the 
-                    // directories queue. Note that the task was already 
-                    // added to the tasks in progress list when the task was
-                    // created in scheduleFileIngestTasks().
-                    this.directoryTasks.add(this.rootDirectoryTasks.pollFirst());
                 }
+            } else {
+                if (this.directoryTasks.isEmpty()) {
+                    if (this.rootDirectoryTasks.isEmpty()) {
+                        // There are no root directory tasks to move into the
+                        // directory queue, exit.
+                        return;
+                    } else {
+                        // Move the next root directory task into the 
+                        // directories queue. Note that the task was already 
+                        // added to the tasks in progress list when the task
+                        // was created in scheduleFileIngestTasks().
+                        this.directoryTasks.add(this.rootDirectoryTasks.pollFirst());
+                    }
+                }
+                directoryTask = this.directoryTasks.remove(this.directoryTasks.size() - 1);
             }
 
             // Try to add the most recently added directory from the 
-            // directory tasks queue to the pending file tasks queue. 
-            FileIngestTask directoryTask = this.directoryTasks.remove(this.directoryTasks.size() - 1);
+            // directory tasks queue to the pending file tasks queue. The
+            // count of tasks in progress for the job is held above zero
+            // until the tasks for the children of the directory have been
+            // counted, so that an ingest thread that completes the directory
+            // task first does not find the job to be finished.
+            this.incrementTasksInProgress(directoryTask.getIngestJob());
             if (shouldEnqueueFileTask(directoryTask)) {
                 addToPendingFileTasksQueue(directoryTask);
             } else {
-                this.tasksInProgress.remove(directoryTask);
+                this.decrementTasksInProgress(directoryTask.getIngestJob());
             }
 
             // If the directory contains subdirectories or files, try to 
@@ -368,12 +576,12 @@ synchronized private void shuffleFileTaskQueues() {
                             // addition of the task to the tasks in progress
                             // list. This is necessary because this is the
                             // first appearance of this task in the queues.
-                            this.tasksInProgress.add(childTask);
+                            this.incrementTasksInProgress(childTask.getIngestJob());
                             this.directoryTasks.add(childTask);
                         } else if (shouldEnqueueFileTask(childTask)) {
                             // Found a file, put the task directly into the
                             // pending file tasks queue. 
-                            this.tasksInProgress.add(childTask);
+                            this.incrementTasksInProgress(childTask.getIngestJob());
                             addToPendingFileTasksQueue(childTask);
                         }
                     }
@@ -382,7 +590,120 @@ synchronized private void shuffleFileTaskQueues() {
                 String errorMessage = String.format("An error occurred getting the children of %s", directory.getName()); //NON-NLS
                 logger.log(Level.SEVERE, errorMessage, ex);
             }
+            this.decrementTasksInProgress(directoryTask.getIngestJob());
+        }
+    }
+
+    /**
+     * Takes the most recently added directory task, or failing that the
+     * highest priority root directory task, of the ingest job whose lane of
+     * the fair-share pending file tasks queue is most in need of refilling.
+     * Jobs found to have no directory tasks left are reported to the queue.
+     *
+     * @return The task, or null if there are no directory tasks left.
+     */
+    synchronized private FileIngestTask pollFairShareDirectoryTask() {
+        for (long jobId : this.fairShareFileTasks.getJobsToRefill()) {
+            for (int i = this.directoryTasks.size() - 1; i >= 0; --i) {
+                if (this.directoryTasks.get(i).getIngestJob().getId() == jobId) {
+                    return this.directoryTasks.remove(i);
+                }
+            }
+            FileIngestTask task = this.pollRootDirectoryTask(jobId);
+            if (null != task) {
+                return task;
+            }
+            this.fairShareFileTasks.setUpstreamTasksExhausted(jobId);
+        }
+        return null;
+    }
+
+    /**
+     * Queries whether the pending file tasks queue needs to be refilled from
+     * the upstream queues. In the default scheduling mode, this is the case
+     * when the queue is empty. With work stealing, the deques are kept topped
+     * up to about one task per ingest thread so that a thread that runs dry
+     * can usually steal instead of refilling. With cost-aware ordering, the
+     * queue is kept topped up to a fixed number of tasks, so that there is a
+     * reasonable selection of tasks to order by cost. With fair-share
+     * scheduling, this is also the case when any job that still has
+     * directories to expand has run out of tasks, even if other jobs have not.
+     *
+     * @return True or false.
+     */
+    private boolean pendingFileTasksAreLow() {
+        if (this.useWorkStealing) {
+            return this.workStealingFileTasks.size() < Math.max(1, this.workStealingFileTasks.getNumberOfThreadDeques());
+        }
+        if (this.useCostAwareOrdering) {
+            return this.costAwareFileTasks.size() < MIN_COST_AWARE_PENDING_FILE_TASKS;
+        }
+        if (this.useFairShare) {
+            return 0 == this.fairShareFileTasks.size() || this.fairShareFileTasks.hasStarvedJob();
+        }
+        return this.pendingFileTasks.isEmpty();
+    }
+
+    /**
+     * Holds back or releases the tasks for large files, if the pending file
+     * tasks are ordered by cost. Used by the ingest manager to relieve heap or
+     * disk pressure.
+     *
+     * @param heldBack True to hold back large file tasks, false to release
+     *                 them.
+     */
+    void setLargeFileTasksHeldBack(boolean heldBack) {
+        this.costAwareFileTasks.setLargeFileTasksHeldBack(heldBack);
+    }
+
+    /**
+     * Gets the approximate number of tasks in the pending file tasks queue,
+     * i.e., file tasks that are ready to be taken by the file ingest threads.
+     *
+     * @return The task count.
+     */
+    int getPendingFileTasksCount() {
+        if (this.useWorkStealing) {
+            return this.workStealingFileTasks.size();
+        }
+        if (this.useCostAwareOrdering) {
+            return this.costAwareFileTasks.size();
+        }
+        if (this.useFairShare) {
+            return this.fairShareFileTasks.size();
+        }
+        return this.pendingFileTasks.size();
+    }
+
+    /**
+     * Moves the highest priority root directory task, if any, out of the root
+     * directories queue.
+     *
+     * @return The task, or null if the root directories queue is empty.
+     */
+    synchronized private FileIngestTask pollRootDirectoryTask() {
+        return this.rootDirectoryTasks.pollFirst();
+    }
+
+    /**
+     * Moves the highest priority root directory task for an ingest job, if
+     * any, out of the root directories queue.
+     *
+     * @param jobId The id of the job.
+     *
+     * @return The task, or null if there are no root directory tasks for the
+     *         job.
+     */
+    synchronized private FileIngestTask pollRootDirectoryTask(long jobId) {
+        Iterator<FileIngestTask> iterator = this.rootDirectoryTasks.iterator();
+        while (iterator.hasNext()) {
+            FileIngestTask task = iterator.next();
+            if (task.getIngestJob().getId() == jobId) {
+                iterator.remove();
+                return task;
+            }
         }
+        return null;
     }
 
     /**
@@ -412,17 +733,23 @@ private static boolean shouldEnqueueFileTask(final FileIngestTask task) {
         }
 
         // Skip the task if the file is one of a select group of special, large
-        // NTFS or FAT file system files.
+        // NTFS or FAT file system files. The checks that only need the file
+        // object itself come first, so that the case database is only queried
+        // for the handful of files that could be such files, and the file
+        // system types are cached by the job, one lookup per file system.
         if (file instanceof org.sleuthkit.datamodel.File) {
             final org.sleuthkit.datamodel.File f = (org.sleuthkit.datamodel.File) file;
 
+            // Check the meta-address of the file and check its name for the
+            // '$' character and a ':' character (not a default attribute).
+            if (f.getMetaAddr() >= 32 || fileName.isEmpty() || fileName.charAt(0) != '$' || !fileName.contains(":")) {
+                return true;
+            }
+
             // Get the type of the file system, if any, that owns the file.
             TskData.TSK_FS_TYPE_ENUM fsType = TskData.TSK_FS_TYPE_ENUM.TSK_FS_TYPE_UNSUPP;
             try {
-                FileSystem fs = f.getFileSystem();
-                if (fs != null) {
-                    fsType = fs.getFsType();
-                }
+                fsType = task.getIngestJob().getFileSystemType(f);
             } catch (TskCoreException ex) {
                 logger.log(Level.SEVERE, "Error querying file system for " + f, ex); //NON-NLS
             }
@@ -432,23 +759,14 @@ private static boolean shouldEnqueueFileTask(final FileIngestTask task) {
                 return true;
             }
 
-            // Find out whether the file is in a root directory. 
-            boolean isInRootDir = false;
+            // Skip the file if it is in the root directory of the file system.
             try {
                 AbstractFile parent = f.getParentDirectory();
-                isInRootDir = parent.isRoot();
-            } catch (TskCoreException ex) {
-                logger.log(Level.WARNING, "Error querying parent directory for" + f.getName(), ex); //NON-NLS
-            }
-
-            // If the file is in the root directory of an NTFS or FAT file 
-            // system, check its meta-address and check its name for the '$'
-            // character and a ':' character (not a default attribute).
-            if (isInRootDir && f.getMetaAddr() < 32) {
-                String name = f.getName();
-                if (name.length() > 0 && name.charAt(0) == '$' && name.contains(":")) {
+                if (parent.isRoot()) {
                     return false;
                 }
+            } catch (TskCoreException ex) {
+                logger.log(Level.WARNING, "Error querying parent directory for" + f.getName(), ex); //NON-NLS
             }
         }
 
@@ -456,11 +774,25 @@ private static boolean shouldEnqueueFileTask(final FileIngestTask task) {
     }
 
     /**
-     * Adds a file ingest task to the blocking pending tasks queue.
+     * Adds a file ingest task to the blocking pending tasks queue. This does
+     * not need the monitor of this scheduler, since the pending tasks queue and
+     * the tasks in progress counts are thread-safe.
      *
      * @param task The task to add.
      */
-    synchronized private void addToPendingFileTasksQueue(FileIngestTask task) {
+    private void addToPendingFileTasksQueue(FileIngestTask task) {
+        if (this.useWorkStealing) {
+            this.workStealingFileTasks.push(task);
+            return;
+        }
+        if (this.useCostAwareOrdering) {
+            this.costAwareFileTasks.put(task);
+            return;
+        }
+        if (this.useFairShare) {
+            this.fairShareFileTasks.put(task);
+            return;
+        }
         try {
             this.pendingFileTasks.putFirst(task);
         } catch (InterruptedException ex) {
@@ -468,7 +800,7 @@ synchronized private void addToPendingFileTasksQueue(FileIngestTask task) {
              * The current thread was interrupted while blocked on a full queue.
              * Discard the task and reset the interrupted flag.
              */
-            this.tasksInProgress.remove(task);
+            this.decrementTasksInProgress(task.getIngestJob());
             Thread.currentThread().interrupt();
         }
     }
@@ -486,7 +818,7 @@ synchronized private void removeTasksForJob(Collection<? extends IngestTask> tas
         while (iterator.hasNext()) {
             IngestTask task = iterator.next();
             if (task.getIngestJob().getId() == jobId) {
-                this.tasksInProgress.remove(task);
+                this.decrementTasksInProgress(task.getIngestJob());
                 iterator.remove();
             }
         }
@@ -659,11 +991,466 @@ private final class FileIngestTaskQueue implements IngestTaskQueue {
          */
         @Override
         public IngestTask getNextTask() throws InterruptedException {
-            FileIngestTask task = IngestTasksScheduler.this.pendingFileTasks.takeFirst();
-            shuffleFileTaskQueues();
+            return IngestTasksScheduler.this.pendingFileTasks.takeFirst();
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void refill() {
+            refillPendingFileTasks();
+        }
+
+    }
+
+    /**
+     * Wraps access to the cost-aware pending file ingest tasks queue in the
+     * interface required by the ingest threads.
+     */
+    private final class CostAwareFileIngestTaskQueue implements IngestTaskQueue {
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public IngestTask getNextTask() throws InterruptedException {
+            return IngestTasksScheduler.this.costAwareFileTasks.take(IngestManager.getInstance().getNumberOfFileIngestThreads());
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void refill() {
+            refillPendingFileTasks();
+        }
+
+    }
+
+    /**
+     * Wraps access to the fair-share pending file ingest tasks queue in the
+     * interface required by the ingest threads.
+     */
+    private final class FairShareFileIngestTaskQueue implements IngestTaskQueue {
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public IngestTask getNextTask() throws InterruptedException {
+            return IngestTasksScheduler.this.fairShareFileTasks.take();
+        }
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void refill() {
+            refillPendingFileTasks();
+        }
+
+    }
+
+    /**
+     * Wraps access to the work stealing file ingest task deques in the
+     * interface required by the ingest threads.
+     */
+    private final class WorkStealingFileIngestTaskQueue implements IngestTaskQueue {
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public IngestTask getNextTask() throws InterruptedException {
+            FileIngestTask task = IngestTasksScheduler.this.workStealingFileTasks.poll();
+            if (null == task) {
+                task = IngestTasksScheduler.this.workStealingFileTasks.take();
+            }
             return task;
         }
 
+        /**
+         * Refills the work stealing deques from the upstream queues, if they
+         * are running low, unless another ingest thread is already doing so.
+         * In that case this thread does not wait for the monitor of the
+         * scheduler; if it has no task, it will block on the deques until the
+         * refilling thread or a producer pushes one.
+         */
+        @Override
+        public void refill() {
+            if (!IngestTasksScheduler.this.pendingFileTasksAreLow()) {
+                return;
+            }
+            if (null != IngestTasksScheduler.this.directoryWalker) {
+                IngestTasksScheduler.this.directoryWalker.wakeUp();
+            } else if (IngestTasksScheduler.this.workStealingRefillInProgress.compareAndSet(false, true)) {
+                try {
+                    shuffleFileTaskQueues();
+                } finally {
+                    IngestTasksScheduler.this.workStealingRefillInProgress.set(false);
+                }
+            }
+        }
+
+        /**
+         * Moves the tasks of the deque of the calling ingest thread to the
+         * shared deque and drops the deque.
+         */
+        @Override
+        public void releaseCurrentThread() {
+            IngestTasksScheduler.this.workStealingFileTasks.releaseCurrentThread();
+        }
+
+    }
+
+    /**
+     * Expands directory tasks into file tasks on a background thread, keeping
+     * the pending file tasks queue filled to a prefetch margin. The children of
+     * a batch of directories are fetched with one case database query per
+     * sub-batch, with the sub-batches queried in parallel, instead of one
+     * getChildren() query per directory and one hasChildren() query per
+     * child.
+     * <p>
+     * The walker owns its directory tasks queue, which is only accessed by the
+     * walker thread and by job cancellation, so expansion does not take the
+     * monitor of the scheduler except to take the next root directory task.
+     */
+    private final class DirectoryWalker implements Runnable {
+
+        private static final int MAX_DIRECTORIES_PER_BATCH = 256;
+        private static final int MAX_DIRECTORIES_PER_QUERY = 64;
+        private static final int MAX_FILES_PER_CHILDREN_QUERY = 500;
+        private static final int NUMBER_OF_QUERY_THREADS = 4;
+        private final int prefetchMargin;
+        private final ConcurrentLinkedDeque<FileIngestTask> pendingDirectoryTasks;
+        private final ExecutorService queryThreadPool;
+        private final ExecutorService stageCompletionCheckExecutor;
+        private Thread walkerThread;
+
+        /**
+         * Constructs a background directory walker.
+         *
+         * @param prefetchMargin The number of file tasks to keep queued ahead
+         *                       of the ingest threads.
+         */
+        DirectoryWalker(int prefetchMargin) {
+            this.prefetchMargin = prefetchMargin;
+            this.pendingDirectoryTasks = new ConcurrentLinkedDeque<>();
+            this.queryThreadPool = Executors.newFixedThreadPool(NUMBER_OF_QUERY_THREADS, new ThreadFactoryBuilder().setNameFormat("IM-directory-walker-query-%d").setDaemon(true).build()); //NON-NLS
+            this.stageCompletionCheckExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("IM-directory-walker-completion-%d").setDaemon(true).build()); //NON-NLS
+        }
+
+        /**
+         * Starts the walker thread.
+         */
+        void start() {
+            this.walkerThread = new ThreadFactoryBuilder().setNameFormat("IM-directory-walker-%d").setDaemon(true).build().newThread(this); //NON-NLS
+            this.walkerThread.start();
+        }
+
+        /**
+         * Wakes up the walker thread, if it is idle, to check whether the
+         * pending file tasks queue needs to be refilled. Does not block. The
+         * walker thread is woken up when a job is scheduled or cancelled and
+         * whenever an ingest thread takes a file task, so it sleeps until
+         * there may be work for it to do.
+         */
+        void wakeUp() {
+            LockSupport.unpark(this.walkerThread);
+        }
+
+        /**
+         * Removes all of the directory tasks for an ingest job from the walker
+         * queue. Tasks that the walker thread has already taken for expansion
+         * are discarded by the walker thread when it finds that the job has
+         * been cancelled.
+         *
+         * @param jobId The id of the job for which the tasks are to be
+         *              removed.
+         */
+        void removeTasksForJob(long jobId) {
+            for (FileIngestTask task : this.pendingDirectoryTasks) {
+                if (task.getIngestJob().getId() == jobId && this.pendingDirectoryTasks.removeFirstOccurrence(task)) {
+                    IngestTasksScheduler.this.decrementTasksInProgress(task.getIngestJob());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (!expandNextBatch()) {
+                        LockSupport.park(this);
+                    }
+                } catch (Exception ex) {
+                    logger.log(Level.SEVERE, "Unexpected error expanding directories for file ingest", ex); //NON-NLS
+                }
+            }
+        }
+
+        /**
+         * Expands the next batch of directory tasks, if the pending file tasks
+         * queue is below the prefetch margin and there are directories to
+         * expand.
+         *
+         * @return True if a batch was expanded, false if there was nothing to
+         *         do.
+         *
+         * @throws InterruptedException if the walker thread is interrupted
+         *                              while waiting for a query.
+         */
+        private boolean expandNextBatch() throws InterruptedException {
+            if (IngestTasksScheduler.this.getPendingFileTasksCount() >= this.prefetchMargin
+                    && !(IngestTasksScheduler.this.useFairShare && IngestTasksScheduler.this.fairShareFileTasks.hasStarvedJob())) {
+                return false;
+            }
+            if (IngestTasksScheduler.this.useFairShare) {
+                List<FileIngestTask> batch = pollFairShareBatch();
+                if (batch.isEmpty()) {
+                    return false;
+                }
+                expand(batch);
+                return true;
+            }
+            List<FileIngestTask> batch = new ArrayList<>();
+            FileIngestTask task;
+            while (batch.size() < MAX_DIRECTORIES_PER_BATCH && null != (task = this.pendingDirectoryTasks.pollFirst())) {
+                batch.add(task);
+            }
+            if (batch.isEmpty()) {
+                /*
+                 * Depth first, one root directory at a time, as in the
+                 * directory queue shuffling done by the ingest threads.
+                 */
+                task = IngestTasksScheduler.this.pollRootDirectoryTask();
+                if (null == task) {
+                    return false;
+                }
+                batch.add(task);
+            }
+            expand(batch);
+            return true;
+        }
+
+        /**
+         * Takes a batch of directory tasks for the ingest job whose lane of
+         * the fair-share pending file tasks queue is most in need of
+         * refilling: the most recently added directories of the job in the
+         * walker queue or, failing that, its highest priority root directory.
+         * Jobs found to have no directory tasks left are reported to the
+         * queue. Takes the monitor of the scheduler, so that job cancellation
+         * and the scheduling of new jobs cannot interleave with the search.
+         *
+         * @return The batch, empty if there are no directory tasks left.
+         */
+        private List<FileIngestTask> pollFairShareBatch() {
+            List<FileIngestTask> batch = new ArrayList<>();
+            synchronized (IngestTasksScheduler.this) {
+                for (long jobId : IngestTasksScheduler.this.fairShareFileTasks.getJobsToRefill()) {
+                    Iterator<FileIngestTask> iterator = this.pendingDirectoryTasks.iterator();
+                    while (batch.size() < MAX_DIRECTORIES_PER_BATCH && iterator.hasNext()) {
+                        FileIngestTask task = iterator.next();
+                        if (task.getIngestJob().getId() == jobId) {
+                            iterator.remove();
+                            batch.add(task);
+                        }
+                    }
+                    if (batch.isEmpty()) {
+                        FileIngestTask task = IngestTasksScheduler.this.pollRootDirectoryTask(jobId);
+                        if (null != task) {
+                            batch.add(task);
+                        }
+                    }
+                    if (!batch.isEmpty()) {
+                        return batch;
+                    }
+                    IngestTasksScheduler.this.fairShareFileTasks.setUpstreamTasksExhausted(jobId);
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * Expands a batch of directory tasks, queuing the directory tasks
+         * themselves in the pending file tasks queue ahead of their children,
+         * then subdirectory tasks in the walker queue and file tasks in the
+         * pending file tasks queue. The count of tasks in progress for each
+         * job is held above zero until the children of its directories have
+         * been counted.
+         *
+         * @param batch The directory tasks.
+         *
+         * @throws InterruptedException if the walker thread is interrupted
+         *                              while waiting for a query.
+         */
+        private void expand(List<FileIngestTask> batch) throws InterruptedException {
+            /*
+             * The directories in a query must belong to the same job, so that
+             * the children can be assigned to the job without looking up their
+             * parents.
+             */
+            Map<DataSourceIngestJob, List<FileIngestTask>> batchByJob = new HashMap<>();
+            for (FileIngestTask directoryTask : batch) {
+                List<FileIngestTask> jobTasks = batchByJob.get(directoryTask.getIngestJob());
+                if (null == jobTasks) {
+                    jobTasks = new ArrayList<>();
+                    batchByJob.put(directoryTask.getIngestJob(), jobTasks);
+                }
+                jobTasks.add(directoryTask);
+            }
+
+            List<Future<ExpandedDirectories>> queries = new ArrayList<>();
+            List<ExpandedDirectories> queryGroups = new ArrayList<>();
+            for (Map.Entry<DataSourceIngestJob, List<FileIngestTask>> entry : batchByJob.entrySet()) {
+                List<FileIngestTask> jobTasks = entry.getValue();
+                for (int i = 0; i < jobTasks.size(); i += MAX_DIRECTORIES_PER_QUERY) {
+                    List<FileIngestTask> queryTasks = jobTasks.subList(i, Math.min(i + MAX_DIRECTORIES_PER_QUERY, jobTasks.size()));
+                    queries.add(this.queryThreadPool.submit(() -> queryChildren(entry.getKey(), queryTasks)));
+                    queryGroups.add(new ExpandedDirectories(entry.getKey(), queryTasks));
+                }
+            }
+
+            for (int i = 0; i < queries.size(); ++i) {
+                ExpandedDirectories expanded;
+                try {
+                    expanded = queries.get(i).get();
+                } catch (ExecutionException ex) {
+                    logger.log(Level.SEVERE, "Unexpected error querying the children of directories", ex); //NON-NLS
+                    expanded = queryGroups.get(i);
+                }
+                DataSourceIngestJob job = expanded.job;
+                IngestTasksScheduler.this.incrementTasksInProgress(job);
+                for (FileIngestTask directoryTask : expanded.directoryTasks) {
+                    if (!job.isCancelled() && shouldEnqueueFileTask(directoryTask)) {
+                        IngestTasksScheduler.this.addToPendingFileTasksQueue(directoryTask);
+                    } else {
+                        IngestTasksScheduler.this.decrementTasksInProgress(job);
+                    }
+                }
+                if (!job.isCancelled()) {
+                    for (AbstractFile child : expanded.children) {
+                        FileIngestTask childTask = new FileIngestTask(job, child);
+                        if (expanded.parentIds.contains(child.getId())) {
+                            IngestTasksScheduler.this.incrementTasksInProgress(job);
+                            this.pendingDirectoryTasks.addFirst(childTask);
+                        } else if (shouldEnqueueFileTask(childTask)) {
+                            IngestTasksScheduler.this.incrementTasksInProgress(job);
+                            IngestTasksScheduler.this.addToPendingFileTasksQueue(childTask);
+                        }
+                    }
+                }
+                if (0L == IngestTasksScheduler.this.decrementTasksInProgress(job)) {
+                    /*
+                     * The walker released the last task for the job, so no
+                     * ingest thread will check for completion of the current
+                     * stage of the job. Do the check off the walker thread,
+                     * since finishing a stage shuts down ingest modules.
+                     */
+                    this.stageCompletionCheckExecutor.submit(job::checkForStageCompleted);
+                }
+            }
+        }
+
+        /**
+         * Queries the case database for the children of a group of
+         * directories and for which of the children have children of their
+         * own. Falls back to querying one directory at a time if the batch
+         * queries fail.
+         *
+         * @param job            The ingest job of the directories.
+         * @param directoryTasks The directory tasks.
+         *
+         * @return The children and the ids of the children that have children.
+         */
+        private ExpandedDirectories queryChildren(DataSourceIngestJob job, List<FileIngestTask> directoryTasks) {
+            ExpandedDirectories expanded = new ExpandedDirectories(job, directoryTasks);
+            if (job.isCancelled()) {
+                return expanded;
+            }
+            try {
+                SleuthkitCase caseDb = Case.getCurrentCase().getSleuthkitCase();
+                List<Long> directoryIds = new ArrayList<>();
+                for (FileIngestTask directoryTask : directoryTasks) {
+                    directoryIds.add(directoryTask.getFile().getId());
+                }
+                expanded.children.addAll(caseDb.findAllFilesWhere("obj_id IN (SELECT obj_id FROM tsk_objects WHERE par_obj_id IN (" + joinIds(directoryIds) + "))")); //NON-NLS
+                List<Long> childIds = new ArrayList<>();
+                for (AbstractFile child : expanded.children) {
+                    childIds.add(child.getId());
+                }
+                for (int i = 0; i < childIds.size(); i += MAX_FILES_PER_CHILDREN_QUERY) {
+                    String ids = joinIds(childIds.subList(i, Math.min(i + MAX_FILES_PER_CHILDREN_QUERY, childIds.size())));
+                    // Only the ids are needed, so don't load the parents as files
+                    try (SleuthkitCase.CaseDbQuery dbQuery = caseDb.executeQuery("SELECT DISTINCT par_obj_id FROM tsk_objects WHERE par_obj_id IN (" + ids + ")")) { //NON-NLS
+                        ResultSet resultSet = dbQuery.getResultSet();
+                        while (resultSet.next()) {
+                            expanded.parentIds.add(resultSet.getLong("par_obj_id")); //NON-NLS
+                        }
+                    }
+                }
+            } catch (TskCoreException | SQLException | IllegalStateException ex) {
+                logger.log(Level.WARNING, "Batch query for the children of directories failed, querying one directory at a time", ex); //NON-NLS
+                expanded.children.clear();
+                expanded.parentIds.clear();
+                for (FileIngestTask directoryTask : directoryTasks) {
+                    AbstractFile directory = directoryTask.getFile();
+                    try {
+                        for (Content child : directory.getChildren()) {
+                            if (child instanceof AbstractFile) {
+                                expanded.children.add((AbstractFile) child);
+                                if (child.hasChildren()) {
+                                    expanded.parentIds.add(child.getId());
+                                }
+                            }
+                        }
+                    } catch (TskCoreException childrenEx) {
+                        String errorMessage = String.format("An error occurred getting the children of %s", directory.getName()); //NON-NLS
+                        logger.log(Level.SEVERE, errorMessage, childrenEx);
+                    }
+                }
+            }
+            return expanded;
+        }
+
+        /**
+         * Makes a comma separated list of object ids for an IN clause.
+         *
+         * @param ids The ids.
+         *
+         * @return The list.
+         */
+        private String joinIds(List<Long> ids) {
+            StringBuilder list = new StringBuilder();
+            for (Long id : ids) {
+                if (list.length() > 0) {
+                    list.append(',');
+                }
+                list.append(id);
+            }
+            return list.toString();
+        }
+
+    }
+
+    /**
+     * The results of a directory walker query for the children of a group of
+     * directories belonging to one ingest job.
+     */
+    private static final class ExpandedDirectories {
+
+        private final DataSourceIngestJob job;
+        private final List<FileIngestTask> directoryTasks;
+        private final List<AbstractFile> children;
+        private final Set<Long> parentIds;
+
+        ExpandedDirectories(DataSourceIngestJob job, List<FileIngestTask> directoryTasks) {
+            this.job = job;
+            this.directoryTasks = directoryTasks;
+            this.children = new ArrayList<>();
+            this.parentIds = new HashSet<>();
+        }
     }
 
     /**
@@ -686,10 +1473,22 @@ class IngestJobTasksSnapshot {
         IngestJobTasksSnapshot(long jobId) {
             this.jobId = jobId;
             this.rootQueueSize = countTasksForJob(IngestTasksScheduler.this.rootDirectoryTasks, jobId);
-            this.dirQueueSize = countTasksForJob(IngestTasksScheduler.this.directoryTasks, jobId);
-            this.fileQueueSize = countTasksForJob(IngestTasksScheduler.this.pendingFileTasks, jobId);
+            long walkerQueueSize = 0;
+            if (null != IngestTasksScheduler.this.directoryWalker) {
+                walkerQueueSize = countTasksForJob(IngestTasksScheduler.this.directoryWalker.pendingDirectoryTasks, jobId);
+            }
+            this.dirQueueSize = countTasksForJob(IngestTasksScheduler.this.directoryTasks, jobId) + walkerQueueSize;
+            if (IngestTasksScheduler.this.useWorkStealing) {
+                this.fileQueueSize = IngestTasksScheduler.this.workStealingFileTasks.countTasksForJob(jobId);
+            } else if (IngestTasksScheduler.this.useCostAwareOrdering) {
+                this.fileQueueSize = IngestTasksScheduler.this.costAwareFileTasks.countTasksForJob(jobId);
+            } else if (IngestTasksScheduler.this.useFairShare) {
+                this.fileQueueSize = IngestTasksScheduler.this.fairShareFileTasks.countTasksForJob(jobId);
+            } else {
+                this.fileQueueSize = countTasksForJob(IngestTasksScheduler.this.pendingFileTasks, jobId);
+            }
             this.dsQueueSize = countTasksForJob(IngestTasksScheduler.this.pendingDataSourceTasks, jobId);
-            this.runningListSize = countTasksForJob(IngestTasksScheduler.this.tasksInProgress, jobId);
+            this.runningListSize = IngestTasksScheduler.this.getTasksInProgressCount(jobId);
         }
 
         /**
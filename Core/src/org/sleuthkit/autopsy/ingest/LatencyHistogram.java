@@ -0,0 +1,159 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations with power of two microsecond buckets, i.e., bucket
+ * zero counts durations under one microsecond, bucket one counts durations of
+ * one microsecond, bucket two counts durations of two to three microseconds,
+ * and so on. The last bucket counts everything longer. Percentiles are
+ * estimated as the upper bound of the bucket they fall in, so they are
+ * accurate to within a factor of two.
+ * <p>
+ * Recording a duration does not take a lock, so this class can be used on the
+ * hot path of the ingest threads. Reads are consistent per value but not
+ * across values.
+ * <p>
+ * This class is thread-safe.
+ */
+public final class LatencyHistogram {
+
+    private static final int NUMBER_OF_BUCKETS = 40;
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration, in nanoseconds.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / 1000;
+        int bucket = Math.min(NUMBER_OF_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        bucketCounts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Gets the number of durations recorded.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the sum of the durations recorded.
+     *
+     * @return The sum, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return totalNanos.get();
+    }
+
+    /**
+     * Gets the longest duration recorded.
+     *
+     * @return The duration, in nanoseconds.
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * Gets the mean of the durations recorded.
+     *
+     * @return The mean, in nanoseconds, or zero if nothing has been recorded.
+     */
+    public long getMeanNanos() {
+        long n = count.get();
+        return (0 == n) ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * Estimates a percentile of the durations recorded.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     *
+     * @return The estimate, in nanoseconds, or zero if nothing has been
+     *         recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        if (0 == total) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * Math.max(0.0, Math.min(percentile, 100.0)) / 100.0);
+        long seen = 0;
+        for (int bucket = 0; bucket < counts.length; ++bucket) {
+            seen += counts[bucket];
+            if (seen >= Math.max(1, rank)) {
+                return Math.min(getBucketUpperBoundNanos(bucket), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Gets the counts of the buckets of this histogram.
+     *
+     * @return The counts, lowest bucket first.
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[NUMBER_OF_BUCKETS];
+        for (int i = 0; i < NUMBER_OF_BUCKETS; ++i) {
+            counts[i] = bucketCounts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Gets the exclusive upper bound of a bucket.
+     *
+     * @param bucket The bucket index.
+     *
+     * @return The upper bound, in nanoseconds, or Long.MAX_VALUE for the last
+     *         bucket.
+     */
+    public static long getBucketUpperBoundNanos(int bucket) {
+        if (bucket >= NUMBER_OF_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return (1L << bucket) * 1000L;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Runs files through file ingest pipelines in stages. Each stage has its own
+ * fixed size pool of threads, fed by a bounded queue. The modules of a
+ * pipeline are grouped into segments of consecutive modules with the same
+ * stage, and the segments are run for a file in pipeline order, each one on
+ * the threads of its stage. While one file is in the CPU stage, another can be
+ * in the read stage, and so on.
+ * <p>
+ * A pipeline is used for one file at a time, from the first segment to the
+ * last, so the modules of a pipeline are never run concurrently, just as when
+ * a file is run through the whole pipeline by a file ingest thread.
+ * <p>
+ * If the queue of a stage is full, the segment is run by the thread handing it
+ * off instead, which slows down the upstream stage and avoids deadlock between
+ * stages that feed each other.
+ * <p>
+ * Note: This should be a singleton and currently is used as such, with the
+ * only instance residing in the IngestManager class.
+ */
+final class StagedFileIngestExecutor {
+
+    private static final Logger logger = Logger.getLogger(StagedFileIngestExecutor.class.getName());
+    private static final int QUEUED_SEGMENTS_PER_THREAD = 4;
+    private final Map<StagedFileIngestModule.Stage, ThreadPoolExecutor> stageThreadPools;
+    private final int totalNumberOfThreads;
+
+    /**
+     * Constructs an object that runs files through file ingest pipelines in
+     * stages.
+     *
+     * @param numberOfReadThreads The number of threads for the read stage,
+     *                            usually the number of file ingest threads.
+     */
+    StagedFileIngestExecutor(int numberOfReadThreads) {
+        int numberOfProcessors = Runtime.getRuntime().availableProcessors();
+        stageThreadPools = new EnumMap<>(StagedFileIngestModule.Stage.class);
+        stageThreadPools.put(StagedFileIngestModule.Stage.READ, createStageThreadPool(StagedFileIngestModule.Stage.READ, numberOfReadThreads));
+        stageThreadPools.put(StagedFileIngestModule.Stage.CPU, createStageThreadPool(StagedFileIngestModule.Stage.CPU, numberOfProcessors));
+        stageThreadPools.put(StagedFileIngestModule.Stage.INDEX, createStageThreadPool(StagedFileIngestModule.Stage.INDEX, Math.max(1, numberOfProcessors / 2)));
+        stageThreadPools.put(StagedFileIngestModule.Stage.DATABASE, createStageThreadPool(StagedFileIngestModule.Stage.DATABASE, 1));
+        int threadCount = 0;
+        for (ThreadPoolExecutor threadPool : stageThreadPools.values()) {
+            threadCount += threadPool.getCorePoolSize();
+        }
+        totalNumberOfThreads = threadCount;
+        logger.log(Level.INFO, "Staged file ingest enabled with {0} stage threads", totalNumberOfThreads); //NON-NLS
+    }
+
+    /**
+     * Creates the thread pool for a stage.
+     *
+     * @param stage           The stage.
+     * @param numberOfThreads The number of threads.
+     *
+     * @return The thread pool.
+     */
+    private static ThreadPoolExecutor createStageThreadPool(StagedFileIngestModule.Stage stage, int numberOfThreads) {
+        String nameFormat = "IM-file-ingest-" + stage.name().toLowerCase(Locale.ROOT) + "-stage-%d"; //NON-NLS
+        return new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(numberOfThreads * QUEUED_SEGMENTS_PER_THREAD),
+                new ThreadFactoryBuilder().setNameFormat(nameFormat).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Gets the number of files that can be worked on at once by the stage
+     * threads. An ingest job needs this many file ingest pipelines to keep all
+     * of the stages busy.
+     *
+     * @return The number of files.
+     */
+    int getNumberOfStageThreads() {
+        return totalNumberOfThreads;
+    }
+
+    /**
+     * Starts running a file through a file ingest pipeline. The pipeline must
+     * not be used for anything else until the job has been called back to
+     * finish the file.
+     *
+     * @param job      The ingest job of the file.
+     * @param task     The file ingest task.
+     * @param pipeline The pipeline, checked out of the pipelines of the job.
+     */
+    void submit(DataSourceIngestJob job, FileIngestTask task, FileIngestPipeline pipeline) {
+        dispatch(new StagedFile(job, task, pipeline), 0);
+    }
+
+    /**
+     * Hands a segment of the pipeline run for a file off to the thread pool
+     * for the stage of the segment.
+     *
+     * @param file    The file being run through the pipeline.
+     * @param segment The segment.
+     */
+    private void dispatch(StagedFile file, int segment) {
+        ThreadPoolExecutor threadPool = stageThreadPools.get(file.pipeline.getSegmentStage(segment));
+        threadPool.execute(() -> runSegment(file, segment));
+    }
+
+    /**
+     * Runs a segment of the pipeline for a file and hands off the next
+     * segment, or finishes the file if this was the last one or the job has
+     * been cancelled.
+     *
+     * @param file    The file being run through the pipeline.
+     * @param segment The segment.
+     */
+    private void runSegment(StagedFile file, int segment) {
+        boolean finished = true;
+        try {
+            file.errors.addAll(file.pipeline.processSegment(file.task, segment));
+            if (segment + 1 < file.pipeline.getNumberOfSegments() && !file.job.isCancelled()) {
+                finished = false;
+                dispatch(file, segment + 1);
+            }
+        } catch (Throwable ex) { // Catch-all exception firewall
+            logger.log(Level.SEVERE, String.format("Unexpected error running file ingest pipeline segment for %s (jobId=%d)", file.task.getFile().getName(), file.job.getId()), ex); //NON-NLS
+            finished = true;
+        } finally {
+            if (finished) {
+                file.pipeline.finishStagedFile(file.task);
+                file.job.finishStagedFileIngestTask(file.task, file.pipeline, file.errors);
+            }
+        }
+    }
+
+    /**
+     * A file on its way through the stages of a pipeline.
+     */
+    private static final class StagedFile {
+
+        private final DataSourceIngestJob job;
+        private final FileIngestTask task;
+        private final FileIngestPipeline pipeline;
+        private final List<IngestModuleError> errors;
+
+        StagedFile(DataSourceIngestJob job, FileIngestTask task, FileIngestPipeline pipeline) {
+            this.job = job;
+            this.task = task;
+            this.pipeline = pipeline;
+            this.errors = new ArrayList<>();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+/**
+ * Interface that may be implemented by file ingest modules to declare the kind
+ * of resource their processing of a file is mostly bound by. If staged file
+ * ingest is enabled, each stage has its own pool of threads, and the modules
+ * of a file ingest pipeline are run for a file on the threads of their stages,
+ * still in pipeline order, so that files can overlap across stages. File
+ * ingest modules that do not implement this interface are treated as CPU
+ * bound.
+ */
+public interface StagedFileIngestModule extends FileIngestModule {
+
+    /**
+     * The file ingest stages.
+     */
+    enum Stage {
+
+        /**
+         * Processing mostly bound by reading file content from the data
+         * source, e.g., hashing.
+         */
+        READ,
+        /**
+         * Processing mostly bound by computation, e.g., parsing.
+         */
+        CPU,
+        /**
+         * Processing mostly bound by a text index, e.g., keyword search.
+         */
+        INDEX,
+        /**
+         * Processing mostly bound by writes to the case database, e.g.,
+         * posting to the blackboard.
+         */
+        DATABASE
+    };
+
+    /**
+     * Gets the stage of this module.
+     *
+     * @return The stage.
+     */
+    Stage getStage();
+}
@@ -0,0 +1,229 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A pending file ingest tasks queue made up of one deque per file ingest
+ * thread plus a shared deque for tasks produced by other threads. An ingest
+ * thread pushes the tasks it produces (e.g., tasks for files extracted by an
+ * ingest module) onto the front of its own deque and takes from the front of
+ * its own deque, so the LIFO processing order of the blocking deque used by
+ * the default scheduling mode is preserved per thread. An ingest thread that
+ * runs dry takes from the shared deque and then steals from the back of the
+ * deques of the other ingest threads. When an ingest thread stops taking
+ * tasks, its remaining tasks are moved to the shared deque and its deque is
+ * dropped, so that the number of deques follows the number of live threads.
+ * <p>
+ * None of the operations of this class take a lock, apart from blocking in
+ * take() when there are no tasks at all.
+ * <p>
+ * This class is thread-safe.
+ */
+final class WorkStealingFileTaskQueue {
+
+    /**
+     * Counts the tasks that are in the deques and have not been claimed by a
+     * consumer. A permit is released after each push and acquired before each
+     * claim, so a consumer holding a permit is guaranteed to find a task.
+     */
+    private final Semaphore availableTasks = new Semaphore(0);
+    private final ConcurrentLinkedDeque<FileIngestTask> sharedTasks = new ConcurrentLinkedDeque<>();
+    private final List<ConcurrentLinkedDeque<FileIngestTask>> threadTasks = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ConcurrentLinkedDeque<FileIngestTask>> currentThreadTasks = new ThreadLocal<>();
+
+    /**
+     * Pushes a task onto the front of the deque of the calling ingest thread,
+     * or onto the front of the shared deque if the calling thread is not an
+     * ingest thread that has taken tasks from this queue.
+     *
+     * @param task The task.
+     */
+    void push(FileIngestTask task) {
+        ConcurrentLinkedDeque<FileIngestTask> tasks = currentThreadTasks.get();
+        if (null == tasks) {
+            tasks = sharedTasks;
+        }
+        tasks.addFirst(task);
+        availableTasks.release();
+    }
+
+    /**
+     * Takes a task, blocking until one is available.
+     *
+     * @return The task.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked waiting for a task.
+     */
+    FileIngestTask take() throws InterruptedException {
+        availableTasks.acquire();
+        return claimTask();
+    }
+
+    /**
+     * Takes a task if one is available.
+     *
+     * @return The task, or null if there are no tasks.
+     */
+    FileIngestTask poll() {
+        if (availableTasks.tryAcquire()) {
+            return claimTask();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the approximate number of tasks in the queue.
+     *
+     * @return The task count.
+     */
+    int size() {
+        return availableTasks.availablePermits();
+    }
+
+    /**
+     * Gets the number of ingest threads that have taken tasks from this queue,
+     * and so have their own deques.
+     *
+     * @return The thread count.
+     */
+    int getNumberOfThreadDeques() {
+        return threadTasks.size();
+    }
+
+    /**
+     * Counts the tasks for a given ingest job. The count is approximate if the
+     * queue is being concurrently modified.
+     *
+     * @param jobId The id of the job for which the tasks are to be counted.
+     *
+     * @return The count.
+     */
+    int countTasksForJob(long jobId) {
+        int count = countTasksForJob(sharedTasks, jobId);
+        for (ConcurrentLinkedDeque<FileIngestTask> tasks : threadTasks) {
+            count += countTasksForJob(tasks, jobId);
+        }
+        return count;
+    }
+
+    /**
+     * Counts the tasks for a given ingest job in a deque.
+     *
+     * @param tasks The deque.
+     * @param jobId The id of the job for which the tasks are to be counted.
+     *
+     * @return The count.
+     */
+    private static int countTasksForJob(ConcurrentLinkedDeque<FileIngestTask> tasks, long jobId) {
+        int count = 0;
+        for (FileIngestTask task : tasks) {
+            if (task.getIngestJob().getId() == jobId) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Claims a task on behalf of a consumer that has acquired a permit. Looks
+     * in the deque of the calling thread first, then in the shared deque, then
+     * steals from the other threads, starting at a random victim to spread out
+     * contention.
+     *
+     * @return The task.
+     */
+    private FileIngestTask claimTask() {
+        ConcurrentLinkedDeque<FileIngestTask> ownTasks = getOrCreateCurrentThreadTasks();
+        while (true) {
+            FileIngestTask task = ownTasks.pollFirst();
+            if (null != task) {
+                return task;
+            }
+            task = sharedTasks.pollFirst();
+            if (null != task) {
+                return task;
+            }
+            // A snapshot, since deques are dropped as ingest threads exit
+            List<ConcurrentLinkedDeque<FileIngestTask>> deques = new ArrayList<>(threadTasks);
+            int numberOfDeques = deques.size();
+            int victim = (numberOfDeques > 0) ? ThreadLocalRandom.current().nextInt(numberOfDeques) : 0;
+            for (int i = 0; i < numberOfDeques; ++i) {
+                ConcurrentLinkedDeque<FileIngestTask> victimTasks = deques.get((victim + i) % numberOfDeques);
+                if (victimTasks != ownTasks) {
+                    task = victimTasks.pollLast();
+                    if (null != task) {
+                        return task;
+                    }
+                }
+            }
+
+            /*
+             * The task this consumer is entitled to was pushed by another
+             * thread whose push has not become visible yet, or was moved by a
+             * concurrent claim. Let the other threads run and look again.
+             */
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Drops the deque of the calling ingest thread, if it has one, moving its
+     * remaining tasks to the front of the shared deque in the same order.
+     * Called when the thread stops taking tasks from this queue. The moved
+     * tasks keep their permits, and a concurrent claim that misses them while
+     * they are being moved looks again.
+     */
+    void releaseCurrentThread() {
+        ConcurrentLinkedDeque<FileIngestTask> tasks = currentThreadTasks.get();
+        if (null == tasks) {
+            return;
+        }
+        currentThreadTasks.remove();
+        threadTasks.remove(tasks);
+        FileIngestTask task;
+        while (null != (task = tasks.pollLast())) {
+            sharedTasks.addFirst(task);
+        }
+    }
+
+    /**
+     * Gets the deque of the calling thread, creating and registering it if
+     * this is the first time the thread has taken from this queue.
+     *
+     * @return The deque.
+     */
+    private ConcurrentLinkedDeque<FileIngestTask> getOrCreateCurrentThreadTasks() {
+        ConcurrentLinkedDeque<FileIngestTask> tasks = currentThreadTasks.get();
+        if (null == tasks) {
+            tasks = new ConcurrentLinkedDeque<>();
+            threadTasks.add(tasks);
+            currentThreadTasks.set(tasks);
+        }
+        return tasks;
+    }
+
+}
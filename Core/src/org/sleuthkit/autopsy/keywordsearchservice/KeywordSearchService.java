@@ -19,6 +19,7 @@
 package org.sleuthkit.autopsy.keywordsearchservice;
 
 import java.io.Closeable;
+import java.util.Collection;
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.TskCoreException;
 
@@ -39,6 +40,22 @@ public interface KeywordSearchService extends Closeable {
      */
     public void indexArtifact(BlackboardArtifact artifact) throws TskCoreException;
 
+    /**
+     * Takes a collection of Blackboard artifacts and adds all of their
+     * attributes to the keyword search index. Implementations may override
+     * this to share work, such as lookups, across the artifacts, instead of
+     * indexing them one at a time.
+     *
+     * @param artifacts
+     *
+     * @throws org.sleuthkit.datamodel.TskCoreException
+     */
+    public default void indexArtifacts(Collection<BlackboardArtifact> artifacts) throws TskCoreException {
+        for (BlackboardArtifact artifact : artifacts) {
+            indexArtifact(artifact);
+        }
+    }
+
     /**
      * Checks if we can communicate with the KeywordSearchService using the
      * passed-in host and port. Closes the connection upon exit. Throws if it
@@ -25,7 +25,7 @@
 import org.openide.util.NbBundle;
 import org.python.bouncycastle.util.Arrays;
 import org.sleuthkit.autopsy.coreutils.Logger;
-import org.sleuthkit.autopsy.ingest.DataSourceIngestModule;
+import org.sleuthkit.autopsy.ingest.ConcurrentDataSourceIngestModule;
 import org.sleuthkit.autopsy.ingest.DataSourceIngestModuleProgress;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
@@ -45,7 +45,7 @@
 @NbBundle.Messages({
     "UnableToCalculateHashes=Unable to calculate MD5 hashes."
 })
-public class E01VerifyIngestModule implements DataSourceIngestModule {
+public class E01VerifyIngestModule implements ConcurrentDataSourceIngestModule {
 
     private static final Logger logger = Logger.getLogger(E01VerifyIngestModule.class.getName());
     private static final long DEFAULT_CHUNK_SIZE = 32 * 1024;
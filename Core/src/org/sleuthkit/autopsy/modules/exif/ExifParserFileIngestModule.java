@@ -55,7 +55,6 @@
 import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
 import org.sleuthkit.datamodel.Content;
 import org.sleuthkit.datamodel.Image;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
 import org.sleuthkit.datamodel.TskData.TSK_DB_FILES_TYPE_ENUM;
@@ -76,6 +75,7 @@ public final class ExifParserFileIngestModule implements FileIngestModule {
     private volatile boolean filesToFire = false;
     private final List<BlackboardArtifact> listOfFacesDetectedArtifacts = new ArrayList<>();
     private long jobId;
+    private IngestJobContext context;
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
     private FileTypeDetector fileTypeDetector;
     private final HashSet<String> supportedMimeTypes = new HashSet<>();
@@ -90,6 +90,7 @@ public final class ExifParserFileIngestModule implements FileIngestModule {
 
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {
+        this.context = context;
         jobId = context.getJobId();
         refCounter.incrementAndGet(jobId);
         try {
@@ -140,7 +141,7 @@ ProcessResult processFile(AbstractFile f) {
         BufferedInputStream bin = null;
 
         try {
-            in = new ReadContentInputStream(f);
+            in = context.getFileContentStream(f);
             bin = new BufferedInputStream(in);
 
             Collection<BlackboardAttribute> attributes = new ArrayList<>();
@@ -250,7 +251,7 @@ ProcessResult processFile(AbstractFile f) {
      */
     private boolean parsableFormat(AbstractFile f) {
         try {
-            String mimeType = fileTypeDetector.getFileType(f);
+            String mimeType = fileTypeDetector.getFileType(f, context);
             if (mimeType != null) {
                 return supportedMimeTypes.contains(mimeType);
             } else {
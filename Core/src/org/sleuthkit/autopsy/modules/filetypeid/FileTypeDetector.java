@@ -19,6 +19,7 @@
 package org.sleuthkit.autopsy.modules.filetypeid;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.SortedSet;
 import java.util.logging.Level;
@@ -30,6 +31,7 @@
 import org.sleuthkit.autopsy.casemodule.services.Blackboard;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
+import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardAttribute;
@@ -49,6 +51,7 @@ public class FileTypeDetector {
     private final byte buffer[] = new byte[BUFFER_SIZE];
     private final List<FileType> userDefinedFileTypes;
     private final List<FileType> autopsyDefinedFileTypes;
+    private Blackboard.ArtifactBatch artifactBatch;
 
     /**
      * Constructs an object that detects the MIME type of a file by an
@@ -69,6 +72,17 @@ public FileTypeDetector() throws FileTypeDetectorInitException {
         }
     }
 
+    /**
+     * Sets a batch to which the interesting file hit artifacts for user-defined
+     * file types are added, instead of being posted to the blackboard one at a
+     * time. The owner of the batch is responsible for flushing it.
+     *
+     * @param artifactBatch The batch.
+     */
+    void setArtifactBatch(Blackboard.ArtifactBatch artifactBatch) {
+        this.artifactBatch = artifactBatch;
+    }
+
     /**
      * Gets the names of the custom file types defined by the user or by
      * Autopsy.
@@ -153,7 +167,28 @@ private boolean isDetectableByTika(String mimeType) {
      *                          writing the result to the case database.
      */
     public String getFileType(AbstractFile file) throws TskCoreException {
-        return detect(file, true);
+        return detect(file, true, null);
+    }
+
+    /**
+     * Gets the MIME type of a file, detecting it if it is not already known. If
+     * detection is necessary, the result is added to the case database, and
+     * the initial bytes of the file are read through the ingest job context,
+     * so that they can be shared with the other file ingest modules.
+     *
+     * IMPORTANT: This method should only be called by file ingest modules.
+     *
+     * @param file    The file.
+     * @param context The ingest job context of the calling module.
+     *
+     * @return A MIME type name. If file type could not be detected or results
+     *         were uncertain, octet-stream is returned.
+     *
+     * @throws TskCoreException if detection is required and there is a problem
+     *                          writing the result to the case database.
+     */
+    public String getFileType(AbstractFile file, IngestJobContext context) throws TskCoreException {
+        return detect(file, true, context);
     }
 
     /**
@@ -169,7 +204,7 @@ public String getFileType(AbstractFile file) throws TskCoreException {
      *                          case database.
      */
     public String detect(AbstractFile file) throws TskCoreException {
-        return detect(file, false);
+        return detect(file, false, null);
     }
 
     /**
@@ -181,6 +216,9 @@ public String detect(AbstractFile file) throws TskCoreException {
      *                    database. This flag is part of a partial workaround
      *                    for a check-then-act-race condition (see notes in
      *                    comments for details).
+     * @param context     The ingest job context of the calling file ingest
+     *                    module, or null if the caller is not a file ingest
+     *                    module.
      *
      * @return A MIME type name. If file type could not be detected or results
      *         were uncertain, octet-stream is returned.
@@ -188,7 +226,7 @@ public String detect(AbstractFile file) throws TskCoreException {
      * @throws TskCoreException If there is a problem writing the result to the
      *                          case database.
      */
-    private String detect(AbstractFile file, boolean addToCaseDb) throws TskCoreException {
+    private String detect(AbstractFile file, boolean addToCaseDb, IngestJobContext context) throws TskCoreException {
         /*
          * Check to see if the file has already been typed. This is the "check"
          * part of a check-then-act race condition (see note below).
@@ -233,7 +271,12 @@ private String detect(AbstractFile file, boolean addToCaseDb) throws TskCoreExce
         if (null == mimeType) {
             try {
                 byte buf[];
-                int len = file.read(buffer, 0, BUFFER_SIZE);
+                int len;
+                if (null != context) {
+                    len = context.readFileContent(file, buffer, 0, BUFFER_SIZE);
+                } else {
+                    len = file.read(buffer, 0, BUFFER_SIZE);
+                }
                 if (len < BUFFER_SIZE) {
                     buf = new byte[len];
                     System.arraycopy(buffer, 0, buf, 0, len);
@@ -311,10 +354,7 @@ private String detectUserDefinedType(AbstractFile file) throws TskCoreException
         for (FileType fileType : userDefinedFileTypes) {
             if (fileType.matches(file)) {
                 if (fileType.createInterestingFileHit()) {
-                    BlackboardArtifact artifact;
-                    artifact = file.newArtifact(BlackboardArtifact.ARTIFACT_TYPE.TSK_INTERESTING_FILE_HIT);
                     BlackboardAttribute setNameAttribute = new BlackboardAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_SET_NAME, FileTypeIdModuleFactory.getModuleName(), fileType.getInterestingFilesSetName());
-                    artifact.addAttribute(setNameAttribute);
 
                     /*
                      * Use the MIME type as the category attribute, i.e., the
@@ -322,7 +362,23 @@ private String detectUserDefinedType(AbstractFile file) throws TskCoreException
                      * files set.
                      */
                     BlackboardAttribute ruleNameAttribute = new BlackboardAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_CATEGORY, FileTypeIdModuleFactory.getModuleName(), fileType.getMimeType());
-                    artifact.addAttribute(ruleNameAttribute);
+
+                    /*
+                     * If there is a batch, the artifact is created, indexed
+                     * and announced with the rest of the batch.
+                     */
+                    if (null != artifactBatch) {
+                        try {
+                            artifactBatch.add(file, new BlackboardArtifact.Type(BlackboardArtifact.ARTIFACT_TYPE.TSK_INTERESTING_FILE_HIT), Arrays.asList(setNameAttribute, ruleNameAttribute));
+                        } catch (Blackboard.BlackboardException ex) {
+                            logger.log(Level.SEVERE, "Unable to post interesting file hit artifacts", ex); //NON-NLS
+                        }
+                        return fileType.getMimeType();
+                    }
+
+                    BlackboardArtifact artifact;
+                    artifact = file.newArtifact(BlackboardArtifact.ARTIFACT_TYPE.TSK_INTERESTING_FILE_HIT);
+                    artifact.addAttributes(Arrays.asList(setNameAttribute, ruleNameAttribute));
 
                     /*
                      * Index the artifact for keyword search.
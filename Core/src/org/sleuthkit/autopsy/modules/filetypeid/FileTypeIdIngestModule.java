@@ -21,14 +21,16 @@
 import java.util.HashMap;
 import java.util.logging.Level;
 import org.openide.util.NbBundle;
+import org.sleuthkit.autopsy.casemodule.Case;
+import org.sleuthkit.autopsy.casemodule.services.Blackboard;
 import org.sleuthkit.autopsy.coreutils.Logger;
-import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestServices;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.autopsy.ingest.IngestModule.ProcessResult;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
+import org.sleuthkit.autopsy.ingest.StagedFileIngestModule;
 
 /**
  * Detects the type of a file based on signature (magic) values. Posts results
@@ -37,13 +39,15 @@
 @NbBundle.Messages({
         "CannotRunFileTypeDetection=Unable to run file type detection."
 })
-public class FileTypeIdIngestModule implements FileIngestModule {
+public class FileTypeIdIngestModule implements StagedFileIngestModule {
 
     private static final Logger logger = Logger.getLogger(FileTypeIdIngestModule.class.getName());
     private long jobId;
+    private IngestJobContext context;
     private static final HashMap<Long, IngestJobTotals> totalsForIngestJobs = new HashMap<>();
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
     private FileTypeDetector fileTypeDetector;
+    private Blackboard.ArtifactBatch interestingFileHitBatch;
 
     /**
      * Validate if a given mime type is in the detector's registry.
@@ -76,6 +80,7 @@ public static boolean isMimeTypeDetectable(String mimeType) {
      */
     @Override
     public void startUp(IngestJobContext context) throws IngestModuleException {
+        this.context = context;
         jobId = context.getJobId();
         refCounter.incrementAndGet(jobId);
         try {
@@ -83,6 +88,8 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
         } catch (FileTypeDetector.FileTypeDetectorInitException ex) {
             throw new IngestModuleException(Bundle.CannotRunFileTypeDetection(), ex);
         }
+        interestingFileHitBatch = Case.getCurrentCase().getServices().getBlackboard().createArtifactBatch(FileTypeIdModuleFactory.getModuleName());
+        fileTypeDetector.setArtifactBatch(interestingFileHitBatch);
     }
 
     /**
@@ -98,7 +105,7 @@ public ProcessResult process(AbstractFile file) {
          */
         try {
             long startTime = System.currentTimeMillis();
-            fileTypeDetector.getFileType(file);
+            fileTypeDetector.getFileType(file, context);
             addToTotals(jobId, (System.currentTimeMillis() - startTime));
             return ProcessResult.OK;
         } catch (Exception e) {
@@ -107,11 +114,27 @@ public ProcessResult process(AbstractFile file) {
         }
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public StagedFileIngestModule.Stage getStage() {
+        return StagedFileIngestModule.Stage.READ;
+    }
+
     /**
      * @inheritDoc
      */
     @Override
     public void shutDown() {
+        if (null != interestingFileHitBatch) {
+            try {
+                interestingFileHitBatch.flush();
+            } catch (Blackboard.BlackboardException ex) {
+                logger.log(Level.SEVERE, "Error posting interesting file hit artifacts to the blackboard", ex); //NON-NLS
+            }
+        }
+
         /**
          * If this is the instance of this module for this ingest job, post a
          * summary message to the ingest messages box.
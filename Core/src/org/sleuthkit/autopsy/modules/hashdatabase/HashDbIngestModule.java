@@ -19,8 +19,9 @@
 package org.sleuthkit.autopsy.modules.hashdatabase;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,11 +32,11 @@
 import org.sleuthkit.autopsy.casemodule.services.Blackboard;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
-import org.sleuthkit.autopsy.ingest.FileIngestModule;
+import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
 import org.sleuthkit.autopsy.ingest.IngestServices;
-import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
+import org.sleuthkit.autopsy.ingest.StagedFileIngestModule;
 import org.sleuthkit.autopsy.modules.hashdatabase.HashDbManager.HashDb;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.BlackboardArtifact;
@@ -47,7 +48,6 @@
 import org.sleuthkit.datamodel.SleuthkitCase;
 import org.sleuthkit.datamodel.TskCoreException;
 import org.sleuthkit.datamodel.TskData;
-import org.sleuthkit.datamodel.TskException;
 
 @NbBundle.Messages({
     "HashDbIngestModule.noKnownBadHashDbSetMsg=No known bad hash database set.",
@@ -55,7 +55,7 @@
     "HashDbIngestModule.noKnownHashDbSetMsg=No known hash database set.",
     "HashDbIngestModule.knownFileSearchWillNotExecuteWarn=Known file search will not be executed."
 })
-public class HashDbIngestModule implements FileIngestModule {
+public class HashDbIngestModule implements StagedFileIngestModule {
 
     private static final Logger logger = Logger.getLogger(HashDbIngestModule.class.getName());
     private static final int MAX_COMMENT_SIZE = 500;
@@ -66,9 +66,10 @@ public class HashDbIngestModule implements FileIngestModule {
     private List<HashDb> knownBadHashSets = new ArrayList<>();
     private List<HashDb> knownHashSets = new ArrayList<>();
     private long jobId;
+    private IngestJobContext context;
     private static final HashMap<Long, IngestJobTotals> totalsForIngestJobs = new HashMap<>();
     private static final IngestModuleReferenceCounter refCounter = new IngestModuleReferenceCounter();
-    private Blackboard blackboard;
+    private Blackboard.ArtifactBatch hashSetHitBatch;
 
     private static class IngestJobTotals {
 
@@ -92,12 +93,15 @@ private static synchronized IngestJobTotals getTotalsForIngestJobs(long ingestJo
 
     @Override
     public void startUp(org.sleuthkit.autopsy.ingest.IngestJobContext context) throws IngestModuleException {
+        this.context = context;
         jobId = context.getJobId();
         if (!hashDbManager.verifyAllDatabasesLoadedCorrectly()) {
             throw new IngestModuleException("Could not load all hash databases");
         }
         updateEnabledHashSets(hashDbManager.getKnownBadFileHashSets(), knownBadHashSets);
         updateEnabledHashSets(hashDbManager.getKnownFileHashSets(), knownHashSets);
+        hashSetHitBatch = Case.getCurrentCase().getServices().getBlackboard().createArtifactBatch(
+                NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.moduleName"));
 
         if (refCounter.incrementAndGet(jobId) == 1) {
             // initialize job totals
@@ -143,8 +147,6 @@ private void updateEnabledHashSets(List<HashDb> allHashSets, List<HashDb> enable
 
     @Override
     public ProcessResult process(AbstractFile file) {
-        blackboard = Case.getCurrentCase().getServices().getBlackboard();
-
         // Skip unallocated space files.
         if (file.getType().equals(TskData.TSK_DB_FILES_TYPE_ENUM.UNALLOC_BLOCKS)) {
             return ProcessResult.OK;
@@ -174,7 +176,19 @@ public ProcessResult process(AbstractFile file) {
         if (md5Hash == null || md5Hash.isEmpty()) {
             try {
                 long calcstart = System.currentTimeMillis();
-                md5Hash = HashUtility.calculateMd5(file);
+                /*
+                 * Hash the content through the ingest job context, so that
+                 * the read of the file from the data source is shared with
+                 * the other modules in the pipeline.
+                 */
+                try (InputStream stream = context.getFileContentStream(file)) {
+                    md5Hash = HashUtility.calculateMd5Hash(stream);
+                }
+                try {
+                    skCase.setMd5Hash(file, md5Hash);
+                } catch (TskCoreException ex) {
+                    logger.log(Level.WARNING, "Error saving hash of file " + name, ex); //NON-NLS
+                }
                 long delta = (System.currentTimeMillis() - calcstart);
                 totals.totalCalctime.addAndGet(delta);
 
@@ -291,29 +305,24 @@ public ProcessResult process(AbstractFile file) {
 
     @Messages({"HashDbIngestModule.indexError.message=Failed to index hashset hit artifact for keyword search."})
     private void postHashSetHitToBlackboard(AbstractFile abstractFile, String md5Hash, String hashSetName, String comment, boolean showInboxMessage) {
-        try {
-            String MODULE_NAME = NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.moduleName");
-
-            BlackboardArtifact badFile = abstractFile.newArtifact(ARTIFACT_TYPE.TSK_HASHSET_HIT);
-            //TODO Revisit usage of deprecated constructor as per TSK-583
-            //BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, "Known Bad", hashSetName);
-            BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME, MODULE_NAME, hashSetName);
-            badFile.addAttribute(att2);
-            BlackboardAttribute att3 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_MD5, MODULE_NAME, md5Hash);
-            badFile.addAttribute(att3);
-            BlackboardAttribute att4 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COMMENT, MODULE_NAME, comment);
-            badFile.addAttribute(att4);
+        String MODULE_NAME = NbBundle.getMessage(HashDbIngestModule.class, "HashDbIngestModule.moduleName");
 
-            try {
-                // index the artifact for keyword search
-                blackboard.indexArtifact(badFile);
-            } catch (Blackboard.BlackboardException ex) {
-                logger.log(Level.SEVERE, "Unable to index blackboard artifact " + badFile.getArtifactID(), ex); //NON-NLS
-                MessageNotifyUtil.Notify.error(
-                        Bundle.HashDbIngestModule_indexError_message(), badFile.getDisplayName());
-            }
+        //TODO Revisit usage of deprecated constructor as per TSK-583
+        //BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID(), MODULE_NAME, "Known Bad", hashSetName);
+        BlackboardAttribute att2 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_SET_NAME, MODULE_NAME, hashSetName);
+        BlackboardAttribute att3 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_HASH_MD5, MODULE_NAME, md5Hash);
+        BlackboardAttribute att4 = new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COMMENT, MODULE_NAME, comment);
 
-            if (showInboxMessage) {
+        /*
+         * The artifact is created, indexed and announced with the rest of the
+         * batch; the inbox message, which needs the artifact, is posted once
+         * the batch has been flushed.
+         */
+        try {
+            hashSetHitBatch.add(abstractFile, new BlackboardArtifact.Type(ARTIFACT_TYPE.TSK_HASHSET_HIT), Arrays.asList(att2, att3, att4), badFile -> {
+                if (!showInboxMessage) {
+                    return;
+                }
                 StringBuilder detailsSb = new StringBuilder();
                 //details
                 detailsSb.append("<table border='0' cellpadding='4' width='280'>"); //NON-NLS
@@ -350,10 +359,10 @@ private void postHashSetHitToBlackboard(AbstractFile abstractFile, String md5Has
                         detailsSb.toString(),
                         abstractFile.getName() + md5Hash,
                         badFile));
-            }
-            services.fireModuleDataEvent(new ModuleDataEvent(MODULE_NAME, ARTIFACT_TYPE.TSK_HASHSET_HIT, Collections.singletonList(badFile)));
-        } catch (TskException ex) {
-            logger.log(Level.WARNING, "Error creating blackboard artifact", ex); //NON-NLS
+            });
+        } catch (Blackboard.BlackboardException ex) {
+            logger.log(Level.SEVERE, "Error posting hash set hit artifacts to the blackboard", ex); //NON-NLS
+            MessageNotifyUtil.Notify.error(Bundle.HashDbIngestModule_indexError_message(), abstractFile.getName());
         }
     }
 
@@ -398,8 +407,24 @@ private static synchronized void postSummary(long jobId,
         }
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public StagedFileIngestModule.Stage getStage() {
+        return StagedFileIngestModule.Stage.READ;
+    }
+
     @Override
     public void shutDown() {
+        if (null != hashSetHitBatch) {
+            try {
+                hashSetHitBatch.flush();
+            } catch (Blackboard.BlackboardException ex) {
+                logger.log(Level.SEVERE, "Error posting hash set hit artifacts to the blackboard", ex); //NON-NLS
+                MessageNotifyUtil.Notify.error(Bundle.HashDbIngestModule_indexError_message(), ex.getMessage());
+            }
+        }
         if (refCounter.decrementAndGet(jobId) == 0) {
             postSummary(jobId, knownBadHashSets, knownHashSets);
         }
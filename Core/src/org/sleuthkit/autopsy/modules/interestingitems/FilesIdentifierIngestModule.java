@@ -30,11 +30,11 @@
 import org.sleuthkit.autopsy.casemodule.services.Blackboard;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
-import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
 import org.sleuthkit.autopsy.ingest.IngestServices;
 import org.sleuthkit.autopsy.ingest.ModuleDataEvent;
+import org.sleuthkit.autopsy.ingest.StagedFileIngestModule;
 import org.sleuthkit.datamodel.AbstractFile;
 import org.sleuthkit.datamodel.BlackboardArtifact;
 import org.sleuthkit.datamodel.BlackboardAttribute;
@@ -47,7 +47,7 @@
 @NbBundle.Messages({
     "FilesIdentifierIngestModule.getFilesError=Error getting interesting files sets from file."
 })
-final class FilesIdentifierIngestModule implements FileIngestModule {
+final class FilesIdentifierIngestModule implements StagedFileIngestModule {
 
     private static final Object sharedResourcesLock = new Object();
     private static final Logger logger = Logger.getLogger(FilesIdentifierIngestModule.class.getName());
@@ -145,6 +145,14 @@ public ProcessResult process(AbstractFile file) {
         return ProcessResult.OK;
     }
 
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public StagedFileIngestModule.Stage getStage() {
+        return StagedFileIngestModule.Stage.DATABASE;
+    }
+
     /**
      * @inheritDoc
      */
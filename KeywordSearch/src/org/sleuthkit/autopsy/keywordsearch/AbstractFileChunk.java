@@ -55,11 +55,48 @@ String getIdString() {
 
     void index(Ingester ingester, byte[] content, long contentSize, Charset indexCharset) throws IngesterException {
         ByteContentStream bcs = new ByteContentStream(content, contentSize, parent.getSourceFile(), indexCharset);
+        String text;
         try {
-            ingester.ingest(this, bcs, content.length);
+            text = ingester.ingest(this, bcs, content.length);
         } catch (Exception ingEx) {
             throw new IngesterException(NbBundle.getMessage(this.getClass(), "AbstractFileChunk.index.exception.msg",
                     parent.getSourceFile().getId(), chunkID), ingEx);
         }
+        scanForKeywords(text);
+    }
+
+    /**
+     * Indexes the chunk from the character buffer of the extractor, without
+     * encoding it to bytes. The text is sanitized in place, and then scanned
+     * for keyword hits if the extractor has a keyword matcher.
+     *
+     * @param ingester The ingester.
+     * @param content  The buffer holding the text of the chunk.
+     * @param length   The length of the text, in characters.
+     *
+     * @throws IngesterException if the chunk could not be indexed.
+     */
+    void index(Ingester ingester, char[] content, int length) throws IngesterException {
+        String text;
+        try {
+            text = ingester.ingest(this, content, length);
+        } catch (Exception ingEx) {
+            throw new IngesterException(NbBundle.getMessage(this.getClass(), "AbstractFileChunk.index.exception.msg",
+                    parent.getSourceFile().getId(), chunkID), ingEx);
+        }
+        scanForKeywords(text);
+    }
+
+    /**
+     * Scans the indexed text of the chunk for keyword hits, if keywords are
+     * matched at ingest time.
+     *
+     * @param text The sanitized text of the chunk.
+     */
+    private void scanForKeywords(String text) {
+        IngestTimeKeywordMatcher keywordMatcher = parent.getKeywordMatcher();
+        if (keywordMatcher != null) {
+            keywordMatcher.scan(chunkID, text);
+        }
     }
 }
@@ -0,0 +1,158 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrRequest.METHOD;
+import org.apache.solr.client.solrj.response.GroupCommand;
+import org.apache.solr.client.solrj.response.GroupResponse;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.GroupParams;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.TskException;
+
+/**
+ * Performs a batch of literal keyword queries in a single Solr round trip. The
+ * keywords are OR'ed into one query, and each keyword is also given as a
+ * group query, so that Solr groups the matching documents by keyword and the
+ * hits can be attributed back to the keywords without a query per keyword.
+ * The results are the same as those of performing each query on its own,
+ * without snippets, which are queried when the hits are written to the
+ * blackboard anyway.
+ * <p>
+ * If the batched query fails, e.g., because a keyword trips it up, the
+ * queries of the batch are performed one at a time, so that one bad keyword
+ * does not cost the results of the others.
+ */
+final class BatchedLuceneQuery {
+
+    private static final Logger logger = Logger.getLogger(BatchedLuceneQuery.class.getName());
+
+    /**
+     * The maximum number of keywords in a batch, well below the Lucene limit
+     * on the number of clauses in a boolean query.
+     */
+    static final int MAX_KEYWORDS_PER_BATCH = 100;
+    private final List<LuceneQuery> queries;
+    private final List<KeywordQueryFilter> filters;
+
+    /**
+     * Constructs a batch of literal keyword queries.
+     *
+     * @param queries The queries, which must be escaped already.
+     * @param filters The filters, which apply to all of the queries and must
+     *                not be added to the queries themselves.
+     */
+    BatchedLuceneQuery(List<LuceneQuery> queries, List<KeywordQueryFilter> filters) {
+        this.queries = new ArrayList<>(queries);
+        this.filters = new ArrayList<>(filters);
+    }
+
+    /**
+     * Performs the queries of the batch.
+     *
+     * @return The results of each query, in the order of the queries.
+     *
+     * @throws NoOpenCoreException if there is no open core to query.
+     */
+    List<QueryResults> performQueries() throws NoOpenCoreException {
+        /*
+         * The same keyword may be in more than one list, so the group queries
+         * are unique by query string.
+         */
+        Set<String> groupQueries = new LinkedHashSet<>();
+        for (LuceneQuery query : queries) {
+            groupQueries.add(KeywordSearchUtil.quoteQuery(query.getEscapedQueryString()));
+        }
+
+        SolrQuery q = new SolrQuery();
+        q.setQuery(String.join(" OR ", groupQueries)); //NON-NLS
+        q.setFields(Server.Schema.ID.toString());
+        for (KeywordQueryFilter filter : filters) {
+            q.addFilterQuery(filter.toString());
+        }
+        q.set(GroupParams.GROUP, true);
+        q.set(GroupParams.GROUP_LIMIT, LuceneQuery.MAX_RESULTS);
+        for (String groupQuery : groupQueries) {
+            q.add(GroupParams.GROUP_QUERY, groupQuery);
+        }
+
+        Map<String, SolrDocumentList> documentsByGroupQuery = new HashMap<>();
+        try {
+            QueryResponse response = KeywordSearch.getServer().query(q, METHOD.POST);
+            GroupResponse groupResponse = response.getGroupResponse();
+            for (GroupCommand command : groupResponse.getValues()) {
+                SolrDocumentList documents = command.getValues().isEmpty() ? new SolrDocumentList() : command.getValues().get(0).getResult();
+                documentsByGroupQuery.put(command.getName(), documents);
+            }
+        } catch (KeywordSearchModuleException | RuntimeException ex) {
+            logger.log(Level.WARNING, String.format("Error executing batched query for %d keywords, querying them one at a time", queries.size()), ex); //NON-NLS
+            return performQueriesSeparately();
+        }
+
+        List<QueryResults> resultsList = new ArrayList<>();
+        for (LuceneQuery query : queries) {
+            SolrDocumentList documents = documentsByGroupQuery.get(KeywordSearchUtil.quoteQuery(query.getEscapedQueryString()));
+            if (null == documents) {
+                logger.log(Level.WARNING, "No group in batched query response for keyword {0}, querying it on its own", query.getQueryString()); //NON-NLS
+                resultsList.add(performQuery(query));
+                continue;
+            }
+            List<KeywordHit> hits = new ArrayList<>();
+            try {
+                for (SolrDocument document : LuceneQuery.filterOneHitPerDocument(documents)) {
+                    hits.add(new KeywordHit(document.getFieldValue(Server.Schema.ID.toString()).toString(), ""));
+                }
+            } catch (TskException ex) {
+                logger.log(Level.WARNING, "Error creating keyword hits for keyword " + query.getQueryString(), ex); //NON-NLS
+            } catch (IllegalStateException ex) {
+                //no case open, must be just closed
+                hits.clear();
+            }
+            QueryResults results = new QueryResults(query, query.getKeywordList());
+            results.addResult(new Keyword(query.getQueryString(), true), hits);
+            resultsList.add(results);
+        }
+        return resultsList;
+    }
+
+    private List<QueryResults> performQueriesSeparately() throws NoOpenCoreException {
+        List<QueryResults> resultsList = new ArrayList<>();
+        for (LuceneQuery query : queries) {
+            resultsList.add(performQuery(query));
+        }
+        return resultsList;
+    }
+
+    private QueryResults performQuery(LuceneQuery query) throws NoOpenCoreException {
+        for (KeywordQueryFilter filter : filters) {
+            query.addFilter(filter);
+        }
+        return query.performQuery();
+    }
+}
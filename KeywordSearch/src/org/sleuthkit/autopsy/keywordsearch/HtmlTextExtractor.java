@@ -21,7 +21,6 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -31,7 +30,6 @@
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 
 /**
  * Extractor of text from HTML supported AbstractFile content. Extracted text is
@@ -42,7 +40,6 @@ class HtmlTextExtractor implements TextExtractor {
 
     private static final Logger logger = Logger.getLogger(HtmlTextExtractor.class.getName());
     private static Ingester ingester;
-    static final Charset outCharset = Server.DEFAULT_INDEXED_TEXT_CHARSET;
     static final int MAX_EXTR_TEXT_CHARS = 512 * 1024;
     private static final int SINGLE_READ_CHARS = 1024;
     private static final int EXTRA_CHARS = 128; //for whitespace    
@@ -51,6 +48,7 @@ class HtmlTextExtractor implements TextExtractor {
     private final char[] textChunkBuf = new char[MAX_EXTR_TEXT_CHARS];
     private AbstractFile sourceFile;
     private int numChunks = 0;
+    private IngestTimeKeywordMatcher keywordMatcher;
 
     static final List<String> WEB_MIME_TYPES = Arrays.asList(
             "application/javascript", //NON-NLS
@@ -96,6 +94,16 @@ public AbstractFile getSourceFile() {
         return sourceFile;
     }
 
+    @Override
+    public void setKeywordMatcher(IngestTimeKeywordMatcher keywordMatcher) {
+        this.keywordMatcher = keywordMatcher;
+    }
+
+    @Override
+    public IngestTimeKeywordMatcher getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
     @Override
     public boolean index(AbstractFile sourceFile, IngestJobContext context) throws IngesterException {
         this.sourceFile = sourceFile;
@@ -104,7 +112,7 @@ public boolean index(AbstractFile sourceFile, IngestJobContext context) throws I
         boolean success = false;
         Reader reader = null;
 
-        final InputStream stream = new ReadContentInputStream(sourceFile);
+        final InputStream stream = context.getFileContentStream(sourceFile);
 
         try {
             // Parse the stream with Jericho
@@ -152,29 +160,15 @@ public boolean index(AbstractFile sourceFile, IngestJobContext context) throws I
                 }
 
                 //logger.log(Level.INFO, "TOTAL READ SIZE: " + totalRead + " file: " + sourceFile.getName());
-                //encode to bytes to index as byte stream
-                String extracted;
-
-                //add BOM and trim the 0 bytes
-                //set initial size to chars read + bom - try to prevent from resizing
-                StringBuilder sb = new StringBuilder((int) totalRead + 1000);
-                //inject BOM here (saves byte buffer realloc later), will be converted to specific encoding BOM
-                //sb.append(UTF16BOM); disabled BOM, not needing as bypassing Tika
-                if (totalRead < MAX_EXTR_TEXT_CHARS) {
-                    sb.append(textChunkBuf, 0, (int) totalRead);
-                } else {
-                    sb.append(textChunkBuf);
-                }
+                //index straight from the char buffer, the ingester makes the only copy
+                int chunkLength = (int) totalRead;
 
                 //reset for next chunk
                 totalRead = 0;
-                extracted = sb.toString();
 
-                //converts BOM automatically to charSet encoding
-                byte[] encodedBytes = extracted.getBytes(outCharset);
                 AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
                 try {
-                    chunk.index(ingester, encodedBytes, encodedBytes.length, outCharset);
+                    chunk.index(ingester, textChunkBuf, chunkLength);
                     ++this.numChunks;
                 } catch (Ingester.IngesterException ingEx) {
                     success = false;
@@ -0,0 +1,506 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.BlackboardAttribute;
+import org.sleuthkit.datamodel.TskCoreException;
+
+/**
+ * Matches the keywords of the enabled keyword lists against the text of a
+ * file as it is extracted and indexed during ingest, so that the hits are
+ * written to the blackboard as soon as the file has been processed, instead
+ * of after the next commit and periodic search of the index.
+ * <p>
+ * The literal keywords are matched in one pass over each chunk of text with
+ * an Aho-Corasick automaton. Like the phrase queries of the periodic search,
+ * the matching is case-insensitive, a keyword has to start and end on token
+ * boundaries, and any run of punctuation and whitespace matches any other.
+ * The regular expressions are matched, case-insensitively, against each
+ * whitespace delimited token of the text, like the regular expression
+ * searches of the terms of the index.
+ * <p>
+ * Each chunk is matched on its own, as it is indexed in a document of its
+ * own, and the name of the file is matched as chunk 0. As with the periodic
+ * search, a literal keyword has at most one hit per file, and a regular
+ * expression has at most one hit per distinct matching term per file.
+ * <p>
+ * This class is not thread-safe; there is one matcher per keyword search
+ * file ingest module instance.
+ */
+final class IngestTimeKeywordMatcher {
+
+    private static final Logger logger = Logger.getLogger(IngestTimeKeywordMatcher.class.getName());
+    private static final char TOKEN_SEPARATOR = ' ';
+    private static final char HIGHLIGHT_MARKER = '\u00AB'; //the left guillemet the snippets of the periodic search are highlighted with
+    /**
+     * The maximum length of the tokens of the whitespace tokenized field that
+     * the regular expressions are searched for in, longer tokens are split.
+     */
+    private static final int MAX_TOKEN_LENGTH = 255;
+    private final List<KeywordEntry> literalEntries;
+    private final List<KeywordEntry> regexEntries;
+    private final LiteralAutomaton literalAutomaton;
+    private char[] normalizedText = new char[0];
+    private int[] normalizedTextOffsets = new int[0];
+    private AbstractFile file;
+    private final Map<KeywordEntry, PendingHit> literalHits = new LinkedHashMap<>();
+    private final Map<KeywordEntry, Map<String, PendingHit>> regexHits = new LinkedHashMap<>();
+
+    /**
+     * Creates a matcher for the keywords of the given keyword lists.
+     *
+     * @param keywordListNames The names of the keyword lists.
+     *
+     * @return The matcher, or null if the lists have no keywords to match.
+     */
+    static IngestTimeKeywordMatcher create(List<String> keywordListNames) {
+        List<KeywordEntry> literalEntries = new ArrayList<>();
+        List<KeywordEntry> regexEntries = new ArrayList<>();
+        XmlKeywordSearchList loader = XmlKeywordSearchList.getCurrent();
+        for (String listName : keywordListNames) {
+            KeywordList list = loader.getList(listName);
+            if (null == list) {
+                continue;
+            }
+            for (Keyword keyword : list.getKeywords()) {
+                if (keyword.isLiteral()) {
+                    String normalizedKeyword = normalize(keyword.getQuery());
+                    if (normalizedKeyword.isEmpty()) {
+                        continue;
+                    }
+                    literalEntries.add(new KeywordEntry(keyword, list, new LuceneQuery(list, keyword), normalizedKeyword, null));
+                } else {
+                    Pattern pattern;
+                    try {
+                        pattern = Pattern.compile(keyword.getQuery(), Pattern.CASE_INSENSITIVE);
+                    } catch (PatternSyntaxException ex) {
+                        logger.log(Level.WARNING, "Invalid regular expression, not matching it at ingest time: " + keyword.getQuery(), ex); //NON-NLS
+                        continue;
+                    }
+                    regexEntries.add(new KeywordEntry(keyword, list, new TermComponentQuery(list, keyword), null, pattern));
+                }
+            }
+        }
+        if (literalEntries.isEmpty() && regexEntries.isEmpty()) {
+            return null;
+        }
+        return new IngestTimeKeywordMatcher(literalEntries, regexEntries);
+    }
+
+    private IngestTimeKeywordMatcher(List<KeywordEntry> literalEntries, List<KeywordEntry> regexEntries) {
+        this.literalEntries = literalEntries;
+        this.regexEntries = regexEntries;
+        this.literalAutomaton = new LiteralAutomaton(literalEntries);
+    }
+
+    /**
+     * Gets the keywords the matcher matches, by keyword list name. Keywords
+     * of the lists that cannot be matched at ingest time, e.g., invalid
+     * regular expressions, are left out.
+     *
+     * @return The keywords.
+     */
+    Map<String, Set<Keyword>> getMatchedKeywords() {
+        Map<String, Set<Keyword>> keywords = new HashMap<>();
+        for (List<KeywordEntry> entries : Arrays.asList(literalEntries, regexEntries)) {
+            for (KeywordEntry entry : entries) {
+                keywords.computeIfAbsent(entry.list.getName(), name -> new HashSet<>()).add(entry.keyword);
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * Starts matching the text of a file, and matches the name of the file.
+     *
+     * @param file The file.
+     */
+    void startFile(AbstractFile file) {
+        this.file = file;
+        literalHits.clear();
+        regexHits.clear();
+        scan(0, file.getName());
+    }
+
+    /**
+     * Matches the keywords against a chunk of the text of the current file.
+     *
+     * @param chunkId The id of the chunk.
+     * @param text    The text of the chunk, as indexed.
+     */
+    void scan(int chunkId, String text) {
+        if (null == file || text.isEmpty()) {
+            return;
+        }
+        if (!literalEntries.isEmpty()) {
+            scanLiterals(chunkId, text);
+        }
+        if (!regexEntries.isEmpty()) {
+            scanRegexes(chunkId, text);
+        }
+    }
+
+    /**
+     * Finishes matching the text of the current file, writing its keyword hits
+     * to the blackboard.
+     */
+    void finishFile() {
+        if (null == file) {
+            return;
+        }
+        Collection<BlackboardArtifact> newArtifacts = new ArrayList<>();
+        for (PendingHit hit : literalHits.values()) {
+            writeHit(hit, hit.entry.keyword.getQuery(), newArtifacts);
+        }
+        for (Map<String, PendingHit> termHits : regexHits.values()) {
+            for (Map.Entry<String, PendingHit> termHit : termHits.entrySet()) {
+                writeHit(termHit.getValue(), termHit.getKey(), newArtifacts);
+            }
+        }
+        QueryResults.fireModuleDataEvents(newArtifacts);
+        file = null;
+        literalHits.clear();
+        regexHits.clear();
+    }
+
+    private void writeHit(PendingHit pendingHit, String term, Collection<BlackboardArtifact> newArtifacts) {
+        KeywordSearchQuery query = pendingHit.entry.query;
+        String listName = pendingHit.entry.list.getName();
+        KeywordHit hit;
+        try {
+            String documentId = (0 == pendingHit.chunkId) ? Long.toString(file.getId()) : Server.getChunkIdString(file.getId(), pendingHit.chunkId);
+            hit = new KeywordHit(documentId, pendingHit.snippet);
+        } catch (TskCoreException ex) {
+            logger.log(Level.WARNING, "Error creating keyword hit for keyword " + term + " in file " + file.getId(), ex); //NON-NLS
+            return;
+        }
+        KeywordCachedArtifact writeResult = query.writeSingleFileHitsToBlackBoard(term, hit, pendingHit.snippet, listName);
+        if (writeResult != null) {
+            newArtifacts.add(writeResult.getArtifact());
+            if (pendingHit.entry.list.getIngestMessages()) {
+                QueryResults.writeSingleFileInboxMessage(query, writeResult, hit.getContent());
+            }
+        } else {
+            logger.log(Level.WARNING, "BB artifact for keyword hit not written, file: {0}, hit: {1}", new Object[]{file.getId(), term}); //NON-NLS
+        }
+    }
+
+    /**
+     * Matches the literal keywords against a chunk of text, recording the
+     * first hit of each keyword in the file.
+     */
+    private void scanLiterals(int chunkId, String text) {
+        int length = normalizeChunk(text);
+        int state = 0;
+        for (int i = 0; i < length; ++i) {
+            state = literalAutomaton.next(state, normalizedText[i]);
+            int[] outputs = literalAutomaton.outputs[state];
+            if (null == outputs || (i + 1 < length && normalizedText[i + 1] != TOKEN_SEPARATOR)) {
+                continue;
+            }
+            for (int entryIndex : outputs) {
+                KeywordEntry entry = literalEntries.get(entryIndex);
+                int start = i + 1 - entry.normalizedKeyword.length();
+                if (start > 0 && normalizedText[start - 1] != TOKEN_SEPARATOR) {
+                    continue;
+                }
+                if (!literalHits.containsKey(entry)) {
+                    int end = normalizedTextOffsets[i] + 1;
+                    literalHits.put(entry, new PendingHit(entry, chunkId, makeSnippet(text, normalizedTextOffsets[start], end)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches the regular expressions against each whitespace delimited token
+     * of a chunk of text, recording the first hit of each distinct matching
+     * term in the file.
+     */
+    private void scanRegexes(int chunkId, String text) {
+        List<Matcher> matchers = new ArrayList<>(regexEntries.size());
+        for (KeywordEntry entry : regexEntries) {
+            matchers.add(entry.pattern.matcher(text));
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) {
+                ++i;
+            }
+            int start = i;
+            while (i < length && i - start < MAX_TOKEN_LENGTH && !Character.isWhitespace(text.charAt(i))) {
+                ++i;
+            }
+            if (i == start) {
+                break;
+            }
+            for (int entryIndex = 0; entryIndex < regexEntries.size(); ++entryIndex) {
+                Matcher matcher = matchers.get(entryIndex);
+                matcher.region(start, i);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                KeywordEntry entry = regexEntries.get(entryIndex);
+                String term = text.substring(start, i);
+                if (entry.keyword.getType() == BlackboardAttribute.ATTRIBUTE_TYPE.TSK_CARD_NUMBER && !TermComponentQuery.passesLuhnCheck(term)) {
+                    continue;
+                }
+                Map<String, PendingHit> termHits = regexHits.computeIfAbsent(entry, e -> new LinkedHashMap<>());
+                if (!termHits.containsKey(term)) {
+                    termHits.put(term, new PendingHit(entry, chunkId, makeSnippet(text, start, i)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Normalizes a chunk of text into the normalized text buffer, recording
+     * the offset in the chunk of each normalized character.
+     *
+     * @return The length of the normalized text.
+     */
+    private int normalizeChunk(String text) {
+        if (normalizedText.length < text.length()) {
+            normalizedText = new char[text.length()];
+            normalizedTextOffsets = new int[text.length()];
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalizedText[length] = Character.toLowerCase(c);
+                normalizedTextOffsets[length] = i;
+                ++length;
+            } else if (length > 0 && normalizedText[length - 1] != TOKEN_SEPARATOR) {
+                normalizedText[length] = TOKEN_SEPARATOR;
+                normalizedTextOffsets[length] = i;
+                ++length;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Normalizes a keyword the way the text is normalized: letters and digits
+     * are lower cased, and each run of other characters becomes a single
+     * separator, with none at either end.
+     */
+    private static String normalize(String keyword) {
+        StringBuilder normalized = new StringBuilder(keyword.length());
+        for (int i = 0; i < keyword.length(); ++i) {
+            char c = keyword.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(Character.toLowerCase(c));
+            } else if (normalized.length() > 0 && normalized.charAt(normalized.length() - 1) != TOKEN_SEPARATOR) {
+                normalized.append(TOKEN_SEPARATOR);
+            }
+        }
+        int length = normalized.length();
+        if (length > 0 && normalized.charAt(length - 1) == TOKEN_SEPARATOR) {
+            normalized.setLength(length - 1);
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Makes a snippet for a hit in the same form as the highlighted snippets
+     * of the periodic search: the hit, marked with guillemets, in some of its
+     * surrounding text.
+     */
+    private static String makeSnippet(String text, int start, int end) {
+        int context = LuceneQuery.SNIPPET_LENGTH / 2;
+        int snippetStart = Math.max(0, start - context);
+        int snippetEnd = Math.min(text.length(), end + context);
+        StringBuilder snippet = new StringBuilder(snippetEnd - snippetStart + 2);
+        snippet.append(text, snippetStart, start).append(HIGHLIGHT_MARKER).append(text, start, end).append(HIGHLIGHT_MARKER).append(text, end, snippetEnd);
+        return snippet.toString().trim();
+    }
+
+    /**
+     * A keyword of a keyword list, with the query that writes its hits to the
+     * blackboard.
+     */
+    private static final class KeywordEntry {
+
+        private final Keyword keyword;
+        private final KeywordList list;
+        private final KeywordSearchQuery query;
+        private final String normalizedKeyword;
+        private final Pattern pattern;
+
+        KeywordEntry(Keyword keyword, KeywordList list, KeywordSearchQuery query, String normalizedKeyword, Pattern pattern) {
+            this.keyword = keyword;
+            this.list = list;
+            this.query = query;
+            this.normalizedKeyword = normalizedKeyword;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * A hit to be written to the blackboard when the file is finished.
+     */
+    private static final class PendingHit {
+
+        private final KeywordEntry entry;
+        private final int chunkId;
+        private final String snippet;
+
+        PendingHit(KeywordEntry entry, int chunkId, String snippet) {
+            this.entry = entry;
+            this.chunkId = chunkId;
+            this.snippet = snippet;
+        }
+    }
+
+    /**
+     * An Aho-Corasick automaton for the normalized literal keywords. The
+     * transitions of each state are kept in sorted arrays, searched with a
+     * binary search, except for the transitions of the start state on ASCII
+     * characters, which are kept in a table, since most of the text is
+     * expected to fall back to the start state.
+     */
+    private static final class LiteralAutomaton {
+
+        private final char[][] labels;
+        private final int[][] targets;
+        private final int[] failures;
+        private final int[][] outputs;
+        private final int[] asciiStartTargets = new int[128];
+
+        LiteralAutomaton(List<KeywordEntry> entries) {
+            // Build the trie.
+            List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+            List<List<Integer>> trieOutputs = new ArrayList<>();
+            trie.add(new TreeMap<>());
+            trieOutputs.add(new ArrayList<>());
+            for (int entryIndex = 0; entryIndex < entries.size(); ++entryIndex) {
+                String keyword = entries.get(entryIndex).normalizedKeyword;
+                int state = 0;
+                for (int i = 0; i < keyword.length(); ++i) {
+                    Integer nextState = trie.get(state).get(keyword.charAt(i));
+                    if (null == nextState) {
+                        nextState = trie.size();
+                        trie.get(state).put(keyword.charAt(i), nextState);
+                        trie.add(new TreeMap<>());
+                        trieOutputs.add(new ArrayList<>());
+                    }
+                    state = nextState;
+                }
+                trieOutputs.get(state).add(entryIndex);
+            }
+
+            int numStates = trie.size();
+            labels = new char[numStates][];
+            targets = new int[numStates][];
+            for (int state = 0; state < numStates; ++state) {
+                TreeMap<Character, Integer> transitions = trie.get(state);
+                labels[state] = new char[transitions.size()];
+                targets[state] = new int[transitions.size()];
+                int i = 0;
+                for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                    labels[state][i] = transition.getKey();
+                    targets[state][i] = transition.getValue();
+                    ++i;
+                }
+            }
+            for (int i = 0; i < labels[0].length; ++i) {
+                if (labels[0][i] < asciiStartTargets.length) {
+                    asciiStartTargets[labels[0][i]] = targets[0][i];
+                }
+            }
+
+            // Compute the failure links breadth first, merging the outputs of
+            // the states that are suffixes of each state.
+            failures = new int[numStates];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int target : targets[0]) {
+                queue.add(target);
+            }
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                for (int i = 0; i < labels[state].length; ++i) {
+                    int target = targets[state][i];
+                    int failure = failures[state];
+                    while (failure != 0 && transition(failure, labels[state][i]) < 0) {
+                        failure = failures[failure];
+                    }
+                    int failureTarget = transition(failure, labels[state][i]);
+                    failures[target] = Math.max(0, failureTarget);
+                    queue.add(target);
+                }
+                trieOutputs.get(state).addAll(trieOutputs.get(failures[state]));
+            }
+
+            outputs = new int[numStates][];
+            for (int state = 0; state < numStates; ++state) {
+                List<Integer> stateOutputs = trieOutputs.get(state);
+                if (!stateOutputs.isEmpty()) {
+                    outputs[state] = stateOutputs.stream().distinct().mapToInt(Integer::intValue).toArray();
+                }
+            }
+        }
+
+        /**
+         * Gets the state reached from a state on a character.
+         */
+        int next(int state, char c) {
+            while (true) {
+                if (0 == state) {
+                    return c < asciiStartTargets.length ? asciiStartTargets[c] : Math.max(0, transition(0, c));
+                }
+                int target = transition(state, c);
+                if (target >= 0) {
+                    return target;
+                }
+                state = failures[state];
+            }
+        }
+
+        /**
+         * Gets the trie transition of a state on a character.
+         *
+         * @return The target state, or -1 if there is no transition.
+         */
+        private int transition(int state, char c) {
+            int i = Arrays.binarySearch(labels[state], c);
+            return i >= 0 ? targets[state][i] : -1;
+        }
+    }
+
+}
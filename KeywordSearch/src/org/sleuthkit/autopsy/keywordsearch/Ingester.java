@@ -22,7 +22,11 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -53,13 +57,14 @@ class Ingester {
     private static final Logger logger = Logger.getLogger(Ingester.class.getName());
     private volatile boolean uncommitedIngests = false;
     private final Server solrServer = KeywordSearch.getServer();
+    private final SolrDocumentBatcher documentBatcher = new SolrDocumentBatcher(solrServer);
     private final GetContentFieldsV getContentFieldsV = new GetContentFieldsV();
     private static Ingester instance;
 
     //for ingesting chunk as SolrInputDocument (non-content-streaming, by-pass tika)
     //TODO use a streaming way to add content to /update handler
     private static final int MAX_DOC_CHUNK_SIZE = 1024 * 1024;
-    private static final String docContentEncoding = "UTF-8"; //NON-NLS
+    private static final ThreadLocal<ChunkBuffers> chunkBuffers = ThreadLocal.withInitial(ChunkBuffers::new);
 
     private Ingester() {
     }
@@ -125,10 +130,12 @@ void ingest(TextExtractor fe) throws IngesterException {
      * @param size approx. size of the stream in bytes, used for timeout
      *             estimation
      *
+     * @return the sanitized text that was indexed
+     *
      * @throws IngesterException if there was an error processing a specific
      *                           file, but the Solr server is probably fine.
      */
-    void ingest(AbstractFileChunk fec, ByteContentStream bcs, int size) throws IngesterException {
+    String ingest(AbstractFileChunk fec, ByteContentStream bcs, int size) throws IngesterException {
         AbstractContent sourceContent = bcs.getSourceContent();
         Map<String, String> params = getContentFields(sourceContent);
 
@@ -136,7 +143,37 @@ void ingest(AbstractFileChunk fec, ByteContentStream bcs, int size) throws Inges
         params.put(Server.Schema.ID.toString(),
                 Server.getChunkIdString(sourceContent.getId(), fec.getChunkId()));
 
-        ingest(bcs, params, size);
+        return ingest(bcs, params, size);
+    }
+
+    /**
+     * Sends a AbstractFileChunk to Solr with its extracted text, without
+     * encoding the text to bytes and decoding it again. The text is sanitized
+     * in place, so the caller must not reuse the contents of the buffer, only
+     * the buffer itself. commit() should be called once you're done ingesting
+     * files.
+     *
+     * @param fec    AbstractFileChunk to ingest
+     * @param text   buffer holding the text of the chunk
+     * @param length length of the text, in characters
+     *
+     * @return the sanitized text that was indexed
+     *
+     * @throws IngesterException if there was an error processing a specific
+     *                           file, but the Solr server is probably fine.
+     */
+    String ingest(AbstractFileChunk fec, char[] text, int length) throws IngesterException {
+        AbstractContent sourceContent = fec.getParent().getSourceFile();
+        Map<String, String> params = getContentFields(sourceContent);
+
+        //overwrite id with the chunk id
+        params.put(Server.Schema.ID.toString(),
+                Server.getChunkIdString(sourceContent.getId(), fec.getChunkId()));
+
+        checkImageId(params, sourceContent.getName());
+        String content = sanitizeForSolr(text, length);
+        addDocument(params, content, sourceContent.getName());
+        return content;
     }
 
     /**
@@ -245,6 +282,10 @@ private Map<String, String> getCommonFields(AbstractFile af) {
      * can't use streaming approach for Solr /update handler. This should be
      * safe, since all content is now in max 1MB chunks.
      *
+     * The document is queued and sent to Solr in a batch with other documents
+     * by a sender thread, so an error adding it to the index is not thrown
+     * from here; see flush() and takeIndexingFailure().
+     *
      * TODO see if can use a byte or string streaming way to add content to
      * /update handler e.g. with XMLUpdateRequestHandler (deprecated in SOlr
      * 4.0.0), see if possible to stream with UpdateRequestHandler
@@ -253,88 +294,174 @@ private Map<String, String> getCommonFields(AbstractFile af) {
      * @param fields
      * @param size
      *
+     * @return the sanitized content that was indexed
+     *
      * @throws org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException
      */
-    void ingest(ContentStream cs, Map<String, String> fields, final long size) throws IngesterException {
+    String ingest(ContentStream cs, Map<String, String> fields, final long size) throws IngesterException {
+        checkImageId(fields, cs.getName());
+
+        String content = "";
+        //using size here, but we are no longer ingesting entire files
+        //size is normally a chunk size, up to 1MB
+        if (size > 0) {
+            ChunkBuffers buffers = chunkBuffers.get();
+            int read;
+            try (InputStream is = cs.getStream()) {
+                read = is.read(buffers.bytes);
+            } catch (IOException ex) {
+                throw new IngesterException(
+                        NbBundle.getMessage(this.getClass(), "Ingester.ingest.exception.cantReadStream.msg",
+                                cs.getName()));
+            }
+            if (read > 0) {
+                content = sanitizeForSolr(buffers.chars, buffers.decode(read));
+            }
+        }
+        //else no content, such as case when 0th chunk indexed
 
+        addDocument(fields, content, cs.getName());
+        return content;
+    }
+
+    /**
+     * Checks that the fields of a document include the id of the image, since
+     * a document without it cannot be indexed.
+     *
+     * @param fields     The fields.
+     * @param sourceName The name of the source of the document, for the error
+     *                   message.
+     *
+     * @throws IngesterException if the image id is missing.
+     */
+    private void checkImageId(Map<String, String> fields, String sourceName) throws IngesterException {
         if (fields.get(Server.Schema.IMAGE_ID.toString()) == null) {
             //skip the file, image id unknown
             String msg = NbBundle.getMessage(this.getClass(),
-                    "Ingester.ingest.exception.unknownImgId.msg", cs.getName());
+                    "Ingester.ingest.exception.unknownImgId.msg", sourceName);
             logger.log(Level.SEVERE, msg);
             throw new IngesterException(msg);
         }
+    }
 
-        final byte[] docChunkContentBuf = new byte[MAX_DOC_CHUNK_SIZE];
+    /**
+     * Queues a document made of the given fields and content to be sent to
+     * Solr in a batch.
+     *
+     * @param fields     The fields.
+     * @param content    The sanitized content.
+     * @param sourceName The name of the source of the document, for the error
+     *                   message.
+     *
+     * @throws IngesterException if interrupted while waiting for room in the
+     *                           queue.
+     */
+    private void addDocument(Map<String, String> fields, String content, String sourceName) throws IngesterException {
         SolrInputDocument updateDoc = new SolrInputDocument();
-
         for (String key : fields.keySet()) {
             updateDoc.addField(key, fields.get(key));
         }
+        updateDoc.addField(Server.Schema.CONTENT.toString(), content);
 
-        //using size here, but we are no longer ingesting entire files
-        //size is normally a chunk size, up to 1MB
-        if (size > 0) {
-            // TODO (RC): Use try with resources, adjust exception messages
-            InputStream is = null;
-            int read = 0;
-            try {
-                is = cs.getStream();
-                read = is.read(docChunkContentBuf);
-            } catch (IOException ex) {
-                throw new IngesterException(
-                        NbBundle.getMessage(this.getClass(), "Ingester.ingest.exception.cantReadStream.msg",
-                                cs.getName()));
-            } finally {
-                if (null != is) {
-                    try {
-                        is.close();
-                    } catch (IOException ex) {
-                        logger.log(Level.WARNING, "Could not close input stream after reading content, " + cs.getName(), ex); //NON-NLS
-                    }
-                }
-            }
+        try {
+            documentBatcher.add(updateDoc, getObjectId(fields.get(Server.Schema.ID.toString())), content.length(), solrServer.coreHasIngestGenerations());
+            uncommitedIngests = true;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IngesterException(
+                    NbBundle.getMessage(this.getClass(), "Ingester.ingest.exception.err.msg", sourceName), ex);
+        }
+    }
 
-            if (read != 0) {
-                String s = "";
-                try {
-                    s = new String(docChunkContentBuf, 0, read, docContentEncoding);
-                    // Sanitize by replacing non-UTF-8 characters with caret '^' before adding to index
-                    char[] chars = null;
-                    for (int i = 0; i < s.length(); i++) {
-                        if (!TextUtil.isValidSolrUTF8(s.charAt(i))) {
-                            // only convert string to char[] if there is a non-UTF8 character
-                            if (chars == null) {
-                                chars = s.toCharArray();
-                            }
-                            chars[i] = '^';
-                        }
-                    }
-                    // check if the string was modified (i.e. there was a non-UTF8 character found)
-                    if (chars != null) {
-                        s = new String(chars);
-                    }
-                } catch (UnsupportedEncodingException ex) {
-                    logger.log(Level.SEVERE, "Unsupported encoding", ex); //NON-NLS
+    /**
+     * Gets the object id of the file or artifact from the id of a Solr
+     * document, which is either the object id or the object id followed by an
+     * underscore and a chunk number.
+     *
+     * @param documentId The document id.
+     *
+     * @return The object id, or zero if the document id is not in either
+     *         form.
+     */
+    private static long getObjectId(String documentId) {
+        if (null == documentId) {
+            return 0;
+        }
+        int separatorIndex = documentId.indexOf('_');
+        try {
+            return Long.parseLong(separatorIndex < 0 ? documentId : documentId.substring(0, separatorIndex));
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Blocks until all of the documents queued for indexing before the call
+     * have been sent to Solr.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked.
+     */
+    void flush() throws InterruptedException {
+        documentBatcher.flush();
+    }
+
+    /**
+     * Queries whether a document for a file or artifact has been rejected by
+     * Solr since the last query for it. Call flush() first to make sure the
+     * documents for the file or artifact have been sent.
+     *
+     * @param objectId The object id of the file or artifact.
+     *
+     * @return True or false.
+     */
+    boolean takeIndexingFailure(long objectId) {
+        return documentBatcher.takeFailure(objectId);
+    }
+
+    /**
+     * Sanitizes text for indexing by replacing the characters Solr does not
+     * accept as UTF-8 with a caret '^'.
+     *
+     * @param s The text.
+     *
+     * @return The text, or a sanitized copy if it contained invalid characters.
+     */
+    static String sanitizeForSolr(String s) {
+        char[] chars = null;
+        for (int i = 0; i < s.length(); i++) {
+            if (!TextUtil.isValidSolrUTF8(s.charAt(i))) {
+                // only convert string to char[] if there is a non-UTF8 character
+                if (chars == null) {
+                    chars = s.toCharArray();
                 }
-                updateDoc.addField(Server.Schema.CONTENT.toString(), s);
-            } else {
-                updateDoc.addField(Server.Schema.CONTENT.toString(), "");
+                chars[i] = '^';
             }
-        } else {
-            //no content, such as case when 0th chunk indexed
-            updateDoc.addField(Server.Schema.CONTENT.toString(), "");
         }
-
-        try {
-            //TODO consider timeout thread, or vary socket timeout based on size of indexed content
-            solrServer.addDocument(updateDoc);
-            uncommitedIngests = true;
-        } catch (KeywordSearchModuleException ex) {
-            throw new IngesterException(
-                    NbBundle.getMessage(this.getClass(), "Ingester.ingest.exception.err.msg", cs.getName()), ex);
+        // check if the string was modified (i.e. there was a non-UTF8 character found)
+        if (chars != null) {
+            return new String(chars);
         }
+        return s;
+    }
 
+    /**
+     * Sanitizes text for indexing by replacing the characters Solr does not
+     * accept as UTF-8 with a caret '^', in place, in the same pass that makes
+     * the string.
+     *
+     * @param chars  A buffer holding the text, which is modified.
+     * @param length The length of the text, in characters.
+     *
+     * @return The sanitized text.
+     */
+    static String sanitizeForSolr(char[] chars, int length) {
+        for (int i = 0; i < length; i++) {
+            if (!TextUtil.isValidSolrUTF8(chars[i])) {
+                chars[i] = '^';
+            }
+        }
+        return new String(chars, 0, length);
     }
 
     /**
@@ -360,11 +487,53 @@ static int getTimeout(long size) {
 
     }
 
+    /**
+     * Advances the ingest generation that the documents are stamped with when
+     * they are queued. Every document of the generation advanced past is sent
+     * by commit(generation), so a search after that commit can be restricted
+     * to the generations since the previous search.
+     *
+     * @return The generation advanced past.
+     */
+    long advanceGeneration() {
+        return documentBatcher.advanceGeneration();
+    }
+
     /**
      * Tells Solr to commit (necessary before ingested files will appear in
      * searches)
      */
     void commit() {
+        try {
+            documentBatcher.flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted waiting for queued documents to be sent before commit", ex); //NON-NLS
+        }
+        commitSentDocuments();
+    }
+
+    /**
+     * Tells Solr to commit once the documents of the given ingest generation
+     * and earlier ones have been sent, without waiting for the documents of
+     * later generations.
+     *
+     * @param generation The generation, as returned by advanceGeneration().
+     */
+    void commit(long generation) {
+        try {
+            documentBatcher.flushGeneration(generation);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted waiting for queued documents to be sent before commit", ex); //NON-NLS
+        }
+        commitSentDocuments();
+    }
+
+    /**
+     * Tells Solr to commit the documents sent so far.
+     */
+    private void commitSentDocuments() {
         try {
             solrServer.commit();
             uncommitedIngests = false;
@@ -373,6 +542,36 @@ void commit() {
         }
     }
 
+    /**
+     * The buffers a file ingest thread reuses to read and decode the content
+     * of the documents it indexes, instead of allocating them per document.
+     */
+    private static final class ChunkBuffers {
+
+        private final byte[] bytes = new byte[MAX_DOC_CHUNK_SIZE];
+        private final char[] chars = new char[MAX_DOC_CHUNK_SIZE];
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        /**
+         * Decodes UTF-8 content from the byte buffer into the char buffer.
+         * Since a UTF-8 byte never decodes to more than one char, the char
+         * buffer always has room for the content.
+         *
+         * @param length The length of the content, in bytes.
+         *
+         * @return The length of the decoded content, in characters.
+         */
+        private int decode(int length) {
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes, 0, length), out, true);
+            decoder.flush(out);
+            return out.position();
+        }
+    }
+
     /**
      * ContentStream to read() the data from a FsContent object
      */
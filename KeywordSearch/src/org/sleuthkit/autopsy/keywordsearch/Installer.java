@@ -67,6 +67,7 @@ public void restored() {
     public boolean closing() {
         //platform about to close
 
+        TikaParsingService.shutDownDefault();
         KeywordSearch.getServer().stop();
 
         return true;
@@ -75,6 +76,7 @@ public boolean closing() {
     @Override
     public void uninstalled() {
         //module is being unloaded
+        TikaParsingService.shutDownDefault();
         KeywordSearch.getServer().stop();
 
     }
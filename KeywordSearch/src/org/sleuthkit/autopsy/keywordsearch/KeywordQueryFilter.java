@@ -25,16 +25,21 @@
 /**
  *
  * Filter to restrict query only specific files, chunks, images Single filter
- * supports multiple ids per file/chunk/image, that act as OR filter
+ * supports multiple ids per file/chunk/image, that act as OR filter. An
+ * artifact filter takes no ids and restricts the query to the documents of
+ * artifacts. An ingest generation filter restricts the query to the documents
+ * indexed in a range of ingest generations.
  */
 class KeywordQueryFilter {
 
     public static enum FilterType {
 
-        FILE, CHUNK, DATA_SOURCE
+        FILE, CHUNK, DATA_SOURCE, ARTIFACT, INGEST_GENERATION
     };
     private Set<Long> idFilters;
     private FilterType filterType;
+    private long minGeneration;
+    private long maxGeneration;
 
     public KeywordQueryFilter(FilterType filterType, long id) {
         this.filterType = filterType;
@@ -47,6 +52,19 @@ public KeywordQueryFilter(FilterType filterType, Set<Long> ids) {
         this.idFilters = ids;
     }
 
+    /**
+     * Constructs an ingest generation filter.
+     *
+     * @param minGeneration The first generation, inclusive.
+     * @param maxGeneration The last generation, inclusive.
+     */
+    public KeywordQueryFilter(long minGeneration, long maxGeneration) {
+        this.filterType = FilterType.INGEST_GENERATION;
+        this.idFilters = new HashSet<Long>();
+        this.minGeneration = minGeneration;
+        this.maxGeneration = maxGeneration;
+    }
+
     public Set<Long> getIdFilters() {
         return idFilters;
     }
@@ -57,6 +75,13 @@ public FilterType getFilterType() {
 
     @Override
     public String toString() {
+        if (filterType == FilterType.ARTIFACT) {
+            //the documents of artifacts have negative ids, no ids to OR
+            return Server.Schema.ID.toString() + ":\\-*"; //NON-NLS
+        }
+        if (filterType == FilterType.INGEST_GENERATION) {
+            return Server.Schema.INGEST_GENERATION.toString() + ":[" + minGeneration + " TO " + maxGeneration + "]"; //NON-NLS
+        }
         StringBuilder sb = new StringBuilder();
         String id = null;
 
@@ -19,6 +19,7 @@
 package org.sleuthkit.autopsy.keywordsearch;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -29,12 +30,12 @@
 import org.sleuthkit.autopsy.core.UserPreferences;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.MessageNotifyUtil;
-import org.sleuthkit.autopsy.ingest.FileIngestModule;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
 import org.sleuthkit.autopsy.ingest.IngestMessage;
 import org.sleuthkit.autopsy.ingest.IngestMessage.MessageType;
 import org.sleuthkit.autopsy.ingest.IngestModuleReferenceCounter;
 import org.sleuthkit.autopsy.ingest.IngestServices;
+import org.sleuthkit.autopsy.ingest.StagedFileIngestModule;
 import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
 import org.sleuthkit.autopsy.keywordsearchservice.KeywordSearchService;
 import org.sleuthkit.autopsy.keywordsearchservice.KeywordSearchServiceException;
@@ -60,7 +61,7 @@
     "KeywordSearchIngestModule.startUp.noOpenCore.msg=The index could not be opened or does not exist.",
     "CannotRunFileTypeDetection=Unable to run file type detection."
 })
-public final class KeywordSearchIngestModule implements FileIngestModule {
+public final class KeywordSearchIngestModule implements StagedFileIngestModule {
 
     enum UpdateFrequency {
 
@@ -91,6 +92,7 @@ int getTime() {
     private boolean startedSearching = false;
     private List<TextExtractor> textExtractors;
     private StringsTextExtractor stringExtractor;
+    private IngestTimeKeywordMatcher keywordMatcher;
     private final KeywordSearchJobSettings settings;
     private boolean initialized = false;
     private long jobId;
@@ -221,6 +223,16 @@ public void startUp(IngestJobContext context) throws IngestModuleException {
         textExtractors.add(new HtmlTextExtractor());
         textExtractors.add(new TikaTextExtractor());
 
+        //match keywords against the extracted text as it is indexed, if enabled
+        keywordMatcher = null;
+        if (KeywordSearchSettings.getUseIngestTimeKeywordMatching()) {
+            keywordMatcher = IngestTimeKeywordMatcher.create(settings.getNamesOfEnabledKeyWordLists());
+        }
+        stringExtractor.setKeywordMatcher(keywordMatcher);
+        for (TextExtractor extractor : textExtractors) {
+            extractor.setKeywordMatcher(keywordMatcher);
+        }
+
         indexer = new Indexer();
         initialized = true;
     }
@@ -244,7 +256,7 @@ public ProcessResult process(AbstractFile abstractFile) {
             if (context.fileIngestIsCancelled()) {
                 return ProcessResult.OK;
             }
-            indexer.indexFile(abstractFile, false);
+            indexFile(abstractFile, false);
             return ProcessResult.OK;
         }
 
@@ -252,7 +264,7 @@ public ProcessResult process(AbstractFile abstractFile) {
         if (context.fileIngestIsCancelled()) {
             return ProcessResult.OK;
         }
-        indexer.indexFile(abstractFile, true);
+        indexFile(abstractFile, true);
 
         // Start searching if it hasn't started already
         if (!startedSearching) {
@@ -260,13 +272,39 @@ public ProcessResult process(AbstractFile abstractFile) {
                 return ProcessResult.OK;
             }
             List<String> keywordListNames = settings.getNamesOfEnabledKeyWordLists();
-            SearchRunner.getInstance().startJob(jobId, dataSourceId, keywordListNames);
+            SearchRunner.getInstance().startJob(jobId, dataSourceId, keywordListNames,
+                    (null != keywordMatcher) ? keywordMatcher.getMatchedKeywords() : Collections.emptyMap());
             startedSearching = true;
         }
 
         return ProcessResult.OK;
     }
 
+    /**
+     * Indexes a file and, if keywords are matched at ingest time, writes the
+     * keyword hits in its name and indexed text to the blackboard.
+     *
+     * @param file         The file.
+     * @param indexContent False if only metadata should be indexed.
+     */
+    private void indexFile(AbstractFile file, boolean indexContent) {
+        if (keywordMatcher != null) {
+            keywordMatcher.startFile(file);
+        }
+        indexer.indexFile(file, indexContent);
+        if (keywordMatcher != null && !context.fileIngestIsCancelled()) {
+            keywordMatcher.finishFile();
+        }
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public StagedFileIngestModule.Stage getStage() {
+        return StagedFileIngestModule.Stage.INDEX;
+    }
+
     /**
      * After all files are ingested, execute final index commit and final search
      * Cleanup resources, threads, timers
@@ -327,6 +365,7 @@ private void cleanup() {
         textExtractors.clear();
         textExtractors = null;
         stringExtractor = null;
+        keywordMatcher = null;
 
         initialized = false;
     }
@@ -342,11 +381,34 @@ private void postIndexSummary() {
         int error_index = 0;
         int error_io = 0;
 
+        // Documents are sent to Solr in batches after the files have been
+        // processed, so wait for them and record any files whose documents
+        // were rejected as indexing errors.
+        try {
+            ingester.flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, "Interrupted waiting for queued documents to be sent", ex); //NON-NLS
+        }
+
         synchronized (ingestStatus) {
             Map<Long, IngestStatus> ingestStatusForJob = ingestStatus.get(jobId);
             if (ingestStatusForJob == null) {
                 return;
             }
+            for (Map.Entry<Long, IngestStatus> entry : ingestStatusForJob.entrySet()) {
+                switch (entry.getValue()) {
+                    case TEXT_INGESTED:
+                    case STRINGS_INGESTED:
+                    case METADATA_INGESTED:
+                        if (ingester.takeIndexingFailure(entry.getKey())) {
+                            entry.setValue(IngestStatus.SKIPPED_ERROR_INDEXING);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
             for (IngestStatus s : ingestStatusForJob.values()) {
                 switch (s) {
                     case TEXT_INGESTED:
@@ -383,6 +445,7 @@ private void postIndexSummary() {
         msg.append("</table>"); //NON-NLS
         String indexStats = msg.toString();
         logger.log(Level.INFO, "Keyword Indexing Completed: {0}", indexStats); //NON-NLS
+        KeywordSearch.getTikaLogger().log(Level.INFO, "Tika parsing service: {0}", TikaParsingService.getDefault().getSnapshot()); //NON-NLS
         services.postMessage(IngestMessage.createMessage(MessageType.INFO, KeywordSearchModuleFactory.getModuleName(), NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.postIndexSummary.kwIdxResultsLbl"), indexStats));
         if (error_index > 0) {
             MessageNotifyUtil.Notify.error(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.postIndexSummary.kwIdxErrsTitle"),
@@ -40,6 +40,8 @@ class KeywordSearchSettings {
     static final String PROPERTIES_SCRIPTS = NbBundle.getMessage(KeywordSearchSettings.class, "KeywordSearchSettings.propertiesScripts.text", MODULE_NAME);
     static final String SHOW_SNIPPETS = "showSnippets"; //NON-NLS
     static final boolean DEFAULT_SHOW_SNIPPETS = true;
+    static final String USE_FORKED_TIKA_PARSERS = "UseForkedTikaParsers"; //NON-NLS
+    static final String USE_INGEST_TIME_KEYWORD_MATCHING = "UseIngestTimeKeywordMatching"; //NON-NLS
     private static boolean skipKnown = true;
     private static final Logger logger = Logger.getLogger(KeywordSearchSettings.class.getName());
     private static UpdateFrequency UpdateFreq = UpdateFrequency.DEFAULT;
@@ -141,6 +143,55 @@ static boolean getShowSnippets() {
         }
     }
 
+    /**
+     * Sets whether Tika parses files in child processes, so that a parser
+     * that crashes or runs out of memory does not take Autopsy down with it.
+     * Takes effect the next time Autopsy is started.
+     *
+     * @param useForkedParsers True or false.
+     */
+    static void setUseForkedTikaParsers(boolean useForkedParsers) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, USE_FORKED_TIKA_PARSERS, Boolean.toString(useForkedParsers));
+    }
+
+    /**
+     * Gets whether Tika parses files in child processes.
+     *
+     * @return True or false, false by default.
+     */
+    static boolean getUseForkedTikaParsers() {
+        if (ModuleSettings.settingExists(PROPERTIES_OPTIONS, USE_FORKED_TIKA_PARSERS)) {
+            return Boolean.parseBoolean(ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, USE_FORKED_TIKA_PARSERS));
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Sets whether the keywords of the enabled lists are matched against the
+     * text of files as it is extracted during ingest, instead of by the
+     * periodic searches of the index, which then search artifacts only.
+     *
+     * @param useIngestTimeMatching True or false.
+     */
+    static void setUseIngestTimeKeywordMatching(boolean useIngestTimeMatching) {
+        ModuleSettings.setConfigSetting(PROPERTIES_OPTIONS, USE_INGEST_TIME_KEYWORD_MATCHING, Boolean.toString(useIngestTimeMatching));
+    }
+
+    /**
+     * Gets whether the keywords of the enabled lists are matched against the
+     * text of files as it is extracted during ingest.
+     *
+     * @return True or false, false by default.
+     */
+    static boolean getUseIngestTimeKeywordMatching() {
+        if (ModuleSettings.settingExists(PROPERTIES_OPTIONS, USE_INGEST_TIME_KEYWORD_MATCHING)) {
+            return Boolean.parseBoolean(ModuleSettings.getConfigSetting(PROPERTIES_OPTIONS, USE_INGEST_TIME_KEYWORD_MATCHING));
+        } else {
+            return false;
+        }
+    }
+
     /**
      * gets the currently set scripts to use
      *
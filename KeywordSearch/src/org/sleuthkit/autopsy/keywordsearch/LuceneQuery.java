@@ -59,7 +59,7 @@ class LuceneQuery implements KeywordSearchQuery {
     private KeywordList keywordList = null;
     private final List<KeywordQueryFilter> filters = new ArrayList<>();
     private String field = null;
-    private static final int MAX_RESULTS = 20000;
+    static final int MAX_RESULTS = 20000;
     static final int SNIPPET_LENGTH = 50;
     //can use different highlight schema fields for regex and literal search
     static final String HIGHLIGHT_FIELD_LITERAL = Server.Schema.TEXT.toString();
@@ -313,7 +313,7 @@ private SolrQuery createAndConfigureSolrQuery(boolean snippets) {
      *
      * @return
      */
-    private Set<SolrDocument> filterOneHitPerDocument(SolrDocumentList resultList) {
+    static Set<SolrDocument> filterOneHitPerDocument(SolrDocumentList resultList) {
         // sort the list so that we consistently pick the same chunk each time.
         // note this sort is doing a string comparison and not an integer comparison, so 
         // chunk 10 will be smaller than chunk 9. 
@@ -481,7 +481,7 @@ public KeywordList getKeywordList() {
      * Compares SolrDocuments based on their ID's. Two SolrDocuments with
      * different chunk numbers are considered equal.
      */
-    private class SolrDocumentComparatorIgnoresChunkId implements Comparator<SolrDocument> {
+    private static class SolrDocumentComparatorIgnoresChunkId implements Comparator<SolrDocument> {
 
         @Override
         public int compare(SolrDocument left, SolrDocument right) {
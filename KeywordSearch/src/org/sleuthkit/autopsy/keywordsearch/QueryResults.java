@@ -150,7 +150,7 @@ Collection<BlackboardArtifact> writeAllHitsToBlackBoard(ProgressHandle progress,
                     if (writeResult != null) {
                         newArtifacts.add(writeResult.getArtifact());
                         if (notifyInbox) {
-                            writeSingleFileInboxMessage(writeResult, hit.getContent());
+                            writeSingleFileInboxMessage(keywordSearchQuery, writeResult, hit.getContent());
                         }
                     } else {
                         logger.log(Level.WARNING, "BB artifact for keyword hit not written, file: {0}, hit: {1}", new Object[]{hit.getContent(), keyword.toString()}); //NON-NLS
@@ -161,6 +161,18 @@ Collection<BlackboardArtifact> writeAllHitsToBlackBoard(ProgressHandle progress,
         }
 
         // Update artifact browser
+        fireModuleDataEvents(newArtifacts);
+
+        return newArtifacts;
+    }
+
+    /**
+     * Fires a module data event per artifact type for new keyword hit
+     * artifacts, to update the artifact browser.
+     *
+     * @param newArtifacts The new artifacts, if any.
+     */
+    static void fireModuleDataEvents(Collection<BlackboardArtifact> newArtifacts) {
         if (!newArtifacts.isEmpty()) {
             newArtifacts.stream()
                     //group artifacts by type
@@ -170,8 +182,6 @@ Collection<BlackboardArtifact> writeAllHitsToBlackBoard(ProgressHandle progress,
                             IngestServices.getInstance().fireModuleDataEvent(new ModuleDataEvent(MODULE_NAME, BlackboardArtifact.ARTIFACT_TYPE.fromID(typeID), artifacts)));
 
         }
-
-        return newArtifacts;
     }
 
     /**
@@ -200,17 +210,18 @@ private Collection<KeywordHit> getOneHitPerObject(Keyword keyword) {
     /**
      * Generate an ingest inbox message for given keyword in given file
      *
+     * @param keywordSearchQuery The query that found the keyword.
      * @param written
      * @param hitFile
      */
-    private void writeSingleFileInboxMessage(KeywordCachedArtifact written, Content hitContent) {
+    static void writeSingleFileInboxMessage(KeywordSearchQuery keywordSearchQuery, KeywordCachedArtifact written, Content hitContent) {
         StringBuilder subjectSb = new StringBuilder();
         StringBuilder detailsSb = new StringBuilder();
 
         if (!keywordSearchQuery.isLiteral()) {
-            subjectSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.regExpHitLbl"));
+            subjectSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.regExpHitLbl"));
         } else {
-            subjectSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.kwHitLbl"));
+            subjectSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.kwHitLbl"));
         }
         String uniqueKey = null;
         BlackboardAttribute attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD.getTypeID());
@@ -224,7 +235,7 @@ private void writeSingleFileInboxMessage(KeywordCachedArtifact written, Content
         detailsSb.append("<table border='0' cellpadding='4' width='280'>"); //NON-NLS
         //hit
         detailsSb.append("<tr>"); //NON-NLS
-        detailsSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.kwHitThLbl"));
+        detailsSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.kwHitThLbl"));
         detailsSb.append("<td>").append(EscapeUtil.escapeHtml(attr.getValueString())).append("</td>"); //NON-NLS
         detailsSb.append("</tr>"); //NON-NLS
 
@@ -232,14 +243,14 @@ private void writeSingleFileInboxMessage(KeywordCachedArtifact written, Content
         attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD_PREVIEW.getTypeID());
         if (attr != null) {
             detailsSb.append("<tr>"); //NON-NLS
-            detailsSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.previewThLbl"));
+            detailsSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.previewThLbl"));
             detailsSb.append("<td>").append(EscapeUtil.escapeHtml(attr.getValueString())).append("</td>"); //NON-NLS
             detailsSb.append("</tr>"); //NON-NLS
         }
 
         //file
         detailsSb.append("<tr>"); //NON-NLS
-        detailsSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.fileThLbl"));
+        detailsSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.fileThLbl"));
         if (hitContent instanceof AbstractFile) {
             AbstractFile hitFile = (AbstractFile) hitContent;
             detailsSb.append("<td>").append(hitFile.getParentPath()).append(hitFile.getName()).append("</td>"); //NON-NLS
@@ -251,7 +262,7 @@ private void writeSingleFileInboxMessage(KeywordCachedArtifact written, Content
         //list
         attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_SET_NAME.getTypeID());
         detailsSb.append("<tr>"); //NON-NLS
-        detailsSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.listThLbl"));
+        detailsSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.listThLbl"));
         detailsSb.append("<td>").append(attr.getValueString()).append("</td>"); //NON-NLS
         detailsSb.append("</tr>"); //NON-NLS
 
@@ -260,7 +271,7 @@ private void writeSingleFileInboxMessage(KeywordCachedArtifact written, Content
             attr = written.getAttribute(BlackboardAttribute.ATTRIBUTE_TYPE.TSK_KEYWORD_REGEXP.getTypeID());
             if (attr != null) {
                 detailsSb.append("<tr>"); //NON-NLS
-                detailsSb.append(NbBundle.getMessage(this.getClass(), "KeywordSearchIngestModule.regExThLbl"));
+                detailsSb.append(NbBundle.getMessage(QueryResults.class, "KeywordSearchIngestModule.regExThLbl"));
                 detailsSb.append("<td>").append(attr.getValueString()).append("</td>"); //NON-NLS
                 detailsSb.append("</tr>"); //NON-NLS
             }
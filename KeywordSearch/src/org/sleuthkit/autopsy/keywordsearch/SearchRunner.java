@@ -18,16 +18,22 @@
  */
 package org.sleuthkit.autopsy.keywordsearch;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import javax.swing.SwingUtilities;
@@ -51,10 +57,13 @@ public final class SearchRunner {
 
     private static final Logger logger = Logger.getLogger(SearchRunner.class.getName());
     private static SearchRunner instance = null;
+    static final int MAX_CONCURRENT_QUERIES = 4;
     private IngestServices services = IngestServices.getInstance();
     private Ingester ingester = null;
     private volatile boolean updateTimerRunning = false;
     private Timer updateTimer;
+    // performs the keyword queries of all searchers, bounding the concurrent queries against the core
+    private final ExecutorService queryExecutor;
 
     // maps a jobID to the search
     private Map<Long, SearchJobInfo> jobs = new HashMap<>(); //guarded by "this"
@@ -62,6 +71,7 @@ public final class SearchRunner {
     SearchRunner() {
         ingester = Server.getIngester();
         updateTimer = new Timer(NbBundle.getMessage(this.getClass(), "SearchRunner.updateTimer.title.text"), true); // run as a daemon
+        queryExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_QUERIES, new ThreadFactoryBuilder().setNameFormat("KWS-search-query-%d").setDaemon(true).build()); //NON-NLS
     }
 
     /**
@@ -86,9 +96,32 @@ public static synchronized SearchRunner getInstance() {
      *                         contents will be refreshed each search.
      */
     public synchronized void startJob(long jobId, long dataSourceId, List<String> keywordListNames) {
+        startJob(jobId, dataSourceId, keywordListNames, Collections.emptyMap());
+    }
+
+    /**
+     * Add a new job. Searches will be periodically performed after this is
+     * called.
+     *
+     * @param jobId                 Job ID that this is associated with
+     * @param dataSourceId          Data source that is being indexed and that
+     *                              searches should be restricted to.
+     * @param keywordListNames      List of keyword lists that will be
+     *                              searched. List contents will be refreshed
+     *                              each search.
+     * @param artifactsOnlyKeywords The keywords, by keyword list name, whose
+     *                              searches should be restricted to the
+     *                              indexed artifacts, because they are matched
+     *                              against the text of the files as it is
+     *                              extracted during ingest. Other keywords,
+     *                              including keywords added to the lists
+     *                              later, are searched for in files and
+     *                              artifacts.
+     */
+    synchronized void startJob(long jobId, long dataSourceId, List<String> keywordListNames, Map<String, Set<Keyword>> artifactsOnlyKeywords) {
         if (jobs.containsKey(jobId) == false) {
             logger.log(Level.INFO, "Adding job {0}", jobId); //NON-NLS
-            SearchJobInfo jobData = new SearchJobInfo(jobId, dataSourceId, keywordListNames);
+            SearchJobInfo jobData = new SearchJobInfo(jobId, dataSourceId, keywordListNames, artifactsOnlyKeywords);
             jobs.put(jobId, jobData);
         }
 
@@ -178,7 +211,25 @@ public synchronized void addKeywordListsToAllJobs(List<String> keywordListNames)
      */
     private void commit() {
         ingester.commit();
+        fireNumIndexedFilesChange();
+    }
 
+    /**
+     * Commits the documents of the given ingest generation and earlier ones,
+     * and notifies listeners of index update
+     *
+     * @param generation The generation, as returned by
+     *                   Ingester.advanceGeneration().
+     */
+    private void commit(long generation) {
+        ingester.commit(generation);
+        fireNumIndexedFilesChange();
+    }
+
+    /**
+     * Notifies listeners of a potential change in the number of indexed files.
+     */
+    private void fireNumIndexedFilesChange() {
         // Signal a potential change in number of text_ingested files
         try {
             final int numIndexedFiles = KeywordSearch.getServer().queryNumIndexedFiles();
@@ -216,7 +267,11 @@ private void doFinalSearch(SearchJobInfo job) {
     }
 
     /**
-     * Timer triggered re-search for each job (does a single index commit first)
+     * Timer triggered re-search for each job (does a single index commit
+     * first). The ingest generation is advanced before the commit, and the
+     * commit waits only for the documents of the generations advanced past,
+     * so that each search can be restricted to the documents indexed since the
+     * previous search of its job, through the generation advanced past.
      */
     private class UpdateTimerTask extends TimerTask {
 
@@ -231,7 +286,8 @@ public void run() {
                 return;
             }
 
-            commit();
+            final long generation = ingester.advanceGeneration();
+            commit(generation);
 
             synchronized (SearchRunner.this) {
                 // Spawn a search thread for each job
@@ -239,7 +295,7 @@ public void run() {
                     SearchJobInfo job = j.getValue();
                     // If no lists or the worker is already running then skip it
                     if (!job.getKeywordListNames().isEmpty() && !job.isWorkerRunning()) {
-                        Searcher searcher = new Searcher(job);
+                        Searcher searcher = new Searcher(job, generation);
                         job.setCurrentSearcher(searcher); //save the ref
                         searcher.execute(); //start thread
                         job.setWorkerRunning(true);
@@ -257,17 +313,20 @@ private class SearchJobInfo {
 
         private final long jobId;
         private final long dataSourceId;
+        private final Map<String, Set<Keyword>> artifactsOnlyKeywords;
         // mutable state:
         private volatile boolean workerRunning;
         private List<String> keywordListNames; //guarded by SearchJobInfo.this
         private Map<Keyword, List<Long>> currentResults; //guarded by SearchJobInfo.this
+        private final Map<Keyword, Long> searchedGenerations = new HashMap<>(); //guarded by SearchJobInfo.this
         private SearchRunner.Searcher currentSearcher;
         private AtomicLong moduleReferenceCount = new AtomicLong(0);
         private final Object finalSearchLock = new Object(); //used for a condition wait
 
-        public SearchJobInfo(long jobId, long dataSourceId, List<String> keywordListNames) {
+        public SearchJobInfo(long jobId, long dataSourceId, List<String> keywordListNames, Map<String, Set<Keyword>> artifactsOnlyKeywords) {
             this.jobId = jobId;
             this.dataSourceId = dataSourceId;
+            this.artifactsOnlyKeywords = new HashMap<>(artifactsOnlyKeywords);
             this.keywordListNames = new ArrayList<>(keywordListNames);
             currentResults = new HashMap<>();
             workerRunning = false;
@@ -282,6 +341,11 @@ public long getDataSourceId() {
             return dataSourceId;
         }
 
+        public boolean isArtifactsOnly(String keywordListName, Keyword keyword) {
+            Set<Keyword> listKeywords = artifactsOnlyKeywords.get(keywordListName);
+            return null != listKeywords && listKeywords.contains(keyword);
+        }
+
         public synchronized List<String> getKeywordListNames() {
             return new ArrayList<>(keywordListNames);
         }
@@ -300,6 +364,45 @@ public synchronized void addKeywordResults(Keyword k, List<Long> resultsIDs) {
             currentResults.put(k, resultsIDs);
         }
 
+        /**
+         * Gets the last ingest generation through which the documents have
+         * been searched for all of the given keywords by completed periodic
+         * searches, i.e., the oldest of the generations of the keywords.
+         *
+         * @param keywords The keywords.
+         *
+         * @return The generation, or null if some of the keywords have not
+         *         been searched for yet.
+         */
+        public synchronized Long getSearchedGeneration(Collection<Keyword> keywords) {
+            Long oldestGeneration = null;
+            for (Keyword keyword : keywords) {
+                Long generation = searchedGenerations.get(keyword);
+                if (null == generation) {
+                    return null;
+                }
+                if (null == oldestGeneration || generation < oldestGeneration) {
+                    oldestGeneration = generation;
+                }
+            }
+            return oldestGeneration;
+        }
+
+        /**
+         * Records that a periodic search has searched the documents through
+         * the given ingest generation for the given keywords. Keywords whose
+         * queries failed should not be passed, so that their documents are
+         * searched again by the next search.
+         *
+         * @param generation The generation.
+         * @param keywords   The keywords.
+         */
+        public synchronized void setSearchedGeneration(long generation, Collection<Keyword> keywords) {
+            for (Keyword keyword : keywords) {
+                searchedGenerations.put(keyword, generation);
+            }
+        }
+
         public boolean isWorkerRunning() {
             return workerRunning;
         }
@@ -351,8 +454,10 @@ public void searchNotify() {
     /**
      * Searcher responsible for searching the current index and writing results
      * to blackboard and the inbox. Also, posts results to listeners as Ingest
-     * data events. Searches entire index, and keeps track of only new results
-     * to report and save. Runs as a background thread.
+     * data events. A periodic search only searches the documents indexed since
+     * the previous completed search of the job, unless there are new keywords;
+     * the final search covers the entire index, to fill any gaps. Keeps track
+     * of only new results to report and save. Runs as a background thread.
      */
     private final class Searcher extends SwingWorker<Object, Void> {
 
@@ -367,9 +472,11 @@ private final class Searcher extends SwingWorker<Object, Void> {
         private AggregateProgressHandle progressGroup;
         private final Logger logger = Logger.getLogger(SearchRunner.Searcher.class.getName());
         private boolean finalRun = false;
+        private final long maxGeneration; // the last ingest generation to search, if not a final run
 
-        Searcher(SearchJobInfo job) {
+        Searcher(SearchJobInfo job, long maxGeneration) {
             this.job = job;
+            this.maxGeneration = maxGeneration;
             keywordListNames = job.getKeywordListNames();
             keywords = new ArrayList<>();
             keywordToList = new HashMap<>();
@@ -378,7 +485,7 @@ private final class Searcher extends SwingWorker<Object, Void> {
         }
 
         Searcher(SearchJobInfo job, boolean finalRun) {
-            this(job);
+            this(job, Long.MAX_VALUE);
             this.finalRun = finalRun;
         }
 
@@ -412,12 +519,19 @@ public boolean cancel() {
 
             final StopWatch stopWatch = new StopWatch();
             stopWatch.start();
+            List<PendingQuery> pendingQueries = Collections.emptyList();
             try {
                 progressGroup.setDisplayName(displayName);
 
+                // Start the queries, which are performed by the query executor
+                // while the results are written to the blackboard, keyword by keyword
+                pendingQueries = submitQueries();
+
                 int keywordsSearched = 0;
+                List<Keyword> completedKeywords = new ArrayList<>(keywords.size());
 
-                for (Keyword keywordQuery : keywords) {
+                for (int keywordIndex = 0; keywordIndex < keywords.size(); ++keywordIndex) {
+                    final Keyword keywordQuery = keywords.get(keywordIndex);
                     if (this.isCancelled()) {
                         logger.log(Level.INFO, "Cancel detected, bailing before new keyword processed: {0}", keywordQuery.getQuery()); //NON-NLS
                         return null;
@@ -432,38 +546,23 @@ public boolean cancel() {
                         subProgresses[keywordsSearched - 1].finish();
                     }
 
-                    KeywordSearchQuery keywordSearchQuery = null;
-
-                    boolean isRegex = !keywordQuery.isLiteral();
-                    if (isRegex) {
-                        keywordSearchQuery = new TermComponentQuery(list, keywordQuery);
-                    } else {
-                        keywordSearchQuery = new LuceneQuery(list, keywordQuery);
-                        keywordSearchQuery.escape();
-                    }
-
-                    // Filtering
-                    //limit search to currently ingested data sources
-                    //set up a filter with 1 or more image ids OR'ed
-                    final KeywordQueryFilter dataSourceFilter = new KeywordQueryFilter(KeywordQueryFilter.FilterType.DATA_SOURCE, job.getDataSourceId());
-                    keywordSearchQuery.addFilter(dataSourceFilter);
-
                     QueryResults queryResults;
 
-                    // Do the actual search
+                    // Get the results of the actual search
                     try {
-                        queryResults = keywordSearchQuery.performQuery();
-                    } catch (NoOpenCoreException ex) {
-                        logger.log(Level.WARNING, "Error performing query: " + keywordQuery.getQuery(), ex); //NON-NLS
-                        //no reason to continue with next query if recovery failed
-                        //or wait for recovery to kick in and run again later
-                        //likely case has closed and threads are being interrupted
-                        return null;
-                    } catch (CancellationException e) {
+                        queryResults = pendingQueries.get(keywordIndex).getResults();
+                    } catch (InterruptedException | CancellationException e) {
                         logger.log(Level.INFO, "Cancel detected, bailing during keyword query: {0}", keywordQuery.getQuery()); //NON-NLS
                         return null;
-                    } catch (Exception e) {
-                        logger.log(Level.WARNING, "Error performing query: " + keywordQuery.getQuery(), e); //NON-NLS
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof NoOpenCoreException) {
+                            logger.log(Level.WARNING, "Error performing query: " + keywordQuery.getQuery(), e.getCause()); //NON-NLS
+                            //no reason to continue with next query if recovery failed
+                            //or wait for recovery to kick in and run again later
+                            //likely case has closed and threads are being interrupted
+                            return null;
+                        }
+                        logger.log(Level.WARNING, "Error performing query: " + keywordQuery.getQuery(), e.getCause()); //NON-NLS
                         continue;
                     }
 
@@ -496,13 +595,21 @@ public boolean cancel() {
                     subProgresses[keywordsSearched].progress("");
 
                     ++keywordsSearched;
+                    completedKeywords.add(keywordQuery);
 
                 } //for each keyword
 
+                if (!finalRun) {
+                    job.setSearchedGeneration(maxGeneration, completedKeywords);
+                }
+
             } //end try block
             catch (Exception ex) {
                 logger.log(Level.WARNING, "searcher exception occurred", ex); //NON-NLS
             } finally {
+                for (PendingQuery pendingQuery : pendingQueries) {
+                    pendingQuery.cancel();
+                }
                 try {
                     finalizeSearcher();
                     stopWatch.stop();
@@ -532,6 +639,101 @@ protected void done() {
             }
         }
 
+        /**
+         * Submits the queries for the keywords to the query executor. The
+         * literal keywords are queried in batches, see BatchedLuceneQuery, and
+         * the regular expressions are queried one at a time. If the keywords
+         * that the job was started with are matched against the text of the
+         * files during ingest, only the artifacts are searched for them.
+         *
+         * @return The pending queries, one per keyword, in keyword order.
+         */
+        private List<PendingQuery> submitQueries() {
+            // Filtering
+            //limit search to currently ingested data sources
+            //set up a filter with 1 or more image ids OR'ed
+            final KeywordQueryFilter dataSourceFilter = new KeywordQueryFilter(KeywordQueryFilter.FilterType.DATA_SOURCE, job.getDataSourceId());
+            final List<KeywordQueryFilter> allFilters = new ArrayList<>();
+            allFilters.add(dataSourceFilter);
+            //limit a periodic search to the documents indexed since the previous one
+            final KeywordQueryFilter generationFilter = getGenerationFilter();
+            if (null != generationFilter) {
+                allFilters.add(generationFilter);
+            }
+            final List<KeywordQueryFilter> artifactsOnlyFilters = new ArrayList<>(allFilters);
+            artifactsOnlyFilters.add(new KeywordQueryFilter(KeywordQueryFilter.FilterType.ARTIFACT, Collections.emptySet()));
+
+            List<PendingQuery> pendingQueries = new ArrayList<>(keywords.size());
+            List<LuceneQuery> batch = new ArrayList<>();
+            List<PendingQuery> pendingBatch = new ArrayList<>();
+            List<LuceneQuery> artifactsOnlyBatch = new ArrayList<>();
+            List<PendingQuery> pendingArtifactsOnlyBatch = new ArrayList<>();
+            for (Keyword keyword : keywords) {
+                final KeywordList list = keywordToList.get(keyword.getQuery());
+                final boolean artifactsOnly = job.isArtifactsOnly(list.getName(), keyword);
+                PendingQuery pendingQuery;
+                if (keyword.isLiteral()) {
+                    LuceneQuery luceneQuery = new LuceneQuery(list, keyword);
+                    luceneQuery.escape();
+                    if (artifactsOnly) {
+                        pendingQuery = addToBatch(luceneQuery, artifactsOnlyBatch, pendingArtifactsOnlyBatch, artifactsOnlyFilters);
+                    } else {
+                        pendingQuery = addToBatch(luceneQuery, batch, pendingBatch, allFilters);
+                    }
+                } else {
+                    final TermComponentQuery termComponentQuery = new TermComponentQuery(list, keyword);
+                    (artifactsOnly ? artifactsOnlyFilters : allFilters).forEach(termComponentQuery::addFilter);
+                    pendingQuery = new PendingQuery(0);
+                    pendingQuery.future = queryExecutor.submit(() -> Collections.singletonList(termComponentQuery.performQuery()));
+                }
+                pendingQueries.add(pendingQuery);
+            }
+            if (!batch.isEmpty()) {
+                submitBatch(batch, pendingBatch, allFilters);
+            }
+            if (!artifactsOnlyBatch.isEmpty()) {
+                submitBatch(artifactsOnlyBatch, pendingArtifactsOnlyBatch, artifactsOnlyFilters);
+            }
+            return pendingQueries;
+        }
+
+        /**
+         * Gets the filter that restricts a periodic search to the documents
+         * indexed since the previous completed search of the job.
+         *
+         * @return The filter, or null if the entire index has to be searched.
+         */
+        private KeywordQueryFilter getGenerationFilter() {
+            if (finalRun) {
+                return null;
+            }
+            Long searchedGeneration = job.getSearchedGeneration(keywords);
+            if (null == searchedGeneration || !KeywordSearch.getServer().coreHasIngestGenerations()) {
+                return null;
+            }
+            return new KeywordQueryFilter(searchedGeneration + 1, maxGeneration);
+        }
+
+        private PendingQuery addToBatch(LuceneQuery luceneQuery, List<LuceneQuery> batch, List<PendingQuery> pendingBatch, List<KeywordQueryFilter> filters) {
+            PendingQuery pendingQuery = new PendingQuery(batch.size());
+            batch.add(luceneQuery);
+            pendingBatch.add(pendingQuery);
+            if (BatchedLuceneQuery.MAX_KEYWORDS_PER_BATCH == batch.size()) {
+                submitBatch(batch, pendingBatch, filters);
+            }
+            return pendingQuery;
+        }
+
+        private void submitBatch(List<LuceneQuery> batch, List<PendingQuery> pendingBatch, List<KeywordQueryFilter> filters) {
+            final BatchedLuceneQuery batchedQuery = new BatchedLuceneQuery(batch, filters);
+            Future<List<QueryResults>> future = queryExecutor.submit(batchedQuery::performQueries);
+            for (PendingQuery pendingQuery : pendingBatch) {
+                pendingQuery.future = future;
+            }
+            batch.clear();
+            pendingBatch.clear();
+        }
+
         /**
          * Sync-up the updated keywords from the currently used lists in the XML
          */
@@ -605,4 +807,30 @@ private QueryResults filterResults(QueryResults queryResult) {
             return newResults;
         }
     }
+
+    /**
+     * The query for a keyword, which may be performed in a batch with the
+     * queries for other keywords.
+     */
+    private static final class PendingQuery {
+
+        private final int indexInBatch;
+        private Future<List<QueryResults>> future;
+
+        PendingQuery(int indexInBatch) {
+            this.indexInBatch = indexInBatch;
+        }
+
+        /**
+         * Waits for the query to be performed and gets the results for the
+         * keyword.
+         */
+        QueryResults getResults() throws InterruptedException, ExecutionException {
+            return future.get().get(indexInBatch);
+        }
+
+        void cancel() {
+            future.cancel(true);
+        }
+    }
 }
@@ -149,6 +149,13 @@ public String toString() {
                 return "num_chunks"; //NON-NLS
             }
         },
+        // the ingest generation a document was indexed in, see Ingester.advanceGeneration()
+        INGEST_GENERATION {
+            @Override
+            public String toString() {
+                return "ingest_generation"; //NON-NLS
+            }
+        },
     };
 
     public static final String HL_ANALYZE_CHARS_UNLIMITED = "500000"; //max 1MB in a chunk. use -1 for unlimited, but -1 option may not be supported (not documented)
@@ -634,6 +641,15 @@ boolean coreIsOpen() {
     }
 
     void closeCore() throws KeywordSearchModuleException {
+        /*
+         * Let the documents queued by the ingester reach the index of the
+         * core before it is closed.
+         */
+        try {
+            Ingester.getDefault().flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
         currentCoreLock.writeLock().lock();
         try {
             if (null != currentCore) {
@@ -655,6 +671,43 @@ void addDocument(SolrInputDocument doc) throws KeywordSearchModuleException {
         }
     }
 
+    /**
+     * Determines whether or not the schema of the currently open core has the
+     * ingest generation field. A remote server may still have the schema of
+     * an earlier version, in which case the documents are not stamped with
+     * their generation and every search covers the whole index.
+     *
+     * @return true or false, false if there is no open core
+     */
+    boolean coreHasIngestGenerations() {
+        currentCoreLock.readLock().lock();
+        try {
+            return (null != currentCore) && currentCore.hasIngestGenerations();
+        } finally {
+            currentCoreLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a batch of documents to the current core in one update request.
+     *
+     * @param docs The documents.
+     *
+     * @throws KeywordSearchModuleException if the documents could not be
+     *                                      added.
+     */
+    void addDocuments(Collection<SolrInputDocument> docs) throws KeywordSearchModuleException {
+        currentCoreLock.readLock().lock();
+        try {
+            if (null == currentCore) {
+                throw new KeywordSearchModuleException(NbBundle.getMessage(this.getClass(), "Server.addDocs.exception.noCore.msg"));
+            }
+            currentCore.addDocuments(docs);
+        } finally {
+            currentCoreLock.readLock().unlock();
+        }
+    }
+
     /**
      * Get index dir location for the case
      *
@@ -1187,6 +1240,9 @@ class Core {
         // core in it, and is only good for core-specific operations
         private final HttpSolrServer solrCore;
 
+        // whether the schema has the ingest generation field, null until probed
+        private volatile Boolean hasIngestGenerations;
+
         private Core(String name, CaseType caseType) {
             this.name = name;
             this.caseType = caseType;
@@ -1196,8 +1252,11 @@ private Core(String name, CaseType caseType) {
             //TODO test these settings
             //solrCore.setSoTimeout(1000 * 60);  // socket read timeout, make large enough so can index larger files
             //solrCore.setConnectionTimeout(1000);
-            solrCore.setDefaultMaxConnectionsPerHost(2);
-            solrCore.setMaxTotalConnections(5);
+            // enough connections for the document senders of the ingester and
+            // the concurrent keyword queries, plus a few for commits and the UI
+            final int maxConnections = SolrDocumentBatcher.NUMBER_OF_SENDER_THREADS + SearchRunner.MAX_CONCURRENT_QUERIES + 3;
+            solrCore.setDefaultMaxConnectionsPerHost(maxConnections);
+            solrCore.setMaxTotalConnections(maxConnections);
             solrCore.setFollowRedirects(false);  // defaults to false
             // allowCompression defaults to false.
             // Server side must support gzip or deflate for this to have any effect.
@@ -1220,6 +1279,30 @@ private QueryResponse query(SolrQuery sq) throws SolrServerException {
             return solrCore.query(sq);
         }
 
+        /**
+         * Probes the schema of the core for the ingest generation field, with
+         * a query that Solr rejects if the field is undefined.
+         */
+        private boolean hasIngestGenerations() {
+            if (null == hasIngestGenerations) {
+                SolrQuery q = new SolrQuery("*:*"); //NON-NLS
+                q.addFilterQuery(Schema.INGEST_GENERATION.toString() + ":[* TO *]"); //NON-NLS
+                q.setRows(0);
+                try {
+                    solrCore.query(q);
+                    hasIngestGenerations = true;
+                } catch (SolrException ex) {
+                    logger.log(Level.WARNING, "The schema of core " + name + " has no ingest generation field, searches will cover the whole index", ex); //NON-NLS
+                    hasIngestGenerations = false;
+                } catch (SolrServerException ex) {
+                    // not cached, the server may just be unreachable for now
+                    logger.log(Level.WARNING, "Could not query core " + name + " for the ingest generation field", ex); //NON-NLS
+                    return false;
+                }
+            }
+            return hasIngestGenerations;
+        }
+
         private NamedList<Object> request(SolrRequest request) throws SolrServerException {
             try {
                 return solrCore.request(request);
@@ -1250,6 +1333,15 @@ private void commit() throws SolrServerException {
             }
         }
 
+        void addDocuments(Collection<SolrInputDocument> docs) throws KeywordSearchModuleException {
+            try {
+                solrCore.add(docs);
+            } catch (SolrServerException | IOException ex) {
+                throw new KeywordSearchModuleException(
+                        NbBundle.getMessage(this.getClass(), "Server.addDocs.exception.msg", docs.size()), ex); //NON-NLS
+            }
+        }
+
         void addDocument(SolrInputDocument doc) throws KeywordSearchModuleException {
             try {
                 solrCore.add(doc);
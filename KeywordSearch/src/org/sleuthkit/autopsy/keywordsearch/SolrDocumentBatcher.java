@@ -0,0 +1,281 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import org.apache.solr.common.SolrInputDocument;
+import org.sleuthkit.autopsy.coreutils.Logger;
+
+/**
+ * Sends documents to Solr in batches from dedicated sender threads, so that
+ * the file ingest threads do not wait for an HTTP round trip per document.
+ * Documents are queued in memory, up to a limit on the total size of the
+ * queued and in-flight documents; when Solr falls behind and the limit is
+ * reached, queuing a document blocks until a batch has been sent.
+ * <p>
+ * If a batch is rejected, its documents are sent one at a time to find the
+ * ones at fault, and the object ids of the files or artifacts of those
+ * documents are recorded, so that the failures can be reported after a
+ * flush().
+ * <p>
+ * Each queued document gets a sequence number, and a flush() waits only for
+ * the documents queued before it, by sequence number, so that a flush
+ * finishes even while ingest threads keep queuing documents.
+ * <p>
+ * The batcher also stamps each document with the current ingest generation,
+ * in the same critical section in which it assigns the sequence number of
+ * the document, so that once a generation has been advanced past, a flush()
+ * is enough to get every document of that generation to Solr.
+ * <p>
+ * This class is thread-safe.
+ */
+final class SolrDocumentBatcher {
+
+    private static final Logger logger = Logger.getLogger(SolrDocumentBatcher.class.getName());
+    static final int NUMBER_OF_SENDER_THREADS = 2;
+    private static final int MAX_DOCUMENTS_PER_BATCH = 32;
+    private static final int MAX_PENDING_KB = 32 * 1024;
+    private final Server solrServer;
+    private final LinkedBlockingQueue<QueuedDocument> queue = new LinkedBlockingQueue<>();
+    private final Semaphore pendingKB = new Semaphore(MAX_PENDING_KB);
+    private final Set<Long> failedObjectIds = ConcurrentHashMap.newKeySet();
+    private final Object outstandingLock = new Object();
+    private final NavigableSet<Long> outstandingSequenceNumbers = new TreeSet<>(); // Guarded by outstandingLock
+    private long lastSequenceNumber; // Guarded by outstandingLock
+    private long lastSequenceNumberOfAdvancedGeneration; // Guarded by outstandingLock
+    // Starts at the current time so that generations keep increasing across
+    // sessions that add to the same index
+    private long generation = System.currentTimeMillis(); // Guarded by outstandingLock
+
+    /**
+     * Constructs a batcher that sends documents to Solr and starts its sender
+     * threads.
+     *
+     * @param solrServer The Solr server.
+     */
+    SolrDocumentBatcher(Server solrServer) {
+        this.solrServer = solrServer;
+        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("KWS-solr-sender-%d").setDaemon(true).build(); //NON-NLS
+        for (int i = 0; i < NUMBER_OF_SENDER_THREADS; ++i) {
+            threadFactory.newThread(this::send).start();
+        }
+    }
+
+    /**
+     * Queues a document to be sent to Solr, blocking if the limit on the size
+     * of the pending documents has been reached.
+     *
+     * @param document   The document.
+     * @param objectId   The object id of the file or artifact the document
+     *                   is for, recorded if the document is rejected.
+     * @param textLength The length of the text of the document, in
+     *                   characters.
+     * @param stamp      Whether or not to stamp the document with the
+     *                   current ingest generation.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked.
+     */
+    void add(SolrInputDocument document, long objectId, int textLength, boolean stamp) throws InterruptedException {
+        int kb = (int) Math.min(MAX_PENDING_KB, Math.max(1, (2L * textLength) / 1024));
+        pendingKB.acquire(kb);
+        long sequenceNumber;
+        synchronized (outstandingLock) {
+            if (stamp) {
+                document.setField(Server.Schema.INGEST_GENERATION.toString(), generation);
+            }
+            sequenceNumber = ++lastSequenceNumber;
+            outstandingSequenceNumbers.add(sequenceNumber);
+        }
+        queue.add(new QueuedDocument(document, objectId, kb, sequenceNumber));
+    }
+
+    /**
+     * Advances the ingest generation. Documents queued from now on are stamped
+     * with the next generation.
+     *
+     * @return The generation advanced past, the last one any document queued
+     *         so far has been stamped with.
+     */
+    long advanceGeneration() {
+        synchronized (outstandingLock) {
+            lastSequenceNumberOfAdvancedGeneration = lastSequenceNumber;
+            return generation++;
+        }
+    }
+
+    /**
+     * Blocks until all of the documents queued before the call have been
+     * sent. Documents queued while waiting are not waited for.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked.
+     */
+    void flush() throws InterruptedException {
+        synchronized (outstandingLock) {
+            waitForSequenceNumber(lastSequenceNumber);
+        }
+    }
+
+    /**
+     * Blocks until all of the documents stamped with the given ingest
+     * generation or an earlier one have been sent. Documents of later
+     * generations are not waited for, except that for a generation before the
+     * last one advanced past, the documents through the last one advanced
+     * past are waited for.
+     *
+     * @param generation The generation, as returned by advanceGeneration().
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked.
+     */
+    void flushGeneration(long generation) throws InterruptedException {
+        synchronized (outstandingLock) {
+            waitForSequenceNumber(generation < this.generation ? lastSequenceNumberOfAdvancedGeneration : lastSequenceNumber);
+        }
+    }
+
+    /**
+     * Waits until all of the documents up to the given sequence number have
+     * been sent. Must be called while holding outstandingLock.
+     *
+     * @param sequenceNumber The sequence number.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while
+     *                              blocked.
+     */
+    private void waitForSequenceNumber(long sequenceNumber) throws InterruptedException {
+        while (!outstandingSequenceNumbers.isEmpty() && outstandingSequenceNumbers.first() <= sequenceNumber) {
+            outstandingLock.wait();
+        }
+    }
+
+    /**
+     * Queries whether a document for a file or artifact has been rejected by
+     * Solr since the last query for it, and clears the record of the failure.
+     * Call flush() first to make sure the documents have been sent.
+     *
+     * @param objectId The object id of the file or artifact.
+     *
+     * @return True or false.
+     */
+    boolean takeFailure(long objectId) {
+        return failedObjectIds.remove(objectId);
+    }
+
+    /**
+     * The work of a sender thread: takes the queued documents in batches and
+     * sends them to Solr.
+     */
+    private void send() {
+        List<QueuedDocument> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            queue.drainTo(batch, MAX_DOCUMENTS_PER_BATCH - 1);
+            try {
+                sendBatch(batch);
+            } finally {
+                int kb = 0;
+                for (QueuedDocument queuedDocument : batch) {
+                    kb += queuedDocument.kb;
+                }
+                pendingKB.release(kb);
+                synchronized (outstandingLock) {
+                    for (QueuedDocument queuedDocument : batch) {
+                        outstandingSequenceNumbers.remove(queuedDocument.sequenceNumber);
+                    }
+                    outstandingLock.notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Sends a batch of documents in one update request, falling back to
+     * sending them one at a time if the batch is rejected.
+     *
+     * @param batch The documents.
+     */
+    private void sendBatch(List<QueuedDocument> batch) {
+        List<SolrInputDocument> documents = new ArrayList<>(batch.size());
+        for (QueuedDocument queuedDocument : batch) {
+            documents.add(queuedDocument.document);
+        }
+        try {
+            solrServer.addDocuments(documents);
+            return;
+        } catch (KeywordSearchModuleException | RuntimeException ex) {
+            if (1 == batch.size()) {
+                logger.log(Level.WARNING, "Failed to add document to the index: " + batch.get(0).document.getFieldValue(Server.Schema.ID.toString()), ex); //NON-NLS
+                recordFailure(batch.get(0));
+                return;
+            }
+            logger.log(Level.WARNING, String.format("Failed to add a batch of %d documents to the index, adding them one at a time", batch.size()), ex); //NON-NLS
+        }
+        for (QueuedDocument queuedDocument : batch) {
+            try {
+                solrServer.addDocument(queuedDocument.document);
+            } catch (KeywordSearchModuleException | RuntimeException ex) {
+                logger.log(Level.WARNING, "Failed to add document to the index: " + queuedDocument.document.getFieldValue(Server.Schema.ID.toString()), ex); //NON-NLS
+                recordFailure(queuedDocument);
+            }
+        }
+    }
+
+    private void recordFailure(QueuedDocument queuedDocument) {
+        if (queuedDocument.objectId != 0) {
+            failedObjectIds.add(queuedDocument.objectId);
+        }
+    }
+
+    /**
+     * A queued document with the object id of its file or artifact, the
+     * share of the pending size limit it holds, and its sequence number.
+     */
+    private static final class QueuedDocument {
+
+        private final SolrInputDocument document;
+        private final long objectId;
+        private final int kb;
+        private final long sequenceNumber;
+
+        QueuedDocument(SolrInputDocument document, long objectId, int kb, long sequenceNumber) {
+            this.document = document;
+            this.objectId = objectId;
+            this.kb = kb;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+
+}
@@ -19,7 +19,9 @@
 package org.sleuthkit.autopsy.keywordsearch;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
 import org.sleuthkit.datamodel.BlackboardArtifact;
@@ -51,6 +53,38 @@ public class SolrSearchService implements KeywordSearchService {
 
     @Override
     public void indexArtifact(BlackboardArtifact artifact) throws TskCoreException {
+        indexArtifact(artifact, new HashMap<>());
+    }
+
+    /**
+     * Indexes a collection of artifacts, looking up the data source of the
+     * content of each artifact only once per content object, since a batch of
+     * artifacts is usually about a handful of files. Each artifact is still
+     * indexed as its own document; the documents reach Solr in batches only
+     * because the ingester sends all of its documents in batches.
+     *
+     * @param artifacts The artifacts to index.
+     *
+     * @throws TskCoreException
+     */
+    @Override
+    public void indexArtifacts(Collection<BlackboardArtifact> artifacts) throws TskCoreException {
+        Map<Long, Content> dataSourcesByObjectId = new HashMap<>();
+        for (BlackboardArtifact artifact : artifacts) {
+            indexArtifact(artifact, dataSourcesByObjectId);
+        }
+    }
+
+    /**
+     * Indexes an artifact.
+     *
+     * @param artifact              The artifact to index.
+     * @param dataSourcesByObjectId A cache of the data sources of the content
+     *                              objects looked up so far.
+     *
+     * @throws TskCoreException
+     */
+    private void indexArtifact(BlackboardArtifact artifact, Map<Long, Content> dataSourcesByObjectId) throws TskCoreException {
         if (artifact == null) {
             return;
         }
@@ -76,12 +110,17 @@ public void indexArtifact(BlackboardArtifact artifact) throws TskCoreException {
             return;
         }
 
-        Content dataSource;
-        AbstractFile abstractFile = sleuthkitCase.getAbstractFileById(artifact.getObjectID());
-        if (abstractFile != null) {
-            dataSource = abstractFile.getDataSource();
-        } else {
-            dataSource = sleuthkitCase.getContentById(artifact.getObjectID());
+        Content dataSource = dataSourcesByObjectId.get(artifact.getObjectID());
+        if (dataSource == null) {
+            AbstractFile abstractFile = sleuthkitCase.getAbstractFileById(artifact.getObjectID());
+            if (abstractFile != null) {
+                dataSource = abstractFile.getDataSource();
+            } else {
+                dataSource = sleuthkitCase.getContentById(artifact.getObjectID());
+            }
+            if (dataSource != null) {
+                dataSourcesByObjectId.put(artifact.getObjectID(), dataSource);
+            }
         }
 
         if (dataSource == null) {
@@ -49,6 +49,7 @@ class StringsTextExtractor implements TextExtractor {
     private int numChunks = 0;
     private final List<SCRIPT> extractScripts = new ArrayList<>();
     private Map<String, String> extractOptions = new HashMap<>();
+    private IngestTimeKeywordMatcher keywordMatcher;
 
     //disabled prepending of BOM
     //static {
@@ -94,6 +95,16 @@ public void setOptions(Map<String, String> options) {
         this.extractOptions = options;
     }
 
+    @Override
+    public void setKeywordMatcher(IngestTimeKeywordMatcher keywordMatcher) {
+        this.keywordMatcher = keywordMatcher;
+    }
+
+    @Override
+    public IngestTimeKeywordMatcher getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
     @Override
     public boolean index(AbstractFile sourceFile, IngestJobContext context) throws IngesterException {
         this.sourceFile = sourceFile;
@@ -64,7 +64,7 @@ final class TermComponentQuery implements KeywordSearchQuery {
      * present as long as the part that is conforms to the track format.
      *
      */
-    private static final Pattern TRACK2_PATTERN = Pattern.compile(
+    static final Pattern TRACK2_PATTERN = Pattern.compile(
             "[:;<=>?]?" //(optional)start sentinel //NON-NLS
             + "(?<accountNumber>[3456]([ -]?\\d){11,18})" //12-19 digits, with possible single spaces or dashes in between. first digit is 3,4,5, or 6 //NON-NLS
             + "(?:[:;<=>?]" //separator //NON-NLS
@@ -82,7 +82,7 @@ final class TermComponentQuery implements KeywordSearchQuery {
      * This regex matches (and extracts groups) even if the entire track is not
      * present as long as the part that is conforms to the track format.
      */
-    private static final Pattern TRACK1_PATTERN = Pattern.compile(
+    static final Pattern TRACK1_PATTERN = Pattern.compile(
             "(?:" //begin nested optinal group //NON-NLS
             + "%?" //optional start sentinal: % //NON-NLS
             + "B)?" //format code  //NON-NLS
@@ -96,7 +96,7 @@ final class TermComponentQuery implements KeywordSearchQuery {
             + "(?:\\?" // end sentinal: ? //NON-NLS
             + "(?<LRC>.)" //longitudinal redundancy check //NON-NLS
             + "?)?)?)?)?)?");//close nested optional groups //NON-NLS
-    private static final Pattern CCN_PATTERN = Pattern.compile("(?<ccn>[3456]([ -]?\\d){11,18})");   //12-19 digits, with possible single spaces or dashes in between. first digit is 3,4,5, or 6 //NON-NLS
+    static final Pattern CCN_PATTERN = Pattern.compile("(?<ccn>[3456]([ -]?\\d){11,18})");   //12-19 digits, with possible single spaces or dashes in between. first digit is 3,4,5, or 6 //NON-NLS
     private static final LuhnCheckDigit LUHN_CHECK = new LuhnCheckDigit();
 
     //corresponds to field in Solr schema, analyzed with white-space tokenizer only
@@ -274,6 +274,21 @@ public KeywordCachedArtifact writeSingleFileHitsToBlackBoard(String termHit, Key
         }
     }
 
+    /**
+     * Determines whether the credit card number in a term matched by the
+     * credit card number regex passes the Luhn check.
+     *
+     * @param term The term.
+     *
+     * @return True or false.
+     */
+    static boolean passesLuhnCheck(String term) {
+        Matcher matcher = CCN_PATTERN.matcher(term);
+        matcher.find();
+        final String ccn = CharMatcher.anyOf(" -").removeFrom(matcher.group("ccn"));
+        return LUHN_CHECK.isValid(ccn);
+    }
+
     /**
      * Add an attribute of the given type and value to the given artifact,
      * catching and logging any exceptions.
@@ -330,10 +345,7 @@ public QueryResults performQuery() throws NoOpenCoreException {
 
             if (keyword.getType() == ATTRIBUTE_TYPE.TSK_CARD_NUMBER) {
                 //If the keyword is a credit card number, pass it through luhn validator
-                Matcher matcher = CCN_PATTERN.matcher(term.getTerm());
-                matcher.find();
-                final String ccn = CharMatcher.anyOf(" -").removeFrom(matcher.group("ccn"));
-                if (false == LUHN_CHECK.isValid(ccn)) {
+                if (false == passesLuhnCheck(term.getTerm())) {
                     continue; //if the hit does not pass the luhn check, skip it.
                 }
             }
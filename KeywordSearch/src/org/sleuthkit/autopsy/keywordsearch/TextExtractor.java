@@ -134,6 +134,22 @@ enum ExtractOptions {
      */
     void setOptions(Map<String, String> options);
 
+    /**
+     * Sets the matcher that the text of each indexed chunk is scanned with for
+     * keyword hits, if keywords are matched at ingest time.
+     *
+     * @param keywordMatcher The matcher, or null if keywords are only searched
+     *                       for in the index.
+     */
+    void setKeywordMatcher(IngestTimeKeywordMatcher keywordMatcher);
+
+    /**
+     * Gets the matcher that the text of each indexed chunk is scanned with.
+     *
+     * @return The matcher, or null if there is none.
+     */
+    IngestTimeKeywordMatcher getKeywordMatcher();
+
     /**
      * Determines if the extractor works only for specified types is
      * supportedTypes() or whether is a generic content extractor (such as
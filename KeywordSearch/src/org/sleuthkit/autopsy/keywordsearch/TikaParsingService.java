@@ -0,0 +1,654 @@
+/*
+ * Autopsy Forensic Browser
+ *
+ * Copyright 2016 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.autopsy.keywordsearch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.apache.tika.fork.ForkParser;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.sleuthkit.autopsy.coreutils.Logger;
+import org.sleuthkit.datamodel.AbstractFile;
+
+/**
+ * Parses files with Tika on a shared pool of worker threads, one per core,
+ * instead of a thread per text extractor and a parser per file. Each worker
+ * reuses its parser and parse context, and the text of a parse is piped to
+ * the reader returned by parse() through a small buffer, so that a worker
+ * never gets far ahead of the ingest thread reading its output.
+ * <p>
+ * A parse has a time budget, scaled by file size, that is charged only for
+ * the time the reader waits for the worker, once the worker has started on
+ * the file. If the budget runs out, the read fails, the worker is interrupted
+ * and abandoned, and a new worker takes its place, so that a parser stuck on
+ * a corrupt file does not take a thread out of the pool for good. The same
+ * happens if the reader is closed or interrupted while the parse is still
+ * running. An abandoned worker retires when its parse returns. A reader also
+ * gives up, with the same time budget, if no worker starts on the file.
+ * <p>
+ * Optionally, see KeywordSearchSettings.getUseForkedTikaParsers(), the
+ * workers parse in child processes, so that a parser that crashes or runs out
+ * of memory does not take Autopsy down with it. Each worker has its own
+ * child process, so that the child of an abandoned worker does not hold up
+ * its replacement, and the child is shut down when the worker retires.
+ * <p>
+ * This class is thread-safe.
+ */
+final class TikaParsingService {
+
+    private static final Logger logger = Logger.getLogger(TikaParsingService.class.getName());
+    private static final int MAX_PARSES_PER_PARSER = 1000; // New parser now and then, to work around Tika memory issues
+    private static final int PIPE_CHARS = 64 * 1024;
+    private static final long NANOS_PER_SECOND = 1000L * 1000 * 1000;
+    private static TikaParsingService instance;
+    private final ThreadFactory threadFactory;
+    private final LinkedBlockingQueue<ParseJob> queue = new LinkedBlockingQueue<>();
+    private final boolean useForkedParsers;
+    private final Set<Worker> workers = ConcurrentHashMap.newKeySet();
+    private final Set<String> supportedTypes;
+    private final int numberOfWorkers;
+    private final AtomicInteger activeParses = new AtomicInteger();
+    private final AtomicLong completedParses = new AtomicLong();
+    private final AtomicLong failedParses = new AtomicLong();
+    private final AtomicLong timedOutParses = new AtomicLong();
+    private final AtomicLong replacedWorkers = new AtomicLong();
+    private final ConcurrentHashMap<String, MimeTypeTimings> timingsByMimeType = new ConcurrentHashMap<>();
+    private volatile boolean shutDown;
+
+    /**
+     * Gets the Tika parsing service, starting it if this is the first call.
+     * Whether it uses forked parsers is decided when it is started.
+     *
+     * @return The service.
+     */
+    static synchronized TikaParsingService getDefault() {
+        if (null == instance) {
+            instance = new TikaParsingService(KeywordSearchSettings.getUseForkedTikaParsers());
+        }
+        return instance;
+    }
+
+    /**
+     * Shuts down the Tika parsing service, if it has been started: the
+     * workers are stopped and their child processes, if any, are shut down.
+     */
+    static synchronized void shutDownDefault() {
+        if (null != instance) {
+            instance.shutDown();
+            instance = null;
+        }
+    }
+
+    private TikaParsingService(boolean useForkedParsers) {
+        this.numberOfWorkers = Runtime.getRuntime().availableProcessors();
+        Set<String> types = new HashSet<>();
+        for (MediaType mediaType : new AutoDetectParser().getSupportedTypes(new ParseContext())) {
+            types.add(mediaType.getType() + "/" + mediaType.getSubtype());
+        }
+        this.supportedTypes = Collections.unmodifiableSet(types);
+        this.useForkedParsers = useForkedParsers;
+        if (useForkedParsers) {
+            logger.log(Level.INFO, "Parsing with Tika in up to {0} child processes", numberOfWorkers); //NON-NLS
+        }
+        this.threadFactory = new ThreadFactoryBuilder().setNameFormat("KWS-tika-parser-%d").setDaemon(true).build(); //NON-NLS
+        for (int i = 0; i < numberOfWorkers; ++i) {
+            threadFactory.newThread(new Worker()).start();
+        }
+    }
+
+    /**
+     * Gets the MIME types Tika can parse.
+     *
+     * @return The MIME types, as type/subtype strings.
+     */
+    Set<String> getSupportedTypes() {
+        return supportedTypes;
+    }
+
+    /**
+     * Queues a file to be parsed by a worker and returns a reader for the
+     * text. The reader throws a ParseTimeoutException if the parse runs past
+     * its time budget, and an IOException if the parse fails. Closing the
+     * reader before the end of the text stops the parse.
+     *
+     * @param stream   The content of the file, which must stay open until
+     *                 the reader is closed.
+     * @param metadata The metadata of the file, which is filled in by the
+     *                 parse and may be read once the reader reaches the end
+     *                 of the text.
+     * @param file     The file.
+     *
+     * @return The reader.
+     */
+    Reader parse(InputStream stream, Metadata metadata, AbstractFile file) {
+        ParseJob job = new ParseJob(stream, metadata, file, Ingester.getTimeout(file.getSize()) * NANOS_PER_SECOND);
+        queue.add(job);
+        return job;
+    }
+
+    /**
+     * Gets a snapshot of the queue and parse metrics of the service.
+     *
+     * @return The snapshot.
+     */
+    Snapshot getSnapshot() {
+        Map<String, MimeTypeTimings> timings = new TreeMap<>();
+        for (Map.Entry<String, MimeTypeTimings> entry : timingsByMimeType.entrySet()) {
+            timings.put(entry.getKey(), entry.getValue().copy());
+        }
+        return new Snapshot(queue.size(), activeParses.get(), numberOfWorkers, completedParses.get(), failedParses.get(), timedOutParses.get(), replacedWorkers.get(), timings);
+    }
+
+    /**
+     * Replaces a worker that has been abandoned because its parse ran past
+     * its time budget or its reader stopped reading.
+     */
+    private void replaceWorker() {
+        if (shutDown) {
+            return;
+        }
+        replacedWorkers.incrementAndGet();
+        threadFactory.newThread(new Worker()).start();
+    }
+
+    /**
+     * Stops the workers and shuts down their child processes, if any.
+     */
+    private void shutDown() {
+        shutDown = true;
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+    }
+
+    /**
+     * Records the outcome and time of a parse.
+     */
+    private void recordParse(String mimeType, long nanos, boolean failed) {
+        if (failed) {
+            failedParses.incrementAndGet();
+        } else {
+            completedParses.incrementAndGet();
+        }
+        timingsByMimeType.computeIfAbsent(mimeType, key -> new MimeTypeTimings()).add(nanos);
+    }
+
+    /**
+     * The work of a worker thread: takes queued parse jobs and runs them until
+     * the worker is abandoned.
+     */
+    private final class Worker implements Runnable {
+
+        private volatile boolean abandoned;
+        private volatile Thread thread;
+        private Parser parser;
+        private ParseContext parseContext;
+        private ForkParser forkParser;
+        private int parses;
+
+        @Override
+        public void run() {
+            thread = Thread.currentThread();
+            workers.add(this);
+            try {
+                while (!abandoned && !shutDown) {
+                    ParseJob job;
+                    try {
+                        job = queue.take();
+                    } catch (InterruptedException ex) {
+                        /*
+                         * Interrupts are only meant for the parse of an
+                         * abandoned job or for shut down, so this one is
+                         * handled by the loop condition.
+                         */
+                        continue;
+                    }
+                    if (job.start(this)) {
+                        activeParses.incrementAndGet();
+                        try {
+                            runJob(job);
+                        } finally {
+                            activeParses.decrementAndGet();
+                        }
+                    }
+                    Thread.interrupted();
+                }
+            } finally {
+                workers.remove(this);
+                closeForkParser();
+            }
+        }
+
+        /**
+         * Stops the worker, for shut down.
+         */
+        private void stop() {
+            abandoned = true;
+            closeForkParser();
+            Thread workerThread = thread;
+            if (null != workerThread) {
+                workerThread.interrupt();
+            }
+        }
+
+        /**
+         * Shuts down the child process of the worker, if any and if it is not
+         * in the middle of a parse.
+         */
+        private synchronized void closeForkParser() {
+            if (null != forkParser) {
+                forkParser.close();
+                forkParser = null;
+            }
+        }
+
+        private void runJob(ParseJob job) {
+            if (null == parser || parses >= MAX_PARSES_PER_PARSER) {
+                if (useForkedParsers) {
+                    synchronized (this) {
+                        if (null != forkParser) {
+                            forkParser.close();
+                        }
+                        forkParser = new ForkParser(TikaParsingService.class.getClassLoader(), new AutoDetectParser());
+                        forkParser.setPoolSize(1);
+                        parser = forkParser;
+                    }
+                    parseContext = new ParseContext();
+                } else {
+                    parser = new AutoDetectParser();
+                    parseContext = new ParseContext();
+                    // Parse embedded documents too, as the Tika facade does
+                    parseContext.set(Parser.class, parser);
+                }
+                parses = 0;
+            }
+            ++parses;
+            long startTime = System.nanoTime();
+            Exception error = null;
+            try {
+                parser.parse(job.stream, new BodyContentHandler(job.writer), job.metadata, parseContext);
+            } catch (Exception ex) {
+                error = ex;
+                if (!job.isClosedOrAbandoned()) {
+                    KeywordSearch.getTikaLogger().log(Level.WARNING, "Exception: Unable to Tika parse the content" + job.file.getId() + ": " + job.file.getName(), ex); //NON-NLS
+                }
+            }
+            long parseNanos = System.nanoTime() - startTime - job.finish(error);
+            String mimeType = job.metadata.get(Metadata.CONTENT_TYPE);
+            recordParse(null != mimeType ? mimeType : "unknown", parseNanos, null != error); //NON-NLS
+        }
+    }
+
+    /**
+     * A file queued for parsing, which is also the reader of its text. The
+     * text is passed from the worker to the reader through a ring buffer,
+     * guarded by the job itself.
+     */
+    private final class ParseJob extends Reader {
+
+        private final InputStream stream;
+        private final Metadata metadata;
+        private final AbstractFile file;
+        private final long budgetNanos;
+        private final Writer writer = new PipeWriter();
+        private final char[] pipe = new char[PIPE_CHARS];
+        private int head;
+        private int count;
+        private Worker worker;
+        private Thread workerThread;
+        private boolean started;
+        private boolean done;
+        private boolean closed;
+        private boolean abandoned;
+        private Exception error;
+        private long queuedNanos;
+        private long waitedNanos;
+        private long writerBlockedNanos;
+
+        ParseJob(InputStream stream, Metadata metadata, AbstractFile file, long budgetNanos) {
+            this.stream = stream;
+            this.metadata = metadata;
+            this.file = file;
+            this.budgetNanos = budgetNanos;
+        }
+
+        /**
+         * Called by a worker to start the job.
+         *
+         * @return False if the reader was closed before the job started, in
+         *         which case the job is skipped.
+         */
+        synchronized boolean start(Worker worker) {
+            if (closed) {
+                return false;
+            }
+            this.worker = worker;
+            this.workerThread = Thread.currentThread();
+            this.started = true;
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Called by the worker when the parse returns.
+         *
+         * @param error The exception thrown by the parse, if any.
+         *
+         * @return The time the worker spent blocked on a full pipe, in
+         *         nanoseconds, so that it can be left out of the parse time.
+         */
+        synchronized long finish(Exception error) {
+            this.error = error;
+            this.done = true;
+            this.workerThread = null;
+            notifyAll();
+            return writerBlockedNanos;
+        }
+
+        synchronized boolean isClosedOrAbandoned() {
+            return closed || abandoned;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            synchronized (this) {
+                try {
+                    while (0 == count && !done) {
+                        if (closed) {
+                            throw new IOException("Reader closed"); //NON-NLS
+                        }
+                        if (!started) {
+                            long remainingNanos = budgetNanos - queuedNanos;
+                            if (remainingNanos <= 0) {
+                                logger.log(Level.WARNING, "No Tika parser started on {0} (objId={1}) within its time budget of {2} s, skipping the parse", new Object[]{file.getName(), file.getId(), budgetNanos / NANOS_PER_SECOND}); //NON-NLS
+                                timedOutParses.incrementAndGet();
+                                closed = true;
+                                throw new ParseTimeoutException(file);
+                            }
+                            long waitStart = System.nanoTime();
+                            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                            queuedNanos += System.nanoTime() - waitStart;
+                            continue;
+                        }
+                        long remainingNanos = budgetNanos - waitedNanos;
+                        if (remainingNanos <= 0) {
+                            abandon(true);
+                            throw new ParseTimeoutException(file);
+                        }
+                        long waitStart = System.nanoTime();
+                        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+                        waitedNanos += System.nanoTime() - waitStart;
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    closed = true;
+                    abandonUnfinishedParse();
+                    notifyAll();
+                    throw new InterruptedIOException("Interrupted waiting for Tika to parse " + file.getName()); //NON-NLS
+                }
+                if (0 == count) {
+                    if (null != error) {
+                        throw new IOException("Tika failed to parse " + file.getName(), error); //NON-NLS
+                    }
+                    return -1;
+                }
+                int n = Math.min(len, count);
+                for (int i = 0; i < n; ++i) {
+                    cbuf[off + i] = pipe[(head + i) % PIPE_CHARS];
+                }
+                head = (head + n) % PIPE_CHARS;
+                count -= n;
+                notifyAll();
+                return n;
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            abandonUnfinishedParse();
+            notifyAll();
+        }
+
+        /**
+         * Abandons the worker of a parse that has started but not finished,
+         * since nothing will read its text. Must be called while holding the
+         * lock of the job.
+         */
+        private void abandonUnfinishedParse() {
+            if (started && !done) {
+                abandon(false);
+            }
+        }
+
+        /**
+         * Abandons the worker of a parse that ran past its time budget or
+         * whose reader stopped reading. Must be called while holding the lock
+         * of the job.
+         *
+         * @param timedOut Whether the parse ran past its time budget.
+         */
+        private void abandon(boolean timedOut) {
+            if (abandoned) {
+                return;
+            }
+            abandoned = true;
+            notifyAll();
+            if (null != workerThread) {
+                if (timedOut) {
+                    logger.log(Level.WARNING, "Tika parse of {0} (objId={1}) ran past its time budget of {2} s, abandoning the parse", new Object[]{file.getName(), file.getId(), budgetNanos / NANOS_PER_SECOND}); //NON-NLS
+                    timedOutParses.incrementAndGet();
+                }
+                worker.abandoned = true;
+                workerThread.interrupt();
+                replaceWorker();
+            }
+        }
+
+        /**
+         * The writer the worker's content handler writes the text to.
+         */
+        private final class PipeWriter extends Writer {
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                synchronized (ParseJob.this) {
+                    while (len > 0) {
+                        long blockStart = System.nanoTime();
+                        while (PIPE_CHARS == count && !closed && !abandoned) {
+                            try {
+                                ParseJob.this.wait();
+                            } catch (InterruptedException ex) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                        writerBlockedNanos += System.nanoTime() - blockStart;
+                        if (closed || abandoned) {
+                            throw new IOException("Parse stopped"); //NON-NLS
+                        }
+                        int n = Math.min(len, PIPE_CHARS - count);
+                        for (int i = 0; i < n; ++i) {
+                            pipe[(head + count + i) % PIPE_CHARS] = cbuf[off + i];
+                        }
+                        count += n;
+                        off += n;
+                        len -= n;
+                        ParseJob.this.notifyAll();
+                    }
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+    }
+
+    /**
+     * Thrown by the reader of a parse that ran past its time budget.
+     */
+    static final class ParseTimeoutException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private ParseTimeoutException(AbstractFile file) {
+            super("Tika parse timed out for " + file.getName()); //NON-NLS
+        }
+    }
+
+    /**
+     * The number, total time and maximum time of the parses of a MIME type.
+     */
+    static final class MimeTypeTimings {
+
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        private synchronized void add(long nanos) {
+            ++count;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        private synchronized MimeTypeTimings copy() {
+            MimeTypeTimings copy = new MimeTypeTimings();
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        long getTotalNanos() {
+            return totalNanos;
+        }
+
+        long getMaxNanos() {
+            return maxNanos;
+        }
+    }
+
+    /**
+     * A snapshot of the queue and parse metrics of the service.
+     */
+    static final class Snapshot {
+
+        private final int queuedParses;
+        private final int activeParses;
+        private final int workers;
+        private final long completedParses;
+        private final long failedParses;
+        private final long timedOutParses;
+        private final long replacedWorkers;
+        private final Map<String, MimeTypeTimings> timingsByMimeType;
+
+        private Snapshot(int queuedParses, int activeParses, int workers, long completedParses, long failedParses, long timedOutParses, long replacedWorkers, Map<String, MimeTypeTimings> timingsByMimeType) {
+            this.queuedParses = queuedParses;
+            this.activeParses = activeParses;
+            this.workers = workers;
+            this.completedParses = completedParses;
+            this.failedParses = failedParses;
+            this.timedOutParses = timedOutParses;
+            this.replacedWorkers = replacedWorkers;
+            this.timingsByMimeType = Collections.unmodifiableMap(timingsByMimeType);
+        }
+
+        int getQueuedParses() {
+            return queuedParses;
+        }
+
+        int getActiveParses() {
+            return activeParses;
+        }
+
+        int getWorkers() {
+            return workers;
+        }
+
+        long getCompletedParses() {
+            return completedParses;
+        }
+
+        long getFailedParses() {
+            return failedParses;
+        }
+
+        long getTimedOutParses() {
+            return timedOutParses;
+        }
+
+        long getReplacedWorkers() {
+            return replacedWorkers;
+        }
+
+        /**
+         * Gets the parse timings by MIME type, sorted by MIME type.
+         *
+         * @return The timings.
+         */
+        Map<String, MimeTypeTimings> getTimingsByMimeType() {
+            return timingsByMimeType;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("queued=%d, active=%d, workers=%d, completed=%d, failed=%d, timedOut=%d, replacedWorkers=%d", //NON-NLS
+                    queuedParses, activeParses, workers, completedParses, failedParses, timedOutParses, replacedWorkers));
+            for (Map.Entry<String, MimeTypeTimings> entry : timingsByMimeType.entrySet()) {
+                MimeTypeTimings timings = entry.getValue();
+                sb.append(String.format("%n  %s: count=%d, totalMs=%d, meanMs=%d, maxMs=%d", entry.getKey(), //NON-NLS
+                        timings.count, timings.totalNanos / 1000000, timings.totalNanos / timings.count / 1000000, timings.maxNanos / 1000000));
+            }
+            return sb.toString();
+        }
+    }
+
+}
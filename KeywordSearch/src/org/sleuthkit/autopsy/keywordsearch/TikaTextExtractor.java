@@ -21,37 +21,24 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import org.sleuthkit.autopsy.coreutils.TextUtil;
-import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
-import org.apache.tika.Tika;
 import org.apache.tika.metadata.Metadata;
-import org.apache.tika.mime.MediaType;
-import org.apache.tika.parser.ParseContext;
 import org.openide.util.NbBundle;
 import org.sleuthkit.autopsy.coreutils.Logger;
 import org.sleuthkit.autopsy.coreutils.StringExtract;
 import org.sleuthkit.autopsy.ingest.IngestJobContext;
-import org.sleuthkit.autopsy.keywordsearch.Ingester.IngesterException;
 import org.sleuthkit.datamodel.AbstractFile;
-import org.sleuthkit.datamodel.ReadContentInputStream;
 
 /**
  * Extractor of text from TIKA supported AbstractFile content. Extracted text is
- * divided into chunks and indexed with Solr. Protects against Tika parser hangs
- * (for unexpected/corrupt content) using a timeout mechanism. If Tika
- * extraction succeeds, chunks are indexed with Solr.
+ * divided into chunks and indexed with Solr. The parsing is done by the shared
+ * TikaParsingService, which protects against Tika parser hangs (for
+ * unexpected/corrupt content) using a timeout mechanism. If Tika extraction
+ * succeeds, chunks are indexed with Solr.
  *
  * This Tika extraction/chunking utility is useful for large files of Tika
  * parsers-supported content type.
@@ -61,24 +48,18 @@ class TikaTextExtractor implements TextExtractor {
 
     private static final Logger logger = Logger.getLogger(TikaTextExtractor.class.getName());
     private static Ingester ingester;
-    private static final Charset OUTPUT_CHARSET = Server.DEFAULT_INDEXED_TEXT_CHARSET;
     private static final int MAX_EXTR_TEXT_CHARS = 512 * 1024;
     private static final int SINGLE_READ_CHARS = 1024;
     private static final int EXTRA_CHARS = 128; //for whitespace
-    private final char[] textChunkBuf = new char[MAX_EXTR_TEXT_CHARS];
+    private char[] textChunkBuf = new char[MAX_EXTR_TEXT_CHARS];
     private AbstractFile sourceFile; //currently processed file
     private int numChunks = 0;
-    private final ExecutorService tikaParseExecutor = Executors.newSingleThreadExecutor();
-    private final List<String> TIKA_SUPPORTED_TYPES = new ArrayList<>();
+    private IngestTimeKeywordMatcher keywordMatcher;
+    private final TikaParsingService parsingService;
 
     TikaTextExtractor() {
         ingester = Server.getIngester();
-
-        Set<MediaType> mediaTypes = new Tika().getParser().getSupportedTypes(new ParseContext());
-        for (MediaType mt : mediaTypes) {
-            TIKA_SUPPORTED_TYPES.add(mt.getType() + "/" + mt.getSubtype());
-        }
-        //logger.log(Level.INFO, "Tika supported media types: {0}", TIKA_SUPPORTED_TYPES); //NON-NLS
+        parsingService = TikaParsingService.getDefault();
     }
 
     @Override
@@ -110,6 +91,16 @@ public AbstractFile getSourceFile() {
         return sourceFile;
     }
 
+    @Override
+    public void setKeywordMatcher(IngestTimeKeywordMatcher keywordMatcher) {
+        this.keywordMatcher = keywordMatcher;
+    }
+
+    @Override
+    public IngestTimeKeywordMatcher getKeywordMatcher() {
+        return keywordMatcher;
+    }
+
     @Override
     public boolean index(AbstractFile sourceFile, IngestJobContext context) throws Ingester.IngesterException {
         this.sourceFile = sourceFile;
@@ -117,39 +108,17 @@ public boolean index(AbstractFile sourceFile, IngestJobContext context) throws I
 
         boolean success = false;
         Reader reader = null;
-        final InputStream stream = new ReadContentInputStream(sourceFile);
+        /*
+         * The parse runs on a parse worker and may outlive this call if it
+         * times out, so it gets a stream that does not read from the buffer
+         * cached for the pipeline, which is reused once this module returns.
+         */
+        final InputStream stream = context.getDetachedFileContentStream(sourceFile);
         try {
             Metadata meta = new Metadata();
 
-            //Parse the file in a task
-            Tika tika = new Tika(); //new tika instance for every file, to workaround tika memory issues
-            ParseRequestTask parseTask = new ParseRequestTask(tika, stream, meta, sourceFile);
-            final Future<?> future = tikaParseExecutor.submit(parseTask);
-            try {
-                future.get(Ingester.getTimeout(sourceFile.getSize()), TimeUnit.SECONDS);
-            } catch (TimeoutException te) {
-                final String msg = NbBundle.getMessage(this.getClass(),
-                        "AbstractFileTikaTextExtract.index.tikaParseTimeout.text",
-                        sourceFile.getId(), sourceFile.getName());
-                KeywordSearch.getTikaLogger().log(Level.WARNING, msg, te);
-                logger.log(Level.WARNING, msg);
-                throw new IngesterException(msg);
-            } catch (Exception ex) {
-                final String msg = NbBundle.getMessage(this.getClass(),
-                        "AbstractFileTikaTextExtract.index.exception.tikaParse.msg",
-                        sourceFile.getId(), sourceFile.getName());
-                KeywordSearch.getTikaLogger().log(Level.WARNING, msg, ex);
-                logger.log(Level.WARNING, msg);
-                throw new IngesterException(msg);
-            }
-
-            // get the reader with the results
-            reader = parseTask.getReader();
-            if (reader == null) {
-                //likely due to exception in parse()
-                logger.log(Level.WARNING, "No reader available from Tika parse"); //NON-NLS
-                return false;
-            }
+            // queue the file for parsing, the reader gets the results as they come
+            reader = parsingService.parse(stream, meta, sourceFile);
 
             // break the results into chunks and index
             success = true;
@@ -189,15 +158,7 @@ public boolean index(AbstractFile sourceFile, IngestJobContext context) throws I
                     }
                 }
 
-                // Sanitize by replacing non-UTF-8 characters with caret '^'
-                for (int i = 0; i < totalRead; ++i) {
-                    if (!TextUtil.isValidSolrUTF8(textChunkBuf[i])) {
-                        textChunkBuf[i] = '^';
-                    }
-                }
-
-                StringBuilder sb = new StringBuilder((int) totalRead + 1000);
-                sb.append(textChunkBuf, 0, (int) totalRead);
+                int chunkLength = (int) totalRead;
 
                 //reset for next chunk
                 totalRead = 0;
@@ -207,18 +168,26 @@ public boolean index(AbstractFile sourceFile, IngestJobContext context) throws I
                     //sort meta data keys
                     List<String> sortedKeyList = Arrays.asList(meta.names());
                     Collections.sort(sortedKeyList);
+                    StringBuilder sb = new StringBuilder();
                     sb.append("\n\n------------------------------METADATA------------------------------\n\n"); //NON-NLS
                     for (String key : sortedKeyList) {
                         String value = meta.get(key);
                         sb.append(key).append(": ").append(value).append("\n");
                     }
+                    if (chunkLength + sb.length() > textChunkBuf.length) {
+                        //rare, the chunk is full and the metadata is large
+                        textChunkBuf = Arrays.copyOf(textChunkBuf, chunkLength + sb.length());
+                    }
+                    sb.getChars(0, sb.length(), textChunkBuf, chunkLength);
+                    chunkLength += sb.length();
                 }
 
-                // Encode from UTF-8 charset to bytes
-                byte[] encodedBytes = sb.toString().getBytes(OUTPUT_CHARSET);
+                // Index straight from the char buffer, the ingester sanitizes
+                // the text by replacing non-UTF-8 characters with caret '^' in
+                // the same pass that makes the only copy of it
                 AbstractFileChunk chunk = new AbstractFileChunk(this, this.numChunks + 1);
                 try {
-                    chunk.index(ingester, encodedBytes, encodedBytes.length, OUTPUT_CHARSET);
+                    chunk.index(ingester, textChunkBuf, chunkLength);
                     ++this.numChunks;
                 } catch (Ingester.IngesterException ingEx) {
                     success = false;
@@ -227,6 +196,13 @@ public boolean index(AbstractFile sourceFile, IngestJobContext context) throws I
                     throw ingEx; //need to rethrow/return to signal error and move on
                 }
             }
+        } catch (TikaParsingService.ParseTimeoutException ex) {
+            final String msg = NbBundle.getMessage(this.getClass(),
+                    "AbstractFileTikaTextExtract.index.tikaParseTimeout.text",
+                    sourceFile.getId(), sourceFile.getName());
+            KeywordSearch.getTikaLogger().log(Level.WARNING, msg, ex);
+            logger.log(Level.WARNING, msg);
+            success = false;
         } catch (IOException ex) {
             final String msg = "Exception: Unable to read Tika content stream from " + sourceFile.getId() + ": " + sourceFile.getName(); //NON-NLS
             KeywordSearch.getTikaLogger().log(Level.WARNING, msg, ex);
@@ -285,48 +261,7 @@ else if (detectedFormat.contains("video/") //NON-NLS
 
         //TODO might need to add more mime-types to ignore
         //then accept all formats supported by Tika
-        return TIKA_SUPPORTED_TYPES.contains(detectedFormat);
-
-    }
-
-    /**
-     * Runnable task that calls tika to parse the content using the input
-     * stream. Provides reader for results.
-     */
-    private static class ParseRequestTask implements Runnable {
+        return parsingService.getSupportedTypes().contains(detectedFormat);
 
-        //in
-        private Tika tika;
-        private InputStream stream;
-        private Metadata meta;
-        private AbstractFile sourceFile;
-        //out
-        private Reader reader;
-
-        ParseRequestTask(Tika tika, InputStream stream, Metadata meta, AbstractFile sourceFile) {
-            this.tika = tika;
-            this.stream = stream;
-            this.meta = meta;
-            this.sourceFile = sourceFile;
-        }
-
-        @Override
-        public void run() {
-            try {
-                reader = tika.parse(stream, meta);
-            } catch (IOException ex) {
-                KeywordSearch.getTikaLogger().log(Level.WARNING, "Exception: Unable to Tika parse the content" + sourceFile.getId() + ": " + sourceFile.getName(), ex); //NON-NLS
-                tika = null;
-                reader = null;
-            } catch (Exception ex) {
-                KeywordSearch.getTikaLogger().log(Level.WARNING, "Exception: Unable to Tika parse the content" + sourceFile.getId() + ": " + sourceFile.getName(), ex); //NON-NLS
-                tika = null;
-                reader = null;
-            }
-        }
-
-        public Reader getReader() {
-            return reader;
-        }
     }
 }
@@ -65,6 +65,10 @@
  * Path to a keyword list xml file ignore_unalloc: Boolean whether to ignore
  * unallocated space or not
  *
+ * Instead of img_path, synthetic_path can be given to the regression-test
+ * target of the build, which then generates a synthetic logical data source
+ * (see SyntheticDataSourceGenerator) in that directory and uses it as img_path.
+ *
  * Without these properties set, the test will fail to run correctly. To run
  * this test correctly, you should use the script 'regression.py' located in the
  * 'script' directory of the Testing module.